@@ -16,6 +16,7 @@ import javax.xml.transform.TransformerException;
 
 import org.xml.sax.SAXException;
 
+import animo.cytoscape.ModelMirror;
 import animo.exceptions.ANIMOException;
 import animo.model.Model;
 import animo.model.Scenario;
@@ -47,6 +48,11 @@ public class ANIMOBackend {
 	 */
 	private XmlConfiguration configuration = null;
 
+	/**
+	 * The reactants and reactions built from the network, kept up to date with the attributes.
+	 */
+	private ModelMirror modelMirror = new ModelMirror();
+
 	private static final String NUMBER_OF_LEVELS = Model.Properties.NUMBER_OF_LEVELS, //Property that can belong to a node or to a network. If related to a single node, it represents the maximum number of levels for that single reactant. If related to a complete network, it is the maximum value of the NUMBER_OF_LEVELS property among all nodes in the network. Expressed as integer number in [0, 100] (chosen by the user).
 								INITIAL_LEVEL = Model.Properties.INITIAL_LEVEL, //Property belonging to a node. The initial activity level for a node. Expressed as an integer number in [0, NUMBER_OF_LEVELS for that node]
 								SHOWN_LEVEL = Model.Properties.SHOWN_LEVEL, //Property belonging to a node. The current activity level of a node. Expressed as a relative number representing INITIAL_LEVEL / NUMBER_OF_LEVELS, so it is a double number in [0, 1]
@@ -77,6 +83,9 @@ public class ANIMOBackend {
 			
 			
 			
+			//keep the model mirror up to date with the attributes
+			modelMirror.register();
+			
 			//register variable listener
 			Cytoscape.getNodeAttributes().getMultiHashMap().addDataListener(new MultiHashMapListener() {
 
@@ -410,6 +419,15 @@ public class ANIMOBackend {
 		return this.configuration;
 	}
 
+	/**
+	 * Returns the mirror of the model built from the network.
+	 * 
+	 * @return the model mirror
+	 */
+	public ModelMirror modelMirror() {
+		return this.modelMirror;
+	}
+
 	/**
 	 * Returns whether the ANIMO backend is initialised.
 	 * 
@@ -0,0 +1,23 @@
+/**
+ *
+ */
+package animo.analyser;
+
+/**
+ * Reads the levels of a single series of a {@link LevelResult} while moving
+ * forward in time. Each lookup starts from where the previous one stopped, so
+ * a whole sweep over the series costs time linear in the number of points,
+ * instead of one search per lookup.
+ */
+public interface LevelCursor {
+	/**
+	 * Retrieves the level of the series at the given time, i.e. the level set
+	 * at the requested moment, or the one set before that. Lookups are
+	 * fastest when the requested time instants are non-decreasing, but going
+	 * back in time is allowed.
+	 *
+	 * @param time the time index to do a look up for
+	 * @return the level of concentration
+	 */
+	public double getConcentration(double time);
+}
@@ -33,6 +33,15 @@ public interface LevelResult {
 	 * @return the level of concentration
 	 */
 	public Double getConcentrationIfAvailable(String id, double time);
+
+	/**
+	 * Returns a cursor to read the levels of the given reactant in increasing
+	 * time order, without searching the whole series at each lookup.
+	 * 
+	 * @param id the id of the reactant
+	 * @return a cursor positioned at the start of the series
+	 */
+	public LevelCursor getCursor(String id);
 	
 	/**
 	 * Determines the reactant ID's of substrates of which result are known.
@@ -43,11 +52,33 @@ public interface LevelResult {
 
 	/**
 	 * Returns a list of all time indices at which we have a real data point.
+	 * The list is sorted and cannot be modified.
 	 * 
 	 * @return the list of data point time indices
 	 */
 	public List<Double> getTimeIndices();
 	
+	/**
+	 * Returns the first of the time indices, without building the list.
+	 * 
+	 * @return the first data point time index
+	 */
+	public double getFirstTimeIndex();
+	
+	/**
+	 * Returns the last of the time indices, without building the list.
+	 * 
+	 * @return the last data point time index
+	 */
+	public double getLastTimeIndex();
+	
+	/**
+	 * Returns how many time indices we have.
+	 * 
+	 * @return the number of data point time indices
+	 */
+	public int getTimeIndexCount();
+	
 	public boolean isEmpty();
 	
 	public double getMaximumValue();
@@ -0,0 +1,28 @@
+/**
+ *
+ */
+package animo.analyser;
+
+/**
+ * Is told about the result of an analysis while the analysis is still running:
+ * the series parsed from a simulation trace up to now, or the average of the
+ * simulation runs completed up to now. This allows to plot the curves while they grow,
+ * and to stop a long analysis as soon as the result is clearly wrong.
+ * Partial results are published at most once every {@link #INTERVAL} milliseconds,
+ * from the thread performing the analysis: the listener should return quickly
+ * (e.g. by passing the result to the event dispatch thread).
+ */
+public interface PartialResultListener {
+	/**
+	 * The minimum time between two partial results (in ms)
+	 */
+	public static final long INTERVAL = 250;
+
+	/**
+	 * Receives the result obtained up to now.
+	 *
+	 * @param partial the partial result. It belongs to the listener: the
+	 * analysis does not change it afterwards.
+	 */
+	public void partialResult(LevelResult partial);
+}
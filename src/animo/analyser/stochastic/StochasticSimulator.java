@@ -0,0 +1,604 @@
+package animo.analyser.stochastic;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import animo.ANIMOBackend;
+import animo.analyser.AnalysisException;
+import animo.analyser.LevelResult;
+import animo.analyser.ModelAnalyser;
+import animo.analyser.uppaal.ColumnarLevelResult;
+import animo.analyser.uppaal.VariablesModel;
+import animo.model.Model;
+import animo.model.Property;
+import animo.model.Reactant;
+import animo.model.ReactantParameter;
+import animo.model.Reaction;
+import animo.util.Table;
+import animo.util.XmlConfiguration;
+
+/**
+ * Simulates a model directly in Java, without translating it into an UPPAAL model and
+ * calling verifyta. The semantics are the ones of the timed automata produced by VariablesModelSMC
+ * under UPPAAL SMC:
+ * <ul>
+ * <li>a reaction which can happen (time table entry different from INFINITE_TIME) waits a time
+ * chosen uniformly between the lower and the upper bound of its time tables (an exponentially
+ * distributed time after the lower bound if the upper bound is infinite);</li>
+ * <li>as in UPPAAL SMC, all waiting reactions choose a new delay after each reaction, and the one
+ * with the shortest delay happens;</li>
+ * <li>when a reactant changes, all the reactions involving it recompute their time bounds:
+ * those which were not reacting restart their clock, those which were reacting keep it (and happen
+ * immediately if it is already past the new upper bound);</li>
+ * <li>levels are updated (and limited) as done by the Reaction templates.</li>
+ * </ul>
+ * The only difference is that a reaction with more than one output updates all of them at once,
+ * while the UPPAAL model uses a chain of urgent locations to do it.
+ * The result has the same series as the one obtained from verifyta by TraceParser (activity,
+ * quantity and percentage for each enabled reactant), so the two engines can be used interchangeably.
+ * A model can be compiled once (see compile) and then simulated many times, also from different threads:
+ * each simulation run only needs its own random number generator.
+ */
+public class StochasticSimulator implements ModelAnalyser<LevelResult> {
+	/**
+	 * The value of XmlConfiguration.SIMULATION_ENGINE_KEY selecting this engine.
+	 */
+	public static final String ENGINE_NAME = "java";
+	private static final int INFINITE_TIME = VariablesModel.INFINITE_TIME;
+
+	private Random seeds; //Gives the seeds for the simulation runs started via analyze
+
+	/**
+	 * Build a simulator whose runs are all different.
+	 */
+	public StochasticSimulator() {
+		this(System.nanoTime());
+	}
+
+	/**
+	 * Build a simulator whose sequence of runs (via analyze) only depends on the given seed.
+	 * @param seed The seed
+	 */
+	public StochasticSimulator(long seed) {
+		this.seeds = new Random(seed);
+	}
+
+	/**
+	 * Tells whether the configuration asks for simulations to be done in Java instead of with UPPAAL.
+	 */
+	public static boolean isSelected() {
+		if (!ANIMOBackend.isInitialised()) return false;
+		XmlConfiguration configuration = ANIMOBackend.get().configuration();
+		return configuration.has(XmlConfiguration.SIMULATION_ENGINE_KEY)
+			&& configuration.get(XmlConfiguration.SIMULATION_ENGINE_KEY).trim().equalsIgnoreCase(ENGINE_NAME);
+	}
+
+	/**
+	 * @return A new seed for a simulation run, taken from the sequence started with the seed of this simulator
+	 */
+	public synchronized long nextSeed() {
+		return seeds.nextLong();
+	}
+
+	@Override
+	public LevelResult analyze(Model m, int timeTo) throws AnalysisException {
+		return simulate(compile(m), timeTo, nextSeed());
+	}
+
+	/**
+	 * Read the given model into the arrays used by the simulation.
+	 * @param m The model (as built by RunAction.getANIMOModel)
+	 * @return The compiled model, which can be simulated any number of times
+	 * @throws AnalysisException If the model contains something we don't know how to simulate
+	 */
+	public static CompiledModel compile(Model m) throws AnalysisException {
+		return new CompiledModel(m);
+	}
+
+	/**
+	 * Perform a simulation run.
+	 * @param model The compiled model
+	 * @param timeTo The time up to which to simulate
+	 * @param seed The seed for the random choices: the same seed always gives the same result
+	 * @return The result, with the same series obtained with UPPAAL
+	 * @throws AnalysisException If a time table is read outside its bounds
+	 */
+	public static LevelResult simulate(CompiledModel model, int timeTo, long seed) throws AnalysisException {
+		return new Run(model, new Random(seed)).execute(timeTo);
+	}
+
+
+	/**
+	 * The model translated into arrays. Reactants and reactions are numbered, and each reaction
+	 * reads its time bound from a linearized table, at an index computed from the levels of its
+	 * input reactants.
+	 */
+	public static class CompiledModel {
+		static final int ACTIVITY = 0, QUANTITY = 1, INACTIVITY = 2; //The properties of a reactant that can be read or modified by a reaction
+		static final int MONO = 0, BI = 1, USER = 2; //The kinds of reactions (they differ in how they update their outputs)
+
+		String[] reactantIds;
+		int[] initialActivity, initialQuantity, maxQuantity, initialPercentage, nLevels;
+		double[] stepSizes;
+
+		int nReactions;
+		int[] kind;
+		int[][] inputs, inputProperties, strides; //For each reaction, the reactants used as indices in the time tables, which property is used, and how much each index weighs in the linearized table
+		int[][] outputs, outputProperties, deltas; //For each reaction, the reactants it modifies, which property it modifies and by how much
+		int[][] timesL, timesU; //For each reaction, its linearized time tables
+		int[][] listeners; //For each reactant, the reactions which need to recompute their bounds when it changes
+
+		CompiledModel(Model m) throws AnalysisException {
+			Map<String, Integer> indices = new HashMap<String, Integer>(),
+								 cytoscapeIndices = new HashMap<String, Integer>();
+			List<Reactant> reactants = new ArrayList<Reactant>();
+			for (Reactant r : m.getReactants()) {
+				if (!r.get(Model.Properties.ENABLED).as(Boolean.class)) continue;
+				indices.put(r.getId(), reactants.size());
+				Property cytoscapeId = r.get(Model.Properties.CYTOSCAPE_ID);
+				if (cytoscapeId != null && !cytoscapeId.isNull()) {
+					cytoscapeIndices.put(cytoscapeId.as(String.class), reactants.size());
+				}
+				reactants.add(r);
+			}
+			int n = reactants.size();
+			reactantIds = new String[n];
+			initialActivity = new int[n];
+			initialQuantity = new int[n];
+			maxQuantity = new int[n];
+			initialPercentage = new int[n];
+			nLevels = new int[n];
+			stepSizes = new double[n];
+			for (int i=0;i<n;i++) {
+				Reactant r = reactants.get(i);
+				reactantIds[i] = r.getId();
+				initialActivity[i] = r.get(Model.Properties.INITIAL_LEVEL).as(Integer.class);
+				initialQuantity[i] = r.get(Model.Properties.INITIAL_QUANTITY).as(Integer.class);
+				nLevels[i] = r.get(Model.Properties.NUMBER_OF_LEVELS).as(Integer.class);
+				maxQuantity[i] = nLevels[i] * r.get(Model.Properties.MAXIMUM_QUANTITY_GROWTH).as(Integer.class);
+				initialPercentage[i] = (initialQuantity[i] == 0) ? 0 : (int)Math.round(100.0 * 10.0 * initialActivity[i] / initialQuantity[i]);
+				stepSizes[i] = r.get(Model.Properties.STEP_SIZE).as(Double.class);
+			}
+
+			List<Reaction> reactions = new ArrayList<Reaction>();
+			for (Reaction r : m.getReactions()) {
+				if (r.get(Model.Properties.ENABLED).as(Boolean.class)) {
+					reactions.add(r);
+				}
+			}
+			nReactions = reactions.size();
+			kind = new int[nReactions];
+			inputs = new int[nReactions][];
+			inputProperties = new int[nReactions][];
+			strides = new int[nReactions][];
+			outputs = new int[nReactions][];
+			outputProperties = new int[nReactions][];
+			deltas = new int[nReactions][];
+			timesL = new int[nReactions][];
+			timesU = new int[nReactions][];
+			List<List<Integer>> listenersList = new ArrayList<List<Integer>>();
+			for (int i=0;i<n;i++) {
+				listenersList.add(new ArrayList<Integer>());
+			}
+			for (int k=0;k<nReactions;k++) {
+				Reaction r = reactions.get(k);
+				String type = r.get(Model.Properties.REACTION_TYPE).as(String.class);
+				Property userDefined = r.get(Model.Properties.USER_DEFINED_FORMULAE);
+				if (type.equals(Model.Properties.MONO_REACTION)) {
+					compileMono(k, r, indices);
+				} else if (userDefined != null && !userDefined.isNull() && userDefined.as(Boolean.class)) {
+					compileUserDefined(k, r, cytoscapeIndices);
+				} else {
+					compileBi(k, r, indices);
+				}
+				//The reaction listens on the channels of all the reactants it reads or modifies (only once per reactant)
+				List<Integer> involved = new ArrayList<Integer>();
+				for (int i : inputs[k]) {
+					if (!involved.contains(i)) involved.add(i);
+				}
+				for (int i : outputs[k]) {
+					if (!involved.contains(i)) involved.add(i);
+				}
+				for (int i : involved) {
+					listenersList.get(i).add(k);
+				}
+			}
+			listeners = new int[n][];
+			for (int i=0;i<n;i++) {
+				listeners[i] = toArray(listenersList.get(i));
+			}
+		}
+
+		private static int[] toArray(List<Integer> list) {
+			int[] result = new int[list.size()];
+			for (int i=0;i<result.length;i++) {
+				result[i] = list.get(i);
+			}
+			return result;
+		}
+
+		private static int reactantIndex(Map<String, Integer> indices, String id, Reaction r) throws AnalysisException {
+			Integer idx = indices.get(id);
+			if (idx == null) {
+				throw new AnalysisException("The reactant " + id + " used by " + r + " is not enabled or does not exist");
+			}
+			return idx;
+		}
+
+		private static Table table(Reaction r, String name) {
+			Property property = r.get(name);
+			if (property != null) {
+				return property.as(Table.class);
+			} else {
+				return r.get(Model.Properties.TIMES).as(Table.class);
+			}
+		}
+
+		private void compileMono(int k, Reaction r, Map<String, Integer> indices) throws AnalysisException {
+			int reactant = reactantIndex(indices, r.get(Model.Properties.REACTANT).as(String.class), r);
+			Table tL = table(r, Model.Properties.TIMES_LOWER),
+				  tU = table(r, Model.Properties.TIMES_UPPER);
+			kind[k] = MONO;
+			inputs[k] = new int[]{reactant};
+			inputProperties[k] = new int[]{ACTIVITY};
+			strides[k] = new int[]{1};
+			outputs[k] = new int[]{reactant};
+			outputProperties[k] = new int[]{ACTIVITY};
+			deltas[k] = new int[]{r.get(Model.Properties.INCREMENT).as(Integer.class)};
+			timesL[k] = tL.getColumn(0).clone();
+			timesU[k] = tU.getColumn(0).clone();
+		}
+
+		private void compileBi(int k, Reaction r, Map<String, Integer> indices) throws AnalysisException {
+			int catalyst = reactantIndex(indices, r.get(Model.Properties.CATALYST).as(String.class), r),
+				reactant = reactantIndex(indices, r.get(Model.Properties.REACTANT).as(String.class), r),
+				increment = r.get(Model.Properties.INCREMENT).as(Integer.class);
+			Table tL = table(r, Model.Properties.TIMES_LOWER),
+				  tU = table(r, Model.Properties.TIMES_UPPER);
+			int rows = tL.getRowCount(), cols = tL.getColumnCount();
+			kind[k] = BI;
+			//timeL[r2][r1]: the row is the substrate not yet reacted (inactive for activations, active for inhibitions), the column is the activity of the catalyst
+			inputs[k] = new int[]{reactant, catalyst};
+			inputProperties[k] = new int[]{increment > 0 ? INACTIVITY : ACTIVITY, ACTIVITY};
+			strides[k] = new int[]{cols, 1};
+			outputs[k] = new int[]{reactant};
+			outputProperties[k] = new int[]{ACTIVITY};
+			deltas[k] = new int[]{increment};
+			timesL[k] = new int[rows * cols];
+			timesU[k] = new int[rows * cols];
+			for (int row=0;row<rows;row++) {
+				for (int col=0;col<cols;col++) {
+					timesL[k][row * cols + col] = tL.get(row, col);
+					timesU[k][row * cols + col] = tU.get(row, col);
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void compileUserDefined(int k, Reaction r, Map<String, Integer> cytoscapeIndices) throws AnalysisException {
+			List<Integer> dimensions = r.get(Model.Properties.DIMENSIONS).as(List.class),
+						  tL = r.get(Model.Properties.TIMES_LOWER).as(List.class),
+						  tU = r.get(Model.Properties.TIMES_UPPER).as(List.class),
+						  influenceValues = r.get(Model.Properties.INFLUENCE_VALUES).as(List.class);
+			List<ReactantParameter> influencing = r.get(Model.Properties.INFLUENCING_REACTANTS).as(List.class);
+			List<String> influenced = r.get(Model.Properties.INFLUENCED_REACTANTS).as(List.class);
+			int nInput = dimensions.size(),
+				nOutput = influenced.size();
+			kind[k] = USER;
+			inputs[k] = new int[nInput];
+			inputProperties[k] = new int[nInput];
+			strides[k] = new int[nInput];
+			int stride = 1;
+			for (int i=nInput-1;i>=0;i--) { //the matrix is linearized with the first dimension as the outermost one
+				ReactantParameter p = influencing.get(i);
+				inputs[k][i] = reactantIndex(cytoscapeIndices, p.getReactantIdentifier(), r);
+				inputProperties[k][i] = property(p.getPropertyName());
+				strides[k][i] = stride;
+				stride *= dimensions.get(i);
+			}
+			outputs[k] = new int[nOutput];
+			outputProperties[k] = new int[nOutput];
+			deltas[k] = new int[nOutput];
+			for (int j=0;j<nOutput;j++) {
+				ReactantParameter p = new ReactantParameter(influenced.get(j));
+				outputs[k][j] = reactantIndex(cytoscapeIndices, p.getReactantIdentifier(), r);
+				outputProperties[k][j] = property(p.getPropertyName());
+				deltas[k][j] = influenceValues.get(j);
+			}
+			timesL[k] = toArray(tL);
+			timesU[k] = toArray(tU);
+		}
+
+		private static int property(String name) {
+			if (name.equals(Model.Properties.QUANTITY)) {
+				return QUANTITY;
+			} else if (name.equals(Model.Properties.INACTIVITY_LEVEL)) {
+				return INACTIVITY;
+			} else {
+				return ACTIVITY;
+			}
+		}
+
+		/**
+		 * @return The ids of the enabled reactants, in the order used by the simulation
+		 */
+		public String[] getReactantIds() {
+			return reactantIds.clone();
+		}
+
+		/**
+		 * @return The number of enabled reactions
+		 */
+		public int getReactionCount() {
+			return nReactions;
+		}
+	}
+
+
+	/**
+	 * The state of a single simulation run.
+	 */
+	private static class Run {
+		private static final int NOT_REACTING = 0, REACTING = 1;
+
+		private CompiledModel model;
+		private Random random;
+		private int[] activity, quantity, percentage; //The UPPAAL variables of each reactant
+		private int[] location; //For each reaction, NOT_REACTING or REACTING
+		private double[] clockStart; //For each reaction, the time at which its clock c was 0
+		private int[] tableIndex; //For each reaction, the position in its time tables read when it last entered REACTING
+		private double now = 0;
+
+		Run(CompiledModel model, Random random) {
+			this.model = model;
+			this.random = random;
+			activity = model.initialActivity.clone();
+			quantity = model.initialQuantity.clone();
+			percentage = model.initialPercentage.clone();
+			location = new int[model.nReactions];
+			clockStart = new double[model.nReactions];
+			tableIndex = new int[model.nReactions];
+		}
+
+		LevelResult execute(int timeTo) throws AnalysisException {
+			int n = model.reactantIds.length;
+			ColumnarLevelResult result = new ColumnarLevelResult();
+			int[] actSeries = new int[n], qtySeries = new int[n], percSeries = new int[n];
+			for (int i=0;i<n;i++) { //initial values as read by TraceParser
+				String id = model.reactantIds[i];
+				actSeries[i] = result.addSeries(id + VariablesModel.ACTIVITY_SUFFIX);
+				result.put(actSeries[i], 0.0, model.initialActivity[i]);
+				qtySeries[i] = result.addSeries(id + VariablesModel.QUANTITY_SUFFIX);
+				result.put(qtySeries[i], 0.0, model.initialQuantity[i]);
+				percSeries[i] = result.addSeries(id + VariablesModel.PERCENTAGE_SUFFIX);
+				result.put(percSeries[i], 0.0, (model.initialQuantity[i] == 0) ? 0 : 100.0 * model.initialActivity[i] / model.initialQuantity[i]);
+			}
+
+			for (int k=0;k<model.nReactions;k++) { //the start location
+				clockStart[k] = now;
+				if (atTheLimits(k) || timeL(k) == INFINITE_TIME) {
+					location[k] = NOT_REACTING;
+				} else {
+					enterReacting(k);
+				}
+			}
+
+			boolean[] changed = new boolean[n];
+			while (true) {
+				int winner = -1;
+				double minDelay = Double.POSITIVE_INFINITY;
+				for (int k=0;k<model.nReactions;k++) {
+					if (location[k] != REACTING) continue;
+					double delay = sampleDelay(k);
+					if (delay < minDelay) {
+						minDelay = delay;
+						winner = k;
+					}
+				}
+				if (winner < 0 || now + minDelay > timeTo) break; //nothing can happen anymore, or it would happen too late
+				now += minDelay;
+				fire(winner, changed);
+				int time = (int)Math.round(now);
+				for (int i=0;i<n;i++) {
+					if (!changed[i]) continue;
+					changed[i] = false;
+					putIfChanged(result, actSeries[i], time, activity[i] * model.stepSizes[i]);
+					putIfChanged(result, qtySeries[i], time, quantity[i] * model.stepSizes[i]);
+					putIfChanged(result, percSeries[i], time, percentage[i] / 10.0);
+				}
+			}
+
+			for (String id : result.getReactantIds()) { //the final point at the requested time
+				int series = result.getSeriesIndex(id);
+				result.put(series, timeTo, result.getLastValue(series));
+			}
+			result.trim();
+			return result;
+		}
+
+		private static void putIfChanged(ColumnarLevelResult result, int series, int time, double value) {
+			if (result.getLastValue(series) != value) { //as in TraceParser, we plot a point only when there is a variation
+				result.put(series, time, value);
+			}
+		}
+
+		/**
+		 * The delay after which reaction k would happen: uniform between the time it becomes enabled
+		 * (clock at least at the lower bound) and the time at which its invariant expires (clock at the upper bound).
+		 * Without an upper bound, the delay after the lower bound is exponential with rate 1, as UPPAAL does.
+		 */
+		private double sampleDelay(int k) {
+			int idx = tableIndex[k],
+				lower = model.timesL[k][idx],
+				upper = model.timesU[k][idx];
+			double c = now - clockStart[k],
+				   from = Math.max(0, lower - c);
+			if (upper == INFINITE_TIME) {
+				return from - Math.log(1 - random.nextDouble());
+			}
+			double to = Math.max(from, upper - c);
+			return from + random.nextDouble() * (to - from);
+		}
+
+		/**
+		 * Reaction k happens: update its outputs, reset its clock and let all the reactions
+		 * involved recompute their bounds.
+		 */
+		private void fire(int k, boolean[] changed) throws AnalysisException {
+			int[] outputs = model.outputs[k];
+			for (int j=0;j<outputs.length;j++) {
+				update(k, j);
+				changed[outputs[j]] = true;
+			}
+			clockStart[k] = now;
+			resetting(k);
+			for (int j=0;j<outputs.length;j++) {
+				for (int other : model.listeners[outputs[j]]) {
+					if (other == k) continue; //a broadcast is not received by its sender
+					if (location[other] == NOT_REACTING) {
+						clockStart[other] = now;
+					}
+					resetting(other);
+				}
+			}
+		}
+
+		/**
+		 * Update output j of reaction k, as done by the different Reaction templates.
+		 */
+		private void update(int k, int j) {
+			int r = model.outputs[k][j],
+				delta = model.deltas[k][j];
+			switch (model.kind[k]) {
+				case CompiledModel.MONO:
+					activity[r] = Math.max(0, Math.min(model.nLevels[r], activity[r] + delta));
+					break;
+				case CompiledModel.BI:
+					if (activity[r] + delta > quantity[r]) {
+						activity[r] = quantity[r];
+						percentage[r] = 1000;
+					} else if (activity[r] + delta < 0) {
+						activity[r] = 0;
+						percentage[r] = 0;
+					} else {
+						activity[r] += delta;
+						percentage[r] = percentage(activity[r], quantity[r]);
+					}
+					break;
+				default:
+					if (model.outputProperties[k][j] == CompiledModel.QUANTITY) {
+						quantity[r] += delta;
+						if (delta < 0) {
+							activity[r] = round(quantity[r] * percentage[r] / 100);
+						}
+					} else {
+						activity[r] += delta;
+					}
+					percentage[r] = percentage(activity[r], quantity[r]);
+					break;
+			}
+		}
+
+		/**
+		 * The "resetting" location: decide whether reaction k can still react with the current levels,
+		 * and if so with which bounds.
+		 */
+		private void resetting(int k) throws AnalysisException {
+			int idx = currentIndex(k),
+				lower = model.timesL[k][idx],
+				upper = model.timesU[k][idx];
+			if (atTheLimits(k) || lower == INFINITE_TIME) {
+				location[k] = NOT_REACTING;
+				return;
+			}
+			double c = now - clockStart[k];
+			if (upper != INFINITE_TIME && c > upper) { //the upper bound has been lowered in the meantime: we are already late
+				clockStart[k] = now - upper;
+			}
+			location[k] = REACTING;
+			tableIndex[k] = idx;
+		}
+
+		private void enterReacting(int k) throws AnalysisException {
+			location[k] = REACTING;
+			tableIndex[k] = currentIndex(k);
+			clockStart[k] = now;
+		}
+
+		private int timeL(int k) throws AnalysisException {
+			return model.timesL[k][currentIndex(k)];
+		}
+
+		/**
+		 * The position in the time tables of reaction k corresponding to the current levels of its inputs.
+		 */
+		private int currentIndex(int k) throws AnalysisException {
+			int[] inputs = model.inputs[k],
+				  properties = model.inputProperties[k],
+				  strides = model.strides[k];
+			int idx = 0;
+			for (int i=0;i<inputs.length;i++) {
+				int r = inputs[i], value;
+				switch (properties[i]) {
+					case CompiledModel.QUANTITY:
+						value = quantity[r];
+						break;
+					case CompiledModel.INACTIVITY:
+						value = quantity[r] - activity[r];
+						break;
+					default:
+						value = activity[r];
+						break;
+				}
+				idx += value * strides[i];
+			}
+			if (idx < 0 || idx >= model.timesL[k].length) {
+				throw new AnalysisException("Time table index out of bounds for reaction " + k + " (reactant levels outside the table)");
+			}
+			return idx;
+		}
+
+		/**
+		 * Only user-defined reactions check their limits before reacting: the others limit the result of the reaction instead.
+		 */
+		private boolean atTheLimits(int k) {
+			if (model.kind[k] != CompiledModel.USER) return false;
+			int[] outputs = model.outputs[k];
+			for (int j=0;j<outputs.length;j++) {
+				int r = outputs[j],
+					delta = model.deltas[k][j];
+				if (model.outputProperties[k][j] == CompiledModel.QUANTITY) {
+					int res = quantity[r] + delta;
+					if (res < 0 || res > model.maxQuantity[r]) return true;
+				} else {
+					int res = activity[r] + delta;
+					if (res < 0 || res > quantity[r]) return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * The round function of the UPPAAL model: a is on a scale 10 times larger, to include 1 decimal digit.
+		 */
+		private static int round(int a) {
+			int res = a / 10;
+			if (a % 10 > 4) {
+				res = res + 1;
+			}
+			return res;
+		}
+
+		/**
+		 * The percentage function of the UPPAAL model: what percentage is a with respect to b (on a scale 10 times larger)?
+		 */
+		private static int percentage(int a, int b) {
+			if (b == 0) return 0;
+			return 10 * round(a * 100 * 10 / b);
+		}
+	}
+}
@@ -0,0 +1,424 @@
+package animo.analyser.uppaal;
+
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Vector;
+
+import animo.analyser.LevelCursor;
+import animo.analyser.LevelResult;
+import animo.util.DoubleList;
+import animo.util.Pair;
+
+/**
+ * A LevelResult which keeps its data in primitive arrays instead of maps of boxed values.
+ * Each series is made of two columns (time instants and values) sorted by time, so a trace
+ * with many points costs 16 bytes per point instead of a whole tree node with two Double objects.
+ * The result can be filled incrementally (see put), which is what the trace parsers do:
+ * adding points in time order is the fast case, but points can be added at any time instant,
+ * with the same semantics of a SortedMap (a point at an existing time instant replaces the old value).
+ * Series can also share their time column (see addSeries(String, double[], double[])), as it happens
+ * for averaged results, which are all sampled on the same time grid.
+ */
+public class ColumnarLevelResult implements LevelResult, Serializable {
+	private static final long serialVersionUID = -3620584751139261395L;
+	private static final int INITIAL_CAPACITY = 16; //How many points we allocate for a new series
+
+	private Map<String, Integer> seriesIndices = new LinkedHashMap<String, Integer>(); //From series name to its position in the arrays below
+	private double[][] times = new double[0][], //For each series, the time instants (sorted)
+					   values = new double[0][]; //For each series, the values corresponding to the time instants
+	private int[] sizes = new int[0]; //For each series, how many points are actually used in the arrays above (the rest is spare capacity)
+	private double max = Double.NaN; //The maximum value among all series: NaN if it needs to be recomputed
+	private transient DoubleList timeIndices = null; //All the time indices of all series, merged: null if they need to be recomputed
+
+	/**
+	 * Build an empty result: series will be added via addSeries.
+	 */
+	public ColumnarLevelResult() {
+	}
+
+	/**
+	 * Build a result with the same contents of the given map.
+	 * @param levels For each series name, its points
+	 */
+	public ColumnarLevelResult(Map<String, SortedMap<Double, Double>> levels) {
+		for (String k : levels.keySet()) {
+			SortedMap<Double, Double> map = levels.get(k);
+			double[] t = new double[map.size()],
+					 v = new double[map.size()];
+			int i = 0;
+			for (Double time : map.keySet()) {
+				t[i] = time;
+				v[i] = map.get(time);
+				i++;
+			}
+			addSeries(k, t, v);
+		}
+	}
+
+	/**
+	 * Add an empty series with the given name, or simply find it if it is already there.
+	 * @param id The name of the series
+	 * @return The index of the series, to be used with put, getLastValue, etc.
+	 */
+	public int addSeries(String id) {
+		Integer idx = seriesIndices.get(id);
+		if (idx != null) return idx;
+		return addSeries(id, new double[INITIAL_CAPACITY], new double[INITIAL_CAPACITY], 0);
+	}
+
+	/**
+	 * Add a series whose points are already known. The given arrays are used as they are (no copy is made),
+	 * so different series can share the same time column. Please don't change the arrays afterwards.
+	 * @param id The name of the series
+	 * @param t The time instants, sorted and without repetitions
+	 * @param v The values corresponding to the time instants
+	 * @return The index of the series
+	 */
+	public int addSeries(String id, double[] t, double[] v) {
+		if (t.length != v.length) throw new IllegalArgumentException("Time and value columns for series " + id + " have different lengths");
+		Integer idx = seriesIndices.get(id);
+		if (idx != null) {
+			times[idx] = t;
+			values[idx] = v;
+			sizes[idx] = t.length;
+			max = Double.NaN;
+			timeIndices = null;
+			return idx;
+		}
+		return addSeries(id, t, v, t.length);
+	}
+
+	private int addSeries(String id, double[] t, double[] v, int size) {
+		int idx = sizes.length;
+		times = Arrays.copyOf(times, idx + 1);
+		values = Arrays.copyOf(values, idx + 1);
+		sizes = Arrays.copyOf(sizes, idx + 1);
+		times[idx] = t;
+		values[idx] = v;
+		sizes[idx] = size;
+		seriesIndices.put(id, idx);
+		max = Double.NaN;
+		timeIndices = null;
+		return idx;
+	}
+
+	/**
+	 * @param id The name of a series
+	 * @return The index of the series, or -1 if we don't have a series with that name
+	 */
+	public int getSeriesIndex(String id) {
+		Integer idx = seriesIndices.get(id);
+		if (idx == null) return -1;
+		return idx;
+	}
+
+	public boolean containsSeries(String id) {
+		return seriesIndices.containsKey(id);
+	}
+
+	/**
+	 * @param series The index of a series
+	 * @return How many points the series contains
+	 */
+	public int getSize(int series) {
+		return sizes[series];
+	}
+
+	/**
+	 * @param series The index of a series
+	 * @return The time instants of the series. The array is not a copy (please don't change it),
+	 * and only the first getSize(series) elements are used.
+	 */
+	public double[] getTimes(int series) {
+		return times[series];
+	}
+
+	/**
+	 * @param series The index of a series
+	 * @return The values of the series. The array is not a copy (please don't change it),
+	 * and only the first getSize(series) elements are used.
+	 */
+	public double[] getValues(int series) {
+		return values[series];
+	}
+
+	/**
+	 * @param series The index of a (non-empty) series
+	 * @return The value at the latest time instant of the series
+	 */
+	public double getLastValue(int series) {
+		return values[series][sizes[series] - 1];
+	}
+
+	/**
+	 * Set the value of the given series at the given time instant, as SortedMap.put would do.
+	 * Points added in time order are simply appended; if the time instant is already present, its value is replaced.
+	 * @param series The index of the series
+	 * @param time The time instant
+	 * @param value The value of the series at that time
+	 */
+	public void put(int series, double time, double value) {
+		int size = sizes[series];
+		double[] t = times[series];
+		if (size > 0 && t[size - 1] == time) {
+			values[series][size - 1] = value;
+		} else if (size == 0 || t[size - 1] < time) {
+			ensureCapacity(series, size + 1);
+			times[series][size] = time;
+			values[series][size] = value;
+			sizes[series] = size + 1;
+		} else {
+			int pos = Arrays.binarySearch(t, 0, size, time);
+			if (pos >= 0) {
+				values[series][pos] = value;
+			} else {
+				pos = -pos - 1;
+				ensureCapacity(series, size + 1);
+				System.arraycopy(times[series], pos, times[series], pos + 1, size - pos);
+				System.arraycopy(values[series], pos, values[series], pos + 1, size - pos);
+				times[series][pos] = time;
+				values[series][pos] = value;
+				sizes[series] = size + 1;
+			}
+		}
+		max = Double.NaN;
+		timeIndices = null;
+	}
+
+	/**
+	 * Same as put(int, double, double), but finds the series by name (adding it if it does not exist).
+	 */
+	public void put(String id, double time, double value) {
+		put(addSeries(id), time, value);
+	}
+
+	private void ensureCapacity(int series, int capacity) {
+		if (times[series].length >= capacity) return;
+		int newCapacity = Math.max(capacity, times[series].length * 2);
+		times[series] = Arrays.copyOf(times[series], newCapacity);
+		values[series] = Arrays.copyOf(values[series], newCapacity);
+	}
+
+	/**
+	 * Free the spare capacity of all series. Call this when the result is complete.
+	 */
+	public void trim() {
+		for (int i=0;i<sizes.length;i++) {
+			if (times[i].length != sizes[i]) {
+				times[i] = Arrays.copyOf(times[i], sizes[i]);
+				values[i] = Arrays.copyOf(values[i], sizes[i]);
+			}
+		}
+	}
+
+	/**
+	 * Make a copy of this result while it is still being filled (e.g. to show it before the trace has ended).
+	 * Each non-empty series of the copy is extended up to the given time instant with its last value, as done
+	 * at the end of a trace: this way, all series in the copy reach the point up to which the trace was read.
+	 * @param time The time instant up to which the series are extended (ignored for series which already go further)
+	 * @return A new result, which does not share any array with this one
+	 */
+	public ColumnarLevelResult snapshot(double time) {
+		ColumnarLevelResult copy = new ColumnarLevelResult();
+		for (String id : seriesIndices.keySet()) {
+			int series = seriesIndices.get(id),
+				size = sizes[series];
+			boolean extend = size > 0 && times[series][size - 1] < time;
+			double[] t = Arrays.copyOf(times[series], extend ? size + 1 : size),
+					 v = Arrays.copyOf(values[series], extend ? size + 1 : size);
+			if (extend) {
+				t[size] = time;
+				v[size] = v[size - 1];
+			}
+			copy.addSeries(id, t, v);
+		}
+		return copy;
+	}
+
+	/**
+	 * Find the position of the last time instant not after the given time in the given series.
+	 * @return The position, or -1 if all time instants in the series are after the given time
+	 */
+	private int floorIndex(int series, double time) {
+		int pos = Arrays.binarySearch(times[series], 0, sizes[series], time);
+		if (pos >= 0) return pos;
+		return -pos - 2;
+	}
+
+	@Override
+	public double getConcentration(String id, double time) {
+		assert this.seriesIndices.containsKey(id) : "Can not retrieve level for unknown identifier.";
+
+		int series = seriesIndices.get(id);
+		// determine level at requested moment in time:
+		// it is either the level set at the requested moment, or the one set
+		// before that
+		int pos = floorIndex(series, time);
+		if (pos < 0) pos = 0; //before the start of time: the best we can do is the first value
+		return values[series][pos];
+	}
+
+	@Override
+	public LevelCursor getCursor(String id) {
+		assert this.seriesIndices.containsKey(id) : "Can not retrieve level for unknown identifier.";
+
+		final int series = seriesIndices.get(id);
+		return new LevelCursor() {
+			private int pos = 0; //The last point not after the time of the last lookup (or the first point)
+
+			@Override
+			public double getConcentration(double time) {
+				double[] t = times[series];
+				int size = sizes[series];
+				if (pos >= size || t[pos] > time) { //going back in time (or the series has changed): search from scratch
+					pos = Math.max(0, floorIndex(series, time));
+				} else {
+					while (pos + 1 < size && t[pos + 1] <= time) {
+						pos++;
+					}
+				}
+				return values[series][pos];
+			}
+		};
+	}
+
+	@Override
+	public Double getConcentrationIfAvailable(String id, double time) {
+		assert this.seriesIndices.containsKey(id) : "Can not retrieve level for unknown identifier.";
+
+		int series = seriesIndices.get(id);
+		int pos = Arrays.binarySearch(times[series], 0, sizes[series], time);
+		if (pos < 0) return null;
+		return values[series][pos];
+	}
+
+	@Override
+	public List<Double> getTimeIndices() {
+		DoubleList indices = this.timeIndices;
+		if (indices == null) { //computed only once, unless new points are added
+			indices = DoubleList.union(times, sizes);
+			this.timeIndices = indices;
+		}
+		return indices;
+	}
+
+	@Override
+	public double getFirstTimeIndex() {
+		double first = Double.POSITIVE_INFINITY;
+		for (int s=0;s<sizes.length;s++) {
+			if (sizes[s] > 0 && times[s][0] < first) {
+				first = times[s][0];
+			}
+		}
+		return first;
+	}
+
+	@Override
+	public double getLastTimeIndex() {
+		double last = Double.NEGATIVE_INFINITY;
+		for (int s=0;s<sizes.length;s++) {
+			if (sizes[s] > 0 && times[s][sizes[s] - 1] > last) {
+				last = times[s][sizes[s] - 1];
+			}
+		}
+		return last;
+	}
+
+	@Override
+	public int getTimeIndexCount() {
+		return getTimeIndices().size();
+	}
+
+	@Override
+	public Set<String> getReactantIds() {
+		return Collections.unmodifiableSet(this.seriesIndices.keySet());
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return seriesIndices.isEmpty();
+	}
+
+	@Override
+	public double getMaximumValue() {
+		if (Double.isNaN(max)) {
+			double m = Double.NEGATIVE_INFINITY;
+			for (int s=0;s<sizes.length;s++) {
+				for (int i=0;i<sizes[s];i++) {
+					if (values[s][i] > m) {
+						m = values[s][i];
+					}
+				}
+			}
+			max = m;
+		}
+		return max;
+	}
+
+	/**
+	 * Copy the given series of this result into the other result (the arrays are shared).
+	 */
+	private void copySeries(String id, ColumnarLevelResult other) {
+		int series = seriesIndices.get(id);
+		other.addSeries(id, times[series], values[series], sizes[series]);
+	}
+
+	@Override
+	public LevelResult filter(Vector<String> acceptedNames) {
+		trim(); //the new result shares our arrays: none of them must have room to grow
+		ColumnarLevelResult res = new ColumnarLevelResult();
+		for (String s : seriesIndices.keySet()) {
+			if (!acceptedNames.contains(s)) continue;
+			copySeries(s, res);
+		}
+		return res;
+	}
+
+	@Override
+	public Pair<LevelResult, LevelResult> split(Vector<String> onlyInTheSecond) {
+		trim();
+		ColumnarLevelResult res1 = new ColumnarLevelResult(),
+							res2 = new ColumnarLevelResult();
+		for (String s : seriesIndices.keySet()) {
+			if (onlyInTheSecond.contains(s)) {
+				copySeries(s, res2);
+			} else {
+				copySeries(s, res1);
+			}
+		}
+		return new Pair<LevelResult, LevelResult>(res1, res2);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+
+		b.append("Result["+this.getReactantIds()+"] ");
+
+		for (String id : seriesIndices.keySet()) {
+			int series = seriesIndices.get(id);
+			b.append(id + ": {");
+			for (int i=0;i<sizes[series];i++) {
+				if (i > 0) b.append(", ");
+				b.append(times[series][i] + "=" + values[series][i]);
+			}
+			b.append("}\n");
+		}
+
+		return b.toString();
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		trim(); //we don't want to send the spare capacity over the network
+		out.defaultWriteObject();
+	}
+}
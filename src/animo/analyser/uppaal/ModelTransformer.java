@@ -3,6 +3,8 @@
  */
 package animo.analyser.uppaal;
 
+import java.io.IOException;
+
 import animo.model.Model;
 
 /**
@@ -19,4 +21,14 @@ public interface ModelTransformer {
 	 * @return the UPPAAL model
 	 */
 	public String transform(Model m);
+
+	/**
+	 * Converts the model to UPPAAL representation, writing it while it is
+	 * generated, so that the whole model is never kept in memory.
+	 * 
+	 * @param m the model to transform
+	 * @param out where to write the UPPAAL model (e.g. a buffered writer on a file)
+	 * @throws IOException if out cannot be written
+	 */
+	public void transform(Model m, Appendable out) throws IOException;
 }
@@ -0,0 +1,150 @@
+package animo.analyser.uppaal;
+
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import animo.model.Model;
+
+/**
+ * An ANIMO model already translated into its UPPAAL version, together with the
+ * simulation query, both ready to be passed to verifyta.
+ * Use it when the same model needs to be simulated many times (see ResultAverager):
+ * the translation and the writing of the files are done only once.
+ * Each verifyta run gets the model and the query via open(), in the way chosen in the configuration
+ * (see VerifytaInput): with files, all runs share the same files, which are deleted when the prepared model
+ * is closed; with pipes, the model is kept in memory and written into new pipes for each run.
+ */
+public class PreparedModel implements Closeable {
+	private Model model; //The ANIMO model from which the UPPAAL model was generated (needed to interpret the traces)
+	private int timeTo; //The time up to which simulations will run
+	private int nTraces; //How many simulation traces a single verifyta run on this model produces
+	private File directory; //Where the files (or pipes) are made
+	private File modelFile = null, //The file containing the UPPAAL model (null when using pipes)
+				 queryFile = null; //The file containing the query
+	private byte[] modelData = null, //The UPPAAL model, when using pipes
+				   queryData = null; //The query, when using pipes
+	private boolean closed = false;
+
+	/**
+	 * Translate the given model with VariablesModelSMC and write it to temporary files, together with the
+	 * query asking for a simulation up to timeTo.
+	 * @param m The model to prepare
+	 * @param timeTo The length of the simulations, in UPPAAL time units
+	 * @throws IOException If the temporary files could not be written
+	 */
+	public PreparedModel(Model m, int timeTo) throws IOException {
+		this(m, timeTo, "E<> (globalTime > " + timeTo + ")", 1);
+	}
+
+	/**
+	 * Translate the given model with VariablesModelSMC and write it to temporary files, together with the given query.
+	 * @param m The model to prepare
+	 * @param timeTo The length of the simulations, in UPPAAL time units
+	 * @param uppaalQuery The query to be passed to verifyta
+	 * @param nTraces The number of simulation traces produced by the query
+	 * @throws IOException If the temporary files could not be written
+	 */
+	public PreparedModel(Model m, int timeTo, String uppaalQuery, int nTraces) throws IOException {
+		this.model = m;
+		this.timeTo = timeTo;
+		this.nTraces = nTraces;
+		VerifytaInput.Mode mode = VerifytaInput.getMode();
+		this.directory = VerifytaInput.getDirectory(mode);
+
+		if (mode == VerifytaInput.Mode.PIPES) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			Writer modelOut = new BufferedWriter(new OutputStreamWriter(bytes)); //the same encoding as FileWriter
+			synchronized (m) { //the transformation stores some properties in the model, which may be read at the same time by another analysis
+				new VariablesModelSMC().transform(m, modelOut);
+			}
+			modelOut.close();
+			modelData = bytes.toByteArray();
+			queryData = uppaalQuery.getBytes();
+			return;
+		}
+
+		modelFile = File.createTempFile("ANIMO", ".xml", directory);
+		final String prefix = modelFile.getAbsolutePath().replace(".xml", "");
+		queryFile = new File(prefix + ".q");
+
+		// write out strings to file
+		try {
+			Writer modelFileOut = new BufferedWriter(new FileWriter(modelFile));
+			try {
+				synchronized (m) { //the transformation stores some properties in the model, which may be read at the same time by another analysis
+					new VariablesModelSMC().transform(m, modelFileOut); //the model goes to the file while it is generated
+				}
+			} finally {
+				modelFileOut.close();
+			}
+
+			FileWriter queryFileOut = new FileWriter(queryFile);
+			queryFileOut.append(uppaalQuery);
+			queryFileOut.close();
+		} catch (IOException ex) {
+			close();
+			throw ex;
+		}
+	}
+
+	public Model getModel() {
+		return model;
+	}
+
+	public int getTimeTo() {
+		return timeTo;
+	}
+
+	public int getNTraces() {
+		return nTraces;
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Get the model and the query for a verifyta run. Several runs can use the prepared model at the same time.
+	 * @return The paths to be given to verifyta. Close it as soon as verifyta has ended.
+	 * @throws IOException If the pipes or files could not be made
+	 */
+	public VerifytaInput open() throws IOException {
+		byte[] model, query;
+		synchronized (this) {
+			if (closed) {
+				throw new IOException("The prepared model was already closed");
+			}
+			if (modelFile != null) {
+				return new VerifytaInput(modelFile, queryFile);
+			}
+			model = modelData;
+			query = queryData;
+		}
+		return VerifytaInput.pipes(directory, model, query); //outside the lock, so that runs can start at the same time
+	}
+
+	/**
+	 * Delete the files containing the model and the query. After this, the prepared model cannot be used anymore.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) return;
+		closed = true;
+		modelData = null;
+		queryData = null;
+		if (modelFile == null) return;
+		if (!modelFile.delete() && modelFile.exists()) {
+			modelFile.deleteOnExit();
+		}
+		if (!queryFile.delete() && queryFile.exists()) {
+			queryFile.deleteOnExit();
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package animo.analyser.uppaal;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import animo.analyser.LevelCursor;
+import animo.analyser.LevelResult;
+
+/**
+ * Incrementally computes the average (and, on request, the standard deviation) of a series of
+ * simulation results. Each result is sampled on a fixed time grid as soon as it is added, and then
+ * it can be thrown away: the memory used does not depend on the number of results we add.
+ * Mean and variance are updated with Welford's method, so that the current average can be
+ * read at any moment via getResult(), together with the accuracy of the average (see getConfidenceHalfWidth).
+ */
+public class ResultAccumulator {
+	private static final double[] T_95 = { //The 97.5% quantiles of Student's t distribution with 1, 2, ..., 30 degrees of freedom (for two-sided 95% confidence intervals)
+		12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+		2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+		2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+	};
+	private static final double Z_95 = 1.959964; //The same quantile for the normal distribution (infinite degrees of freedom)
+	private boolean computeStdDev; //Whether we need to compute the standard deviation in the result
+	private boolean keepVariance; //Whether we need to keep the information for the variance (for the standard deviation or the confidence intervals)
+	private double[] grid = null; //The time instants on which all results are sampled
+	private String[] reactantIds = null; //The series we compute the average of
+	private double[][] means = null, //For each reactant (first index) and time instant (second index), the current average
+					   m2s = null; //For each reactant and time instant, the sum of squared differences from the current average
+	private int count = 0; //How many results have been added up to now
+
+	/**
+	 * Build an accumulator whose time grid will be decided by the first result added:
+	 * it will span the same time interval, and contain the same number of time instants.
+	 * @param computeStdDev Tells us whether we have to compute the standard deviation for all the series
+	 */
+	public ResultAccumulator(boolean computeStdDev) {
+		this(computeStdDev, computeStdDev);
+	}
+
+	/**
+	 * Build an accumulator whose time grid will be decided by the first result added.
+	 * @param computeStdDev Tells us whether we have to compute the standard deviation for all the series
+	 * @param keepVariance Tells us whether we have to keep track of the variance even if the standard deviation
+	 * is not shown: this is needed by getConfidenceHalfWidth
+	 */
+	public ResultAccumulator(boolean computeStdDev, boolean keepVariance) {
+		this.computeStdDev = computeStdDev;
+		this.keepVariance = computeStdDev || keepVariance;
+	}
+
+	/**
+	 * Build an accumulator sampling all results on nPoints time instants equally spaced from 0 to finalTime.
+	 * @param finalTime The last time instant in the grid
+	 * @param nPoints The number of intervals in which [0, finalTime] is divided
+	 * @param computeStdDev Tells us whether we have to compute the standard deviation for all the series
+	 */
+	public ResultAccumulator(double finalTime, int nPoints, boolean computeStdDev) {
+		this(computeStdDev);
+		this.grid = makeGrid(finalTime, nPoints);
+	}
+
+	/**
+	 * The time grid is the same used up to now by ResultAverager: time instants are taken every
+	 * finalTime / nPoints time units, starting from 0, and the final time is always included.
+	 */
+	private static double[] makeGrid(double finalTime, int nPoints) {
+		List<Double> instants = new ArrayList<Double>();
+		if (nPoints > 0 && finalTime > 0) {
+			double increment = finalTime / nPoints;
+			for (double i=0;i<finalTime;i+=increment) {
+				instants.add(i);
+			}
+		}
+		instants.add(finalTime);
+		double[] result = new double[instants.size()];
+		for (int i=0;i<result.length;i++) {
+			result[i] = instants.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Add a result to the average. All results are expected to contain the same series as the first one
+	 * that was added.
+	 * @param run The result to add
+	 */
+	public synchronized void add(LevelResult run) {
+		if (reactantIds == null) {
+			if (grid == null) {
+				grid = makeGrid(run.getLastTimeIndex(), run.getTimeIndexCount());
+			}
+			Set<String> ids = run.getReactantIds();
+			reactantIds = ids.toArray(new String[ids.size()]);
+			means = new double[reactantIds.length][grid.length];
+			if (keepVariance) {
+				m2s = new double[reactantIds.length][grid.length];
+			}
+		}
+		count++;
+		for (int r=0;r<reactantIds.length;r++) {
+			LevelCursor cursor = run.getCursor(reactantIds[r]); //the grid is sorted, so we read each series only once
+			double[] mean = means[r],
+					 m2 = keepVariance ? m2s[r] : null;
+			for (int i=0;i<grid.length;i++) {
+				double val = cursor.getConcentration(grid[i]);
+				double delta = val - mean[i];
+				mean[i] += delta / count;
+				if (keepVariance) m2[i] += delta * (val - mean[i]);
+			}
+		}
+	}
+
+	/**
+	 * Add to the average the average of other results, computed elsewhere (e.g. by a server on a part
+	 * of the runs): means and variances are combined with the pairwise formulas of Chan et al., so the result
+	 * is the same as if all the runs had been added here (apart from the sampling on our time grid).
+	 * The series "ABC" + ResultAverager.STD_DEV of the partial average are taken as the standard deviations
+	 * of the series ABC: if they are missing, the partial results are considered all equal to their average.
+	 * If nothing was added before, the time grid is the one of the partial average.
+	 * @param partial The average of partialCount results
+	 * @param partialCount How many results were averaged in partial
+	 */
+	public synchronized void merge(LevelResult partial, int partialCount) {
+		if (partialCount <= 0) return;
+		if (reactantIds == null) {
+			if (grid == null) {
+				List<Double> instants = partial.getTimeIndices();
+				grid = new double[instants.size()];
+				for (int i=0;i<grid.length;i++) {
+					grid[i] = instants.get(i);
+				}
+			}
+			List<String> ids = new ArrayList<String>();
+			for (String id : partial.getReactantIds()) {
+				if (!id.endsWith(ResultAverager.STD_DEV)) {
+					ids.add(id);
+				}
+			}
+			reactantIds = ids.toArray(new String[ids.size()]);
+			means = new double[reactantIds.length][grid.length];
+			if (keepVariance) {
+				m2s = new double[reactantIds.length][grid.length];
+			}
+		}
+		double total = count + partialCount,
+			   weight = partialCount / total, //of the new mean in the combined mean
+			   crossWeight = (double)count * partialCount / total; //of the squared difference of the means in the combined M2
+		for (int r=0;r<reactantIds.length;r++) {
+			LevelCursor meanCursor = partial.getCursor(reactantIds[r]),
+						stdDevCursor = null;
+			if (keepVariance && partial.getReactantIds().contains(reactantIds[r] + ResultAverager.STD_DEV)) {
+				stdDevCursor = partial.getCursor(reactantIds[r] + ResultAverager.STD_DEV);
+			}
+			double[] mean = means[r],
+					 m2 = keepVariance ? m2s[r] : null;
+			for (int i=0;i<grid.length;i++) {
+				double delta = meanCursor.getConcentration(grid[i]) - mean[i];
+				mean[i] += delta * weight;
+				if (keepVariance) {
+					double partialM2 = 0;
+					if (stdDevCursor != null) {
+						double stdDev = stdDevCursor.getConcentration(grid[i]);
+						partialM2 = stdDev * stdDev * (partialCount - 1); //getResult gives the sample standard deviation
+					}
+					m2[i] += partialM2 + delta * delta * crossWeight;
+				}
+			}
+		}
+		count += partialCount;
+	}
+
+	/**
+	 * @return How many results have been added up to now
+	 */
+	public synchronized int getCount() {
+		return count;
+	}
+
+	/**
+	 * Find how accurate the averages are: for each of the given series and each time instant of the grid, we compute
+	 * the half-width of the 95% confidence interval of the average, t * s / sqrt(n) (where s is the sample standard
+	 * deviation, n the number of results, and t the quantile of Student's t distribution with n - 1 degrees of freedom),
+	 * and return the largest one. This assumes that the results are independent, as simulation runs are.
+	 * @param relative If true, the half-width of each series is given as a fraction of the largest average of that series
+	 * (series whose averages are all 0 are then left out), otherwise it is in the same units as the series
+	 * @param seriesIds The series to consider (those we don't have are ignored), or null to consider all of them
+	 * @return The largest half-width, or positive infinity if we cannot compute it (we need at least 2 results, the
+	 * accumulator must keep the variance, see the constructor, and at least one of the given series must be there)
+	 */
+	public synchronized double getConfidenceHalfWidth(boolean relative, Collection<String> seriesIds) {
+		if (count < 2 || m2s == null) return Double.POSITIVE_INFINITY;
+		int degrees = count - 1;
+		double t = (degrees <= T_95.length) ? T_95[degrees - 1]
+											: Z_95 + (Z_95 * Z_95 * Z_95 + Z_95) / (4 * degrees); //first correction of the normal quantile: within 0.001 of the exact value
+		double worst = 0;
+		boolean found = false; //Without any of the requested series, we know nothing about the accuracy
+		for (int r=0;r<reactantIds.length;r++) {
+			if (seriesIds != null && !seriesIds.contains(reactantIds[r])) continue;
+			found = true;
+			double[] mean = means[r],
+					 m2 = m2s[r];
+			double maxVariance = 0, //The half-width grows with the variance, so we only need the largest one
+				   maxMean = 0;
+			for (int i=0;i<grid.length;i++) {
+				maxVariance = Math.max(maxVariance, m2[i] / degrees);
+				maxMean = Math.max(maxMean, Math.abs(mean[i]));
+			}
+			double halfWidth = t * Math.sqrt(maxVariance / count);
+			if (relative) {
+				if (maxMean == 0) continue;
+				halfWidth /= maxMean;
+			}
+			worst = Math.max(worst, halfWidth);
+		}
+		return found ? worst : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Build a LevelResult containing the average (and standard deviation, if requested)
+	 * of all results added up to now. The series containing the standard deviation of series ABC
+	 * is called "ABC" + ResultAverager.STD_DEV. All series share the same time column.
+	 * @return The average result, or null if no result has been added yet
+	 */
+	public synchronized LevelResult getResult() {
+		if (count == 0) return null;
+		ColumnarLevelResult result = new ColumnarLevelResult();
+		double[] times = grid.clone();
+		for (int r=0;r<reactantIds.length;r++) {
+			result.addSeries(reactantIds[r], times, means[r].clone());
+			if (computeStdDev) {
+				double[] stdDevs = new double[grid.length];
+				for (int i=0;i<grid.length;i++) {
+					stdDevs[i] = (count > 1) ? Math.sqrt(m2s[r][i] / (count - 1)) : 0.0;
+				}
+				result.addSeries(reactantIds[r] + ResultAverager.STD_DEV, times, stdDevs);
+			}
+		}
+		return result;
+	}
+}
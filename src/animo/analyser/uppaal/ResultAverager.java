@@ -1,124 +1,502 @@
 package animo.analyser.uppaal;
 
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import animo.ANIMOBackend;
 import animo.analyser.AnalysisException;
+import animo.analyser.LevelResult;
+import animo.analyser.PartialResultListener;
+import animo.analyser.stochastic.StochasticSimulator;
 import animo.cytoscape.RunAction;
 import animo.model.Model;
+import animo.util.Pair;
+import animo.util.XmlConfiguration;
 
 import cytoscape.task.TaskMonitor;
 
 /**
  * Used to produce the average result of a series of simulation queries.
  * Standard deviation can also be produced on request.
+ * Instead of always performing the requested number of runs, the averager can also stop as soon as the average
+ * is accurate enough (see setTargetAccuracy).
  */
 public class ResultAverager {
 	public static final String STD_DEV = "_stddev"; //NOTICE: it needs to be lowercase, because elsewhere we assume it is so. We also assume that it starts with "_"
+	public static final int MIN_RUNS_FOR_ACCURACY = 10; //With fewer runs, the estimate of the variance is too unreliable to decide that we can stop
+	private static final int PARALLEL_WINDOW = 2; //When running in parallel, how many jobs per worker can be submitted after the first one whose result is still missing
 	private TaskMonitor monitor = null; //If we are operating via the user interface, we can show the point at which we are with the simulations
 	private RunAction runAction = null; //If we are operating via the user interface, this will tell us if the user has requested that we cancel the simulations
+	private int nWorkers = 1; //How many simulation runs we are allowed to execute at the same time
+	private int batchSize = 1; //How many simulation runs are asked to a single verifyta process (1 = one process per run)
+	private volatile ResultAccumulator accumulator = null; //Keeps the average of the simulation runs completed up to now
+	private StochasticSimulator simulator = null; //If not null, simulation runs are performed in Java by this simulator instead of with UPPAAL
+	private PartialResultListener partialResultListener = null; //Receives the average of the runs completed up to now, while the others are still running
+	private long nextPublication = 0; //When we can give the next partial result to the listener (see PartialResultListener.INTERVAL)
+	private double targetHalfWidth = 0; //If positive, we stop when the 95% confidence intervals of the averages are not wider than this on each side
+	private boolean relativeTarget = false; //Whether targetHalfWidth is a fraction of the largest average of each series instead of an absolute value
+	private Collection<String> targetSeries = null; //The series whose accuracy is checked (null: all of them)
+	private int nRunsPerformed = 0; //How many runs were used for the last average
 	
 	public ResultAverager(TaskMonitor monitor, RunAction runAction) {
+		this(monitor, runAction, defaultWorkers());
+	}
+	
+	public ResultAverager(TaskMonitor monitor, RunAction runAction, int nWorkers) {
 		this.monitor = monitor;
 		this.runAction = runAction;
+		setWorkers(nWorkers);
+		setBatchSize(defaultBatchSize());
+		if (StochasticSimulator.isSelected()) {
+			setSimulator(new StochasticSimulator());
+		}
+	}
+	
+	/**
+	 * The number of parallel workers to use when nothing else is specified: the value
+	 * set in the configuration file (if any), otherwise the number of available processors.
+	 */
+	public static int defaultWorkers() {
+		int n = Runtime.getRuntime().availableProcessors();
+		if (ANIMOBackend.isInitialised()) {
+			XmlConfiguration configuration = ANIMOBackend.get().configuration();
+			if (configuration.has(XmlConfiguration.AVERAGE_WORKERS_KEY)) {
+				try {
+					n = Integer.parseInt(configuration.get(XmlConfiguration.AVERAGE_WORKERS_KEY).trim());
+				} catch (NumberFormatException ex) {
+					System.err.println("Invalid number of workers in the configuration: using " + n);
+				}
+			}
+		}
+		return n;
+	}
+	
+	/**
+	 * The number of simulation runs to ask to a single verifyta process when nothing else is specified:
+	 * the value set in the configuration file (if any), otherwise 1 (i.e., one process per run, with a
+	 * normal reachability query instead of an SMC simulate query).
+	 */
+	public static int defaultBatchSize() {
+		int n = 1;
+		if (ANIMOBackend.isInitialised()) {
+			XmlConfiguration configuration = ANIMOBackend.get().configuration();
+			if (configuration.has(XmlConfiguration.AVERAGE_BATCH_KEY)) {
+				try {
+					n = Integer.parseInt(configuration.get(XmlConfiguration.AVERAGE_BATCH_KEY).trim());
+				} catch (NumberFormatException ex) {
+					System.err.println("Invalid simulation batch size in the configuration: using " + n);
+				}
+			}
+		}
+		return n;
+	}
+	
+	public int getBatchSize() {
+		return batchSize;
+	}
+	
+	/**
+	 * Set how many simulation runs are obtained from a single verifyta process (via an UPPAAL SMC
+	 * simulate query). Values larger than 1 save the cost of starting verifyta for each run.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+	
+	public StochasticSimulator getSimulator() {
+		return simulator;
+	}
+	
+	/**
+	 * Use the given simulator to perform the simulation runs in Java instead of calling verifyta.
+	 * The seeds of the runs are taken from the simulator before starting them, so a simulator built
+	 * with a given seed always gives the same average, whatever the number of workers.
+	 * @param simulator The simulator, or null to go back to UPPAAL
+	 */
+	public void setSimulator(StochasticSimulator simulator) {
+		this.simulator = simulator;
+	}
+	
+	/**
+	 * Ask to receive, during analyzeAverage, the average of the simulation runs completed up to now
+	 * (the same given by getPartialResult). It is computed only when a run is completed, and at most
+	 * once every PartialResultListener.INTERVAL milliseconds.
+	 * @param listener The listener, or null if partial results are not needed
+	 */
+	public void setPartialResultListener(PartialResultListener listener) {
+		this.partialResultListener = listener;
+	}
+	
+	/**
+	 * Stop analyzeAverage as soon as the averages are accurate enough, instead of always performing all the runs:
+	 * the number of runs given to analyzeAverage becomes the maximum. After each completed run (or batch of runs),
+	 * we compute the half-width of the 95% confidence interval of the average of each series in each point
+	 * of the time grid (see ResultAccumulator.getConfidenceHalfWidth), and stop when none is larger than the target.
+	 * At least MIN_RUNS_FOR_ACCURACY runs are always performed. The runs are checked in the order in which they are
+	 * started, so the number of runs performed (see getRunsPerformed) does not depend on the number of workers.
+	 * @param halfWidth The largest half-width allowed for the confidence intervals (0 to always perform all runs)
+	 * @param relative If true, halfWidth is a fraction (e.g. 0.05 for 5%) of the largest average of each series,
+	 * otherwise it is in the units of the series
+	 * @param seriesIds The series which need to be accurate (e.g. the ones that are plotted), or null for all series
+	 */
+	public void setTargetAccuracy(double halfWidth, boolean relative, Collection<String> seriesIds) {
+		this.targetHalfWidth = halfWidth;
+		this.relativeTarget = relative;
+		this.targetSeries = seriesIds;
+	}
+	
+	/**
+	 * @return How many simulation runs were used to compute the last average: less than the requested ones if
+	 * the target accuracy was reached before (see setTargetAccuracy)
+	 */
+	public int getRunsPerformed() {
+		return nRunsPerformed;
+	}
+	
+	public int getWorkers() {
+		return nWorkers;
+	}
+	
+	/**
+	 * Set the number of simulation runs that will be executed concurrently.
+	 * A value of 1 (or less) gives the plain sequential behaviour.
+	 */
+	public void setWorkers(int nWorkers) {
+		this.nWorkers = Math.max(1, nWorkers);
 	}
 	
 	/**
 	 * Analyse the given model, with a reachability query E<> (globalTime > timeTo) (with timeTo given),
 	 * and produce a result showing the average activity levels of all reactants in the model during the simulation
 	 * interval. If computeStdDev is true, adds also series to show the Standard Deviation from the averages.
+	 * When more than one worker is available, the simulation runs are executed in parallel: as the results are
+	 * collected in the same order in which the runs were started, the average is the same we would obtain
+	 * by executing them one after the other. If the batch size is larger than 1, the runs are grouped in batches,
+	 * and each batch is executed by a single verifyta process. If a simulator is set, the runs are instead
+	 * performed in Java (the batch size is then ignored).
 	 * @param m The model
 	 * @param timeTo The time up to which a single simulation will run
-	 * @param nRuns How many simulation runs we need to compute the average of
+	 * @param nRuns How many simulation runs we need to compute the average of (the maximum, if a target accuracy is set)
 	 * @param computeStdDev Tells us whether the user has asked for the standard deviation from the average
-	 * @return A SimpleLevelResult showing the averages (and, is requested, the standard deviations) of activity levels of all reactants in the given model
+	 * @return A LevelResult showing the averages (and, is requested, the standard deviations) of activity levels of all reactants in the given model
 	 * @throws AnalysisException
 	 * @throws Exception
 	 */
-	public SimpleLevelResult analyzeAverage(Model m, int timeTo, int nRuns, boolean computeStdDev) throws AnalysisException, Exception {
-		Vector<SimpleLevelResult> results = new Vector<SimpleLevelResult>(nRuns);
+	public LevelResult analyzeAverage(Model m, int timeTo, int nRuns, boolean computeStdDev) throws AnalysisException, Exception {
+		accumulator = new ResultAccumulator(computeStdDev, targetHalfWidth > 0);
+		if (simulator != null) {
+			StochasticSimulator.CompiledModel compiled = StochasticSimulator.compile(m);
+			List<Job> jobs = new ArrayList<Job>();
+			for (int i=0;i<nRuns;i++) {
+				jobs.add(new SimulatorJob(compiled, timeTo, simulator.nextSeed()));
+			}
+			run(jobs, nRuns);
+			nRunsPerformed = accumulator.getCount();
+			return accumulator.getResult();
+		}
 		UppaalModelAnalyserFasterConcrete analyzer = new UppaalModelAnalyserFasterConcrete(monitor, runAction);
-		for (int i=0;i<nRuns;i++) {
+		//All runs use the same UPPAAL model: we translate and write it only once (twice if the last batch is smaller than the others)
+		List<Job> jobs = new ArrayList<Job>();
+		List<PreparedModel> preparedModels = new ArrayList<PreparedModel>();
+		boolean batched = batchSize > 1 && nRuns > 1;
+		try {
+			if (batched) {
+				int size = Math.min(batchSize, nRuns),
+					nFullBatches = nRuns / size,
+					rest = nRuns % size;
+				PreparedModel full = analyzer.prepareBatch(m, timeTo, size);
+				preparedModels.add(full);
+				for (int i=0;i<nFullBatches;i++) {
+					jobs.add(new UppaalJob(full, true));
+				}
+				if (rest > 0) {
+					PreparedModel last = analyzer.prepareBatch(m, timeTo, rest);
+					preparedModels.add(last);
+					jobs.add(new UppaalJob(last, true));
+				}
+			} else {
+				PreparedModel prepared = analyzer.prepare(m, timeTo);
+				preparedModels.add(prepared);
+				for (int i=0;i<nRuns;i++) {
+					jobs.add(new UppaalJob(prepared, false));
+				}
+			}
+			run(jobs, nRuns);
+		} finally {
+			for (PreparedModel prepared : preparedModels) {
+				prepared.close();
+			}
+		}
+		nRunsPerformed = accumulator.getCount();
+		return accumulator.getResult();
+	}
+	
+	/**
+	 * While analyzeAverage is running, returns the average of the simulation runs completed up to now.
+	 * @return The current average, or null if no simulation run has been completed yet
+	 */
+	public LevelResult getPartialResult() {
+		ResultAccumulator current = accumulator;
+		if (current == null) return null;
+		return current.getResult();
+	}
+	
+	/**
+	 * Give the average of the runs completed up to now to the listener, if there is one and enough time has passed
+	 * since the last time we did it. The complete average is not published: it is the result of analyzeAverage.
+	 */
+	private void publishPartialResult(int nRuns) {
+		if (partialResultListener == null || accumulator.getCount() >= nRuns || System.currentTimeMillis() < nextPublication) return;
+		LevelResult partial = accumulator.getResult();
+		if (partial == null) return; //when running in parallel, the first run may not be there yet
+		partialResultListener.partialResult(partial);
+		nextPublication = System.currentTimeMillis() + PartialResultListener.INTERVAL;
+	}
+	
+	/**
+	 * Tells whether we can stop performing runs because the target accuracy is reached (see setTargetAccuracy).
+	 */
+	private boolean isAccurateEnough(int nRuns) {
+		int count = accumulator.getCount();
+		if (targetHalfWidth <= 0 || count < MIN_RUNS_FOR_ACCURACY || count >= nRuns) return false;
+		double halfWidth = accumulator.getConfidenceHalfWidth(relativeTarget, targetSeries);
+		if (halfWidth > targetHalfWidth) return false;
+		String accuracy = relativeTarget ? String.format(Locale.US, "%.2f%%", 100 * halfWidth) : String.format(Locale.US, "%.4g", halfWidth);
+		System.err.println(" target accuracy reached after " + count + " runs out of " + nRuns + " (95% confidence intervals within +/-" + accuracy + ")");
+		if (monitor != null) {
+			monitor.setStatus("Target accuracy reached after " + count + " simulation runs.");
+		}
+		return true;
+	}
+	
+	/**
+	 * A unit of work for the averager: one or more simulation runs.
+	 */
+	private interface Job {
+		/**
+		 * @param monitor The monitor to be updated while working (null when running in parallel)
+		 * @return The results of the simulation runs
+		 */
+		List<LevelResult> run(TaskMonitor monitor) throws AnalysisException;
+	}
+	
+	/**
+	 * A single simulation run, or a batch of runs in a single verifyta process.
+	 * Each execution gets its own analyser (it keeps the state of the verifyta process it is waiting for).
+	 */
+	private class UppaalJob implements Job {
+		private PreparedModel prepared;
+		private boolean batched;
+		
+		public UppaalJob(PreparedModel prepared, boolean batched) {
+			this.prepared = prepared;
+			this.batched = batched;
+		}
+		
+		@Override
+		public List<LevelResult> run(TaskMonitor monitor) throws AnalysisException {
+			UppaalModelAnalyserFasterConcrete analyzer = new UppaalModelAnalyserFasterConcrete(monitor, runAction);
+			if (batched) {
+				return analyzer.analyzeBatch(prepared);
+			} else {
+				List<LevelResult> result = new ArrayList<LevelResult>(1);
+				result.add(analyzer.analyze(prepared));
+				return result;
+			}
+		}
+	}
+	
+	/**
+	 * A simulation run performed in Java, with a seed chosen in advance.
+	 */
+	private static class SimulatorJob implements Job {
+		private StochasticSimulator.CompiledModel compiled;
+		private int timeTo;
+		private long seed;
+		
+		public SimulatorJob(StochasticSimulator.CompiledModel compiled, int timeTo, long seed) {
+			this.compiled = compiled;
+			this.timeTo = timeTo;
+			this.seed = seed;
+		}
+		
+		@Override
+		public List<LevelResult> run(TaskMonitor monitor) throws AnalysisException {
+			List<LevelResult> result = new ArrayList<LevelResult>(1);
+			result.add(StochasticSimulator.simulate(compiled, timeTo, seed));
+			return result;
+		}
+	}
+	
+	/**
+	 * Execute the given jobs, in parallel if we have more than one worker.
+	 */
+	private void run(List<Job> jobs, int nRuns) throws AnalysisException, Exception {
+		if (nWorkers > 1 && jobs.size() > 1) {
+			runParallel(jobs, nRuns, accumulator);
+		} else {
+			runSequential(jobs, nRuns, accumulator);
+		}
+	}
+	
+	/**
+	 * Execute the given jobs one after the other, adding each result to the average
+	 * as soon as it is available.
+	 */
+	private void runSequential(List<Job> jobs, int nRuns, ResultAccumulator accumulator) throws AnalysisException, Exception {
+		int nCompleted = 0;
+		for (Job job : jobs) {
 			if (runAction != null && runAction.needToStop()) {
 				throw new AnalysisException("User interrupted");
 			}
+			if (Thread.currentThread().isInterrupted()) { //e.g. a job cancelled on the server
+				throw new AnalysisException("Interrupted");
+			}
 			if (monitor != null) {
-				monitor.setPercentCompleted((int)((double)i / nRuns * 100));
+				monitor.setPercentCompleted((int)((double)nCompleted / nRuns * 100));
+			}
+			System.err.print((nCompleted+1));
+			for (LevelResult run : job.run(monitor)) {
+				accumulator.add(run);
+				nCompleted++;
+			}
+			if (isAccurateEnough(nRuns)) {
+				return;
+			}
+			publishPartialResult(nRuns);
+		}
+	}
+	
+	/**
+	 * Execute the given jobs on a pool of nWorkers threads.
+	 * The results are added to the average in the order in which the jobs were submitted,
+	 * so that the average is exactly the same as the one computed by runSequential: a result which arrives
+	 * before its predecessors is kept aside until they are all there. Jobs are submitted only up to
+	 * PARALLEL_WINDOW * nWorkers positions after the first one whose result is still missing (a new one is submitted
+	 * each time a result is added to the average), so a single slow run cannot make us hold more results than that.
+	 * If the user cancels the task or one of the jobs fails, all the pending jobs are cancelled. The same happens
+	 * when the target accuracy is reached (see setTargetAccuracy).
+	 */
+	private void runParallel(List<Job> jobs, int nRuns, ResultAccumulator accumulator) throws AnalysisException, Exception {
+		int poolSize = Math.min(nWorkers, jobs.size());
+		ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+		CompletionService<Pair<Integer, List<LevelResult>>> completion = new ExecutorCompletionService<Pair<Integer, List<LevelResult>>>(pool);
+		Map<Integer, List<LevelResult>> waitingResults = new HashMap<Integer, List<LevelResult>>();
+		int nextToAdd = 0;
+		System.err.println("Executing " + nRuns + " simulation runs on " + poolSize + " parallel workers");
+		if (monitor != null) {
+			monitor.setStatus("Analysing model " + (simulator != null ? "in Java" : "with UPPAAL") + " (" + poolSize + " parallel runs).");
+			monitor.setPercentCompleted(0);
+		}
+		int window = PARALLEL_WINDOW * poolSize,
+			nextToSubmit = 0;
+		try {
+			while (nextToSubmit < jobs.size() && nextToSubmit < window) {
+				submit(completion, jobs.get(nextToSubmit), nextToSubmit);
+				nextToSubmit++;
+			}
+			int nCompletedJobs = 0, nCompleted = 0;
+			while (nCompletedJobs < jobs.size()) {
+				if (runAction != null && runAction.needToStop()) {
+					throw new AnalysisException("User interrupted");
+				}
+				Future<Pair<Integer, List<LevelResult>>> done = completion.poll(500, TimeUnit.MILLISECONDS);
+				if (done == null) {
+					continue;
+				}
+				Pair<Integer, List<LevelResult>> job;
+				try {
+					job = done.get();
+				} catch (ExecutionException ex) {
+					Throwable cause = ex.getCause();
+					if (cause instanceof AnalysisException) {
+						throw (AnalysisException)cause;
+					}
+					throw new AnalysisException("Error during analysis: " + cause.getMessage(), cause);
+				}
+				waitingResults.put(job.first, job.second);
+				while (waitingResults.containsKey(nextToAdd)) {
+					for (LevelResult run : waitingResults.remove(nextToAdd)) {
+						accumulator.add(run);
+					}
+					nextToAdd++;
+					if (isAccurateEnough(nRuns)) { //the runs still going on are stopped (see below), and the ones after nextToAdd are not used
+						return;
+					}
+				}
+				while (nextToSubmit < jobs.size() && nextToSubmit < nextToAdd + window) {
+					submit(completion, jobs.get(nextToSubmit), nextToSubmit);
+					nextToSubmit++;
+				}
+				nCompletedJobs++;
+				nCompleted += job.second.size();
+				System.err.print(nCompleted);
+				if (monitor != null) {
+					monitor.setPercentCompleted((int)((double)nCompleted / nRuns * 100));
+				}
+				publishPartialResult(nRuns);
 			}
-			System.err.print((i+1));
-			results.add((SimpleLevelResult)(analyzer.analyze(m, timeTo)));
+		} finally {
+			pool.shutdownNow(); //does nothing if all jobs are done, otherwise stops the ones still waiting
 		}
-		return average(results, computeStdDev);
 	}
 	
 	/**
-	 * Given a vector of SimpleLevelResults, computes a new SimpleLevelResult in which the
+	 * Submit the given job for runParallel, which will receive its results together with its index.
+	 */
+	private void submit(CompletionService<Pair<Integer, List<LevelResult>>> completion, final Job job, final int jobIndex) {
+		completion.submit(new Callable<Pair<Integer, List<LevelResult>>>() {
+			@Override
+			public Pair<Integer, List<LevelResult>> call() throws Exception {
+				if (runAction != null && runAction.needToStop()) {
+					throw new AnalysisException("User interrupted");
+				}
+				return new Pair<Integer, List<LevelResult>>(jobIndex, job.run(null));
+			}
+		});
+	}
+	
+	/**
+	 * Given a vector of LevelResults, computes a new LevelResult in which the
 	 * series represent the averages (and, if requested, standard deviations) of the series
-	 * contained in the given vector. Of course, all SimpleLevelResults in the vector are expected
+	 * contained in the given vector. Of course, all LevelResults in the vector are expected
 	 * to have the exact same series names. Time instants can be instead different: the number of time
 	 * instants contained in the result will correspond to the average number of time instants
-	 * found in the input SimpleLevelResults.
-	 * @param results The vector containing all the SimpleLevelResults of which we have to compute the average/StdDev
+	 * found in the input LevelResults.
+	 * @param results The vector containing all the LevelResults of which we have to compute the average/StdDev
 	 * @param computeStdDev Tells us whether we have to compute the standard deviation for all the series
-	 * @return A single SimpleLevelResult containing the averages (and StdDevs, if needed) of the
-	 * series present in the input SimpleLevelResults
+	 * @return A single LevelResult containing the averages (and StdDevs, if needed) of the
+	 * series present in the input LevelResults
 	 * @throws Exception
 	 */
-	public SimpleLevelResult average(Vector<SimpleLevelResult> results, boolean computeStdDev) throws Exception {
+	public LevelResult average(Vector<? extends LevelResult> results, boolean computeStdDev) throws Exception {
 		if (results.isEmpty()) throw new Exception("Empty result set");
-		Map<String, SortedMap<Double, Double>> result = new HashMap<String, SortedMap<Double, Double>>();
-		Set<String> reactantIds = results.firstElement().getReactantIds();
 		
-		for (String k : reactantIds) {
-			result.put(k, new TreeMap<Double, Double>());
-			if (computeStdDev) result.put(k + STD_DEV, new TreeMap<Double, Double>());
-		}
-		
-		double finalTime = results.firstElement().getTimeIndices().get(results.firstElement().getTimeIndices().size()-1);
+		double finalTime = results.firstElement().getLastTimeIndex();
 		int avgSize = 0;
-		for (SimpleLevelResult l : results) {
-			avgSize += l.getTimeIndices().size();
+		for (LevelResult l : results) {
+			avgSize += l.getTimeIndexCount();
 		}
 		avgSize = (int)Math.round(1.0 * avgSize / results.size());
-		double increment = finalTime / avgSize;
-		int nValues = results.size();
-		double sum = 0, sumSqrs = 0, average = 0, stdDev = 0;
-		for (double i=0;i<finalTime;i+=increment) {
-			for (String k : reactantIds) {
-				sum = 0;
-				if (computeStdDev) sumSqrs = 0;
-				for (SimpleLevelResult l : results) {
-					double val = l.getConcentration(k, i);
-					sum += val;
-					if (computeStdDev) sumSqrs += val * val;
-				}
-				average = sum / nValues;
-				if (computeStdDev) stdDev = Math.sqrt((nValues * sumSqrs - sum * sum)/ (nValues * (nValues - 1)));
-				result.get(k).put(i, average);
-				if (computeStdDev) result.get(k + STD_DEV).put(i, stdDev);
-			}
+		ResultAccumulator accumulator = new ResultAccumulator(finalTime, avgSize, computeStdDev);
+		for (LevelResult l : results) {
+			accumulator.add(l);
 		}
-		for (String k : reactantIds) {
-			sum = 0;
-			if (computeStdDev) sumSqrs = 0;
-			for (SimpleLevelResult l : results) {
-				double val = l.getConcentration(k, finalTime);
-				sum += val;
-				if (computeStdDev) sumSqrs += val * val;
-			}
-			average = sum / nValues;
-			if (computeStdDev) stdDev = Math.sqrt((nValues * sumSqrs - sum * sum)/ (nValues * (nValues - 1)));
-			result.get(k).put(finalTime, average);
-			if (computeStdDev) result.get(k + STD_DEV).put(finalTime, stdDev);
-		}
-		
-		
-		return new SimpleLevelResult(result);
+		return accumulator.getResult();
 	}
 	
 }
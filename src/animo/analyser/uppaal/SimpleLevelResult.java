@@ -2,19 +2,20 @@ package animo.analyser.uppaal;
 
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
 import java.util.SortedMap;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.Vector;
 import java.util.Map.Entry;
 
+import animo.analyser.LevelCursor;
 import animo.analyser.LevelResult;
+import animo.util.DoubleList;
 import animo.util.Pair;
 
 /**
@@ -27,6 +28,7 @@ public class SimpleLevelResult implements LevelResult, Serializable {
 	private static final long serialVersionUID = 5440819034905472745L;
 	Map<String, SortedMap<Double, Double>> levels;
 	private double max = Double.NEGATIVE_INFINITY;
+	private transient DoubleList timeIndices = null; //All the time indices of all series, merged: computed the first time they are needed
 
 	/**
 	 * @param levels the levels to enter
@@ -55,14 +57,59 @@ public class SimpleLevelResult implements LevelResult, Serializable {
 		// before that
 		//assert !data.headMap(time + 1).isEmpty() : "Can not retrieve data from any moment before the start of time.";
 		//int exactTime = data.headMap(time + 1).lastKey();
-		double exactTime = -1;
-		for (Double k : data.keySet()) {
-			if (k > time) break;
-			exactTime = k;
+		return valueAtOrBefore(data, time);
+	}
+	
+	/**
+	 * Find the value set at the given time instant, or the latest one set before that.
+	 * On a TreeMap (which is what we normally have) this takes logarithmic time.
+	 */
+	private static double valueAtOrBefore(SortedMap<Double, Double> data, double time) {
+		if (data instanceof NavigableMap) {
+			Entry<Double, Double> e = ((NavigableMap<Double, Double>)data).floorEntry(time);
+			if (e == null) { //before the start of time: the best we can do is the first value
+				return data.get(data.firstKey());
+			}
+			return e.getValue();
 		}
-
-		// use exact time to get value
-		return data.get(exactTime);
+		Double exact = data.get(time);
+		if (exact != null) {
+			return exact;
+		}
+		SortedMap<Double, Double> before = data.headMap(time);
+		if (before.isEmpty()) {
+			return data.get(data.firstKey());
+		}
+		return data.get(before.lastKey());
+	}
+	
+	@Override
+	public LevelCursor getCursor(String id) {
+		assert this.levels.containsKey(id) : "Can not retrieve level for unknown identifier.";
+		
+		final SortedMap<Double, Double> data = this.levels.get(id);
+		return new LevelCursor() {
+			private Iterator<Entry<Double, Double>> iter = data.entrySet().iterator();
+			private Entry<Double, Double> current = null, //The last point not after the time of the last lookup
+										  next = iter.hasNext() ? iter.next() : null; //The point after current
+			private double lastTime = Double.NEGATIVE_INFINITY;
+			
+			@Override
+			public double getConcentration(double time) {
+				if (time < lastTime) { //going back in time: no point in walking
+					return valueAtOrBefore(data, time);
+				}
+				lastTime = time;
+				while (next != null && next.getKey() <= time) {
+					current = next;
+					next = iter.hasNext() ? iter.next() : null;
+				}
+				if (current == null) {
+					return data.get(data.firstKey());
+				}
+				return current.getValue();
+			}
+		};
 	}
 	
 	@Override
@@ -89,13 +136,40 @@ public class SimpleLevelResult implements LevelResult, Serializable {
 
 	@Override
 	public List<Double> getTimeIndices() {
-		SortedSet<Double> accumulator = new TreeSet<Double>();
-
-		for (SortedMap<Double, Double> e : this.levels.values()) {
-			accumulator.addAll(e.keySet());
+		DoubleList indices = this.timeIndices;
+		if (indices == null) { //the result does not change, so we merge the time indices of all series only once
+			double[][] allTimes = new double[this.levels.size()][];
+			int[] lengths = new int[allTimes.length];
+			int i = 0;
+			for (SortedMap<Double, Double> e : this.levels.values()) {
+				double[] t = new double[e.size()];
+				int j = 0;
+				for (Double k : e.keySet()) {
+					t[j++] = k;
+				}
+				allTimes[i] = t;
+				lengths[i] = t.length;
+				i++;
+			}
+			indices = DoubleList.union(allTimes, lengths);
+			this.timeIndices = indices;
 		}
-
-		return new ArrayList<Double>(accumulator);
+		return indices;
+	}
+	
+	@Override
+	public double getFirstTimeIndex() {
+		return ((DoubleList)getTimeIndices()).first();
+	}
+	
+	@Override
+	public double getLastTimeIndex() {
+		return ((DoubleList)getTimeIndices()).last();
+	}
+	
+	@Override
+	public int getTimeIndexCount() {
+		return getTimeIndices().size();
 	}
 
 	@Override
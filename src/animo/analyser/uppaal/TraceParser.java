@@ -0,0 +1,443 @@
+package animo.analyser.uppaal;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import animo.analyser.AnalysisException;
+import animo.analyser.PartialResultListener;
+import animo.model.Model;
+import animo.model.Reactant;
+
+/**
+ * Reads a concrete simulation trace as output by verifyta -t0 -o2 on a model produced by VariablesModelSMC,
+ * and builds the corresponding ColumnarLevelResult.
+ * The trace is a sequence of states, each one made of three lines: "State:", the locations of the
+ * processes and the values of the variables (name=value name=value ...).
+ * Instead of using regular expressions and substrings, the lines are read into a reused char buffer and scanned
+ * by hand: variable names are mapped to the series of the result only once (from the first state), and after that
+ * reading a state does not allocate any object.
+ * The result is the same as the one which was produced by VariablesInterpreterConcrete with the regular expressions
+ * [A-Za-z0-9_]+ *= *[0-9]+ (for the variables) and globalTime=&lt;number&gt; (for the time).
+ * While the trace is being read, the series read up to now can be given to a PartialResultListener
+ * (see setPartialResultListener), so that a long simulation can be plotted while it runs.
+ */
+public class TraceParser {
+	private static final String GLOBAL_TIME = "globalTime=";
+	private static final int NOT_A_SERIES = -1, //The variable is known, but we don't plot it
+							 UNKNOWN_NAME = -2; //The variable did not appear in the first state
+	private static final double[] POWERS_OF_TEN = new double[23]; //All the powers of 10 which can be represented exactly as doubles
+	private static final boolean[] NAME_CHARS = new boolean[128]; //The characters which can be part of a variable name: [A-Za-z0-9_]
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i=1;i<POWERS_OF_TEN.length;i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+		for (char c=0;c<NAME_CHARS.length;c++) {
+			NAME_CHARS[c] = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_';
+		}
+	}
+
+	private Reader in; //Where we read the trace from
+	private char[] readBuffer = new char[1 << 16]; //The characters read from the input and not yet split into lines
+	private int readPos = 0, readLimit = 0;
+	private char[] line = new char[1024]; //The current line
+	private int lineLength = 0;
+	private int scanPos = 0; //Where to continue looking for the next assignment in the current line
+	private int nameStart, nameEnd, nameHash; //Position (and hash, see NameTable) of the name of the last assignment found in the current line
+	private long value; //Value of the last assignment found in the current line
+	private PartialResultListener partialResultListener = null; //Receives a copy of the series read up to now (null if nobody is interested)
+
+	/**
+	 * Ask to receive, while the trace is being parsed, a copy of the series read up to now.
+	 * The copies are made at most once every PartialResultListener.INTERVAL milliseconds, from the thread calling parse.
+	 * @param listener The listener, or null to stop sending partial results
+	 */
+	public void setPartialResultListener(PartialResultListener listener) {
+		this.partialResultListener = listener;
+	}
+
+	/**
+	 * Parse the trace from the given stream.
+	 * @param m The model on which the trace is based
+	 * @param output The stream from which to read the trace
+	 * @param timeTo The time up to which the simulation trace arrives (or should arrive)
+	 * @return A result containing a series for each of the reactants in the model,
+	 * showing the activity levels of that reactant for each time point of the trace.
+	 * @throws Exception
+	 */
+	public ColumnarLevelResult parse(Model m, InputStream output, int timeTo) throws Exception {
+		return parse(m, new InputStreamReader(output), timeTo);
+	}
+
+	/**
+	 * Parse the trace from the given reader.
+	 * @param m The model on which the trace is based
+	 * @param input The reader from which to read the trace
+	 * @param timeTo The time up to which the simulation trace arrives (or should arrive)
+	 * @return A result containing a series for each of the reactants in the model,
+	 * showing the activity levels of that reactant for each time point of the trace.
+	 * @throws Exception
+	 */
+	public ColumnarLevelResult parse(Model m, Reader input, int timeTo) throws Exception {
+		this.in = input;
+		readPos = readLimit = 0;
+		ColumnarLevelResult levels = new ColumnarLevelResult();
+		NameTable names = new NameTable();
+
+		//The first state tells us which variables are there, and gives us the names of the series
+		while (nextLine()) {
+			if (!lineStartsWith("State")) continue;
+			skipLine(); //the "State:" string has a \n at the end, so we need to read the next line
+			nextLine(); //the second line contains informations about which we don't care. We want variable values
+			scanPos = 0;
+			while (nextAssignment()) {
+				int known = names.get(line, nameStart, nameEnd, nameHash);
+				if (known >= 0) {
+					levels.put(known, 0.0, value);
+					continue;
+				} else if (known == NOT_A_SERIES) {
+					continue;
+				}
+				String reactantId = new String(line, nameStart, nameEnd - nameStart);
+				if (!isSeries(reactantId)) {
+					names.put(reactantId, NOT_A_SERIES);
+					continue;
+				}
+				int series = levels.addSeries(reactantId);
+				levels.put(series, 0.0, value);
+				names.put(reactantId, series);
+			}
+			break;
+		}
+
+		// add initial concentrations and get the step sizes
+		int nSeries = levels.getReactantIds().size();
+		double[] stepSizes = new double[nSeries]; //For each series, what we multiply the UPPAAL value with to get the level
+		boolean[] isPercentage = new boolean[nSeries]; //Percentages are on a scale 10 times larger, to include 1 decimal digit
+		for (String reactantId : levels.getReactantIds()) {
+			int series = levels.getSeriesIndex(reactantId);
+			stepSizes[series] = 1.0;
+			isPercentage[series] = reactantId.endsWith(VariablesModel.PERCENTAGE_SUFFIX);
+		}
+		for (Reactant r : m.getReactants()) {
+			int series;
+			if ((series = levels.getSeriesIndex(r.getId() + VariablesModel.ACTIVITY_SUFFIX)) >= 0) {
+				levels.put(series, 0.0, r.get(Model.Properties.INITIAL_LEVEL).as(Integer.class));
+				stepSizes[series] = r.get(Model.Properties.STEP_SIZE).as(Double.class);
+			}
+			if ((series = levels.getSeriesIndex(r.getId() + VariablesModel.QUANTITY_SUFFIX)) >= 0) {
+				levels.put(series, 0.0, r.get(Model.Properties.INITIAL_QUANTITY).as(Integer.class));
+				stepSizes[series] = r.get(Model.Properties.STEP_SIZE).as(Double.class);
+			}
+			if ((series = levels.getSeriesIndex(r.getId() + VariablesModel.PERCENTAGE_SUFFIX)) >= 0) {
+				double initialPercentage;
+				if (r.get(Model.Properties.INITIAL_QUANTITY).as(Integer.class) == 0) {
+					initialPercentage = 0;
+				} else {
+					initialPercentage = 100.0 * r.get(Model.Properties.INITIAL_LEVEL).as(Integer.class) / r.get(Model.Properties.INITIAL_QUANTITY).as(Integer.class);
+				}
+				levels.put(series, 0.0, initialPercentage);
+			}
+			if ((series = levels.getSeriesIndex(r.getId())) >= 0) { //Backward compatibility
+				levels.put(series, 0.0, r.get(Model.Properties.INITIAL_LEVEL).as(Integer.class));
+				stepSizes[series] = r.get(Model.Properties.STEP_SIZE).as(Double.class);
+			}
+		}
+
+		int time = 0;
+		long nextPublication = System.currentTimeMillis() + PartialResultListener.INTERVAL;
+		while (nextLine()) {
+			if (!lineStartsWith("State")) continue;
+			skipLine(); //as said before, the "State:" string ends with \n, so we need to read the next line in order to get the actual state data
+			nextLine(); //and the line after that contains only the states of the processes, while we are interested in variable values, which are in the 3rd line
+			double globalTime = findGlobalTime();
+			if (Double.isNaN(globalTime)) {
+				throw new AnalysisException("New state without globalTime. Offending line: \"" + new String(line, 0, lineLength) + "\"");
+			}
+			int newTime = (int)Math.round(globalTime);
+			if (time > newTime) continue; //We want the latest information for any time instant, so "=" is good
+			time = newTime;
+			scanPos = 0;
+			while (nextAssignment()) {
+				int series = names.get(line, nameStart, nameEnd, nameHash);
+				if (series < 0) continue;
+				double level = value;
+				if (isPercentage[series]) {
+					level = level / 10;
+				} else {
+					level = level * stepSizes[series];
+				}
+				if (levels.getLastValue(series) != level) { //if we didn't register a variation, we don't plot a point
+					levels.put(series, time, level);
+				}
+			}
+			if (partialResultListener != null && System.currentTimeMillis() >= nextPublication) { //a single check per state: the time is read only if somebody listens
+				partialResultListener.partialResult(levels.snapshot(time));
+				nextPublication = System.currentTimeMillis() + PartialResultListener.INTERVAL; //the copy may have taken a while: the interval starts after it
+			}
+		}
+
+		//we always add a final point at the requested time, because there can be some situations in which reactants are not read while time increases,
+		//and thus we can reach the end of time without having an updated value for each reactant
+		for (String reactantName : levels.getReactantIds()) {
+			int series = levels.getSeriesIndex(reactantName);
+			levels.put(series, timeTo, levels.getLastValue(series));
+		}
+		levels.trim();
+		return levels;
+	}
+
+	/**
+	 * Tells whether the given variable is one of those we show to the user.
+	 * Private variables of the reaction processes, clocks and semaphores are not.
+	 */
+	private static boolean isSeries(String reactantId) {
+		if (reactantId.contains("_nonofficial") || reactantId.contains("counter") || reactantId.contains("metro")) return false;
+		if (reactantId.equals("c") || reactantId.equals("globalTime") || reactantId.equals("r")
+			|| reactantId.startsWith("input_reactant_") || reactantId.startsWith("output_reactant_") //private variables are not taken into account
+			|| reactantId.equals("r1") || reactantId.equals("r2")
+			|| reactantId.endsWith(VariablesModel.MAX_QUANTITY_SUFFIX)
+			|| reactantId.endsWith(VariablesModel.SEMAPHORE_SUFFIX)) return false; //Nor do we need to count semaphores
+		return true;
+	}
+
+	/**
+	 * Read the next line of input into the line buffer.
+	 * @return false if the input has ended
+	 */
+	private boolean nextLine() throws IOException {
+		lineLength = 0;
+		boolean readSomething = false;
+		while (true) {
+			if (readPos >= readLimit) {
+				readLimit = in.read(readBuffer, 0, readBuffer.length);
+				readPos = 0;
+				if (readLimit <= 0) {
+					readLimit = 0;
+					return readSomething;
+				}
+			}
+			readSomething = true;
+			int end = readPos;
+			while (end < readLimit && readBuffer[end] != '\n') end++;
+			int n = end - readPos;
+			if (lineLength + n > line.length) {
+				char[] newLine = new char[Math.max(line.length * 2, lineLength + n)];
+				System.arraycopy(line, 0, newLine, 0, lineLength);
+				line = newLine;
+			}
+			System.arraycopy(readBuffer, readPos, line, lineLength, n);
+			lineLength += n;
+			readPos = end;
+			if (end < readLimit) { //we found the end of the line
+				readPos++;
+				if (lineLength > 0 && line[lineLength - 1] == '\r') {
+					lineLength--;
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Skip the next line of input, without copying it into the line buffer
+	 * (whose content is not changed).
+	 */
+	private void skipLine() throws IOException {
+		while (true) {
+			if (readPos >= readLimit) {
+				readLimit = in.read(readBuffer, 0, readBuffer.length);
+				readPos = 0;
+				if (readLimit <= 0) {
+					readLimit = 0;
+					return;
+				}
+			}
+			while (readPos < readLimit) {
+				if (readBuffer[readPos++] == '\n') return;
+			}
+		}
+	}
+
+	private boolean lineStartsWith(String prefix) {
+		if (lineLength < prefix.length()) return false;
+		for (int i=0;i<prefix.length();i++) {
+			if (line[i] != prefix.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	private static boolean isNameChar(char c) {
+		return c < NAME_CHARS.length && NAME_CHARS[c];
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Find the next assignment name = value (with a non-negative integer value) in the current line,
+	 * starting from scanPos. The name is left in [nameStart, nameEnd) (with its hash in nameHash), the value in value.
+	 * @return false if there are no more assignments in the line
+	 */
+	private boolean nextAssignment() {
+		int i = scanPos;
+		while (i < lineLength) {
+			if (!isNameChar(line[i])) {
+				i++;
+				continue;
+			}
+			int start = i, h = 0;
+			while (i < lineLength && isNameChar(line[i])) {
+				h = 31 * h + line[i]; //computed here, so that NameTable does not need to read the name again
+				i++;
+			}
+			int end = i, j = i;
+			while (j < lineLength && line[j] == ' ') j++;
+			if (j >= lineLength || line[j] != '=') continue;
+			j++;
+			while (j < lineLength && line[j] == ' ') j++;
+			if (j >= lineLength || !isDigit(line[j])) continue;
+			long v = 0;
+			while (j < lineLength && isDigit(line[j])) {
+				v = v * 10 + (line[j] - '0');
+				j++;
+			}
+			nameStart = start;
+			nameEnd = end;
+			nameHash = NameTable.spread(h);
+			value = v;
+			scanPos = j;
+			return true;
+		}
+		scanPos = lineLength;
+		return false;
+	}
+
+	/**
+	 * Find the value of globalTime in the current line. The value can have decimals and an exponent
+	 * (e.g. 3.434252e+06). As done up to now, the sign is ignored.
+	 * @return The value of globalTime, or NaN if the line does not contain it
+	 */
+	private double findGlobalTime() {
+		int n = GLOBAL_TIME.length();
+		outer:
+		for (int i=0;i + n <= lineLength;i++) {
+			for (int k=0;k<n;k++) {
+				if (line[i + k] != GLOBAL_TIME.charAt(k)) continue outer;
+			}
+			int start = i + n, j = start;
+			if (j < lineLength && (line[j] == '-' || line[j] == '+')) start = ++j; //the sign is ignored
+			long mantissa = 0;
+			int exponent = 0, digits = 0;
+			while (j < lineLength && isDigit(line[j])) {
+				mantissa = mantissa * 10 + (line[j] - '0');
+				j++;
+				digits++;
+			}
+			if (j < lineLength && line[j] == '.') {
+				j++;
+				while (j < lineLength && isDigit(line[j])) {
+					mantissa = mantissa * 10 + (line[j] - '0');
+					exponent--;
+					j++;
+					digits++;
+				}
+			}
+			if (digits == 0) continue;
+			if (j + 1 < lineLength && (line[j] == 'e' || line[j] == 'E')) {
+				int k = j + 1;
+				boolean negative = false;
+				if (line[k] == '-' || line[k] == '+') {
+					negative = line[k] == '-';
+					k++;
+				}
+				if (k < lineLength && isDigit(line[k])) {
+					int e = 0;
+					while (k < lineLength && isDigit(line[k])) {
+						if (e < 10000) e = e * 10 + (line[k] - '0');
+						k++;
+					}
+					exponent += negative ? -e : e;
+					j = k;
+				}
+			}
+			if (digits <= 15 && exponent >= -22 && exponent <= 22) { //both operands are exact, so the result is correctly rounded, as with Double.parseDouble
+				if (exponent >= 0) {
+					return mantissa * POWERS_OF_TEN[exponent];
+				} else {
+					return mantissa / POWERS_OF_TEN[-exponent];
+				}
+			}
+			return Double.parseDouble(new String(line, start, j - start)); //the rare case: let Java do it
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * A hash table from variable names to series indices, which can be queried directly with a
+	 * portion of a char array, without building a String.
+	 */
+	private static class NameTable {
+		private String[] keys = new String[64];
+		private int[] values = new int[64];
+		private int size = 0;
+
+		private static int hash(char[] buf, int start, int end) {
+			int h = 0;
+			for (int i=start;i<end;i++) {
+				h = 31 * h + buf[i];
+			}
+			return spread(h);
+		}
+
+		static int spread(int h) {
+			return h ^ (h >>> 16);
+		}
+
+		/**
+		 * @param hash The hash of the name, as given by hash(buf, start, end)
+		 * @return The value associated to the name in buf[start, end), or UNKNOWN_NAME
+		 */
+		int get(char[] buf, int start, int end, int hash) {
+			int mask = keys.length - 1,
+				pos = hash & mask,
+				len = end - start;
+			while (keys[pos] != null) {
+				String k = keys[pos];
+				if (k.length() == len) {
+					int i = 0;
+					while (i < len && k.charAt(i) == buf[start + i]) i++;
+					if (i == len) return values[pos];
+				}
+				pos = (pos + 1) & mask;
+			}
+			return UNKNOWN_NAME;
+		}
+
+		void put(String name, int value) {
+			if (2 * (size + 1) > keys.length) {
+				String[] oldKeys = keys;
+				int[] oldValues = values;
+				keys = new String[oldKeys.length * 2];
+				values = new int[oldKeys.length * 2];
+				size = 0;
+				for (int i=0;i<oldKeys.length;i++) {
+					if (oldKeys[i] != null) put(oldKeys[i], oldValues[i]);
+				}
+			}
+			char[] chars = name.toCharArray();
+			int mask = keys.length - 1,
+				pos = hash(chars, 0, chars.length) & mask;
+			while (keys[pos] != null && !keys[pos].equals(name)) {
+				pos = (pos + 1) & mask;
+			}
+			if (keys[pos] == null) size++;
+			keys[pos] = name;
+			values[pos] = value;
+		}
+	}
+}
@@ -75,7 +75,7 @@ public class UppaalInvoker {
 		this.verifytaPath = configuration.get(VERIFY_KEY);
 		this.tracerPath = configuration.get(TRACER_KEY);
 
-		this.temporaryLocation = new File(configuration.get(TEMP_KEY, System.getProperty("java.io.tmpdir")));
+		this.temporaryLocation = new File(configuration.get(TEMP_KEY, VerifytaInput.getDirectory(VerifytaInput.getMode()).getPath()));
 
 		this.leaveFiles = configuration.has(LEAVE_KEY);
 	}
@@ -98,6 +98,9 @@ public class UppaalInvoker {
 	/**
 	 * Produces a trace of the single query in the file. This method should only
 	 * be used for a single query that results a trace.
+	 * The model is read more than once (by verifyta and by the tracer), so it is always
+	 * written to a file (in memory, if so configured: see VerifytaInput), which is deleted
+	 * before returning unless we are asked to leave the files.
 	 * 
 	 * @param model the UPPAAL model to use
 	 * @param query the query to use
@@ -112,102 +115,100 @@ public class UppaalInvoker {
 		final String prefix = modelFile.getName().replace(".xml", "");
 		File queryFile = new File(this.temporaryLocation, prefix + ".q");
 
-		// write out strings to file
-		FileWriter modelFileOut = new FileWriter(modelFile);
-		modelFileOut.append(model);
-		modelFileOut.close();
-		if (!this.leaveFiles) {
-			modelFile.deleteOnExit();
-		}
-
-		FileWriter queryFileOut = new FileWriter(queryFile);
-		queryFileOut.append(query);
-		queryFileOut.close();
-		if (!this.leaveFiles) {
-			queryFile.deleteOnExit();
-		}
-
-		// create process builder
-		ProcessBuilder builder = new ProcessBuilder();
-
-		// step 1: create xtr
-		builder.command(this.verifytaPath, "-t0", "-o2", "-y", "-f" + prefix, modelFile.getAbsolutePath(),
-				queryFile.getAbsolutePath());
-		builder.directory(this.temporaryLocation);
-		builder.redirectErrorStream(true);
-		Process xtrProcess = builder.start();
-
-		BufferedReader reader = new BufferedReader(new InputStreamReader(xtrProcess.getInputStream()));
-
-		StringBuilder buffer = new StringBuilder();
-		String line = null;
-		while ((line = reader.readLine()) != null) {
-			buffer.append(line).append("\n");
-		}
-
-		int result = xtrProcess.waitFor();
-		if (result != 0) {
-			throw new IOException("Creating XTR's failed:\n" + buffer);
-		}
-
-		File xtrFile = new File(this.temporaryLocation, prefix + "-1.xtr");
-		if (!xtrFile.exists()) {
-			// no XTR file -> no satisfying trace (but the query might still be
-			// answered in the positive, it just does not result in a trace)
-			return null;
-		}
-
-		if (!this.leaveFiles) {
-			xtrFile.deleteOnExit();
-		}
-
-		// step 2: compile model
-		builder.command(this.verifytaPath, "-t0", "-o2", "-y", modelFile.getAbsolutePath(), queryFile.getAbsolutePath());
-		builder.redirectErrorStream(true);
-		builder.environment().put(UPPAAL_COMPILE_ONLY, "true");
-		Process compilerProcess = builder.start();
-
-		reader = new BufferedReader(new InputStreamReader(compilerProcess.getInputStream()));
-		buffer = new StringBuilder();
-		line = null;
-		while ((line = reader.readLine()) != null) {
-			buffer.append(line).append("\n");
-		}
-
-		File compiledFile = new File(this.temporaryLocation, prefix + ".model");
-		if (!this.leaveFiles) {
-			compiledFile.deleteOnExit();
-		}
-
-		result = compilerProcess.waitFor();
-		if (result != 0) {
-			throw new IOException("Compiling model failed:\n" + buffer);
-		} else {
-			FileWriter compiledFileOut = new FileWriter(compiledFile);
-			compiledFileOut.append(buffer.toString());
-			compiledFileOut.close();
-		}
-
-		// step 3: convert trace
-		builder.command(this.tracerPath, compiledFile.getAbsolutePath(), xtrFile.getAbsolutePath());
-		builder.redirectErrorStream(true);
-		builder.environment().remove(UPPAAL_COMPILE_ONLY);
-
-		Process tracerProcess = builder.start();
-
-		reader = new BufferedReader(new InputStreamReader(tracerProcess.getInputStream()));
-		buffer = new StringBuilder();
-		line = null;
-		while ((line = reader.readLine()) != null) {
-			buffer.append(line).append("\n");
-		}
-
-		result = tracerProcess.waitFor();
-		if (result != 0) {
-			throw new IOException("Trace conversion failed because tracer process exitted with non-null value '"
-					+ result + "'.\nOutput buffer so far was: " + buffer);
-		} else {
-			return buffer.toString();
+		File xtrFile = new File(this.temporaryLocation, prefix + "-1.xtr"),
+			 compiledFile = new File(this.temporaryLocation, prefix + ".model");
+
+		try {
+			// write out strings to file
+			FileWriter modelFileOut = new FileWriter(modelFile);
+			modelFileOut.append(model);
+			modelFileOut.close();
+
+			FileWriter queryFileOut = new FileWriter(queryFile);
+			queryFileOut.append(query);
+			queryFileOut.close();
+
+			// create process builder
+			ProcessBuilder builder = new ProcessBuilder();
+
+			// step 1: create xtr
+			builder.command(this.verifytaPath, "-t0", "-o2", "-y", "-f" + prefix, modelFile.getAbsolutePath(),
+					queryFile.getAbsolutePath());
+			builder.directory(this.temporaryLocation);
+			builder.redirectErrorStream(true);
+			Process xtrProcess = builder.start();
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(xtrProcess.getInputStream()));
+
+			StringBuilder buffer = new StringBuilder();
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				buffer.append(line).append("\n");
+			}
+
+			int result = xtrProcess.waitFor();
+			if (result != 0) {
+				throw new IOException("Creating XTR's failed:\n" + buffer);
+			}
+
+			if (!xtrFile.exists()) {
+				// no XTR file -> no satisfying trace (but the query might still be
+				// answered in the positive, it just does not result in a trace)
+				return null;
+			}
+
+
+			// step 2: compile model
+			builder.command(this.verifytaPath, "-t0", "-o2", "-y", modelFile.getAbsolutePath(), queryFile.getAbsolutePath());
+			builder.redirectErrorStream(true);
+			builder.environment().put(UPPAAL_COMPILE_ONLY, "true");
+			Process compilerProcess = builder.start();
+
+			reader = new BufferedReader(new InputStreamReader(compilerProcess.getInputStream()));
+			buffer = new StringBuilder();
+			line = null;
+			while ((line = reader.readLine()) != null) {
+				buffer.append(line).append("\n");
+			}
+
+
+			result = compilerProcess.waitFor();
+			if (result != 0) {
+				throw new IOException("Compiling model failed:\n" + buffer);
+			} else {
+				FileWriter compiledFileOut = new FileWriter(compiledFile);
+				compiledFileOut.append(buffer.toString());
+				compiledFileOut.close();
+			}
+
+			// step 3: convert trace
+			builder.command(this.tracerPath, compiledFile.getAbsolutePath(), xtrFile.getAbsolutePath());
+			builder.redirectErrorStream(true);
+			builder.environment().remove(UPPAAL_COMPILE_ONLY);
+
+			Process tracerProcess = builder.start();
+
+			reader = new BufferedReader(new InputStreamReader(tracerProcess.getInputStream()));
+			buffer = new StringBuilder();
+			line = null;
+			while ((line = reader.readLine()) != null) {
+				buffer.append(line).append("\n");
+			}
+
+			result = tracerProcess.waitFor();
+			if (result != 0) {
+				throw new IOException("Trace conversion failed because tracer process exitted with non-null value '"
+						+ result + "'.\nOutput buffer so far was: " + buffer);
+			} else {
+				return buffer.toString();
+			}
+		} finally {
+			if (!this.leaveFiles) { //the files are deleted as soon as we are done, so that they do not pile up while we keep running
+				modelFile.delete();
+				queryFile.delete();
+				xtrFile.delete();
+				compiledFile.delete();
+			}
 		}
 	}
 }
@@ -3,19 +3,16 @@ package animo.analyser.uppaal;
 
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
-import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.swing.JOptionPane;
 
@@ -23,10 +20,12 @@ import animo.ANIMOBackend;
 import animo.analyser.AnalysisException;
 import animo.analyser.LevelResult;
 import animo.analyser.ModelAnalyser;
+import animo.analyser.PartialResultListener;
 import animo.analyser.SMCResult;
 import animo.cytoscape.RunAction;
 import animo.model.Model;
 import animo.model.Reactant;
+import animo.util.CancellationToken;
 import animo.util.XmlConfiguration;
 
 import cytoscape.Cytoscape;
@@ -47,17 +46,28 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 	private String verifytaPath, verifytaSMCPath;//, tracerPath; //The paths to the tools used in the analysis
 	private TaskMonitor monitor; //The reference to the Monitor in which to show the progress of the task
 	private RunAction runAction; //We can ask this one whether the user has asked us to cancel the computation
-	private int taskStatus = 0; //Used to define the current status of the analysis task. 0 = still running, 1 = process completed, 2 = user pressed Cancel
+	private CancellationToken cancellation; //Cancelled when the user asks us to stop: the verifyta process is then destroyed immediately (null if we cannot be cancelled)
+	private PartialResultListener partialResultListener = null; //Receives the series read up to now while a simulation trace is being parsed
 	
 	public UppaalModelAnalyserFasterConcrete(TaskMonitor monitor, RunAction runAction) {
 		XmlConfiguration configuration = ANIMOBackend.get().configuration();
 
 		this.monitor = monitor;
 		this.runAction = runAction;
+		this.cancellation = (runAction != null) ? runAction.getCancellationToken() : null;
 		this.verifytaPath = configuration.get(XmlConfiguration.VERIFY_KEY);
 		this.verifytaSMCPath = configuration.get(XmlConfiguration.VERIFY_SMC_KEY);
 	}
 	
+	/**
+	 * Ask to receive, during analyze, the part of the simulation trace read up to now
+	 * (see TraceParser.setPartialResultListener). Batches (analyzeBatch) are not affected.
+	 * @param listener The listener, or null if partial results are not needed
+	 */
+	public void setPartialResultListener(PartialResultListener listener) {
+		this.partialResultListener = listener;
+	}
+	
 	public static boolean areWeUnderWindows() {
 		if (System.getProperty("os.name").startsWith("Windows")) return true;
 		return false;
@@ -76,118 +86,65 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 	public SMCResult analyzeSMC(Model m, String probabilisticQuery) throws AnalysisException {
 		SMCResult result = null;
 		try {
-			final String uppaalModel = new VariablesModelSMC().transform(m);
-			
-			File modelFile = File.createTempFile("ANIMO", ".xml");
-			final String prefix = modelFile.getAbsolutePath().replace(".xml", "");
-			File queryFile = new File(prefix + ".q");
-			
-			// write out strings to file
-			FileWriter modelFileOut = new FileWriter(modelFile);
-			modelFileOut.append(uppaalModel);
-			modelFileOut.close();
-			modelFile.deleteOnExit();
-			
-			FileWriter queryFileOut = new FileWriter(queryFile);
-			queryFileOut.append(probabilisticQuery);
-			queryFileOut.close();
-			queryFile.deleteOnExit();
-	
-			String nomeFileModello = modelFile.getAbsolutePath(),
-				   nomeFileQuery = queryFile.getAbsolutePath(),
-				   nomeFileOutput = nomeFileModello.substring(0, nomeFileModello.indexOf(".")) + ".output";
-			File fileOutput = new File(nomeFileOutput);
-			fileOutput.deleteOnExit();
-						
-			//the following string is used in order to make sure that the name of .xtr output files is unique even when we are called by an application which is multi-threaded itself (it supposes of course that the input file is unique =))
-			String[] cmd = new String[3];
-			
-			if (areWeUnderWindows()) {
-				if (!new File(verifytaSMCPath).exists()) {
-					throw new FileNotFoundException("Cannot locate verifyta executable! (tried in " + verifytaSMCPath + ")");
-				}
-				cmd[0] = "cmd";
-				cmd[1] = "/c";
-				cmd[2] = " \"" + verifytaSMCPath + "\"";
-			} else {
-				if (!new File(verifytaSMCPath).exists()) {
-					throw new FileNotFoundException("Cannot locate verifyta executable! (tried in " + verifytaSMCPath + ")");
-				}
-				cmd[0] = "bash";
-				cmd[1] = "-c";
-				cmd[2] = verifytaSMCPath;				
-			}
-			cmd[2] += " \"" + nomeFileModello + "\" \"" + nomeFileQuery + "\" > \"" + nomeFileOutput + "\" 2>&1";
-			Runtime rt = Runtime.getRuntime();
-			long startTime = System.currentTimeMillis();
-			final Process proc = rt.exec(cmd);
-			if (runAction != null) {
-				taskStatus = 0;
-				new Thread() { //wait for the process to end correctly
-					@Override
-					public void run() {
-						try {
-							proc.waitFor();
-						} catch (InterruptedException ex) {
-							taskStatus = 2;
-						}
-						taskStatus = 1;
+			PreparedModel prepared = new PreparedModel(m, 0, probabilisticQuery, 0); //the length of the simulations is in the query
+			VerifytaInput input = prepared.open();
+			try {
+				String nomeFileModello = input.getModelPath(),
+					   nomeFileQuery = input.getQueryPath();
+							
+				String[] cmd = new String[3];
+				
+				if (areWeUnderWindows()) {
+					if (!new File(verifytaSMCPath).exists()) {
+						throw new FileNotFoundException("Cannot locate verifyta executable! (tried in " + verifytaSMCPath + ")");
+					}
+					cmd[0] = "cmd";
+					cmd[1] = "/c";
+					cmd[2] = " \"" + verifytaSMCPath + "\"";
+				} else {
+					if (!new File(verifytaSMCPath).exists()) {
+						throw new FileNotFoundException("Cannot locate verifyta executable! (tried in " + verifytaSMCPath + ")");
 					}
-				}.start();
-				new Thread() { //wait for the process to end by user cancellation
+					cmd[0] = "bash";
+					cmd[1] = "-c";
+					cmd[2] = verifytaSMCPath;				
+				}
+				cmd[2] += " \"" + nomeFileModello + "\" \"" + nomeFileQuery + "\" 2>&1"; //we read the answer and the errors together
+				long startTime = System.currentTimeMillis();
+				VerifytaProcess proc = new VerifytaProcess(cmd);
+				proc.getProcess().getOutputStream().close();
+				String output = proc.waitFor(proc.getProcess().getInputStream(), new VerifytaProcess.OutputParser<String>() {
 					@Override
-					public void run() {
-						while (taskStatus == 0) {
-							if (runAction.needToStop()) {
-								taskStatus = 2;
-								return;
-							}
-							try {
-								Thread.sleep(500);
-							} catch (InterruptedException e) {
-								
-							}
+					public String parse(InputStream output) throws Exception { //the output of an SMC query is short: we keep it to show it in case of errors
+						ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+						byte[] buffer = new byte[4096];
+						int n;
+						while ((n = output.read(buffer)) != -1) {
+							bytes.write(buffer, 0, n);
 						}
+						return bytes.toString();
 					}
-				}.start();
-				while (taskStatus == 0) {
-					Thread.sleep(100);
-				}
-				if (taskStatus == 2) { //the process has been cancelled: we need to exit
-					throw new AnalysisException("User interrupted");
-				}
-			} else {
-				try {
-					proc.waitFor();
-				} catch (InterruptedException ex){
-					proc.destroy();
-					throw new Exception("Interrupted (1)");
+				}, cancellation);
+				long endTime = System.currentTimeMillis();
+				System.err.println("\tUPPAAL analysis of " + nomeFileModello + " took " + RunAction.timeDifferenceFormat(startTime, endTime));
+				int exitValue = proc.exitValue();
+				proc.close();
+				if (exitValue != 0) {
+					StringBuilder errorBuilder = new StringBuilder();
+					errorBuilder.append("[" + nomeFileModello + "] Verify result: " + exitValue + "\n");
+					errorBuilder.append(output);
+					errorBuilder.append(" (current directory: " + new File(".").getAbsolutePath() + ")\n");
+					throw new Exception(errorBuilder.toString());
 				}
+				
+				startTime = System.currentTimeMillis();
+				result = new UppaalModelAnalyserFasterConcrete.VariablesInterpreterConcrete(monitor).analyseSMC(m, new ByteArrayInputStream(output.getBytes()));
+				endTime = System.currentTimeMillis();
+				System.err.println("\tParsing the result produced by UPPAAL took " + RunAction.timeDifferenceFormat(startTime, endTime));
+			} finally {
+				input.close();
+				prepared.close();
 			}
-			long endTime = System.currentTimeMillis();
-			System.err.println("\tUPPAAL analysis of " + nomeFileModello + " took " + RunAction.timeDifferenceFormat(startTime, endTime));
-			if (proc.exitValue() != 0) {
-				StringBuilder errorBuilder = new StringBuilder();
-				errorBuilder.append("[" + nomeFileModello + "] Verify result: " + proc.exitValue() + "\n");
-				BufferedReader br = new BufferedReader(new InputStreamReader(proc.getErrorStream()));
-				String line = null;
-				while ((line = br.readLine()) != null) {
-					errorBuilder.append(line + "\n");
-				}
-				errorBuilder.append(" (current directory: " + new File(".").getAbsolutePath() + ")\n");
-				throw new Exception(errorBuilder.toString());
-			}
-			//N B: it is responsibility of the caller to close all streams when the process is done!!!
-			proc.getErrorStream().close();
-			proc.getInputStream().close();
-			proc.getOutputStream().close();
-			
-			startTime = System.currentTimeMillis();
-			result = new UppaalModelAnalyserFasterConcrete.VariablesInterpreterConcrete(monitor).analyseSMC(m, new FileInputStream(nomeFileOutput));
-			endTime = System.currentTimeMillis();
-			System.err.println("\tParsing the result produced by UPPAAL took " + RunAction.timeDifferenceFormat(startTime, endTime));
-			
-			new File(nomeFileOutput).delete();
 			
 		} catch (Exception e) {
 			throw new AnalysisException("Error during analysis", e);
@@ -216,163 +173,241 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 	 * @param m The model to analyse
 	 * @param timeTo the length of the simulation, in UPPAAL time units. The translation from
 	 * real-life minutes to UPPAAL time units is made in RunAction.performNormalAnalysis.
-	 * @return The SimpleLevelResult showing as series the activity levels of all reactants
+	 * @return The LevelResult showing as series the activity levels of all reactants
 	 * present in the model during the simulation period
 	 */
 	public LevelResult analyze(final Model m, final int timeTo) throws AnalysisException {
-		LevelResult result = null;
+		PreparedModel prepared = prepare(m, timeTo);
 		try {
-			final String uppaalModel = new VariablesModelSMC().transform(m);
-			final String uppaalQuery = "E<> (globalTime > " + timeTo + ")";
-			
-			File modelFile = File.createTempFile("ANIMO", ".xml");
-			final String prefix = modelFile.getAbsolutePath().replace(".xml", "");
-			File queryFile = new File(prefix + ".q");
+			return analyze(prepared);
+		} finally {
+			prepared.close();
+		}
+	}
 	
-			// write out strings to file
-			FileWriter modelFileOut = new FileWriter(modelFile);
-			modelFileOut.append(uppaalModel);
-			modelFileOut.close();
-			modelFile.deleteOnExit();
-			
-			FileWriter queryFileOut = new FileWriter(queryFile);
-			queryFileOut.append(uppaalQuery);
-			queryFileOut.close();
-			queryFile.deleteOnExit();
+	/**
+	 * Translate the given model into UPPAAL and write it to file, so that it can be
+	 * simulated as many times as needed via analyze(PreparedModel).
+	 * Remember to close the prepared model when you do not need it anymore.
+	 * @param m The model to prepare
+	 * @param timeTo the length of the simulations, in UPPAAL time units
+	 * @return The model ready to be passed to verifyta
+	 * @throws AnalysisException
+	 */
+	public PreparedModel prepare(Model m, int timeTo) throws AnalysisException {
+		try {
+			return new PreparedModel(m, timeTo);
+		} catch (Exception e) {
+			throw new AnalysisException("Error during analysis: " + e.getMessage(), e);
+		}
+	}
 	
-			String nomeFileModello = modelFile.getAbsolutePath(),
-				   nomeFileQuery = queryFile.getAbsolutePath();
+	/**
+	 * Perform a simple simulation run on a model already prepared by prepare(Model, int).
+	 * The prepared model is not closed, so it can be used again for the next run.
+	 * @param prepared The model, already translated for UPPAAL
+	 * @return The LevelResult showing as series the activity levels of all reactants
+	 * present in the model during the simulation period
+	 */
+	public LevelResult analyze(final PreparedModel prepared) throws AnalysisException {
+		final Model m = prepared.getModel();
+		final int timeTo = prepared.getTimeTo();
+		if (prepared.isClosed()) {
+			throw new AnalysisException("Error during analysis: the prepared model was already closed");
+		}
+		LevelResult result = null;
+		try {
+			VerifytaInput input = prepared.open();
+			try {
+				String nomeFileModello = input.getModelPath(),
+					   nomeFileQuery = input.getQueryPath();
 			
 			
-			String[] cmd = new String[3];
+				String[] cmd = new String[3];
 			
-			if (areWeUnderWindows()) {
-				if (!new File(verifytaPath).exists()) {
-					throw new FileNotFoundException("Cannot locate verifyta executable! (tried in " + verifytaPath + ")");
-				}
-				cmd[0] = "cmd";
-				cmd[1] = "/c";
-				cmd[2] = " \"" + verifytaPath + "\"";
-			} else {
-				if (!new File(verifytaPath).exists()) {
-					throw new FileNotFoundException("Cannot locate verifyta executable! (tried in " + verifytaPath + ")");
-				}
-				cmd[0] = "bash";
-				cmd[1] = "-c";
-				cmd[2] = verifytaPath;				
-			}
-			cmd[2] += " -t0 -o2 \"" + nomeFileModello + "\" \"" + nomeFileQuery + "\"";
-			Runtime rt = Runtime.getRuntime();
-			if (monitor != null) {
-				monitor.setStatus("Analysing model with UPPAAL.");
-			}
-			System.err.print("\tUPPAAL analysis of " + nomeFileModello);
-			final Process proc = rt.exec(cmd);
-			final Vector<LevelResult> resultVector = new Vector<LevelResult>(1); //this has no other reason than to hack around the fact that an internal class needs to have all variables it uses declared as final
-			final Vector<Exception> errors = new Vector<Exception>(); //same reason as above
-			new Thread() {
-				@Override
-				public void run() {
-					try {
-						if (areWeUnderWindows()) { //If we are under windows, we need to close these unused streams, otherwise the process will mysteriously stall.
-							proc.getInputStream().close();
-							proc.getOutputStream().close();
-						}
-						resultVector.add(new UppaalModelAnalyserFasterConcrete.VariablesInterpreterConcrete(monitor).analyse(m, proc.getErrorStream(), timeTo));
-					} catch (Exception e) {
-						errors.add(e);
-					}
-				}
-			}.start();
-			if (runAction != null) {
-				taskStatus = 0;
-				new Thread() { //wait for the process to end correctly
-					@Override
-					public void run() {
-						try {
-							proc.waitFor();
-						} catch (InterruptedException ex) {
-							taskStatus = 2;
-						}
-						taskStatus = 1;
+				if (areWeUnderWindows()) {
+					if (!new File(verifytaPath).exists()) {
+						throw new FileNotFoundException("Cannot locate verifyta executable! (tried in " + verifytaPath + ")");
 					}
-				}.start();
-				new Thread() { //wait for the process to end by user cancellation
-					@Override
-					public void run() {
-						while (taskStatus == 0) {
-							if (runAction.needToStop()) {
-								taskStatus = 2;
-								return;
-							}
-							try {
-								Thread.sleep(500);
-							} catch (InterruptedException e) {
-								
-							}
-						}
+					cmd[0] = "cmd";
+					cmd[1] = "/c";
+					cmd[2] = " \"" + verifytaPath + "\"";
+				} else {
+					if (!new File(verifytaPath).exists()) {
+						throw new FileNotFoundException("Cannot locate verifyta executable! (tried in " + verifytaPath + ")");
 					}
-				}.start();
-				while (taskStatus == 0) {
-					Thread.sleep(100);
+					cmd[0] = "bash";
+					cmd[1] = "-c";
+					cmd[2] = verifytaPath;				
 				}
-				if (taskStatus == 2) {
-					System.err.println(" was interrupted by the user");
-					proc.destroy();
-					throw new AnalysisException("User interrupted");
+				cmd[2] += " -t0 -o2 \"" + nomeFileModello + "\" \"" + nomeFileQuery + "\"";
+				if (monitor != null) {
+					monitor.setStatus("Analysing model with UPPAAL.");
 				}
-				while (resultVector.isEmpty()) { //if the verifyta process is completed, we may still need to wait for the analysis thread to complete
-					Thread.sleep(100);
+				System.err.print("\tUPPAAL analysis of " + nomeFileModello);
+				VerifytaProcess proc = new VerifytaProcess(cmd);
+				if (areWeUnderWindows()) { //If we are under windows, we need to close these unused streams, otherwise the process will mysteriously stall.
+					proc.getProcess().getInputStream().close();
+					proc.getProcess().getOutputStream().close();
 				}
-			} else {
 				try {
-					proc.waitFor();
-				} catch (InterruptedException ex){
-					proc.destroy();
-					throw new Exception("Interrupted (1)");
-				}
-				while (resultVector.isEmpty()) { //if the verifyta process is completed, we may still need to wait for the analysis thread to complete
-					Thread.sleep(100);
+					result = proc.waitFor(proc.getProcess().getErrorStream(), new VerifytaProcess.OutputParser<LevelResult>() {
+						@Override
+						public LevelResult parse(InputStream output) throws Exception {
+							return new UppaalModelAnalyserFasterConcrete.VariablesInterpreterConcrete(monitor, partialResultListener).analyse(m, output, timeTo);
+						}
+					}, cancellation);
+				} catch (Exception ex) {
+					if (cancellation != null && cancellation.isCancelled()) {
+						System.err.println(" was interrupted by the user");
+						throw ex;
+					}
+					throw new AnalysisException("Error during analysis", ex);
+				}
+				if (proc.exitValue() != 0 && (result == null || result.isEmpty())) {
+					StringBuilder errorBuilder = new StringBuilder();
+					errorBuilder.append("[" + nomeFileModello + "] Verify result: " + proc.exitValue() + "\n");
+					if (result == null) {
+						errorBuilder.append(" null result\n");
+					} else if (result.isEmpty()) {
+						errorBuilder.append(" empty result\n");
+					} else {
+						errorBuilder.append(" result contains " + result.getTimeIndexCount() + " time points\n");
+					}
+					BufferedReader br = new BufferedReader(new InputStreamReader(proc.getProcess().getErrorStream()));
+					String line = null;
+					while ((line = br.readLine()) != null) {
+						errorBuilder.append(line + "\n");
+					}
+					errorBuilder.append(" (current directory: " + new File(".").getAbsolutePath() + ")\n");
+					throw new Exception(errorBuilder.toString());
 				}
+				//N B: it is responsibility of the caller to close all streams when the process is done!!!
+				proc.close();
+			} finally {
+				input.close(); //the pipes or files are not needed anymore
 			}
-			if (!errors.isEmpty()) {
-				Exception ex = errors.firstElement();
-				throw new AnalysisException("Error during analysis", ex);
+		} catch (Exception e) {
+			throw new AnalysisException("Error during analysis: " + e.getMessage(), e);
+		}
+		
+		if (result == null || result.isEmpty()) {
+			throw new AnalysisException("Error during analysis: empty result");
+		}
+		
+		return result;
+	}
+	
+	
+	/**
+	 * Build the UPPAAL SMC query asking for nRuns simulation traces up to time timeTo, in which all
+	 * the variables we plot (activity, quantity and percentage of each enabled reactant) are recorded.
+	 * @param m The model to simulate
+	 * @param timeTo the length of the simulations, in UPPAAL time units
+	 * @param nRuns How many traces we want
+	 * @return The query, in the form simulate N [<=T] { var1, var2, ... }
+	 */
+	public static String batchSimulationQuery(Model m, int timeTo, int nRuns) {
+		StringBuilder query = new StringBuilder();
+		query.append("simulate " + nRuns + " [<=" + timeTo + "] {");
+		boolean first = true;
+		for (Reactant r : m.getReactants()) {
+			if (!r.get(Model.Properties.ENABLED).as(Boolean.class)) continue;
+			for (String suffix : new String[]{VariablesModel.ACTIVITY_SUFFIX, VariablesModel.QUANTITY_SUFFIX, VariablesModel.PERCENTAGE_SUFFIX}) {
+				if (!first) {
+					query.append(",");
+				}
+				query.append(" " + r.getId() + suffix);
+				first = false;
 			}
-			//result = resultVector.firstElement();
-			if (proc.exitValue() != 0 && ((result = resultVector.firstElement()) == null || result.isEmpty())) {
-				StringBuilder errorBuilder = new StringBuilder();
-				errorBuilder.append("[" + nomeFileModello + "] Verify result: " + proc.exitValue() + "\n");
-				if (result == null) {
-					errorBuilder.append(" null result\n");
-				} else if (result.isEmpty()) {
-					errorBuilder.append(" empty result\n");
+		}
+		query.append(" }");
+		return query.toString();
+	}
+	
+	/**
+	 * Translate the given model into UPPAAL and write it to file together with a query asking
+	 * for nRuns simulation traces at once (see batchSimulationQuery). The prepared model is to be used
+	 * with analyzeBatch.
+	 * @param m The model to prepare
+	 * @param timeTo the length of the simulations, in UPPAAL time units
+	 * @param nRuns How many traces a single verifyta run will produce
+	 * @return The model ready to be passed to verifyta
+	 * @throws AnalysisException
+	 */
+	public PreparedModel prepareBatch(Model m, int timeTo, int nRuns) throws AnalysisException {
+		try {
+			return new PreparedModel(m, timeTo, batchSimulationQuery(m, timeTo, nRuns), nRuns);
+		} catch (Exception e) {
+			throw new AnalysisException("Error during analysis: " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Obtain many simulation traces from a single verifyta process, using the SMC engine with the
+	 * query prepared by prepareBatch. This way we pay the cost of starting verifyta and letting it parse
+	 * the model only once for all the traces.
+	 * @param prepared The model, prepared by prepareBatch
+	 * @return One LevelResult for each of the simulation traces, in the same order in which UPPAAL produced them
+	 * @throws AnalysisException
+	 */
+	public List<LevelResult> analyzeBatch(final PreparedModel prepared) throws AnalysisException {
+		final Model m = prepared.getModel();
+		final int timeTo = prepared.getTimeTo(),
+				  nRuns = prepared.getNTraces();
+		if (prepared.isClosed()) {
+			throw new AnalysisException("Error during analysis: the prepared model was already closed");
+		}
+		List<LevelResult> result = null;
+		try {
+			VerifytaInput input = prepared.open();
+			try {
+				String nomeFileModello = input.getModelPath(),
+					   nomeFileQuery = input.getQueryPath();
+			
+				String[] cmd = new String[3];
+			
+				if (!new File(verifytaSMCPath).exists()) {
+					throw new FileNotFoundException("Cannot locate verifyta executable! (tried in " + verifytaSMCPath + ")");
+				}
+				if (areWeUnderWindows()) {
+					cmd[0] = "cmd";
+					cmd[1] = "/c";
+					cmd[2] = " \"" + verifytaSMCPath + "\"";
 				} else {
-					errorBuilder.append(" result contains " + result.getTimeIndices().size() + " time points\n");
+					cmd[0] = "bash";
+					cmd[1] = "-c";
+					cmd[2] = verifytaSMCPath;
 				}
-				BufferedReader br = new BufferedReader(new InputStreamReader(proc.getErrorStream()));
-				String line = null;
-				while ((line = br.readLine()) != null) {
-					errorBuilder.append(line + "\n");
+				cmd[2] += " \"" + nomeFileModello + "\" \"" + nomeFileQuery + "\" 2>&1"; //the traces are on the standard output, while errors are on the standard error: we read them together
+				if (monitor != null) {
+					monitor.setStatus("Analysing model with UPPAAL (" + nRuns + " simulation runs).");
 				}
-				errorBuilder.append(" (current directory: " + new File(".").getAbsolutePath() + ")\n");
-				throw new Exception(errorBuilder.toString());
-			} else {
-				result = resultVector.firstElement();
+				System.err.print("\tUPPAAL analysis of " + nomeFileModello + " (" + nRuns + " runs)");
+				VerifytaProcess proc = new VerifytaProcess(cmd);
+				proc.getProcess().getOutputStream().close();
+				try {
+					result = proc.waitFor(proc.getProcess().getInputStream(), new VerifytaProcess.OutputParser<List<LevelResult>>() {
+						@Override
+						public List<LevelResult> parse(InputStream output) throws Exception {
+							return new UppaalModelAnalyserFasterConcrete.VariablesInterpreterMultiTrace(monitor).analyse(m, output, timeTo, nRuns);
+						}
+					}, cancellation);
+				} catch (Exception ex) {
+					if (cancellation != null && cancellation.isCancelled()) {
+						System.err.println(" was interrupted by the user");
+						throw ex;
+					}
+					throw new AnalysisException("[" + nomeFileModello + "] Verify result: " + proc.exitValue(), ex);
+				}
+				proc.close();
+			} finally {
+				input.close(); //the pipes or files are not needed anymore
 			}
-			//N B: it is responsibility of the caller to close all streams when the process is done!!!
-			proc.getErrorStream().close();
-			proc.getInputStream().close();
-			proc.getOutputStream().close();
-			
 		} catch (Exception e) {
 			throw new AnalysisException("Error during analysis: " + e.getMessage(), e);
 		}
 		
-		if (result == null || result.isEmpty()) {
-			throw new AnalysisException("Error during analysis: empty result");
-		}
-		
 		return result;
 	}
 	
@@ -386,9 +421,15 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 		private static final String INITIAL_QUANTITY = Model.Properties.INITIAL_QUANTITY;
 		private static final String STEP_SIZE = Model.Properties.STEP_SIZE;
 		private TaskMonitor monitor = null;
+		private PartialResultListener partialResultListener = null;
 		
 		public VariablesInterpreterConcrete(TaskMonitor monitor) {
+			this(monitor, null);
+		}
+		
+		public VariablesInterpreterConcrete(TaskMonitor monitor, PartialResultListener partialResultListener) {
 			this.monitor = monitor;
+			this.partialResultListener = partialResultListener;
 		}
 		
 
@@ -527,285 +568,149 @@ public class UppaalModelAnalyserFasterConcrete implements ModelAnalyser<LevelRes
 		 * @param m The model on which the trace is based
 		 * @param output The stream from which to read the trace
 		 * @param timeTo The time up to which the simulation trace arrives (or should arrive)
-		 * @return The SimpleLevelResult containing a series for each of the reactants in the model,
+		 * @return The LevelResult (backed by primitive arrays) containing a series for each of the reactants in the model,
 		 * showing the activity levels of that reactant for each time point of the trace.
 		 * @throws Exception
 		 */
 		public LevelResult analyse(Model m, InputStream output, int timeTo) throws Exception {
 			long startTime = System.currentTimeMillis();
 			
-			Map<String, SortedMap<Double, Double>> levels = new HashMap<String, SortedMap<Double, Double>>();
-
-			BufferedReader br = new BufferedReader(new InputStreamReader(output));
-			String line = null;
-			Pattern globalTimePattern = Pattern.compile("globalTime[=][-+]?[0-9]*\\.?[0-9]+([eE][-+]?[0-9]+)?");  //Pattern.compile("globalTime[=][0-9]+"); //The new pattern supports also numbers like 3.434252e+06, which can occur(!!)
-			Pattern statePattern = Pattern.compile("[A-Za-z0-9_]+[' ']*[=][' ']*[0-9]+");
-			int time = 0;
-		//	int maxNumberOfLevels = m.getProperties().get(NUMBER_OF_LEVELS).as(Integer.class);
-			HashMap<String, Double> maximumValues = new HashMap<String, Double>();
-			HashMap<String, Double> stepSizes = new HashMap<String, Double>();
-		//	double maximumValue = Double.NEGATIVE_INFINITY;
-			
-			while ((line = br.readLine()) != null) {
-				if (!line.startsWith("State"))
-					continue;
-				line = br.readLine(); //the "State:" string has a \n at the end, so we need to read the next line
-				line = br.readLine(); //the second line contains informations about which we don't care. We want variable values
-				Matcher stateMatcher = statePattern.matcher(line);
-				String s = null;
-				while (stateMatcher.find()) {
-					s = stateMatcher.group();
-					if (s.contains("_nonofficial") || s.contains("counter") || s.contains("metro"))
-						continue;
-					String reactantId = null;
-					if (s.indexOf(' ') >= 0 && s.indexOf(' ') < s.indexOf('=')) {
-						reactantId = s.substring(0, s.indexOf(' '));
-					} else {
-						reactantId = s.substring(0, s.indexOf('='));
-					}
-					if (reactantId.equals("c") || reactantId.equals("globalTime") || reactantId.equals("r")
-						|| reactantId.startsWith("input_reactant_") || reactantId.startsWith("output_reactant_") //private variables are not taken into account
-						|| reactantId.equals("r1") || reactantId.equals("r2")
-						|| reactantId.endsWith(VariablesModel.MAX_QUANTITY_SUFFIX)
-						|| reactantId.endsWith("_sem")) continue; //Nor do we need to count semaphores
-					// put the reactant into the result map
-					TreeMap<Double, Double> levs = new TreeMap<Double, Double>();
-					double startingLevel;
-					try {
-						startingLevel = Double.parseDouble(s.substring(s.indexOf("=") + 1));
-					} catch (Exception ex) {
-						startingLevel = 0.0;
-					}
-					levs.put(0.0, startingLevel);
-					//System.err.println("Livello iniziale di " + reactantId + " = " + startingLevel);
-					levels.put(reactantId, levs);
-				}
-				break;
+			if (monitor != null) {
+				monitor.setStatus("Analysing UPPAAL output trace.");
 			}
-
-			// add initial concentrations and get number of levels
+			
+			TraceParser parser = new TraceParser();
+			parser.setPartialResultListener(partialResultListener); //the curves can be shown while verifyta is still running
+			LevelResult levels = parser.parse(m, output, timeTo); //scans the trace without regular expressions and without building a String for each variable
+			
+			long endTime = System.currentTimeMillis();
+			System.err.println("\tParsing the result produced by UPPAAL took " + RunAction.timeDifferenceFormat(startTime, endTime));
+			
+			return levels;
+		}
+	}
+	
+	/**
+	 * Reads the output of an UPPAAL SMC query of the form simulate N [<=T] { var1, var2, ... }
+	 * (see batchSimulationQuery) and splits it into N LevelResults, one for each simulation trace.
+	 * The output lists, for each variable, all the traces as sequences of (time, value) pairs:
+	 * <pre>
+	 * var1:
+	 * [0]: (0,3) (12.5,3) (12.5,4) ...
+	 * [1]: (0,3) ...
+	 * var2:
+	 * ...
+	 * </pre>
+	 * The values are converted into activity levels in the same way as done by VariablesInterpreterConcrete,
+	 * so that the results obtained in the two ways can be used interchangeably.
+	 */
+	public class VariablesInterpreterMultiTrace {
+		private TaskMonitor monitor = null;
+		
+		public VariablesInterpreterMultiTrace(TaskMonitor monitor) {
+			this.monitor = monitor;
+		}
+		
+		/**
+		 * Parse the UPPAAL output containing nRuns traces run on the given model until the given time
+		 * @param m The model on which the traces are based
+		 * @param output The stream from which to read the traces
+		 * @param timeTo The time up to which the simulation traces arrive
+		 * @param nRuns The number of traces we expect to find
+		 * @return A list of nRuns LevelResults, each containing a series for each of the reactants in the model
+		 * @throws Exception
+		 */
+		public List<LevelResult> analyse(Model m, InputStream output, int timeTo, int nRuns) throws Exception {
+			long startTime = System.currentTimeMillis();
+			
+			Map<String, Double> initialValues = new HashMap<String, Double>(),
+								stepSizes = new HashMap<String, Double>();
 			for (Reactant r : m.getReactants()) {
-				/*Integer nLvl = r.get(NUMBER_OF_LEVELS).as(Integer.class);
-				if (nLvl == null) { //This check should have been done before generating the model
-					Property nameO = r.get(ALIAS);
-					String name;
-					if (nameO == null) {
-						name = r.getId();
-					} else {
-						name = nameO.as(String.class);
-					}
-					String inputLevels = JOptionPane.showInputDialog("Missing number of levels for reactant \"" + name + "\" (" + r.getId() + ").\nPlease insert the max number of levels for \"" + name + "\"", maxNumberOfLevels);
-					if (inputLevels != null) {
-						try {
-							nLvl = new Integer(inputLevels);
-						} catch (Exception ex) {
-							nLvl = maxNumberOfLevels;
-						}
-					} else {
-						nLvl = maxNumberOfLevels;
-					}
-				}*/
-			//	int nLvl = r.get(NUMBER_OF_LEVELS).as(Integer.class);
-				
-				/*if (levels.containsKey(r.getId() + VariablesModel.ACTIVITY_SUFFIX)) {
-					double initialLevel = r.get(INITIAL_LEVEL).as(Integer.class);
-					initialLevel = initialLevel / (double)nLvl * (double)maxNumberOfLevels; //of course, the initial "concentration" itself needs to be rescaled correctly
-					levels.get(r.getId() + VariablesModel.ACTIVITY_SUFFIX).put(0.0, initialLevel);
-					numberOfLevels.put(r.getId() + VariablesModel.ACTIVITY_SUFFIX, (double)nLvl);
-				}
-				if (levels.containsKey(r.getId() + VariablesModel.QUANTITY_SUFFIX)) {
-					double initialQuantity = r.get(INITIAL_QUANTITY).as(Integer.class);
-					initialQuantity = initialQuantity / (double)nLvl * (double)maxNumberOfLevels;
-					levels.get(r.getId() + VariablesModel.QUANTITY_SUFFIX).put(0.0, initialQuantity);
-					numberOfLevels.put(r.getId() + VariablesModel.QUANTITY_SUFFIX, (double)nLvl);
-				}
-				if (levels.containsKey(r.getId() + VariablesModel.PERCENTAGE_SUFFIX)) {
-					double initialPercentage;
-					if (r.get(INITIAL_LEVEL).as(Integer.class) == 0) {
-						initialPercentage = 0;
-					} else {
-						initialPercentage = 100.0 * r.get(INITIAL_QUANTITY).as(Integer.class) / r.get(INITIAL_LEVEL).as(Integer.class);
-					}
-					initialPercentage = initialPercentage / 100.0 * (double)maxNumberOfLevels;
-					levels.get(r.getId() + VariablesModel.PERCENTAGE_SUFFIX).put(0.0, initialPercentage);
-					numberOfLevels.put(r.getId() + VariablesModel.PERCENTAGE_SUFFIX, 100.0);
-				}
-				if (levels.containsKey(r.getId())) { //Backward compatibility (non credo verr mai usato, in verit)
-					double initialLevel = r.get(INITIAL_LEVEL).as(Integer.class);
-					initialLevel = initialLevel / (double)nLvl * (double)maxNumberOfLevels; //of course, the initial "concentration" itself needs to be rescaled correctly
-					levels.get(r.getId()).put(0.0, initialLevel);
-					numberOfLevels.put(r.getId(), (double)nLvl);
-				}*/
-				if (levels.containsKey(r.getId() + VariablesModel.ACTIVITY_SUFFIX)) {
-					double initialLevel = r.get(INITIAL_LEVEL).as(Integer.class);
-					levels.get(r.getId() + VariablesModel.ACTIVITY_SUFFIX).put(0.0, initialLevel);
-					maximumValues.put(r.getId() + VariablesModel.ACTIVITY_SUFFIX, initialLevel);
-					stepSizes.put(r.getId() + VariablesModel.ACTIVITY_SUFFIX, r.get(STEP_SIZE).as(Double.class));
-				}
-				if (levels.containsKey(r.getId() + VariablesModel.QUANTITY_SUFFIX)) {
-					double initialQuantity = r.get(INITIAL_QUANTITY).as(Integer.class);
-					levels.get(r.getId() + VariablesModel.QUANTITY_SUFFIX).put(0.0, initialQuantity);
-					maximumValues.put(r.getId() + VariablesModel.QUANTITY_SUFFIX, initialQuantity);
-					stepSizes.put(r.getId() + VariablesModel.QUANTITY_SUFFIX, r.get(STEP_SIZE).as(Double.class));
-				}
-				if (levels.containsKey(r.getId() + VariablesModel.PERCENTAGE_SUFFIX)) {
-					double initialPercentage;
-					if (r.get(INITIAL_QUANTITY).as(Integer.class) == 0) {
-						initialPercentage = 0;
-					} else {
-						initialPercentage = 100.0 * r.get(INITIAL_LEVEL).as(Integer.class) / r.get(INITIAL_QUANTITY).as(Integer.class);
-					}
-					levels.get(r.getId() + VariablesModel.PERCENTAGE_SUFFIX).put(0.0, initialPercentage);
-					//maximumValues.put(r.getId() + VariablesModel.PERCENTAGE_SUFFIX, initialPercentage); //we don't need to have a maximum for the % values: it is of course 100
-				}
-				if (levels.containsKey(r.getId())) { //Backward compatibility (non credo verr mai usato, in verit)
-					double initialLevel = r.get(INITIAL_LEVEL).as(Integer.class);
-					levels.get(r.getId()).put(0.0, initialLevel);
-					maximumValues.put(r.getId(), initialLevel);
-					stepSizes.put(r.getId(), r.get(STEP_SIZE).as(Double.class));
-				}
+				if (!r.get(Model.Properties.ENABLED).as(Boolean.class)) continue;
+				int initialLevel = r.get(Model.Properties.INITIAL_LEVEL).as(Integer.class),
+					initialQuantity = r.get(Model.Properties.INITIAL_QUANTITY).as(Integer.class);
+				double stepSize = r.get(Model.Properties.STEP_SIZE).as(Double.class);
+				initialValues.put(r.getId() + VariablesModel.ACTIVITY_SUFFIX, (double)initialLevel);
+				stepSizes.put(r.getId() + VariablesModel.ACTIVITY_SUFFIX, stepSize);
+				initialValues.put(r.getId() + VariablesModel.QUANTITY_SUFFIX, (double)initialQuantity);
+				stepSizes.put(r.getId() + VariablesModel.QUANTITY_SUFFIX, stepSize);
+				initialValues.put(r.getId() + VariablesModel.PERCENTAGE_SUFFIX, (initialQuantity == 0) ? 0.0 : 100.0 * initialLevel / initialQuantity);
 			}
 			
-			long endTime = System.currentTimeMillis();
-			System.err.println(" took " + RunAction.timeDifferenceFormat(startTime, endTime));
-			startTime = System.currentTimeMillis();
+			List<ColumnarLevelResult> runs = new ArrayList<ColumnarLevelResult>(nRuns);
+			for (int i=0;i<nRuns;i++) {
+				ColumnarLevelResult levels = new ColumnarLevelResult();
+				for (String seriesName : initialValues.keySet()) {
+					levels.put(seriesName, 0.0, initialValues.get(seriesName));
+				}
+				runs.add(levels);
+			}
 			
 			if (monitor != null) {
-				monitor.setStatus("Analysing UPPAAL output trace.");
+				monitor.setStatus("Analysing UPPAAL output traces.");
 			}
 			
-			String oldLine = null;
+			BufferedReader br = new BufferedReader(new InputStreamReader(output));
+			StringBuilder unknownLines = new StringBuilder(); //what we did not understand: if we find no trace at all, this is probably the explanation
+			String line = null;
+			String currentSeries = null;
+			boolean[] seen = new boolean[nRuns];
 			while ((line = br.readLine()) != null) {
-				/*while (line != null && !line.contains("inform_reacting")) {
-					line = br.readLine();
-				}
-				while ((line = br.readLine()) != null) {
-					if (line.startsWith("State")) break;
-				}
-				if (line == null) break;*/
-				//System.err.println(line);
-				if (!line.startsWith("State")) continue;
-				br.readLine(); //as said before, the "State:" string ends with \n, so we need to read the next line in order to get the actual state data
-				line = br.readLine(); //and the line after that contains only the states of the processes, while we are interested in variable values, which are in the 3rd line
-				//System.err.println(line);
-				Matcher timeMatcher = globalTimePattern.matcher(line);
-				if (oldLine == null) {
-					oldLine = line;
-				}
-				if (timeMatcher.find()) {
-					String value = (timeMatcher.group().split("=")[1]);
-					int newTime = -1;
-					if (value.substring(0, 1).equals("=")) {
-						if (value.substring(1, 2).equals("-")) {
-							newTime = (int)Math.round(Double.parseDouble(value.substring(2, value.length())));
-						} else {
-							newTime = (int)Math.round(Double.parseDouble(value.substring(1, value.length())));
-						}
-					} else {
-						if (value.substring(0, 1).equals("-")) {
-							newTime = (int)(Math.round(Double.parseDouble(value.substring(1, value.length())))); //why +1??
+				line = line.trim();
+				if (line.startsWith("[") && line.indexOf("]:") > 0) {
+					if (currentSeries == null) continue;
+					int runIndex = Integer.parseInt(line.substring(1, line.indexOf("]:")).trim());
+					if (runIndex < 0 || runIndex >= nRuns) {
+						throw new AnalysisException("Unexpected simulation run index " + runIndex + " (we asked for " + nRuns + " runs)");
+					}
+					seen[runIndex] = true;
+					ColumnarLevelResult levels = runs.get(runIndex);
+					int seriesIndex = levels.getSeriesIndex(currentSeries);
+					boolean isPercentage = currentSeries.endsWith(VariablesModel.PERCENTAGE_SUFFIX);
+					double stepSize = isPercentage ? 1 : stepSizes.get(currentSeries);
+					int idx = line.indexOf("]:") + 2;
+					while ((idx = line.indexOf('(', idx)) >= 0) {
+						int comma = line.indexOf(',', idx),
+							close = line.indexOf(')', comma);
+						if (comma < 0 || close < 0) break;
+						double time = Math.round(Double.parseDouble(line.substring(idx + 1, comma).trim())), //as in VariablesInterpreterConcrete, we only keep integer time instants
+							   level = Double.parseDouble(line.substring(comma + 1, close).trim());
+						idx = close + 1;
+						if (time <= 0 || time > timeTo) continue; //the initial value is already there
+						if (isPercentage) {
+							level = level / 10;
 						} else {
-							newTime = (int)(Math.round(Double.parseDouble(value.substring(0, value.length())))); //why +1??
+							level = level * stepSize;
 						}
-					}
-					
-					if (time <= newTime) { //We want the latest information for any time instant, so "=" is good
-						time = newTime;
-						// we now know the time
-						Matcher stateMatcher = statePattern.matcher(line); //why was there oldLine instead of line here?? What did we do with this oldLine??
-						String s = null;
-						//System.err.print(" ** t = " + time);
-						while (stateMatcher.find()) {
-							s = stateMatcher.group();
-							if (s.contains("_nonofficial") || s.contains("counter") || s.contains("metro")) {
-								continue;
-							}
-							String reactantId = null;
-							if (s.indexOf(' ') >= 0 && s.indexOf(' ') < s.indexOf('=')) {
-								reactantId = s.substring(0, s.indexOf(' '));
-							} else {
-								reactantId = s.substring(0, s.indexOf('='));
-							}
-							/*if (reactantId.equals("c") || reactantId.equals("globalTime") || reactantId.equals("r")
-								|| reactantId.startsWith("input_reactant_") || reactantId.startsWith("output_reactant_")
-								|| reactantId.equals("r1") || reactantId.equals("r2") || maximumValues.get(reactantId) == null) continue; //we check whether it is a private variable*/
-							if (!levels.containsKey(reactantId)) continue;
-							// we can determine the level of activation
-							double level = Integer.valueOf(s.substring(s.indexOf("=") + 1).trim());
-							if (!reactantId.endsWith(VariablesModel.PERCENTAGE_SUFFIX)) {
-								level = level * stepSizes.get(reactantId);
-								/*if (maximumValues.get(reactantId) < level) { //the maximum for this series
-									maximumValues.put(reactantId, level);
-								}
-								if (maximumValue < level) { //the maximum for in the absolute
-									maximumValue = level;
-								}*/
-							} else {
-								level = level / 10;
-							}
-							/*if (maximumValues.get(reactantId) != maxNumberOfLevels) {
-								if (reactantId.endsWith(VariablesModel.PERCENTAGE_SUFFIX)) {
-									level = (level / (double)maximumValues.get(reactantId) * (double)maxNumberOfLevels) / 10.0;
-								} else {
-									level = level / (double)maximumValues.get(reactantId) * (double)maxNumberOfLevels;
-								}
-							}*/
-							//System.err.print(", " + reactantId + " = " + level);
-							
-							SortedMap<Double, Double> rMap = levels.get(reactantId);
-							if (rMap.get(rMap.lastKey()) != level) { //if we didn't register a variation, we don't plot a point
-								/*if (rMap.lastKey() < time - 1) { //We use this piece to explicitly keep a level constant when it is not varying (i.e., the graph will never contain non-vertical,non-horizontal lines)
-									rMap.put((double)(time - 1), rMap.get(rMap.lastKey()));
-								}*/
-								
-								rMap.put((double)time, level);
-							}
+						if (levels.getLastValue(seriesIndex) != level) { //if we didn't register a variation, we don't plot a point
+							levels.put(seriesIndex, time, level);
 						}
-						//System.err.println();
-						oldLine = line;
-					} else if (newTime == time) {
-						oldLine = line;
 					}
-				} else {
-					throw new AnalysisException("New state without globalTime. Offending line: \"" + line + "\"");
+				} else if (line.endsWith(":") && initialValues.containsKey(line.substring(0, line.length() - 1).trim())) {
+					currentSeries = line.substring(0, line.length() - 1).trim();
+				} else if (unknownLines.length() < 2000) {
+					unknownLines.append(line + "\n");
 				}
 			}
-			//if (time < timeTo) { //if the state of the system remains unchanged from a certain time on (and so UPPAAL terminates on that point), but we asked for a later time, we add a final point where all data remain unchanged, so that the user can see the "evolution" up to the requested point
-			//we do it always, because there can be some situations in which reactants are not read while time increases, and thus we can reach the end of time without having an updated value for each reactant
-				//double ziomuflone = Double.NEGATIVE_INFINITY;
-				for (String reactantName : levels.keySet()) {
-					SortedMap<Double, Double> values = levels.get(reactantName);
-					double lastValue = values.get(values.lastKey());
-					values.put((double)timeTo, lastValue);
-					
-					/*try {
-						//..and then rescale all the values with respect to the correct maximum (which is maximumValue for all except the % values, for which it is of course 100)
-						double max, myMax;
-						max = maximumValue;
-						if (reactantName.endsWith(VariablesModel.PERCENTAGE_SUFFIX)) {
-							myMax = 100.0;
-							continue;
-						} else {
-							myMax = maximumValues.get(reactantName);
-						}
-						System.err.println("Normalizzo il reagente " + reactantName + " che ha massimo suo = " + myMax + " al massimo assoluto " + max);
-						for (Double t : values.keySet()) {
-							double v = values.get(t);
-							v = v / myMax * max;
-							if (v > ziomuflone) ziomuflone = v;
-							values.put(t, v);
-						}
-					} catch (Exception ex) {
-						ex.printStackTrace(System.err);
-					}*/
-				}
-				//System.err.println("Il valore massimo che ho ottenuto normalizzando  " + ziomuflone);
-			//}
 			
-			endTime = System.currentTimeMillis();
-			System.err.println("\tParsing the result produced by UPPAAL took " + RunAction.timeDifferenceFormat(startTime, endTime));
+			List<LevelResult> results = new ArrayList<LevelResult>(nRuns);
+			for (int i=0;i<nRuns;i++) {
+				if (!seen[i]) {
+					throw new AnalysisException("UPPAAL produced no data for simulation run " + i + ". Output was:\n" + unknownLines);
+				}
+				ColumnarLevelResult levels = runs.get(i);
+				for (String seriesName : levels.getReactantIds()) {
+					int seriesIndex = levels.getSeriesIndex(seriesName);
+					levels.put(seriesIndex, timeTo, levels.getLastValue(seriesIndex));
+				}
+				levels.trim();
+				results.add(levels);
+			}
+			
+			long endTime = System.currentTimeMillis();
+			System.err.println("\tParsing the " + nRuns + " traces produced by UPPAAL took " + RunAction.timeDifferenceFormat(startTime, endTime));
 			
-			return new SimpleLevelResult(levels);
+			return results;
 		}
 	}
 }
@@ -1,24 +1,13 @@
 package animo.analyser.uppaal;
 
 
-import java.io.ByteArrayInputStream;
-import java.io.StringWriter;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.w3c.dom.Document;
-
 import animo.exceptions.ANIMOException;
 import animo.model.Model;
 import animo.model.Property;
@@ -37,9 +26,11 @@ public class VariablesModelSMC extends VariablesModel {
 								CYTOSCAPE_ID = Model.Properties.CYTOSCAPE_ID,
 								USER_DEFINED_FORMULA = Model.Properties.USER_DEFINED_FORMULAE;
 	private Map<String, String> fromCytoscapeIdtoModelId = new HashMap<String, String>();
+	private Map<String, String> templateNames = new HashMap<String, String>(), //For each template signature (see templateSignature), the name of the template
+								reactionTemplates = new HashMap<String, String>(); //For each reaction id, the name of the template its process instantiates
 	
 	@Override
-	protected void appendModel(StringBuilder out, Model m) {
+	protected void appendModel(Appendable out, Model m) throws IOException {
 		try {
 			out.append("<?xml version='1.0' encoding='utf-8'?>");
 			out.append(newLine);
@@ -139,15 +130,19 @@ public class VariablesModelSMC extends VariablesModel {
 			out.append("</system>");
 			out.append(newLine);
 			out.append("</nta>");
+		} catch (IOException ex) {
+			throw ex;
 		} catch (Exception ex) {
 			ex.printStackTrace(System.err);
-			System.err.println(out.toString());
+			if (out instanceof CharSequence) { //We can show what was generated up to now only if it is still in memory
+				System.err.println(out.toString());
+			}
 		}
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
-	protected void appendReactionProcesses(StringBuilder out, Model m, Reaction r, int index) {
+	protected void appendReactionProcesses(Appendable out, Model m, Reaction r, int index) throws IOException {
 		//NOTICE THAT index IS NOT USED HERE!!
 		//We used it in the VariablesModel class, and just to maintain the same form, we still take it here, even if it is never used.
 		index = -1;
@@ -193,7 +188,7 @@ public class VariablesModelSMC extends VariablesModel {
 
 			// output reaction instantiation
 			final String name = getReactionName(r);
-			out.append(name + " = Reaction_" + reactantId + "(" + reactantId + ACTIVITY_SUFFIX + ", " + reactantId + "_tLower, "
+			out.append(name + " = " + reactionTemplates.get(r.getId()) + "(" + reactantId + ACTIVITY_SUFFIX + ", " + reactantId + "_tLower, "
 					+ reactantId + "_tUpper, " + r.get(INCREMENT).as(Integer.class) + ", reaction_happening[" + m.getReactant(reactantId).get(REACTANT_INDEX).as(Integer.class) + "]);");
 			out.append(newLine);
 			out.append(newLine);
@@ -244,7 +239,7 @@ public class VariablesModelSMC extends VariablesModel {
 				/*out.append(name + " = Reaction2_" + r1Id + "_" + r2Id + "(" + r1Id + ", " + r2Id + ", " + r1Id + "_" + r2Id
 						+ "_r_tLower, " + r1Id + "_" + r2Id + "_r_tUpper, " + r.get(INCREMENT).as(Integer.class)
 						+ ", reaction_happening[" + m.getReactant(r1Id).get(REACTANT_INDEX).as(Integer.class) + "], reaction_happening[" + m.getReactant(r2Id).get(REACTANT_INDEX).as(Integer.class) + "]);");*/
-				out.append(name + " = Reaction2_" + r1Id + "_" + r2Id + "(");
+				out.append(name + " = " + reactionTemplates.get(r.getId()) + "(");
 				for (int i=0;i<nInput;i++) {
 					if (i > 0) {
 						out.append(", ");
@@ -362,7 +357,7 @@ public class VariablesModelSMC extends VariablesModel {
 	
 				// output process instantiation
 				final String name = getReactionName(r);
-				out.append(name + " = Reaction2_" + r1Id + "_" + r2Id + "(" + r1Id + ACTIVITY_SUFFIX + ", " + r2Id + ACTIVITY_SUFFIX + ", " + r2Id + QUANTITY_SUFFIX + ", " + r2Id + PERCENTAGE_SUFFIX + ", " + r1Id + "_" + r2Id
+				out.append(name + " = " + reactionTemplates.get(r.getId()) + "(" + r1Id + ACTIVITY_SUFFIX + ", " + r2Id + ACTIVITY_SUFFIX + ", " + r2Id + QUANTITY_SUFFIX + ", " + r2Id + PERCENTAGE_SUFFIX + ", " + r1Id + "_" + r2Id
 						+ "_r_tLower, " + r1Id + "_" + r2Id + "_r_tUpper, " + r.get(INCREMENT).as(Integer.class)
 						+ ", reaction_happening[" + m.getReactant(r1Id).get(REACTANT_INDEX).as(Integer.class) + "], reaction_happening[" + m.getReactant(r2Id).get(REACTANT_INDEX).as(Integer.class) + "]);");
 				out.append(newLine);
@@ -381,7 +376,7 @@ public class VariablesModelSMC extends VariablesModel {
 	 * @param dimIndex Index of the dimension we are currently printing
 	 * @return The number of elements that where printed
 	 */
-	private int printMatrix(StringBuilder out, List<Integer> times, List<Integer> dimensions, int timesIndex, int dimIndex) {
+	private int printMatrix(Appendable out, List<Integer> times, List<Integer> dimensions, int timesIndex, int dimIndex) throws IOException {
 		if (dimIndex > dimensions.size() - 1) { //If we have to print a single element, print it
 			int value = times.get(timesIndex);
 			out.append(formatTime(value));
@@ -405,20 +400,51 @@ public class VariablesModelSMC extends VariablesModel {
 		return nPrinted;
 	}
 
+	/**
+	 * The template of a reaction does not depend on the reactants involved (they are parameters of the process),
+	 * but only on the "shape" of the reaction: the sizes of its time tables, and which properties it reads and changes.
+	 * Reactions with the same shape can share the same template, which then needs to be parsed by verifyta only once.
+	 * @return A string that is the same for two reactions if and only if their templates are the same
+	 */
+	@SuppressWarnings("unchecked")
+	private String templateSignature(Model m, Reaction r) {
+		if (!r.get(REACTION_TYPE).as(String.class).equals(BI_REACTION)) {
+			return "mono " + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class);
+		}
+		List<Integer> dimensions = r.get(DIMENSIONS).as(List.class);
+		if (!r.get(USER_DEFINED_FORMULA).as(Boolean.class)) {
+			return ((r.get(INCREMENT).as(Integer.class) > 0) ? "up " : "down ") + dimensions;
+		}
+		StringBuilder signature = new StringBuilder("formula " + dimensions + " in");
+		List<ReactantParameter> influencingReactants = r.get(INFLUENCING_REACTANTS).as(List.class);
+		for (int i=0;i<dimensions.size();i++) {
+			signature.append(" " + influencingReactants.get(i).getPropertyName());
+		}
+		signature.append(" out");
+		for (String influenced : (List<String>)r.get(INFLUENCED_REACTANTS).as(List.class)) {
+			signature.append(" " + new ReactantParameter(influenced).getPropertyName());
+		}
+		return signature.toString();
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
-	protected void appendTemplates(StringBuilder out, Model m) {
+	protected void appendTemplates(Appendable out, Model m) throws IOException {
 		try {
-			StringWriter outString;
-			DocumentBuilder documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-			Document document;
-			Transformer tra = TransformerFactory.newInstance().newTransformer();
-			tra.setOutputProperty(OutputKeys.INDENT, "yes");
-			tra.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-			tra.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+			String template;
+			templateNames.clear();
+			reactionTemplates.clear();
 			for (Reaction r : m.getReactions()) {
 				if (!r.get(ENABLED).as(Boolean.class)) continue;
-				outString = new StringWriter();
+				String signature = templateSignature(m, r),
+					   templateName = templateNames.get(signature);
+				if (templateName != null) { //An identical template was already written: the process of this reaction will use that one
+					reactionTemplates.put(r.getId(), templateName);
+					continue;
+				}
+				templateName = (r.get(REACTION_TYPE).as(String.class).equals(BI_REACTION) ? "Reaction2_" : "Reaction_") + templateNames.size();
+				templateNames.put(signature, templateName);
+				reactionTemplates.put(r.getId(), templateName);
 				if (r.get(REACTION_TYPE).as(String.class).equals(BI_REACTION)) {
 					if (r.get(USER_DEFINED_FORMULA).as(Boolean.class)) {
 						int nInput, nOutput;
@@ -427,7 +453,7 @@ public class VariablesModelSMC extends VariablesModel {
 						List<ReactantParameter> influencingReactants = r.get(INFLUENCING_REACTANTS).as(List.class);
 						nInput = dimensions.size();
 						nOutput = influencedReactants.size();
-						StringBuilder reactionTemplate = new StringBuilder("<template><name x=\"5\" y=\"5\">Reaction2_" + r.get(CATALYST).as(String.class) + "_" + r.get(REACTANT).as(String.class) + "</name><parameter>");
+						StringBuilder reactionTemplate = new StringBuilder("<template><name x=\"5\" y=\"5\">" + templateName + "</name><parameter>");
 						StringBuilder matrixDimensionsListBuilder = new StringBuilder("["),
 									  matrixIndicesListBuilder = new StringBuilder("["),
 									  matrixIndicesLocalListBuilder = new StringBuilder("[");
@@ -626,9 +652,9 @@ public class VariablesModelSMC extends VariablesModel {
 						}
 						reactionTemplate.append("</label><nail x=\"-1064\" y=\"-696\"/></transition>");
 						reactionTemplate.append("</template>");
-						document = documentBuilder.parse(new ByteArrayInputStream(reactionTemplate.toString().getBytes()));
+						template = reactionTemplate.toString();
 					} else {
-						//document = documentBuilder.parse(new ByteArrayInputStream(("<template><name x=\"5\" y=\"5\">Reaction2_" + r.get(CATALYST).as(String.class) + "_" + r.get(REACTANT).as(String.class) + "</name><parameter>int &amp;reactant1, int &amp;reactant2, const int timeL[" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "+1][" + m.getReactant(r.get(CATALYST).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "+1], const int timeU[" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "+1][" + m.getReactant(r.get(CATALYST).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "+1], const int delta, broadcast chan &amp;r1_reacting, broadcast chan &amp;r2_reacting</parameter><declaration>// Place local declarations here.\nclock c;\nint r1, r2;</declaration><location id=\"id0\" x=\"-1328\" y=\"-952\"><name x=\"-1338\" y=\"-982\">s2</name></location><location id=\"id1\" x=\"-1064\" y=\"-800\"><name x=\"-1074\" y=\"-830\">s4</name><urgent/></location><location id=\"id2\" x=\"-1328\" y=\"-696\"><name x=\"-1338\" y=\"-726\">s3</name><label kind=\"invariant\" x=\"-1568\" y=\"-720\">timeU[r2][r1] == INFINITE_TIME\n|| c&lt;=timeU[r2][r1]</label></location><location id=\"id3\" x=\"-1328\" y=\"-840\"><name x=\"-1352\" y=\"-864\">s1</name><urgent/></location><init ref=\"id3\"/><transition><source ref=\"id0\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1592\" y=\"-1016\">r1_reacting?</label><label kind=\"assignment\" x=\"-1592\" y=\"-1000\">c:=0</label><nail x=\"-1360\" y=\"-984\"/><nail x=\"-1616\" y=\"-984\"/><nail x=\"-1616\" y=\"-512\"/><nail x=\"-784\" y=\"-512\"/><nail x=\"-784\" y=\"-736\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1184\" y=\"-784\">r2_reacting?</label><nail x=\"-1248\" y=\"-768\"/><nail x=\"-1096\" y=\"-768\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1096\" y=\"-640\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2+delta&gt;" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "</label><label kind=\"synchronisation\" x=\"-1096\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1096\" y=\"-592\">reactant2:=" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + ",\nc:=0</label><nail x=\"-1280\" y=\"-656\"/><nail x=\"-1104\" y=\"-656\"/><nail x=\"-1104\" y=\"-560\"/><nail x=\"-848\" y=\"-560\"/><nail x=\"-848\" y=\"-704\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1576\" y=\"-640\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2+delta&lt;0</label><label kind=\"synchronisation\" x=\"-1576\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1576\" y=\"-592\">reactant2:=0,\nc:=0</label><nail x=\"-1416\" y=\"-656\"/><nail x=\"-1584\" y=\"-656\"/><nail x=\"-1584\" y=\"-544\"/><nail x=\"-816\" y=\"-544\"/><nail x=\"-816\" y=\"-720\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1224\" y=\"-768\">r1_reacting?</label><nail x=\"-1248\" y=\"-752\"/><nail x=\"-1088\" y=\"-752\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1384\" y=\"-648\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2+delta&gt;=0\n&amp;&amp; reactant2+delta&lt;=" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "</label><label kind=\"synchronisation\" x=\"-1384\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1384\" y=\"-592\">reactant2:=reactant2+delta,\nc:=0</label><nail x=\"-1328\" y=\"-656\"/><nail x=\"-1392\" y=\"-656\"/><nail x=\"-1392\" y=\"-552\"/><nail x=\"-832\" y=\"-552\"/><nail x=\"-832\" y=\"-712\"/></transition><transition><source ref=\"id0\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1592\" y=\"-984\">r2_reacting?</label><label kind=\"assignment\" x=\"-1592\" y=\"-968\">c:=0</label><nail x=\"-1600\" y=\"-952\"/><nail x=\"-1600\" y=\"-528\"/><nail x=\"-800\" y=\"-528\"/><nail x=\"-800\" y=\"-728\"/></transition><transition><source ref=\"id1\"/><target ref=\"id0\"/><label kind=\"guard\" x=\"-1272\" y=\"-968\">timeL[reactant2][reactant1] == INFINITE_TIME</label><nail x=\"-952\" y=\"-800\"/><nail x=\"-952\" y=\"-952\"/></transition><transition><source ref=\"id3\"/><target ref=\"id0\"/><label kind=\"guard\" x=\"-1480\" y=\"-912\">timeL[reactant2][reactant1] == INFINITE_TIME</label></transition><transition><source ref=\"id1\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1296\" y=\"-840\">timeU[reactant2][reactant1] != INFINITE_TIME\n&amp;&amp; c&gt;timeU[reactant2][reactant1]</label><label kind=\"assignment\" x=\"-1296\" y=\"-816\">c:=timeU[reactant2][reactant1],\nr1:=reactant1,\nr2:=reactant2</label><nail x=\"-1248\" y=\"-800\"/></transition><transition><source ref=\"id1\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1272\" y=\"-752\">(timeU[reactant2][reactant1] == INFINITE_TIME\n&amp;&amp; timeL[reactant2][reactant1] != INFINITE_TIME)\n|| (timeU[reactant2][reactant1] != INFINITE_TIME\n&amp;&amp; c&lt;=timeU[reactant2][reactant1])</label><label kind=\"assignment\" x=\"-1272\" y=\"-704\">r1:=reactant1,\nr2:=reactant2</label><nail x=\"-1064\" y=\"-696\"/></transition><transition><source ref=\"id3\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1528\" y=\"-824\">timeL[reactant2][reactant1] \n  != INFINITE_TIME</label><label kind=\"assignment\" x=\"-1448\" y=\"-792\">r1 := reactant1,\nr2 := reactant2,\nc:=0</label></transition></template>").getBytes()));
+						//template = "<template><name x=\"5\" y=\"5\">Reaction2_" + r.get(CATALYST).as(String.class) + "_" + r.get(REACTANT).as(String.class) + "</name><parameter>int &amp;reactant1, int &amp;reactant2, const int timeL[" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "+1][" + m.getReactant(r.get(CATALYST).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "+1], const int timeU[" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "+1][" + m.getReactant(r.get(CATALYST).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "+1], const int delta, broadcast chan &amp;r1_reacting, broadcast chan &amp;r2_reacting</parameter><declaration>// Place local declarations here.\nclock c;\nint r1, r2;</declaration><location id=\"id0\" x=\"-1328\" y=\"-952\"><name x=\"-1338\" y=\"-982\">s2</name></location><location id=\"id1\" x=\"-1064\" y=\"-800\"><name x=\"-1074\" y=\"-830\">s4</name><urgent/></location><location id=\"id2\" x=\"-1328\" y=\"-696\"><name x=\"-1338\" y=\"-726\">s3</name><label kind=\"invariant\" x=\"-1568\" y=\"-720\">timeU[r2][r1] == INFINITE_TIME\n|| c&lt;=timeU[r2][r1]</label></location><location id=\"id3\" x=\"-1328\" y=\"-840\"><name x=\"-1352\" y=\"-864\">s1</name><urgent/></location><init ref=\"id3\"/><transition><source ref=\"id0\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1592\" y=\"-1016\">r1_reacting?</label><label kind=\"assignment\" x=\"-1592\" y=\"-1000\">c:=0</label><nail x=\"-1360\" y=\"-984\"/><nail x=\"-1616\" y=\"-984\"/><nail x=\"-1616\" y=\"-512\"/><nail x=\"-784\" y=\"-512\"/><nail x=\"-784\" y=\"-736\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1184\" y=\"-784\">r2_reacting?</label><nail x=\"-1248\" y=\"-768\"/><nail x=\"-1096\" y=\"-768\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1096\" y=\"-640\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2+delta&gt;" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "</label><label kind=\"synchronisation\" x=\"-1096\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1096\" y=\"-592\">reactant2:=" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + ",\nc:=0</label><nail x=\"-1280\" y=\"-656\"/><nail x=\"-1104\" y=\"-656\"/><nail x=\"-1104\" y=\"-560\"/><nail x=\"-848\" y=\"-560\"/><nail x=\"-848\" y=\"-704\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1576\" y=\"-640\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2+delta&lt;0</label><label kind=\"synchronisation\" x=\"-1576\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1576\" y=\"-592\">reactant2:=0,\nc:=0</label><nail x=\"-1416\" y=\"-656\"/><nail x=\"-1584\" y=\"-656\"/><nail x=\"-1584\" y=\"-544\"/><nail x=\"-816\" y=\"-544\"/><nail x=\"-816\" y=\"-720\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1224\" y=\"-768\">r1_reacting?</label><nail x=\"-1248\" y=\"-752\"/><nail x=\"-1088\" y=\"-752\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1384\" y=\"-648\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2+delta&gt;=0\n&amp;&amp; reactant2+delta&lt;=" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "</label><label kind=\"synchronisation\" x=\"-1384\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1384\" y=\"-592\">reactant2:=reactant2+delta,\nc:=0</label><nail x=\"-1328\" y=\"-656\"/><nail x=\"-1392\" y=\"-656\"/><nail x=\"-1392\" y=\"-552\"/><nail x=\"-832\" y=\"-552\"/><nail x=\"-832\" y=\"-712\"/></transition><transition><source ref=\"id0\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1592\" y=\"-984\">r2_reacting?</label><label kind=\"assignment\" x=\"-1592\" y=\"-968\">c:=0</label><nail x=\"-1600\" y=\"-952\"/><nail x=\"-1600\" y=\"-528\"/><nail x=\"-800\" y=\"-528\"/><nail x=\"-800\" y=\"-728\"/></transition><transition><source ref=\"id1\"/><target ref=\"id0\"/><label kind=\"guard\" x=\"-1272\" y=\"-968\">timeL[reactant2][reactant1] == INFINITE_TIME</label><nail x=\"-952\" y=\"-800\"/><nail x=\"-952\" y=\"-952\"/></transition><transition><source ref=\"id3\"/><target ref=\"id0\"/><label kind=\"guard\" x=\"-1480\" y=\"-912\">timeL[reactant2][reactant1] == INFINITE_TIME</label></transition><transition><source ref=\"id1\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1296\" y=\"-840\">timeU[reactant2][reactant1] != INFINITE_TIME\n&amp;&amp; c&gt;timeU[reactant2][reactant1]</label><label kind=\"assignment\" x=\"-1296\" y=\"-816\">c:=timeU[reactant2][reactant1],\nr1:=reactant1,\nr2:=reactant2</label><nail x=\"-1248\" y=\"-800\"/></transition><transition><source ref=\"id1\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1272\" y=\"-752\">(timeU[reactant2][reactant1] == INFINITE_TIME\n&amp;&amp; timeL[reactant2][reactant1] != INFINITE_TIME)\n|| (timeU[reactant2][reactant1] != INFINITE_TIME\n&amp;&amp; c&lt;=timeU[reactant2][reactant1])</label><label kind=\"assignment\" x=\"-1272\" y=\"-704\">r1:=reactant1,\nr2:=reactant2</label><nail x=\"-1064\" y=\"-696\"/></transition><transition><source ref=\"id3\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1528\" y=\"-824\">timeL[reactant2][reactant1] \n  != INFINITE_TIME</label><label kind=\"assignment\" x=\"-1448\" y=\"-792\">r1 := reactant1,\nr2 := reactant2,\nc:=0</label></transition></template>";
 						List<Integer> dimensions = r.get(DIMENSIONS).as(List.class);
 						if (dimensions.size() < 2) {
 							throw new ANIMOException("The number of dimensions for the reaction " + r.get(CATALYST).as(String.class) + ((r.get(INCREMENT).as(Integer.class) > 0)?" --> ":" --| ") + r.get(REACTANT).as(String.class) + " is not 2 as expected");
@@ -636,19 +662,20 @@ public class VariablesModelSMC extends VariablesModel {
 						int nLevelsR1 = dimensions.get(0),
 							nLevelsR2 = dimensions.get(1);
 						if (r.get(INCREMENT).as(Integer.class) > 0) {
-							document = documentBuilder.parse(new ByteArrayInputStream(("<template><name x=\"5\" y=\"5\">Reaction2_" + r.get(CATALYST).as(String.class) + "_" + r.get(REACTANT).as(String.class) + "</name><parameter>int &amp;reactant1, int &amp;reactant2" + ACTIVITY_SUFFIX + ", int &amp;reactant2" + QUANTITY_SUFFIX + ", int &amp;reactant2" + PERCENTAGE_SUFFIX + ", const int timeL[" + nLevelsR2 + "][" + nLevelsR1 + "], const int timeU[" + nLevelsR2 + "][" + nLevelsR1 + "], const int delta, broadcast chan &amp;r1_reacting, broadcast chan &amp;r2_reacting</parameter><declaration>// Place local declarations here.\nclock c;\nint r1, r2;</declaration><location id=\"id0\" x=\"-1328\" y=\"-952\"><name x=\"-1338\" y=\"-982\">s2</name></location><location id=\"id1\" x=\"-1064\" y=\"-800\"><name x=\"-1074\" y=\"-830\">s4</name><urgent/></location><location id=\"id2\" x=\"-1328\" y=\"-696\"><name x=\"-1338\" y=\"-726\">s3</name><label kind=\"invariant\" x=\"-1568\" y=\"-720\">timeU[r2][r1] == INFINITE_TIME\n|| c&lt;=timeU[r2][r1]</label></location><location id=\"id3\" x=\"-1328\" y=\"-840\"><name x=\"-1352\" y=\"-864\">s1</name><urgent/></location><init ref=\"id3\"/><transition><source ref=\"id0\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1592\" y=\"-1016\">r1_reacting?</label><label kind=\"assignment\" x=\"-1592\" y=\"-1000\">c:=0</label><nail x=\"-1360\" y=\"-984\"/><nail x=\"-1616\" y=\"-984\"/><nail x=\"-1616\" y=\"-512\"/><nail x=\"-784\" y=\"-512\"/><nail x=\"-784\" y=\"-736\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1184\" y=\"-784\">r2_reacting?</label><nail x=\"-1248\" y=\"-768\"/><nail x=\"-1096\" y=\"-768\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1096\" y=\"-640\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2" + ACTIVITY_SUFFIX + "+delta&gt; reactant2" + QUANTITY_SUFFIX + "</label><label kind=\"synchronisation\" x=\"-1096\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1096\" y=\"-592\">reactant2" + ACTIVITY_SUFFIX + ":=reactant2" + QUANTITY_SUFFIX + ",\nreactant2" + PERCENTAGE_SUFFIX + ":=1000,\nc:=0</label><nail x=\"-1280\" y=\"-656\"/><nail x=\"-1104\" y=\"-656\"/><nail x=\"-1104\" y=\"-560\"/><nail x=\"-848\" y=\"-560\"/><nail x=\"-848\" y=\"-704\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1576\" y=\"-640\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2" + ACTIVITY_SUFFIX + "+delta&lt;0</label><label kind=\"synchronisation\" x=\"-1576\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1576\" y=\"-592\">reactant2" + ACTIVITY_SUFFIX + ":=0,\nreactant2" + PERCENTAGE_SUFFIX + ":=0,\nc:=0</label><nail x=\"-1416\" y=\"-656\"/><nail x=\"-1584\" y=\"-656\"/><nail x=\"-1584\" y=\"-544\"/><nail x=\"-816\" y=\"-544\"/><nail x=\"-816\" y=\"-720\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1224\" y=\"-768\">r1_reacting?</label><nail x=\"-1248\" y=\"-752\"/><nail x=\"-1088\" y=\"-752\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1384\" y=\"-648\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2" + ACTIVITY_SUFFIX + "+delta&gt;=0\n&amp;&amp; reactant2" + ACTIVITY_SUFFIX + "+delta&lt;=reactant2" + QUANTITY_SUFFIX + "</label><label kind=\"synchronisation\" x=\"-1384\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1384\" y=\"-592\">reactant2" + ACTIVITY_SUFFIX + ":=reactant2" + ACTIVITY_SUFFIX + "+delta,\nreactant2" + PERCENTAGE_SUFFIX + ":=percentage(reactant2" + ACTIVITY_SUFFIX + ", reactant2" + QUANTITY_SUFFIX + "),\nc:=0</label><nail x=\"-1328\" y=\"-656\"/><nail x=\"-1392\" y=\"-656\"/><nail x=\"-1392\" y=\"-552\"/><nail x=\"-832\" y=\"-552\"/><nail x=\"-832\" y=\"-712\"/></transition><transition><source ref=\"id0\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1592\" y=\"-984\">r2_reacting?</label><label kind=\"assignment\" x=\"-1592\" y=\"-968\">c:=0</label><nail x=\"-1600\" y=\"-952\"/><nail x=\"-1600\" y=\"-528\"/><nail x=\"-800\" y=\"-528\"/><nail x=\"-800\" y=\"-728\"/></transition><transition><source ref=\"id1\"/><target ref=\"id0\"/><label kind=\"guard\" x=\"-1272\" y=\"-968\">timeL[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1] == INFINITE_TIME</label><nail x=\"-952\" y=\"-800\"/><nail x=\"-952\" y=\"-952\"/></transition><transition><source ref=\"id3\"/><target ref=\"id0\"/><label kind=\"guard\" x=\"-1480\" y=\"-912\">timeL[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1] == INFINITE_TIME</label></transition><transition><source ref=\"id1\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1296\" y=\"-840\">timeU[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1] != INFINITE_TIME\n&amp;&amp; c&gt;timeU[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1]</label><label kind=\"assignment\" x=\"-1296\" y=\"-816\">c:=timeU[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1],\nr1:=reactant1,\nr2:=reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "</label><nail x=\"-1248\" y=\"-800\"/></transition><transition><source ref=\"id1\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1272\" y=\"-752\">(timeU[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1] == INFINITE_TIME\n&amp;&amp; timeL[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1] != INFINITE_TIME)\n|| (timeU[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1] != INFINITE_TIME\n&amp;&amp; c&lt;=timeU[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1])</label><label kind=\"assignment\" x=\"-1272\" y=\"-704\">r1:=reactant1,\nr2:=reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "</label><nail x=\"-1064\" y=\"-696\"/></transition><transition><source ref=\"id3\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1528\" y=\"-824\">timeL[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1] \n  != INFINITE_TIME</label><label kind=\"assignment\" x=\"-1448\" y=\"-792\">r1 := reactant1,\nr2 := reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + ",\nc:=0</label></transition></template>").getBytes()));
+							template = "<template><name x=\"5\" y=\"5\">" + templateName + "</name><parameter>int &amp;reactant1, int &amp;reactant2" + ACTIVITY_SUFFIX + ", int &amp;reactant2" + QUANTITY_SUFFIX + ", int &amp;reactant2" + PERCENTAGE_SUFFIX + ", const int timeL[" + nLevelsR2 + "][" + nLevelsR1 + "], const int timeU[" + nLevelsR2 + "][" + nLevelsR1 + "], const int delta, broadcast chan &amp;r1_reacting, broadcast chan &amp;r2_reacting</parameter><declaration>// Place local declarations here.\nclock c;\nint r1, r2;</declaration><location id=\"id0\" x=\"-1328\" y=\"-952\"><name x=\"-1338\" y=\"-982\">s2</name></location><location id=\"id1\" x=\"-1064\" y=\"-800\"><name x=\"-1074\" y=\"-830\">s4</name><urgent/></location><location id=\"id2\" x=\"-1328\" y=\"-696\"><name x=\"-1338\" y=\"-726\">s3</name><label kind=\"invariant\" x=\"-1568\" y=\"-720\">timeU[r2][r1] == INFINITE_TIME\n|| c&lt;=timeU[r2][r1]</label></location><location id=\"id3\" x=\"-1328\" y=\"-840\"><name x=\"-1352\" y=\"-864\">s1</name><urgent/></location><init ref=\"id3\"/><transition><source ref=\"id0\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1592\" y=\"-1016\">r1_reacting?</label><label kind=\"assignment\" x=\"-1592\" y=\"-1000\">c:=0</label><nail x=\"-1360\" y=\"-984\"/><nail x=\"-1616\" y=\"-984\"/><nail x=\"-1616\" y=\"-512\"/><nail x=\"-784\" y=\"-512\"/><nail x=\"-784\" y=\"-736\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1184\" y=\"-784\">r2_reacting?</label><nail x=\"-1248\" y=\"-768\"/><nail x=\"-1096\" y=\"-768\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1096\" y=\"-640\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2" + ACTIVITY_SUFFIX + "+delta&gt; reactant2" + QUANTITY_SUFFIX + "</label><label kind=\"synchronisation\" x=\"-1096\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1096\" y=\"-592\">reactant2" + ACTIVITY_SUFFIX + ":=reactant2" + QUANTITY_SUFFIX + ",\nreactant2" + PERCENTAGE_SUFFIX + ":=1000,\nc:=0</label><nail x=\"-1280\" y=\"-656\"/><nail x=\"-1104\" y=\"-656\"/><nail x=\"-1104\" y=\"-560\"/><nail x=\"-848\" y=\"-560\"/><nail x=\"-848\" y=\"-704\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1576\" y=\"-640\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2" + ACTIVITY_SUFFIX + "+delta&lt;0</label><label kind=\"synchronisation\" x=\"-1576\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1576\" y=\"-592\">reactant2" + ACTIVITY_SUFFIX + ":=0,\nreactant2" + PERCENTAGE_SUFFIX + ":=0,\nc:=0</label><nail x=\"-1416\" y=\"-656\"/><nail x=\"-1584\" y=\"-656\"/><nail x=\"-1584\" y=\"-544\"/><nail x=\"-816\" y=\"-544\"/><nail x=\"-816\" y=\"-720\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1224\" y=\"-768\">r1_reacting?</label><nail x=\"-1248\" y=\"-752\"/><nail x=\"-1088\" y=\"-752\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1384\" y=\"-648\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2" + ACTIVITY_SUFFIX + "+delta&gt;=0\n&amp;&amp; reactant2" + ACTIVITY_SUFFIX + "+delta&lt;=reactant2" + QUANTITY_SUFFIX + "</label><label kind=\"synchronisation\" x=\"-1384\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1384\" y=\"-592\">reactant2" + ACTIVITY_SUFFIX + ":=reactant2" + ACTIVITY_SUFFIX + "+delta,\nreactant2" + PERCENTAGE_SUFFIX + ":=percentage(reactant2" + ACTIVITY_SUFFIX + ", reactant2" + QUANTITY_SUFFIX + "),\nc:=0</label><nail x=\"-1328\" y=\"-656\"/><nail x=\"-1392\" y=\"-656\"/><nail x=\"-1392\" y=\"-552\"/><nail x=\"-832\" y=\"-552\"/><nail x=\"-832\" y=\"-712\"/></transition><transition><source ref=\"id0\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1592\" y=\"-984\">r2_reacting?</label><label kind=\"assignment\" x=\"-1592\" y=\"-968\">c:=0</label><nail x=\"-1600\" y=\"-952\"/><nail x=\"-1600\" y=\"-528\"/><nail x=\"-800\" y=\"-528\"/><nail x=\"-800\" y=\"-728\"/></transition><transition><source ref=\"id1\"/><target ref=\"id0\"/><label kind=\"guard\" x=\"-1272\" y=\"-968\">timeL[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1] == INFINITE_TIME</label><nail x=\"-952\" y=\"-800\"/><nail x=\"-952\" y=\"-952\"/></transition><transition><source ref=\"id3\"/><target ref=\"id0\"/><label kind=\"guard\" x=\"-1480\" y=\"-912\">timeL[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1] == INFINITE_TIME</label></transition><transition><source ref=\"id1\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1296\" y=\"-840\">timeU[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1] != INFINITE_TIME\n&amp;&amp; c&gt;timeU[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1]</label><label kind=\"assignment\" x=\"-1296\" y=\"-816\">c:=timeU[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1],\nr1:=reactant1,\nr2:=reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "</label><nail x=\"-1248\" y=\"-800\"/></transition><transition><source ref=\"id1\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1272\" y=\"-752\">(timeU[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1] == INFINITE_TIME\n&amp;&amp; timeL[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1] != INFINITE_TIME)\n|| (timeU[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1] != INFINITE_TIME\n&amp;&amp; c&lt;=timeU[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1])</label><label kind=\"assignment\" x=\"-1272\" y=\"-704\">r1:=reactant1,\nr2:=reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "</label><nail x=\"-1064\" y=\"-696\"/></transition><transition><source ref=\"id3\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1528\" y=\"-824\">timeL[reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + "][reactant1] \n  != INFINITE_TIME</label><label kind=\"assignment\" x=\"-1448\" y=\"-792\">r1 := reactant1,\nr2 := reactant2" + QUANTITY_SUFFIX + " - reactant2" + ACTIVITY_SUFFIX + ",\nc:=0</label></transition></template>";
 						} else { //If the reaction has negative effect, the table is indexed by the activity level of the substrate instead of its "inactivity level" (quantity - activity)
-							document = documentBuilder.parse(new ByteArrayInputStream(("<template><name x=\"5\" y=\"5\">Reaction2_" + r.get(CATALYST).as(String.class) + "_" + r.get(REACTANT).as(String.class) + "</name><parameter>int &amp;reactant1, int &amp;reactant2" + ACTIVITY_SUFFIX + ", int &amp;reactant2" + QUANTITY_SUFFIX + ", int &amp;reactant2" + PERCENTAGE_SUFFIX + ", const int timeL[" + nLevelsR2 + "][" + nLevelsR1 + "], const int timeU[" + nLevelsR2 + "][" + nLevelsR1 + "], const int delta, broadcast chan &amp;r1_reacting, broadcast chan &amp;r2_reacting</parameter><declaration>// Place local declarations here.\nclock c;\nint r1, r2;</declaration><location id=\"id0\" x=\"-1328\" y=\"-952\"><name x=\"-1338\" y=\"-982\">s2</name></location><location id=\"id1\" x=\"-1064\" y=\"-800\"><name x=\"-1074\" y=\"-830\">s4</name><urgent/></location><location id=\"id2\" x=\"-1328\" y=\"-696\"><name x=\"-1338\" y=\"-726\">s3</name><label kind=\"invariant\" x=\"-1568\" y=\"-720\">timeU[r2][r1] == INFINITE_TIME\n|| c&lt;=timeU[r2][r1]</label></location><location id=\"id3\" x=\"-1328\" y=\"-840\"><name x=\"-1352\" y=\"-864\">s1</name><urgent/></location><init ref=\"id3\"/><transition><source ref=\"id0\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1592\" y=\"-1016\">r1_reacting?</label><label kind=\"assignment\" x=\"-1592\" y=\"-1000\">c:=0</label><nail x=\"-1360\" y=\"-984\"/><nail x=\"-1616\" y=\"-984\"/><nail x=\"-1616\" y=\"-512\"/><nail x=\"-784\" y=\"-512\"/><nail x=\"-784\" y=\"-736\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1184\" y=\"-784\">r2_reacting?</label><nail x=\"-1248\" y=\"-768\"/><nail x=\"-1096\" y=\"-768\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1096\" y=\"-640\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2" + ACTIVITY_SUFFIX + "+delta&gt; reactant2" + QUANTITY_SUFFIX + "</label><label kind=\"synchronisation\" x=\"-1096\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1096\" y=\"-592\">reactant2" + ACTIVITY_SUFFIX + ":=reactant2" + QUANTITY_SUFFIX + ",\nreactant2" + PERCENTAGE_SUFFIX + ":=1000,\nc:=0</label><nail x=\"-1280\" y=\"-656\"/><nail x=\"-1104\" y=\"-656\"/><nail x=\"-1104\" y=\"-560\"/><nail x=\"-848\" y=\"-560\"/><nail x=\"-848\" y=\"-704\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1576\" y=\"-640\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2" + ACTIVITY_SUFFIX + "+delta&lt;0</label><label kind=\"synchronisation\" x=\"-1576\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1576\" y=\"-592\">reactant2" + ACTIVITY_SUFFIX + ":=0,\nreactant2" + PERCENTAGE_SUFFIX + ":=0,\nc:=0</label><nail x=\"-1416\" y=\"-656\"/><nail x=\"-1584\" y=\"-656\"/><nail x=\"-1584\" y=\"-544\"/><nail x=\"-816\" y=\"-544\"/><nail x=\"-816\" y=\"-720\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1224\" y=\"-768\">r1_reacting?</label><nail x=\"-1248\" y=\"-752\"/><nail x=\"-1088\" y=\"-752\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1384\" y=\"-648\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2" + ACTIVITY_SUFFIX + "+delta&gt;=0\n&amp;&amp; reactant2" + ACTIVITY_SUFFIX + "+delta&lt;=reactant2" + QUANTITY_SUFFIX + "</label><label kind=\"synchronisation\" x=\"-1384\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1384\" y=\"-592\">reactant2" + ACTIVITY_SUFFIX + ":=reactant2" + ACTIVITY_SUFFIX + "+delta,\nreactant2" + PERCENTAGE_SUFFIX + ":=percentage(reactant2" + ACTIVITY_SUFFIX + ", reactant2" + QUANTITY_SUFFIX + "),\nc:=0</label><nail x=\"-1328\" y=\"-656\"/><nail x=\"-1392\" y=\"-656\"/><nail x=\"-1392\" y=\"-552\"/><nail x=\"-832\" y=\"-552\"/><nail x=\"-832\" y=\"-712\"/></transition><transition><source ref=\"id0\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1592\" y=\"-984\">r2_reacting?</label><label kind=\"assignment\" x=\"-1592\" y=\"-968\">c:=0</label><nail x=\"-1600\" y=\"-952\"/><nail x=\"-1600\" y=\"-528\"/><nail x=\"-800\" y=\"-528\"/><nail x=\"-800\" y=\"-728\"/></transition><transition><source ref=\"id1\"/><target ref=\"id0\"/><label kind=\"guard\" x=\"-1272\" y=\"-968\">timeL[reactant2" + ACTIVITY_SUFFIX + "][reactant1] == INFINITE_TIME</label><nail x=\"-952\" y=\"-800\"/><nail x=\"-952\" y=\"-952\"/></transition><transition><source ref=\"id3\"/><target ref=\"id0\"/><label kind=\"guard\" x=\"-1480\" y=\"-912\">timeL[reactant2" + ACTIVITY_SUFFIX + "][reactant1] == INFINITE_TIME</label></transition><transition><source ref=\"id1\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1296\" y=\"-840\">timeU[reactant2" + ACTIVITY_SUFFIX + "][reactant1] != INFINITE_TIME\n&amp;&amp; c&gt;timeU[reactant2" + ACTIVITY_SUFFIX + "][reactant1]</label><label kind=\"assignment\" x=\"-1296\" y=\"-816\">c:=timeU[reactant2" + ACTIVITY_SUFFIX + "][reactant1],\nr1:=reactant1,\nr2:=reactant2" + ACTIVITY_SUFFIX + "</label><nail x=\"-1248\" y=\"-800\"/></transition><transition><source ref=\"id1\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1272\" y=\"-752\">(timeU[reactant2" + ACTIVITY_SUFFIX + "][reactant1] == INFINITE_TIME\n&amp;&amp; timeL[reactant2" + ACTIVITY_SUFFIX + "][reactant1] != INFINITE_TIME)\n|| (timeU[reactant2" + ACTIVITY_SUFFIX + "][reactant1] != INFINITE_TIME\n&amp;&amp; c&lt;=timeU[reactant2" + ACTIVITY_SUFFIX + "][reactant1])</label><label kind=\"assignment\" x=\"-1272\" y=\"-704\">r1:=reactant1,\nr2:=reactant2" + ACTIVITY_SUFFIX + "</label><nail x=\"-1064\" y=\"-696\"/></transition><transition><source ref=\"id3\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1528\" y=\"-824\">timeL[reactant2" + ACTIVITY_SUFFIX + "][reactant1] \n  != INFINITE_TIME</label><label kind=\"assignment\" x=\"-1448\" y=\"-792\">r1 := reactant1,\nr2 := reactant2" + ACTIVITY_SUFFIX + ",\nc:=0</label></transition></template>").getBytes()));
+							template = "<template><name x=\"5\" y=\"5\">" + templateName + "</name><parameter>int &amp;reactant1, int &amp;reactant2" + ACTIVITY_SUFFIX + ", int &amp;reactant2" + QUANTITY_SUFFIX + ", int &amp;reactant2" + PERCENTAGE_SUFFIX + ", const int timeL[" + nLevelsR2 + "][" + nLevelsR1 + "], const int timeU[" + nLevelsR2 + "][" + nLevelsR1 + "], const int delta, broadcast chan &amp;r1_reacting, broadcast chan &amp;r2_reacting</parameter><declaration>// Place local declarations here.\nclock c;\nint r1, r2;</declaration><location id=\"id0\" x=\"-1328\" y=\"-952\"><name x=\"-1338\" y=\"-982\">s2</name></location><location id=\"id1\" x=\"-1064\" y=\"-800\"><name x=\"-1074\" y=\"-830\">s4</name><urgent/></location><location id=\"id2\" x=\"-1328\" y=\"-696\"><name x=\"-1338\" y=\"-726\">s3</name><label kind=\"invariant\" x=\"-1568\" y=\"-720\">timeU[r2][r1] == INFINITE_TIME\n|| c&lt;=timeU[r2][r1]</label></location><location id=\"id3\" x=\"-1328\" y=\"-840\"><name x=\"-1352\" y=\"-864\">s1</name><urgent/></location><init ref=\"id3\"/><transition><source ref=\"id0\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1592\" y=\"-1016\">r1_reacting?</label><label kind=\"assignment\" x=\"-1592\" y=\"-1000\">c:=0</label><nail x=\"-1360\" y=\"-984\"/><nail x=\"-1616\" y=\"-984\"/><nail x=\"-1616\" y=\"-512\"/><nail x=\"-784\" y=\"-512\"/><nail x=\"-784\" y=\"-736\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1184\" y=\"-784\">r2_reacting?</label><nail x=\"-1248\" y=\"-768\"/><nail x=\"-1096\" y=\"-768\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1096\" y=\"-640\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2" + ACTIVITY_SUFFIX + "+delta&gt; reactant2" + QUANTITY_SUFFIX + "</label><label kind=\"synchronisation\" x=\"-1096\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1096\" y=\"-592\">reactant2" + ACTIVITY_SUFFIX + ":=reactant2" + QUANTITY_SUFFIX + ",\nreactant2" + PERCENTAGE_SUFFIX + ":=1000,\nc:=0</label><nail x=\"-1280\" y=\"-656\"/><nail x=\"-1104\" y=\"-656\"/><nail x=\"-1104\" y=\"-560\"/><nail x=\"-848\" y=\"-560\"/><nail x=\"-848\" y=\"-704\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1576\" y=\"-640\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2" + ACTIVITY_SUFFIX + "+delta&lt;0</label><label kind=\"synchronisation\" x=\"-1576\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1576\" y=\"-592\">reactant2" + ACTIVITY_SUFFIX + ":=0,\nreactant2" + PERCENTAGE_SUFFIX + ":=0,\nc:=0</label><nail x=\"-1416\" y=\"-656\"/><nail x=\"-1584\" y=\"-656\"/><nail x=\"-1584\" y=\"-544\"/><nail x=\"-816\" y=\"-544\"/><nail x=\"-816\" y=\"-720\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1224\" y=\"-768\">r1_reacting?</label><nail x=\"-1248\" y=\"-752\"/><nail x=\"-1088\" y=\"-752\"/></transition><transition><source ref=\"id2\"/><target ref=\"id1\"/><label kind=\"guard\" x=\"-1384\" y=\"-648\">c&gt;=timeL[r2][r1]\n&amp;&amp; reactant2" + ACTIVITY_SUFFIX + "+delta&gt;=0\n&amp;&amp; reactant2" + ACTIVITY_SUFFIX + "+delta&lt;=reactant2" + QUANTITY_SUFFIX + "</label><label kind=\"synchronisation\" x=\"-1384\" y=\"-608\">r2_reacting!</label><label kind=\"assignment\" x=\"-1384\" y=\"-592\">reactant2" + ACTIVITY_SUFFIX + ":=reactant2" + ACTIVITY_SUFFIX + "+delta,\nreactant2" + PERCENTAGE_SUFFIX + ":=percentage(reactant2" + ACTIVITY_SUFFIX + ", reactant2" + QUANTITY_SUFFIX + "),\nc:=0</label><nail x=\"-1328\" y=\"-656\"/><nail x=\"-1392\" y=\"-656\"/><nail x=\"-1392\" y=\"-552\"/><nail x=\"-832\" y=\"-552\"/><nail x=\"-832\" y=\"-712\"/></transition><transition><source ref=\"id0\"/><target ref=\"id1\"/><label kind=\"synchronisation\" x=\"-1592\" y=\"-984\">r2_reacting?</label><label kind=\"assignment\" x=\"-1592\" y=\"-968\">c:=0</label><nail x=\"-1600\" y=\"-952\"/><nail x=\"-1600\" y=\"-528\"/><nail x=\"-800\" y=\"-528\"/><nail x=\"-800\" y=\"-728\"/></transition><transition><source ref=\"id1\"/><target ref=\"id0\"/><label kind=\"guard\" x=\"-1272\" y=\"-968\">timeL[reactant2" + ACTIVITY_SUFFIX + "][reactant1] == INFINITE_TIME</label><nail x=\"-952\" y=\"-800\"/><nail x=\"-952\" y=\"-952\"/></transition><transition><source ref=\"id3\"/><target ref=\"id0\"/><label kind=\"guard\" x=\"-1480\" y=\"-912\">timeL[reactant2" + ACTIVITY_SUFFIX + "][reactant1] == INFINITE_TIME</label></transition><transition><source ref=\"id1\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1296\" y=\"-840\">timeU[reactant2" + ACTIVITY_SUFFIX + "][reactant1] != INFINITE_TIME\n&amp;&amp; c&gt;timeU[reactant2" + ACTIVITY_SUFFIX + "][reactant1]</label><label kind=\"assignment\" x=\"-1296\" y=\"-816\">c:=timeU[reactant2" + ACTIVITY_SUFFIX + "][reactant1],\nr1:=reactant1,\nr2:=reactant2" + ACTIVITY_SUFFIX + "</label><nail x=\"-1248\" y=\"-800\"/></transition><transition><source ref=\"id1\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1272\" y=\"-752\">(timeU[reactant2" + ACTIVITY_SUFFIX + "][reactant1] == INFINITE_TIME\n&amp;&amp; timeL[reactant2" + ACTIVITY_SUFFIX + "][reactant1] != INFINITE_TIME)\n|| (timeU[reactant2" + ACTIVITY_SUFFIX + "][reactant1] != INFINITE_TIME\n&amp;&amp; c&lt;=timeU[reactant2" + ACTIVITY_SUFFIX + "][reactant1])</label><label kind=\"assignment\" x=\"-1272\" y=\"-704\">r1:=reactant1,\nr2:=reactant2" + ACTIVITY_SUFFIX + "</label><nail x=\"-1064\" y=\"-696\"/></transition><transition><source ref=\"id3\"/><target ref=\"id2\"/><label kind=\"guard\" x=\"-1528\" y=\"-824\">timeL[reactant2" + ACTIVITY_SUFFIX + "][reactant1] \n  != INFINITE_TIME</label><label kind=\"assignment\" x=\"-1448\" y=\"-792\">r1 := reactant1,\nr2 := reactant2" + ACTIVITY_SUFFIX + ",\nc:=0</label></transition></template>";
 						}
 					}
 				} else {
-					document = documentBuilder.parse(new ByteArrayInputStream(("<template><name x=\"5\" y=\"5\">Reaction_" + r.get(REACTANT).as(String.class) + "</name><parameter>int &amp;reactant, const int timeL[" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "+1], const int timeU[" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "+1], const int delta, broadcast chan &amp;inform_reacting</parameter><declaration>// Place local declarations here.\nclock c;\nint r;</declaration><location id=\"id4\" x=\"-1328\" y=\"-952\"><name x=\"-1338\" y=\"-982\">s2</name></location><location id=\"id5\" x=\"-1064\" y=\"-800\"><name x=\"-1074\" y=\"-830\">s4</name><urgent/></location><location id=\"id6\" x=\"-1328\" y=\"-696\"><name x=\"-1338\" y=\"-726\">s3</name><label kind=\"invariant\" x=\"-1528\" y=\"-720\">timeU[r] == INFINITE_TIME\n|| c&lt;=timeU[r]</label></location><location id=\"id7\" x=\"-1328\" y=\"-840\"><name x=\"-1352\" y=\"-864\">s1</name><urgent/></location><init ref=\"id7\"/><transition><source ref=\"id6\"/><target ref=\"id5\"/><label kind=\"guard\" x=\"-1096\" y=\"-640\">c&gt;=timeL[r]\n&amp;&amp; reactant+delta&gt;" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "</label><label kind=\"synchronisation\" x=\"-1096\" y=\"-608\">inform_reacting!</label><label kind=\"assignment\" x=\"-1096\" y=\"-592\">reactant:=" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + ",\nc:=0</label><nail x=\"-1280\" y=\"-656\"/><nail x=\"-1104\" y=\"-656\"/><nail x=\"-1104\" y=\"-560\"/><nail x=\"-848\" y=\"-560\"/><nail x=\"-848\" y=\"-704\"/></transition><transition><source ref=\"id6\"/><target ref=\"id5\"/><label kind=\"guard\" x=\"-1576\" y=\"-640\">c&gt;=timeL[r]\n&amp;&amp; reactant+delta&lt;0</label><label kind=\"synchronisation\" x=\"-1576\" y=\"-608\">inform_reacting!</label><label kind=\"assignment\" x=\"-1576\" y=\"-592\">reactant:=0,\nc:=0</label><nail x=\"-1416\" y=\"-656\"/><nail x=\"-1584\" y=\"-656\"/><nail x=\"-1584\" y=\"-544\"/><nail x=\"-816\" y=\"-544\"/><nail x=\"-816\" y=\"-720\"/></transition><transition><source ref=\"id6\"/><target ref=\"id5\"/><label kind=\"synchronisation\" x=\"-1248\" y=\"-768\">inform_reacting?</label><nail x=\"-1256\" y=\"-752\"/><nail x=\"-1120\" y=\"-752\"/></transition><transition><source ref=\"id6\"/><target ref=\"id5\"/><label kind=\"guard\" x=\"-1384\" y=\"-648\">c&gt;=timeL[r]\n&amp;&amp; reactant+delta&gt;=0\n&amp;&amp; reactant+delta&lt;=" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "</label><label kind=\"synchronisation\" x=\"-1384\" y=\"-608\">inform_reacting!</label><label kind=\"assignment\" x=\"-1384\" y=\"-592\">reactant:=reactant+delta,\nc:=0</label><nail x=\"-1328\" y=\"-656\"/><nail x=\"-1392\" y=\"-656\"/><nail x=\"-1392\" y=\"-552\"/><nail x=\"-832\" y=\"-552\"/><nail x=\"-832\" y=\"-712\"/></transition><transition><source ref=\"id4\"/><target ref=\"id5\"/><label kind=\"synchronisation\" x=\"-1592\" y=\"-984\">inform_reacting?</label><label kind=\"assignment\" x=\"-1592\" y=\"-968\">c:=0</label><nail x=\"-1600\" y=\"-952\"/><nail x=\"-1600\" y=\"-528\"/><nail x=\"-800\" y=\"-528\"/><nail x=\"-800\" y=\"-728\"/></transition><transition><source ref=\"id5\"/><target ref=\"id4\"/><label kind=\"guard\" x=\"-1272\" y=\"-968\">timeL[reactant] == INFINITE_TIME</label><nail x=\"-952\" y=\"-800\"/><nail x=\"-952\" y=\"-952\"/></transition><transition><source ref=\"id7\"/><target ref=\"id4\"/><label kind=\"guard\" x=\"-1432\" y=\"-912\">timeL[reactant] == INFINITE_TIME</label></transition><transition><source ref=\"id5\"/><target ref=\"id6\"/><label kind=\"guard\" x=\"-1296\" y=\"-840\">timeU[reactant] != INFINITE_TIME\n&amp;&amp; c&gt;timeU[reactant]</label><label kind=\"assignment\" x=\"-1296\" y=\"-816\">c:=timeU[reactant],\nr:=reactant</label><nail x=\"-1248\" y=\"-800\"/></transition><transition><source ref=\"id5\"/><target ref=\"id6\"/><label kind=\"guard\" x=\"-1272\" y=\"-744\">(timeU[reactant] == INFINITE_TIME\n&amp;&amp; timeL[reactant] != INFINITE_TIME)\n|| (timeU[reactant] != INFINITE_TIME\n&amp;&amp; c&lt;=timeU[reactant])</label><label kind=\"assignment\" x=\"-1272\" y=\"-696\">r:=reactant</label><nail x=\"-1064\" y=\"-680\"/><nail x=\"-1280\" y=\"-680\"/></transition><transition><source ref=\"id7\"/><target ref=\"id6\"/><label kind=\"guard\" x=\"-1456\" y=\"-824\">timeL[reactant] \n  != INFINITE_TIME</label><label kind=\"assignment\" x=\"-1456\" y=\"-800\">r := reactant,\nc:=0</label></transition></template>").getBytes()));
+					template = "<template><name x=\"5\" y=\"5\">" + templateName + "</name><parameter>int &amp;reactant, const int timeL[" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "+1], const int timeU[" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "+1], const int delta, broadcast chan &amp;inform_reacting</parameter><declaration>// Place local declarations here.\nclock c;\nint r;</declaration><location id=\"id4\" x=\"-1328\" y=\"-952\"><name x=\"-1338\" y=\"-982\">s2</name></location><location id=\"id5\" x=\"-1064\" y=\"-800\"><name x=\"-1074\" y=\"-830\">s4</name><urgent/></location><location id=\"id6\" x=\"-1328\" y=\"-696\"><name x=\"-1338\" y=\"-726\">s3</name><label kind=\"invariant\" x=\"-1528\" y=\"-720\">timeU[r] == INFINITE_TIME\n|| c&lt;=timeU[r]</label></location><location id=\"id7\" x=\"-1328\" y=\"-840\"><name x=\"-1352\" y=\"-864\">s1</name><urgent/></location><init ref=\"id7\"/><transition><source ref=\"id6\"/><target ref=\"id5\"/><label kind=\"guard\" x=\"-1096\" y=\"-640\">c&gt;=timeL[r]\n&amp;&amp; reactant+delta&gt;" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "</label><label kind=\"synchronisation\" x=\"-1096\" y=\"-608\">inform_reacting!</label><label kind=\"assignment\" x=\"-1096\" y=\"-592\">reactant:=" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + ",\nc:=0</label><nail x=\"-1280\" y=\"-656\"/><nail x=\"-1104\" y=\"-656\"/><nail x=\"-1104\" y=\"-560\"/><nail x=\"-848\" y=\"-560\"/><nail x=\"-848\" y=\"-704\"/></transition><transition><source ref=\"id6\"/><target ref=\"id5\"/><label kind=\"guard\" x=\"-1576\" y=\"-640\">c&gt;=timeL[r]\n&amp;&amp; reactant+delta&lt;0</label><label kind=\"synchronisation\" x=\"-1576\" y=\"-608\">inform_reacting!</label><label kind=\"assignment\" x=\"-1576\" y=\"-592\">reactant:=0,\nc:=0</label><nail x=\"-1416\" y=\"-656\"/><nail x=\"-1584\" y=\"-656\"/><nail x=\"-1584\" y=\"-544\"/><nail x=\"-816\" y=\"-544\"/><nail x=\"-816\" y=\"-720\"/></transition><transition><source ref=\"id6\"/><target ref=\"id5\"/><label kind=\"synchronisation\" x=\"-1248\" y=\"-768\">inform_reacting?</label><nail x=\"-1256\" y=\"-752\"/><nail x=\"-1120\" y=\"-752\"/></transition><transition><source ref=\"id6\"/><target ref=\"id5\"/><label kind=\"guard\" x=\"-1384\" y=\"-648\">c&gt;=timeL[r]\n&amp;&amp; reactant+delta&gt;=0\n&amp;&amp; reactant+delta&lt;=" + m.getReactant(r.get(REACTANT).as(String.class)).get(NUMBER_OF_LEVELS).as(Integer.class) + "</label><label kind=\"synchronisation\" x=\"-1384\" y=\"-608\">inform_reacting!</label><label kind=\"assignment\" x=\"-1384\" y=\"-592\">reactant:=reactant+delta,\nc:=0</label><nail x=\"-1328\" y=\"-656\"/><nail x=\"-1392\" y=\"-656\"/><nail x=\"-1392\" y=\"-552\"/><nail x=\"-832\" y=\"-552\"/><nail x=\"-832\" y=\"-712\"/></transition><transition><source ref=\"id4\"/><target ref=\"id5\"/><label kind=\"synchronisation\" x=\"-1592\" y=\"-984\">inform_reacting?</label><label kind=\"assignment\" x=\"-1592\" y=\"-968\">c:=0</label><nail x=\"-1600\" y=\"-952\"/><nail x=\"-1600\" y=\"-528\"/><nail x=\"-800\" y=\"-528\"/><nail x=\"-800\" y=\"-728\"/></transition><transition><source ref=\"id5\"/><target ref=\"id4\"/><label kind=\"guard\" x=\"-1272\" y=\"-968\">timeL[reactant] == INFINITE_TIME</label><nail x=\"-952\" y=\"-800\"/><nail x=\"-952\" y=\"-952\"/></transition><transition><source ref=\"id7\"/><target ref=\"id4\"/><label kind=\"guard\" x=\"-1432\" y=\"-912\">timeL[reactant] == INFINITE_TIME</label></transition><transition><source ref=\"id5\"/><target ref=\"id6\"/><label kind=\"guard\" x=\"-1296\" y=\"-840\">timeU[reactant] != INFINITE_TIME\n&amp;&amp; c&gt;timeU[reactant]</label><label kind=\"assignment\" x=\"-1296\" y=\"-816\">c:=timeU[reactant],\nr:=reactant</label><nail x=\"-1248\" y=\"-800\"/></transition><transition><source ref=\"id5\"/><target ref=\"id6\"/><label kind=\"guard\" x=\"-1272\" y=\"-744\">(timeU[reactant] == INFINITE_TIME\n&amp;&amp; timeL[reactant] != INFINITE_TIME)\n|| (timeU[reactant] != INFINITE_TIME\n&amp;&amp; c&lt;=timeU[reactant])</label><label kind=\"assignment\" x=\"-1272\" y=\"-696\">r:=reactant</label><nail x=\"-1064\" y=\"-680\"/><nail x=\"-1280\" y=\"-680\"/></transition><transition><source ref=\"id7\"/><target ref=\"id6\"/><label kind=\"guard\" x=\"-1456\" y=\"-824\">timeL[reactant] \n  != INFINITE_TIME</label><label kind=\"assignment\" x=\"-1456\" y=\"-800\">r := reactant,\nc:=0</label></transition></template>";
 				}
-				tra.transform(new DOMSource(document), new StreamResult(outString));
-				out.append(outString.toString());
+				appendTemplate(out, template);
 				out.append(newLine);
 				out.append(newLine);
 			}
+		} catch (IOException e) {
+			throw e;
 		} catch (Exception e) {
 			System.err.println("Error: " + e);
 			e.printStackTrace();
@@ -656,7 +683,7 @@ public class VariablesModelSMC extends VariablesModel {
 	}
 	
 	@Override
-	protected void appendReactantVariables(StringBuilder out, Reactant r) {
+	protected void appendReactantVariables(Appendable out, Reactant r) throws IOException {
 		// outputs the global variables necessary for the given reactant
 		out.append("//" + r.getId() + " = " + r.get(ALIAS).as(String.class));
 		out.append(newLine);
@@ -0,0 +1,224 @@
+package animo.analyser.uppaal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import animo.ANIMOBackend;
+import animo.util.XmlConfiguration;
+
+/**
+ * The model and the query given to a single verifyta run, as the two paths to be put on its command line.
+ * How they get there depends on the configuration (see XmlConfiguration.MODEL_IO_KEY):
+ * <ul>
+ * <li>FILES: normal files in the temporary directory</li>
+ * <li>MEMORY: files in a directory kept in memory (/dev/shm, when it exists), so that nothing is written to disk</li>
+ * <li>PIPES: named pipes, which exist only while verifyta runs: the model and the query are written into them
+ * while verifyta reads them, so nothing is written anywhere. Where named pipes cannot be made (e.g. under Windows),
+ * files in memory are used instead.</li>
+ * </ul>
+ * Whatever the mode, the files are deleted as soon as they are not needed anymore (see close()).
+ */
+public class VerifytaInput implements Closeable {
+	public static enum Mode {
+		FILES, MEMORY, PIPES
+	}
+
+	private static final File SHARED_MEMORY = new File("/dev/shm"); //A directory kept in memory on most Linux systems
+	private static final ExecutorService WRITERS = Executors.newCachedThreadPool(new ThreadFactory() {
+		private AtomicInteger count = new AtomicInteger(0);
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "verifyta input writer " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private final File modelFile, queryFile;
+	private final boolean temporary; //Whether the files belong to this input only, and are to be deleted by close()
+	private Future<?>[] writers = null; //When using pipes, the threads writing into them
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+
+	/**
+	 * Use files that already exist, and are not deleted by close().
+	 * @param modelFile The file containing the UPPAAL model
+	 * @param queryFile The file containing the query
+	 */
+	public VerifytaInput(File modelFile, File queryFile) {
+		this(modelFile, queryFile, false);
+	}
+
+	private VerifytaInput(File modelFile, File queryFile, boolean temporary) {
+		this.modelFile = modelFile;
+		this.queryFile = queryFile;
+		this.temporary = temporary;
+	}
+
+	/**
+	 * @return How the configuration asks us to give models and queries to verifyta (FILES, if it does not say)
+	 */
+	public static Mode getMode() {
+		if (ANIMOBackend.isInitialised()) {
+			XmlConfiguration configuration = ANIMOBackend.get().configuration();
+			if (configuration.has(XmlConfiguration.MODEL_IO_KEY)) {
+				String mode = configuration.get(XmlConfiguration.MODEL_IO_KEY).trim();
+				for (Mode m : Mode.values()) {
+					if (m.name().equalsIgnoreCase(mode)) {
+						return m;
+					}
+				}
+				System.err.println("Unknown value \"" + mode + "\" for " + XmlConfiguration.MODEL_IO_KEY + ": using " + Mode.FILES.name().toLowerCase());
+			}
+		}
+		return Mode.FILES;
+	}
+
+	/**
+	 * @param mode How models are given to verifyta
+	 * @return The directory where to put the model and query files (or pipes): the one chosen in the configuration
+	 * (XmlConfiguration.TEMPORARY_DIRECTORY_KEY) if there is one, otherwise a directory in memory for MEMORY
+	 * and PIPES (if we find one), and the system temporary directory in all other cases
+	 */
+	public static File getDirectory(Mode mode) {
+		if (ANIMOBackend.isInitialised()) {
+			XmlConfiguration configuration = ANIMOBackend.get().configuration();
+			if (configuration.has(XmlConfiguration.TEMPORARY_DIRECTORY_KEY)) {
+				File directory = new File(configuration.get(XmlConfiguration.TEMPORARY_DIRECTORY_KEY).trim());
+				if (directory.isDirectory()) {
+					return directory;
+				}
+				System.err.println("The temporary directory " + directory + " does not exist: using the default one");
+			}
+		}
+		if (mode != Mode.FILES && SHARED_MEMORY.isDirectory() && SHARED_MEMORY.canWrite()) {
+			return SHARED_MEMORY;
+		}
+		return new File(System.getProperty("java.io.tmpdir"));
+	}
+
+	/**
+	 * Make a new pair of named pipes, and start writing the model and the query into them: the writing ends when
+	 * verifyta has read everything. If the pipes cannot be made, the model and the query are written to files instead.
+	 * In any case, remember to close the input when verifyta is done.
+	 * @param directory Where to make the pipes
+	 * @param model The UPPAAL model
+	 * @param query The query
+	 */
+	public static VerifytaInput pipes(File directory, byte[] model, byte[] query) throws IOException {
+		File base = File.createTempFile("ANIMO", ".xml", directory); //Used only to find a name nobody else is using
+		final String prefix = base.getAbsolutePath().replace(".xml", "");
+		VerifytaInput input = new VerifytaInput(base, new File(prefix + ".q"), true);
+		if (!base.delete() || !makePipes(input.modelFile, input.queryFile)) {
+			write(input.modelFile, model);
+			write(input.queryFile, query);
+			return input;
+		}
+		input.writers = new Future<?>[] {
+			input.startWriter(input.modelFile, model),
+			input.startWriter(input.queryFile, query)
+		};
+		return input;
+	}
+
+	private static boolean makePipes(File... pipes) {
+		if (UppaalModelAnalyserFasterConcrete.areWeUnderWindows()) return false;
+		String[] cmd = new String[pipes.length + 1];
+		cmd[0] = "mkfifo";
+		for (int i=0;i<pipes.length;i++) {
+			cmd[i + 1] = pipes[i].getAbsolutePath();
+		}
+		try {
+			Process mkfifo = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+			mkfifo.getOutputStream().close();
+			while (mkfifo.getInputStream().read() != -1); //we don't need what it says, but it must be able to say it
+			if (mkfifo.waitFor() == 0) {
+				return true;
+			}
+		} catch (IOException ex) {
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		for (File p : pipes) {
+			p.delete();
+		}
+		System.err.println("Cannot make named pipes in " + pipes[0].getParent() + ": using files");
+		return false;
+	}
+
+	private static void write(File f, byte[] content) throws IOException {
+		OutputStream out = new FileOutputStream(f);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	private Future<?> startWriter(final File pipe, final byte[] content) {
+		return WRITERS.submit(new Runnable() {
+			@Override
+			public void run() {
+				if (closed.get()) return; //Opening would block forever, as nobody is going to read
+				try {
+					write(pipe, content); //Opening the pipe waits for verifyta to open it too
+				} catch (IOException ex) { //verifyta stopped reading (e.g. it found an error, or it was stopped)
+				}
+			}
+		});
+	}
+
+	public String getModelPath() {
+		return modelFile.getAbsolutePath();
+	}
+
+	public String getQueryPath() {
+		return queryFile.getAbsolutePath();
+	}
+
+	/**
+	 * Stop the writing into the pipes (if verifyta did not read everything) and delete the files that belong only to
+	 * this input. Files given to the constructor are not deleted.
+	 */
+	@Override
+	public void close() {
+		if (closed.getAndSet(true)) return;
+		if (writers != null) {
+			boolean interrupted = false;
+			for (int i=0;i<writers.length;i++) {
+				File pipe = (i == 0) ? modelFile : queryFile;
+				while (!writers[i].isDone()) {
+					try {
+						//If the writer is waiting for somebody to open the pipe, we open it ourselves (this does not block when
+						//reading and writing) and close it immediately: the writer finds nobody reading and stops.
+						new RandomAccessFile(pipe, "rw").close();
+						writers[i].get(10, TimeUnit.MILLISECONDS);
+					} catch (TimeoutException ex) {
+					} catch (InterruptedException ex) { //We must not leave a writer blocked on a deleted pipe: we stop later
+						interrupted = true;
+					} catch (Exception ex) {
+						break;
+					}
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (temporary) {
+			modelFile.delete();
+			queryFile.delete();
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package animo.analyser.uppaal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import animo.analyser.AnalysisException;
+import animo.util.CancellationToken;
+
+/**
+ * A verifyta process, whose output is parsed while it runs.
+ * Waiting does not involve polling: the calling thread waits for the end of the parsing (done by a thread of
+ * a pool shared by all processes) and then for the end of the process, and it is woken up as soon as that happens.
+ * When the operation is cancelled, the process is destroyed immediately, and the same happens when the
+ * waiting thread is interrupted (e.g. when a job is cancelled on the server).
+ */
+public class VerifytaProcess {
+	private static final ExecutorService PARSERS = Executors.newCachedThreadPool(new ThreadFactory() { //Idle threads are kept for a while, so consecutive runs do not need to create new ones
+		private AtomicInteger count = new AtomicInteger(0);
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "verifyta output parser " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private final Process process;
+
+	/**
+	 * Reads the output of the process.
+	 */
+	public interface OutputParser<T> {
+		/**
+		 * @param output The stream to read: it ends when the process ends
+		 * @return The result of the parsing
+		 */
+		public T parse(InputStream output) throws Exception;
+	}
+
+	/**
+	 * Start the process.
+	 * @param cmd The command line
+	 */
+	public VerifytaProcess(String[] cmd) throws IOException {
+		process = Runtime.getRuntime().exec(cmd);
+	}
+
+	public Process getProcess() {
+		return process;
+	}
+
+	/**
+	 * Parse the given output of the process while it runs, and wait for the parsing and the process to end.
+	 * @param output The stream to be parsed (the standard output or error of the process)
+	 * @param parser The parser
+	 * @param cancellation Tells us when to stop the process (can be null)
+	 * @return The result of the parser
+	 * @throws AnalysisException If the operation was cancelled or the thread was interrupted
+	 * @throws Exception If the parser failed
+	 */
+	public <T> T waitFor(final InputStream output, final OutputParser<T> parser, CancellationToken cancellation) throws AnalysisException, Exception {
+		Runnable stop = stopper();
+		if (cancellation != null) cancellation.addListener(stop);
+		try {
+			Future<T> parsing = PARSERS.submit(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					return parser.parse(output);
+				}
+			});
+			T result;
+			try {
+				result = parsing.get();
+			} catch (ExecutionException ex) {
+				checkCancelled(cancellation);
+				process.destroy(); //Nobody reads its output any more
+				process.waitFor();
+				Throwable cause = ex.getCause();
+				if (cause instanceof Exception) throw (Exception)cause;
+				throw new AnalysisException("Error while reading the output of verifyta: " + cause, cause);
+			} catch (InterruptedException ex) {
+				parsing.cancel(true);
+				throw ex;
+			}
+			process.waitFor(); //The output is finished, so the process is ending
+			checkCancelled(cancellation);
+			return result;
+		} catch (InterruptedException ex) {
+			process.destroy();
+			Thread.currentThread().interrupt(); //Whoever called us may need to know it, too
+			throw new AnalysisException("Interrupted");
+		} finally {
+			if (cancellation != null) cancellation.removeListener(stop);
+		}
+	}
+
+	/**
+	 * Wait for the process to end, when its output goes somewhere else (e.g. to a file).
+	 * @param cancellation Tells us when to stop the process (can be null)
+	 * @return The exit value of the process
+	 * @throws AnalysisException If the operation was cancelled or the thread was interrupted
+	 */
+	public int waitFor(CancellationToken cancellation) throws AnalysisException {
+		Runnable stop = stopper();
+		if (cancellation != null) cancellation.addListener(stop);
+		try {
+			int exitValue = process.waitFor();
+			checkCancelled(cancellation);
+			return exitValue;
+		} catch (InterruptedException ex) {
+			process.destroy();
+			Thread.currentThread().interrupt(); //Whoever called us may need to know it, too
+			throw new AnalysisException("Interrupted");
+		} finally {
+			if (cancellation != null) cancellation.removeListener(stop);
+		}
+	}
+
+	private Runnable stopper() {
+		return new Runnable() {
+			@Override
+			public void run() {
+				process.destroy(); //This also ends the output, so the parser stops too
+			}
+		};
+	}
+
+	private void checkCancelled(CancellationToken cancellation) throws AnalysisException {
+		if (cancellation != null && cancellation.isCancelled()) {
+			throw new AnalysisException("User interrupted");
+		}
+	}
+
+	/**
+	 * @return The exit value of the process, or -1 if it has not ended (e.g. it was destroyed after an interruption)
+	 */
+	public int exitValue() {
+		try {
+			return process.exitValue();
+		} catch (IllegalThreadStateException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Close all the streams of the process.
+	 */
+	public void close() throws IOException {
+		process.getErrorStream().close();
+		process.getInputStream().close();
+		process.getOutputStream().close();
+	}
+}
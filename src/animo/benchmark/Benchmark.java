@@ -0,0 +1,39 @@
+package animo.benchmark;
+
+
+/**
+ * A single operation to be measured by the BenchmarkRunner.
+ * The data needed by the operation are prepared in setUp, which is not measured;
+ * run is then called many times, and what it returns is kept by the runner, so that
+ * the work done to compute it cannot be optimised away.
+ */
+public abstract class Benchmark {
+	private String name;
+
+	public Benchmark(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Prepare the data for the operation. Called once, before any call to run.
+	 * @throws Exception
+	 */
+	public abstract void setUp() throws Exception;
+
+	/**
+	 * Perform the operation once.
+	 * @return The result of the operation
+	 * @throws Exception
+	 */
+	public abstract Object run() throws Exception;
+
+	/**
+	 * Release whatever setUp has acquired (e.g., temporary files). Called once, after the last call to run.
+	 */
+	public void tearDown() {
+	}
+}
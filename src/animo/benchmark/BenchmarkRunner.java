@@ -0,0 +1,314 @@
+package animo.benchmark;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Vector;
+
+import animo.analyser.LevelResult;
+import animo.analyser.stochastic.StochasticSimulator;
+import animo.analyser.uppaal.ResultAverager;
+import animo.analyser.uppaal.TraceParser;
+import animo.analyser.uppaal.VariablesModelSMC;
+import animo.model.FormulaVariable;
+import animo.model.Model;
+import animo.model.ReactantParameter;
+import animo.model.UserFormula;
+import animo.serializer.CsvWriter;
+import cytoscape.Cytoscape;
+import cytoscape.data.CyAttributes;
+
+/**
+ * Measures the throughput and the allocation rate of the main stages of an analysis
+ * (trace parsing, averaging, level lookups, model transformation, CSV export) on synthetic
+ * models of configurable size, or on a recorded verifyta trace. Neither UPPAAL nor a running Cytoscape are needed
+ * (the formula benchmark only needs the Cytoscape jar on the classpath, for the node attributes).
+ * Usage: BenchmarkRunner [-reactants N] [-reactions N] [-levels N] [-states N] [-runs N]
+ *                        [-warmup N] [-iterations N] [-trace file] [benchmark names...]
+ * Without names, all benchmarks are run. The available names are printed with -list.
+ */
+public class BenchmarkRunner {
+	private int nReactants = 20, //Size of the synthetic model
+				nReactions = 40,
+				nLevels = 15,
+				nStates = 5000, //Number of states in each synthetic trace
+				nRuns = 20, //Number of results to average
+				warmup = 5, //Iterations to let the JIT do its work before measuring
+				iterations = 20; //Measured iterations
+	private File traceFile = null; //A recorded trace, to be used instead of the synthetic one
+	private Model model = null;
+	private String trace = null;
+
+	public static void main(String[] args) throws Exception {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		List<String> names = new ArrayList<String>();
+		boolean list = false;
+		for (int i=0;i<args.length;i++) {
+			String a = args[i];
+			if (a.equals("-list")) {
+				list = true;
+			} else if (a.startsWith("-") && i + 1 < args.length) {
+				runner.setOption(a.substring(1), args[++i]);
+			} else {
+				names.add(a);
+			}
+		}
+		List<Benchmark> benchmarks = runner.makeBenchmarks();
+		if (list) {
+			for (Benchmark b : benchmarks) {
+				System.out.println(b.getName());
+			}
+			return;
+		}
+		System.out.println(String.format(Locale.US, "Model: %d reactants, %d reactions, %d levels. Traces: %d states. Averaging %d runs.", runner.nReactants, runner.nReactions, runner.nLevels, runner.nStates, runner.nRuns));
+		System.out.println(String.format(Locale.US, "%-20s %12s %12s %16s", "Benchmark", "ms/op", "ops/s", "KB allocated/op"));
+		for (Benchmark b : benchmarks) {
+			if (!names.isEmpty() && !names.contains(b.getName())) continue;
+			runner.measure(b);
+		}
+	}
+
+	private void setOption(String name, String value) {
+		if (name.equals("reactants")) {
+			nReactants = Integer.parseInt(value);
+		} else if (name.equals("reactions")) {
+			nReactions = Integer.parseInt(value);
+		} else if (name.equals("levels")) {
+			nLevels = Integer.parseInt(value);
+		} else if (name.equals("states")) {
+			nStates = Integer.parseInt(value);
+		} else if (name.equals("runs")) {
+			nRuns = Integer.parseInt(value);
+		} else if (name.equals("warmup")) {
+			warmup = Integer.parseInt(value);
+		} else if (name.equals("iterations")) {
+			iterations = Integer.parseInt(value);
+		} else if (name.equals("trace")) {
+			traceFile = new File(value);
+		} else {
+			throw new IllegalArgumentException("Unknown option -" + name);
+		}
+	}
+
+	private Model getModel() {
+		if (model == null) {
+			model = SyntheticModels.makeModel(nReactants, nReactions, nLevels, 1);
+		}
+		return model;
+	}
+
+	/**
+	 * The trace to be parsed: the recorded one if we were given a file, otherwise a synthetic one.
+	 * When using a recorded trace, the synthetic model does not match it: series are read all the same,
+	 * only their initial values and step sizes are not those of the real model.
+	 */
+	private String getTrace() throws IOException {
+		if (trace == null) {
+			if (traceFile != null) {
+				StringBuilder b = new StringBuilder();
+				Reader in = new InputStreamReader(new FileInputStream(traceFile));
+				try {
+					char[] buf = new char[1 << 16];
+					int n;
+					while ((n = in.read(buf)) > 0) {
+						b.append(buf, 0, n);
+					}
+				} finally {
+					in.close();
+				}
+				trace = b.toString();
+			} else {
+				trace = SyntheticModels.makeTrace(getModel(), nStates, 1);
+			}
+		}
+		return trace;
+	}
+
+	private List<Benchmark> makeBenchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new Benchmark("parse") { //VariablesInterpreterConcrete.analyse
+			private String t;
+
+			@Override
+			public void setUp() throws Exception {
+				t = getTrace();
+			}
+
+			@Override
+			public Object run() throws Exception {
+				return new TraceParser().parse(getModel(), new StringReader(t), nStates);
+			}
+		});
+		benchmarks.add(new Benchmark("average") { //ResultAverager.average
+			private Vector<LevelResult> results;
+			private ResultAverager averager;
+
+			@Override
+			public void setUp() throws Exception {
+				results = new Vector<LevelResult>();
+				for (int i=0;i<nRuns;i++) {
+					results.add(new TraceParser().parse(getModel(), new StringReader(SyntheticModels.makeTrace(getModel(), nStates, i)), nStates));
+				}
+				averager = new ResultAverager(null, null, 1);
+			}
+
+			@Override
+			public Object run() throws Exception {
+				return averager.average(results, true);
+			}
+		});
+		benchmarks.add(new Benchmark("simulate") { //StochasticSimulator.simulate, a simulation run without UPPAAL
+			private StochasticSimulator.CompiledModel compiled;
+			private long seed = 0;
+
+			@Override
+			public void setUp() throws Exception {
+				compiled = StochasticSimulator.compile(getModel());
+			}
+
+			@Override
+			public Object run() throws Exception {
+				return StochasticSimulator.simulate(compiled, nStates, seed++);
+			}
+		});
+		benchmarks.add(new Benchmark("formula") { //UserFormula.generateTimeTable, for a formula with 4 linked variables (their number of levels is read from node attributes, which work without the Cytoscape desktop)
+			private UserFormula formula;
+
+			@Override
+			public void setUp() throws Exception {
+				String[] parameters = {"k", "Km", "Ki", "Stot"},
+						 linked = {"E1", "E2", "S", "I"};
+				double[] values = {0.01, 5, 3, nLevels};
+				Vector<FormulaVariable> variables = new Vector<FormulaVariable>();
+				for (int i=0;i<parameters.length;i++) {
+					variables.add(new FormulaVariable(parameters[i], true, null, values[i]));
+				}
+				CyAttributes nodeAttributes = Cytoscape.getNodeAttributes();
+				for (String name : linked) {
+					String nodeId = "benchmark_" + name;
+					nodeAttributes.setAttribute(nodeId, Model.Properties.NUMBER_OF_LEVELS, nLevels); //Each linked variable has nLevels + 1 values
+					variables.add(new FormulaVariable(name, false, new ReactantParameter(nodeId, Model.Properties.ACTIVITY_LEVEL), 0));
+				}
+				formula = new UserFormula("benchmark", "k * E1 * (Stot - S) / (Km + Stot - S) * Math.max(E2, 1) / (1 + Math.pow(I / Ki, 2))", variables);
+				for (int i=0;i<parameters.length;i++) {
+					formula.setParameter(parameters[i], values[i]);
+				}
+			}
+
+			@Override
+			public Object run() throws Exception {
+				return formula.generateTimeTable(new ArrayList<Integer>());
+			}
+		});
+		benchmarks.add(new Benchmark("getConcentration") { //SimpleLevelResult.getConcentration, as done when plotting or exporting
+			private LevelResult result;
+			private double[] instants;
+
+			@Override
+			public void setUp() throws Exception {
+				result = SyntheticModels.makeResult(getModel(), nStates / 10, nStates, 1);
+				instants = new double[1000];
+				for (int i=0;i<instants.length;i++) {
+					instants[i] = (double)nStates * i / instants.length;
+				}
+			}
+
+			@Override
+			public Object run() throws Exception {
+				double sum = 0;
+				for (String id : result.getReactantIds()) {
+					for (double t : instants) {
+						sum += result.getConcentration(id, t);
+					}
+				}
+				return sum;
+			}
+		});
+		benchmarks.add(new Benchmark("transform") { //VariablesModelSMC.transform
+			@Override
+			public void setUp() throws Exception {
+				getModel();
+			}
+
+			@Override
+			public Object run() throws Exception {
+				return new VariablesModelSMC().transform(getModel());
+			}
+		});
+		benchmarks.add(new Benchmark("csv") { //CsvWriter.writeCsv
+			private LevelResult result;
+			private File file;
+
+			@Override
+			public void setUp() throws Exception {
+				result = SyntheticModels.makeResult(getModel(), nStates / 10, nStates, 1);
+				file = File.createTempFile("ANIMO", ".csv");
+			}
+
+			@Override
+			public Object run() throws Exception {
+				new CsvWriter().writeCsv(file, getModel(), result);
+				return file.length();
+			}
+
+			@Override
+			public void tearDown() {
+				if (!file.delete()) {
+					file.deleteOnExit();
+				}
+			}
+		});
+		return benchmarks;
+	}
+
+	/**
+	 * Run the benchmark and print its average time and memory allocated per operation.
+	 */
+	private void measure(Benchmark b) throws Exception {
+		b.setUp();
+		try {
+			Object[] sink = new Object[1];
+			for (int i=0;i<warmup;i++) {
+				sink[0] = b.run();
+			}
+			long allocatedBefore = allocatedBytes(),
+				 start = System.nanoTime();
+			for (int i=0;i<iterations;i++) {
+				sink[0] = b.run();
+			}
+			long elapsed = System.nanoTime() - start,
+				 allocated = allocatedBytes() - allocatedBefore;
+			double msPerOp = elapsed / 1e6 / iterations;
+			String allocation = (allocatedBefore < 0) ? "n/a" : String.format(Locale.US, "%.1f", allocated / 1024.0 / iterations);
+			System.out.println(String.format(Locale.US, "%-20s %12.3f %12.1f %16s", b.getName(), msPerOp, 1000 / msPerOp, allocation));
+			if (sink[0] == null) {
+				System.out.println("(" + b.getName() + " produced no result)");
+			}
+		} finally {
+			b.tearDown();
+		}
+	}
+
+	/**
+	 * @return The number of bytes allocated up to now by the current thread, or -1 if the JVM can't tell us
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+			if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+}
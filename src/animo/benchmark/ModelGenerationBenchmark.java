@@ -0,0 +1,128 @@
+package animo.benchmark;
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Locale;
+
+import animo.analyser.uppaal.VariablesModelSMC;
+import animo.model.Model;
+
+/**
+ * Compares the time and the peak heap needed to write the UPPAAL version of a synthetic model to a file:
+ * in the way it was done before (each template parsed and indented, the whole model built in memory and
+ * then written), with the templates written as they are but the whole model still built in memory, and
+ * streaming the model to the file while it is generated.
+ * The peak heap is measured with the memory pools of the JVM, so it also counts the garbage not yet collected:
+ * run with a fixed heap and a small young generation (e.g. -Xms1g -Xmx1g -Xmn16m) to see the memory really needed.
+ * Usage: ModelGenerationBenchmark [number of reactants] [number of levels] [repetitions]
+ */
+public class ModelGenerationBenchmark {
+
+	private static abstract class Method {
+		private final String name;
+
+		public Method(String name) {
+			this.name = name;
+		}
+
+		public abstract void write(Model m, File f) throws IOException;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int nReactants = args.length > 0 ? Integer.parseInt(args[0]) : 200,
+			nLevels = args.length > 1 ? Integer.parseInt(args[1]) : 100,
+			repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		Model model = SyntheticModels.makeModel(nReactants, 2 * nReactants, nLevels, 1);
+		File file = File.createTempFile("ANIMO", ".xml");
+		file.deleteOnExit();
+
+		Method[] methods = {
+			inMemory("Indented, in memory", true),
+			inMemory("In memory", false),
+			new Method("Streamed") {
+				@Override
+				public void write(Model m, File f) throws IOException {
+					Writer out = new BufferedWriter(new FileWriter(f));
+					try {
+						new VariablesModelSMC().transform(m, out);
+					} finally {
+						out.close();
+					}
+				}
+			}
+		};
+
+		System.out.println("Model with " + nReactants + " reactants, " + (2 * nReactants) + " reactions, " + nLevels + " levels");
+		System.out.println(String.format(Locale.US, "%-22s %12s %12s %14s", "Method", "KB", "ms", "peak heap MB"));
+		for (Method method : methods) {
+			for (int i=0;i<repetitions;i++) { //warm up
+				method.write(model, file);
+			}
+			long time = 0, peak = 0;
+			for (int i=0;i<repetitions;i++) {
+				long baseline = resetPeakHeap();
+				long start = System.nanoTime();
+				method.write(model, file);
+				time += System.nanoTime() - start;
+				peak = Math.max(peak, peakHeap() - baseline);
+			}
+			System.out.println(String.format(Locale.US, "%-22s %12.1f %12.2f %14.1f", method.name, file.length() / 1024.0,
+											 time / 1e6 / repetitions, peak / 1024.0 / 1024.0));
+		}
+		file.delete();
+	}
+
+	private static Method inMemory(String name, final boolean prettyPrint) {
+		return new Method(name) {
+			@Override
+			public void write(Model m, File f) throws IOException {
+				VariablesModelSMC transformer = new VariablesModelSMC();
+				transformer.setPrettyPrint(prettyPrint);
+				String uppaalModel = transformer.transform(m);
+				FileWriter out = new FileWriter(f);
+				try {
+					out.append(uppaalModel);
+				} finally {
+					out.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Collect the garbage and start measuring the peak heap from now.
+	 * @return The heap used now (in bytes)
+	 */
+	private static long resetPeakHeap() {
+		System.gc();
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+				used += pool.getUsage().getUsed();
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * @return The highest heap use since the last call to resetPeakHeap (in bytes)
+	 */
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+}
@@ -0,0 +1,170 @@
+package animo.benchmark;
+
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import animo.analyser.LevelResult;
+import animo.analyser.uppaal.SimpleLevelResult;
+import animo.analyser.uppaal.VariablesModel;
+import animo.model.Model;
+import animo.model.Reactant;
+import animo.model.Reaction;
+import animo.util.Table;
+
+/**
+ * Builds models, traces and results of configurable size, with the same shape as the ones
+ * produced by RunAction.getANIMOModel, verifyta and the trace parsers, so that the analyser
+ * can be measured without Cytoscape or UPPAAL.
+ * All generators take a seed, so that the same arguments always give the same data.
+ */
+public class SyntheticModels {
+
+	/**
+	 * Build a model with the given number of reactants and (bi-)reactions. Each reaction has the
+	 * time tables of the "k * E * S" scenario, with a random k and a 5% uncertainty.
+	 * @param nReactants The number of reactants (called R0, R1, ...)
+	 * @param nReactions The number of reactions, between random pairs of different reactants
+	 * @param nLevels The number of levels of each reactant
+	 * @param seed The seed for the random choices (initial levels, reaction pairs, parameters)
+	 * @return The model
+	 */
+	public static Model makeModel(int nReactants, int nReactions, int nLevels, long seed) {
+		Model model = new Model();
+		Random random = new Random(seed);
+		model.getProperties().let(Model.Properties.NUMBER_OF_LEVELS).be(nLevels);
+		model.getProperties().let(Model.Properties.SECONDS_PER_POINT).be(1.0);
+		model.getProperties().let(Model.Properties.SECS_POINT_SCALE_FACTOR).be(1.0);
+		for (int i=0;i<nReactants;i++) {
+			Reactant r = new Reactant("R" + i);
+			r.let(Model.Properties.ENABLED).be(true);
+			r.let(Model.Properties.PLOTTED).be(true);
+			r.let(Model.Properties.CYTOSCAPE_ID).be("node" + i);
+			r.let(Model.Properties.REACTANT_NAME).be("node" + i);
+			r.let(Model.Properties.ALIAS).be("Protein " + i);
+			r.let(Model.Properties.NUMBER_OF_LEVELS).be(nLevels);
+			r.let(Model.Properties.MAXIMUM_QUANTITY_GROWTH).be(1);
+			r.let(Model.Properties.INITIAL_QUANTITY).be(nLevels);
+			r.let(Model.Properties.INITIAL_LEVEL).be(random.nextInt(nLevels + 1));
+			r.let(Model.Properties.STEP_SIZE).be(1.0 / nLevels);
+			model.add(r);
+		}
+		for (int i=0;i<nReactions && nReactants > 1;i++) {
+			int catalyst = random.nextInt(nReactants),
+				reactant = random.nextInt(nReactants - 1);
+			if (reactant >= catalyst) reactant++;
+			boolean activating = random.nextBoolean();
+			double k = 0.0001 + random.nextDouble() * 0.01;
+			Reaction r = new Reaction("reaction" + i);
+			r.let(Model.Properties.ENABLED).be(true);
+			r.let(Model.Properties.REACTION_TYPE).be(Model.Properties.BI_REACTION);
+			r.let(Model.Properties.USER_DEFINED_FORMULAE).be(false);
+			r.let(Model.Properties.CATALYST).be("R" + catalyst);
+			r.let(Model.Properties.REACTANT).be("R" + reactant);
+			r.let(Model.Properties.INCREMENT).be(activating ? 1 : -1);
+			r.let(Model.Properties.UNCERTAINTY).be(5);
+			List<Integer> dimensions = new Vector<Integer>();
+			dimensions.add(nLevels + 1);
+			dimensions.add(nLevels + 1);
+			r.let(Model.Properties.DIMENSIONS).be(dimensions);
+			Table timesL = new Table(nLevels + 1, nLevels + 1),
+				  timesU = new Table(nLevels + 1, nLevels + 1);
+			for (int s=0;s<=nLevels;s++) { //rows: the substrate not yet reacted
+				for (int e=0;e<=nLevels;e++) { //columns: the activity of the catalyst
+					if (s == 0 || e == 0) {
+						timesL.set(s, e, VariablesModel.INFINITE_TIME);
+						timesU.set(s, e, VariablesModel.INFINITE_TIME);
+					} else {
+						double t = 1.0 / (k * e * s);
+						timesL.set(s, e, Math.max(1, (int)Math.round(t * 0.95)));
+						timesU.set(s, e, Math.max(1, (int)Math.round(t * 1.05)));
+					}
+				}
+			}
+			r.let(Model.Properties.TIMES_LOWER).be(timesL);
+			r.let(Model.Properties.TIMES_UPPER).be(timesU);
+			model.add(r);
+		}
+		return model;
+	}
+
+	/**
+	 * Build a trace in the format output by verifyta -t0 -o2 on the given model: each state has the locations
+	 * of the processes and then the values of all variables (activity, quantity, percentage, plus some private variables).
+	 * At each state, a few reactants change their activity level by one step.
+	 * @param model The model
+	 * @param nStates The number of states in the trace
+	 * @param seed The seed for the random changes
+	 * @return The trace
+	 */
+	public static String makeTrace(Model model, int nStates, long seed) {
+		Random random = new Random(seed);
+		int n = model.getReactants().size();
+		String[] ids = new String[n];
+		int[] levels = new int[n],
+			  quantities = new int[n];
+		int i = 0;
+		for (Reactant r : model.getReactants()) {
+			ids[i] = r.getId();
+			levels[i] = r.get(Model.Properties.INITIAL_LEVEL).as(Integer.class);
+			quantities[i] = r.get(Model.Properties.INITIAL_QUANTITY).as(Integer.class);
+			i++;
+		}
+		StringBuilder b = new StringBuilder();
+		double time = 0;
+		for (int s=0;s<nStates;s++) {
+			b.append("State:\n");
+			b.append("( reaction0.s2 reaction1.s3 reaction2.s4 )\n");
+			b.append("globalTime=").append(String.format(Locale.US, "%.4f", time)).append(" c=0 r=1 r1=0 r2=1 counter=").append(s % 7).append(' ');
+			for (int k=0;k<n;k++) {
+				b.append(ids[k]).append(VariablesModel.ACTIVITY_SUFFIX).append('=').append(levels[k]).append(' ');
+				b.append(ids[k]).append(VariablesModel.QUANTITY_SUFFIX).append('=').append(quantities[k]).append(' ');
+				b.append(ids[k]).append(VariablesModel.PERCENTAGE_SUFFIX).append('=').append(quantities[k] == 0 ? 0 : 1000 * levels[k] / quantities[k]).append(' ');
+				b.append(ids[k]).append(VariablesModel.MAX_QUANTITY_SUFFIX).append('=').append(quantities[k]).append(' ');
+				b.append(ids[k]).append(VariablesModel.SEMAPHORE_SUFFIX).append("=0 ");
+				b.append("reaction").append(k).append("_nonofficial=").append(k % 3).append(' ');
+			}
+			b.append("reaction0.c<=").append(s).append('\n');
+			b.append("\nTransitions:\n  reaction0.s3->reaction0.s4 { c >= timeL[r2][r1], r2_reacting!, 1 }\n\n");
+			for (int k=0;k<3;k++) {
+				int changed = random.nextInt(n);
+				levels[changed] = Math.max(0, Math.min(quantities[changed], levels[changed] + random.nextInt(3) - 1));
+			}
+			time += random.nextDouble() * 2;
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Build a result with a series for each reactant in the model, as the ones shown to the user
+	 * (series named as the reactants, values between 0 and the number of levels).
+	 * @param model The model
+	 * @param nPoints The (average) number of points of each series
+	 * @param timeTo The last time instant of each series
+	 * @param seed The seed for the random changes
+	 * @return The result
+	 */
+	public static LevelResult makeResult(Model model, int nPoints, double timeTo, long seed) {
+		Random random = new Random(seed);
+		Map<String, SortedMap<Double, Double>> levels = new HashMap<String, SortedMap<Double, Double>>();
+		for (Reactant r : model.getReactants()) {
+			SortedMap<Double, Double> series = new TreeMap<Double, Double>();
+			int nLevels = r.get(Model.Properties.NUMBER_OF_LEVELS).as(Integer.class),
+				level = r.get(Model.Properties.INITIAL_LEVEL).as(Integer.class);
+			series.put(0.0, (double)level);
+			for (int i=1;i<nPoints;i++) {
+				level = Math.max(0, Math.min(nLevels, level + random.nextInt(3) - 1));
+				series.put(Math.floor(random.nextDouble() * timeTo), (double)level);
+			}
+			series.put(timeTo, (double)level);
+			levels.put(r.getId(), series);
+		}
+		return new SimpleLevelResult(levels);
+	}
+}
@@ -0,0 +1,211 @@
+package animo.benchmark;
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import animo.analyser.AnalysisException;
+import animo.analyser.LevelResult;
+import animo.analyser.uppaal.ColumnarLevelResult;
+import animo.analyser.uppaal.SimpleLevelResult;
+import animo.analyser.uppaal.TraceParser;
+import animo.analyser.uppaal.VariablesModel;
+import animo.model.Model;
+import animo.model.Reactant;
+
+/**
+ * Compares the speed of the TraceParser with the way traces were parsed before (regular expressions,
+ * a String for each variable in each state and a TreeMap for each series), on a synthetic trace with the same shape as the ones
+ * produced by verifyta on a VariablesModelSMC model.
+ * The two results are also compared, to be sure that they are the same.
+ * Usage: TraceParserBenchmark [number of reactants] [number of states] [repetitions]
+ */
+public class TraceParserBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int nReactants = args.length > 0 ? Integer.parseInt(args[0]) : 50,
+			nStates = args.length > 1 ? Integer.parseInt(args[1]) : 20000,
+			repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		Model model = SyntheticModels.makeModel(nReactants, 2 * nReactants, 100, 1);
+		int timeTo = nStates;
+		String trace = SyntheticModels.makeTrace(model, nStates, 1234);
+		System.out.println("Trace with " + nReactants + " reactants and " + nStates + " states: " + (trace.length() / 1024) + " KB");
+
+		Map<String, SortedMap<Double, Double>> expected = readLevels(model, new StringReader(trace), timeTo);
+		ColumnarLevelResult actual = new TraceParser().parse(model, new StringReader(trace), timeTo);
+		if (!sameResult(expected, actual)) {
+			System.out.println("The two parsers gave different results!");
+			System.exit(1);
+		}
+
+		for (int i=0;i<repetitions;i++) { //warm up
+			parseWithRegex(model, new StringReader(trace), timeTo);
+			new TraceParser().parse(model, new StringReader(trace), timeTo);
+		}
+		long regexTime = 0, scannerTime = 0;
+		for (int i=0;i<repetitions;i++) {
+			long start = System.nanoTime();
+			parseWithRegex(model, new StringReader(trace), timeTo);
+			regexTime += System.nanoTime() - start;
+			start = System.nanoTime();
+			new TraceParser().parse(model, new StringReader(trace), timeTo);
+			scannerTime += System.nanoTime() - start;
+		}
+		double regexMs = regexTime / 1e6 / repetitions,
+			   scannerMs = scannerTime / 1e6 / repetitions;
+		System.out.println(String.format(Locale.US, "Regular expressions: %.2f ms per trace", regexMs));
+		System.out.println(String.format(Locale.US, "TraceParser: %.2f ms per trace", scannerMs));
+		System.out.println(String.format(Locale.US, "Speed-up: %.2fx", regexMs / scannerMs));
+	}
+
+	/**
+	 * The way traces were parsed before TraceParser (VariablesInterpreterConcrete.analyse, without the messages
+	 * and the code that was commented out): regular expressions on each state line, a String for each variable,
+	 * and a TreeMap of boxed values for each series, given to a SimpleLevelResult.
+	 */
+	static LevelResult parseWithRegex(Model m, Reader input, int timeTo) throws IOException, AnalysisException {
+		return new SimpleLevelResult(readLevels(m, input, timeTo));
+	}
+
+	/**
+	 * @return The series read by parseWithRegex
+	 */
+	private static Map<String, SortedMap<Double, Double>> readLevels(Model m, Reader input, int timeTo) throws IOException, AnalysisException {
+		Map<String, SortedMap<Double, Double>> levels = new HashMap<String, SortedMap<Double, Double>>();
+		BufferedReader br = new BufferedReader(input);
+		String line = null;
+		Pattern globalTimePattern = Pattern.compile("globalTime[=][-+]?[0-9]*\\.?[0-9]+([eE][-+]?[0-9]+)?");
+		Pattern statePattern = Pattern.compile("[A-Za-z0-9_]+[' ']*[=][' ']*[0-9]+");
+		int time = 0;
+		HashMap<String, Double> stepSizes = new HashMap<String, Double>();
+
+		while ((line = br.readLine()) != null) {
+			if (!line.startsWith("State")) continue;
+			line = br.readLine();
+			line = br.readLine();
+			Matcher stateMatcher = statePattern.matcher(line);
+			while (stateMatcher.find()) {
+				String s = stateMatcher.group();
+				if (s.contains("_nonofficial") || s.contains("counter") || s.contains("metro")) continue;
+				String reactantId = variableName(s);
+				if (reactantId.equals("c") || reactantId.equals("globalTime") || reactantId.equals("r")
+					|| reactantId.startsWith("input_reactant_") || reactantId.startsWith("output_reactant_")
+					|| reactantId.equals("r1") || reactantId.equals("r2")
+					|| reactantId.endsWith(VariablesModel.MAX_QUANTITY_SUFFIX)
+					|| reactantId.endsWith("_sem")) continue;
+				TreeMap<Double, Double> levs = new TreeMap<Double, Double>();
+				double startingLevel;
+				try {
+					startingLevel = Double.parseDouble(s.substring(s.indexOf("=") + 1));
+				} catch (Exception ex) {
+					startingLevel = 0.0;
+				}
+				levs.put(0.0, startingLevel);
+				levels.put(reactantId, levs);
+			}
+			break;
+		}
+
+		for (Reactant r : m.getReactants()) {
+			if (levels.containsKey(r.getId() + VariablesModel.ACTIVITY_SUFFIX)) {
+				levels.get(r.getId() + VariablesModel.ACTIVITY_SUFFIX).put(0.0, (double)r.get(Model.Properties.INITIAL_LEVEL).as(Integer.class));
+				stepSizes.put(r.getId() + VariablesModel.ACTIVITY_SUFFIX, r.get(Model.Properties.STEP_SIZE).as(Double.class));
+			}
+			if (levels.containsKey(r.getId() + VariablesModel.QUANTITY_SUFFIX)) {
+				levels.get(r.getId() + VariablesModel.QUANTITY_SUFFIX).put(0.0, (double)r.get(Model.Properties.INITIAL_QUANTITY).as(Integer.class));
+				stepSizes.put(r.getId() + VariablesModel.QUANTITY_SUFFIX, r.get(Model.Properties.STEP_SIZE).as(Double.class));
+			}
+			if (levels.containsKey(r.getId() + VariablesModel.PERCENTAGE_SUFFIX)) {
+				double initialPercentage;
+				if (r.get(Model.Properties.INITIAL_QUANTITY).as(Integer.class) == 0) {
+					initialPercentage = 0;
+				} else {
+					initialPercentage = 100.0 * r.get(Model.Properties.INITIAL_LEVEL).as(Integer.class) / r.get(Model.Properties.INITIAL_QUANTITY).as(Integer.class);
+				}
+				levels.get(r.getId() + VariablesModel.PERCENTAGE_SUFFIX).put(0.0, initialPercentage);
+			}
+			if (levels.containsKey(r.getId())) {
+				levels.get(r.getId()).put(0.0, (double)r.get(Model.Properties.INITIAL_LEVEL).as(Integer.class));
+				stepSizes.put(r.getId(), r.get(Model.Properties.STEP_SIZE).as(Double.class));
+			}
+		}
+
+		while ((line = br.readLine()) != null) {
+			if (!line.startsWith("State")) continue;
+			br.readLine();
+			line = br.readLine();
+			Matcher timeMatcher = globalTimePattern.matcher(line);
+			if (!timeMatcher.find()) {
+				throw new AnalysisException("New state without globalTime. Offending line: \"" + line + "\"");
+			}
+			String value = timeMatcher.group().split("=")[1];
+			int newTime;
+			if (value.substring(0, 1).equals("-")) {
+				newTime = (int)Math.round(Double.parseDouble(value.substring(1, value.length())));
+			} else {
+				newTime = (int)Math.round(Double.parseDouble(value.substring(0, value.length())));
+			}
+			if (time > newTime) continue;
+			time = newTime;
+			Matcher stateMatcher = statePattern.matcher(line);
+			while (stateMatcher.find()) {
+				String s = stateMatcher.group();
+				if (s.contains("_nonofficial") || s.contains("counter") || s.contains("metro")) continue;
+				String reactantId = variableName(s);
+				if (!levels.containsKey(reactantId)) continue;
+				double level = Integer.valueOf(s.substring(s.indexOf("=") + 1).trim());
+				if (!reactantId.endsWith(VariablesModel.PERCENTAGE_SUFFIX)) {
+					level = level * stepSizes.get(reactantId);
+				} else {
+					level = level / 10;
+				}
+				SortedMap<Double, Double> rMap = levels.get(reactantId);
+				if (rMap.get(rMap.lastKey()) != level) {
+					rMap.put((double)time, level);
+				}
+			}
+		}
+		for (String reactantName : levels.keySet()) {
+			SortedMap<Double, Double> values = levels.get(reactantName);
+			values.put((double)timeTo, values.get(values.lastKey()));
+		}
+		return levels;
+	}
+
+	/**
+	 * @return Whether the two results have the same series, with the same points
+	 */
+	private static boolean sameResult(Map<String, SortedMap<Double, Double>> expected, ColumnarLevelResult actual) {
+		if (!expected.keySet().equals(actual.getReactantIds())) return false;
+		for (String id : expected.keySet()) {
+			int series = actual.getSeriesIndex(id);
+			double[] times = actual.getTimes(series),
+					 values = actual.getValues(series);
+			int i = 0;
+			for (Map.Entry<Double, Double> point : expected.get(id).entrySet()) {
+				if (i >= actual.getSize(series) || times[i] != point.getKey() || values[i] != point.getValue()) return false;
+				i++;
+			}
+			if (i != actual.getSize(series)) return false;
+		}
+		return true;
+	}
+
+	private static String variableName(String assignment) {
+		if (assignment.indexOf(' ') >= 0 && assignment.indexOf(' ') < assignment.indexOf('=')) {
+			return assignment.substring(0, assignment.indexOf(' '));
+		} else {
+			return assignment.substring(0, assignment.indexOf('='));
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package animo.benchmark;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Locale;
+import java.util.Vector;
+
+import animo.analyser.LevelResult;
+import animo.analyser.uppaal.ResultAverager;
+import animo.model.Model;
+import animo.model.ModelFingerprint;
+import animo.network.WireFormat;
+
+/**
+ * Compares the size of the messages and the time needed to encode and decode them with the
+ * WireFormat (with and without compression) and with the default Java serialization, for a synthetic
+ * model and for the average of synthetic results (the two things sent between client and server).
+ * The decoded model and result are also compared with the original ones.
+ * Usage: WireFormatBenchmark [number of reactants] [number of runs averaged] [repetitions]
+ */
+public class WireFormatBenchmark {
+
+	private static abstract class Codec {
+		private final String name;
+
+		public Codec(String name) {
+			this.name = name;
+		}
+
+		public abstract byte[] encode(Object o) throws Exception;
+		public abstract Object decode(byte[] data) throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int nReactants = args.length > 0 ? Integer.parseInt(args[0]) : 50,
+			nRuns = args.length > 1 ? Integer.parseInt(args[1]) : 20,
+			repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+		Model model = SyntheticModels.makeModel(nReactants, 2 * nReactants, 100, 1);
+		Vector<LevelResult> runs = new Vector<LevelResult>();
+		for (int i=0;i<nRuns;i++) {
+			runs.add(SyntheticModels.makeResult(model, 500, 10000, i));
+		}
+		LevelResult result = new ResultAverager(null, null, 1).average(runs, true);
+
+		Codec[] codecs = {
+			new Codec("Java serialization") {
+				@Override
+				public byte[] encode(Object o) throws IOException {
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					ObjectOutputStream out = new ObjectOutputStream(bytes);
+					out.writeObject(o);
+					out.close();
+					return bytes.toByteArray();
+				}
+
+				@Override
+				public Object decode(byte[] data) throws Exception {
+					ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+					try {
+						return in.readObject();
+					} finally {
+						in.close();
+					}
+				}
+			},
+			wireFormat("WireFormat", false),
+			wireFormat("WireFormat, compressed", true)
+		};
+
+		if (!ModelFingerprint.of(model).equals(ModelFingerprint.of((Model)codecs[2].decode(codecs[2].encode(model))))
+			|| !result.toString().equals(codecs[2].decode(codecs[2].encode(result)).toString())) {
+			System.out.println("The decoded data is different from the original!");
+			System.exit(1);
+		}
+
+		System.out.println("Model with " + nReactants + " reactants, average of " + nRuns + " runs");
+		System.out.println(String.format(Locale.US, "%-24s %-7s %12s %12s %12s", "Encoding", "Content", "KB", "encode ms", "decode ms"));
+		for (Codec c : codecs) {
+			measure(c, "model", model, repetitions);
+			measure(c, "result", result, repetitions);
+		}
+	}
+
+	private static Codec wireFormat(String name, final boolean compress) {
+		return new Codec(name) {
+			@Override
+			public byte[] encode(Object o) throws IOException {
+				if (o instanceof Model) {
+					return WireFormat.encode((Model)o, compress);
+				}
+				return WireFormat.encode((LevelResult)o, compress);
+			}
+
+			@Override
+			public Object decode(byte[] data) throws IOException {
+				if (data[3] == 'M') {
+					return WireFormat.decodeModel(data);
+				}
+				return WireFormat.decodeResult(data);
+			}
+		};
+	}
+
+	private static void measure(Codec c, String content, Object o, int repetitions) throws Exception {
+		byte[] data = null;
+		for (int i=0;i<repetitions;i++) { //warm up
+			c.decode(c.encode(o));
+		}
+		long encodeTime = 0, decodeTime = 0;
+		for (int i=0;i<repetitions;i++) {
+			long start = System.nanoTime();
+			data = c.encode(o);
+			encodeTime += System.nanoTime() - start;
+			start = System.nanoTime();
+			c.decode(data);
+			decodeTime += System.nanoTime() - start;
+		}
+		System.out.println(String.format(Locale.US, "%-24s %-7s %12.1f %12.2f %12.2f", c.name, content, data.length / 1024.0,
+										 encodeTime / 1e6 / repetitions, decodeTime / 1e6 / repetitions));
+	}
+}
@@ -106,6 +106,7 @@ public class ANIMOPlugin extends CytoscapePlugin {
 				serverPort.setEnabled(sel);
 			}
 		});
+		serverName.setToolTipText("The server, or a list of servers separated by commas (host or host:port) among which the simulation runs are divided");
 		localUppaal.setSelected(true);
 		remoteUppaal.setSelected(false);
 		serverName.setEnabled(false);
@@ -154,9 +155,13 @@ public class ANIMOPlugin extends CytoscapePlugin {
 		computeStdDev.setToolTipText(computeStdDev.getText());
 		final JFormattedTextField timeTo = new JFormattedTextField(240);
 		final JFormattedTextField nSimulationRuns = new JFormattedTextField(10);
+		final JCheckBox stopWhenAccurate = new JCheckBox("Stop when accurate within");
+		final JTextField targetAccuracy = new JTextField("5%");
 		final JTextField smcFormula = new JTextField("Pr[<=50](<> MK2 > 50)");
 		timeTo.setToolTipText("Plot activity levels up to this time point (real-life MINUTES).");
-		nSimulationRuns.setToolTipText("Number of simulations of which to show the average. NO statistical guarantees!");
+		nSimulationRuns.setToolTipText("Number of simulations of which to show the average (the maximum, when stopping as soon as the average is accurate enough).");
+		stopWhenAccurate.setToolTipText("Stop before performing all the runs when the 95% confidence intervals of the plotted averages are within the given distance from the averages.");
+		targetAccuracy.setToolTipText("Give a percentage of the largest value of each series (e.g. 5%) or a value in the units of the graph (e.g. 2).");
 		smcFormula.setToolTipText("Give an answer to this probabilistic query (times in real-life MINUTES).");
 		normalUppaal.addChangeListener(new ChangeListener() {
 			@Override
@@ -188,6 +193,17 @@ public class ANIMOPlugin extends CytoscapePlugin {
 				}
 			}
 		});
+		ChangeListener accuracyEnabler = new ChangeListener() { //The servers always perform all the runs, so the target accuracy is only for local averages
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				boolean enabled = normalUppaal.isSelected() && computeAverage.isSelected() && !remoteUppaal.isSelected();
+				stopWhenAccurate.setEnabled(enabled);
+				targetAccuracy.setEnabled(enabled);
+			}
+		};
+		normalUppaal.addChangeListener(accuracyEnabler);
+		computeAverage.addChangeListener(accuracyEnabler);
+		remoteUppaal.addChangeListener(accuracyEnabler);
 		normalUppaal.setSelected(true);
 		smcUppaal.setSelected(false);
 		timeTo.setEnabled(true);
@@ -196,6 +212,9 @@ public class ANIMOPlugin extends CytoscapePlugin {
 		computeStdDev.setEnabled(false);
 		computeStdDev.setSelected(false);
 		nSimulationRuns.setEnabled(false);
+		stopWhenAccurate.setEnabled(false);
+		stopWhenAccurate.setSelected(false);
+		targetAccuracy.setEnabled(false);
 		smcFormula.setEnabled(false);
 		Box modelCheckingBox = new Box(BoxLayout.Y_AXIS);
 		final Box normalBox = new Box(BoxLayout.Y_AXIS);
@@ -214,6 +233,10 @@ public class ANIMOPlugin extends CytoscapePlugin {
 		averageBox.add(nSimulationRuns);
 		averageBox.add(new JLabel("runs"));
 		normalBox.add(averageBox);
+		Box accuracyBox = new Box(BoxLayout.X_AXIS);
+		accuracyBox.add(stopWhenAccurate);
+		accuracyBox.add(targetAccuracy);
+		normalBox.add(accuracyBox);
 		Box stdDevBox = new Box(BoxLayout.X_AXIS);
 		stdDevBox.add(computeStdDev);
 		stdDevBox.add(Box.createGlue());
@@ -279,7 +302,7 @@ public class ANIMOPlugin extends CytoscapePlugin {
 		});
 
 		//The "Analyse network" button: perform the requested analysis on the current network with the given parameters
-		JButton runButton = new JButton(new RunAction(plugin, remoteUppaal, serverName, serverPort, smcUppaal, timeTo, nSimulationRuns, computeStdDev, smcFormula));
+		JButton runButton = new JButton(new RunAction(plugin, remoteUppaal, serverName, serverPort, smcUppaal, timeTo, nSimulationRuns, computeStdDev, stopWhenAccurate, targetAccuracy, smcFormula));
 		//buttons.add(runButton);
 		Box runButtonBox = new Box(BoxLayout.X_AXIS);
 		runButtonBox.add(Box.createGlue());
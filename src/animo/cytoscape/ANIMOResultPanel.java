@@ -33,8 +33,11 @@ public class ANIMOResultPanel extends JPanel implements ChangeListener {
 
 	private static final long serialVersionUID = -163756255393221954L;
 	private final Model model; //The model from which the results were obtained
-	private final LevelResult result; //Contains the results to be shown in this panel
+	private LevelResult result; //Contains the results to be shown in this panel
+	private final double scale; //The factor by which time values in the result are multiplied to obtain real-life minutes
 	private JSlider slider; //The slider to allow the user to choose a moment in the simulation time, which will be reflected on the network window as node colors, indicating the corresponding reactant activity level.
+	private Graph g; //The graph in which the result is plotted
+	private boolean noSeriesWarned = false; //We warn the user only once if there is nothing to plot, even if the result is updated
 
 	/**
 	 * The panel constructor.
@@ -42,17 +45,17 @@ public class ANIMOResultPanel extends JPanel implements ChangeListener {
 	 * @param model the model this panel uses
 	 * @param result the results object this panel uses
 	 */
-	@SuppressWarnings("unchecked")
 	public ANIMOResultPanel(Model model, LevelResult result, double scale) {
 		super(new BorderLayout(), true);
 		this.model = model;
 		this.result = result;
+		this.scale = scale;
 
 		JPanel sliderPanel = new JPanel(new BorderLayout());
 		this.slider = new JSlider();
 		this.slider.setOrientation(JSlider.HORIZONTAL);
 		this.slider.setMinimum(0);
-		this.slider.setMaximum((int)(double)(result.getTimeIndices().get(result.getTimeIndices().size() - 1)));
+		this.slider.setMaximum((int)result.getLastTimeIndex());
 		this.slider.setValue(0);
 		this.slider.getModel().addChangeListener(this);
 
@@ -60,7 +63,31 @@ public class ANIMOResultPanel extends JPanel implements ChangeListener {
 
 		this.add(sliderPanel, BorderLayout.SOUTH);
 
-		Graph g = new Graph();
+		g = new Graph();
+		plot();
+		this.add(g, BorderLayout.CENTER);
+	}
+	
+	/**
+	 * Show a new result in place of the current one: used to show the partial results of an analysis
+	 * while it is running (see PartialResultListener), and then its final result.
+	 * Call it from the event dispatch thread.
+	 * @param result The result to be shown
+	 */
+	public void setResult(LevelResult result) {
+		this.result = result;
+		this.slider.setMaximum((int)result.getLastTimeIndex());
+		g.reset();
+		plot();
+		g.repaint();
+	}
+	
+	/**
+	 * Add the series of the current result to the (empty) graph, with the names chosen by the user
+	 * and only for the reactants the user wants to see.
+	 */
+	@SuppressWarnings("unchecked")
+	private void plot() {
 		//We map reactant IDs to their corresponding aliases (canonical names, i.e., the names displayed to the user in the network window), so that
 		//we will be able to use graph series names consistent with what the user has chosen.
 		Map<String, String> seriesNameMapping = new HashMap<String, String>();
@@ -151,7 +178,8 @@ public class ANIMOResultPanel extends JPanel implements ChangeListener {
 			}
 			seriesNameMapping.put(originalR, name);
 		}
-		if (filteredSeriesNames.isEmpty()) {
+		if (filteredSeriesNames.isEmpty() && !noSeriesWarned) {
+			noSeriesWarned = true;
 			JOptionPane.showMessageDialog(Cytoscape.getDesktop(), "This should never happen: none of the reactants selected for plotting are influenced by enabled reactions.");
 		}
 		Pair<LevelResult, LevelResult> blocks = result.filter(filteredSeriesNames).split(secondBlockSeriesNames);
@@ -180,10 +208,9 @@ public class ANIMOResultPanel extends JPanel implements ChangeListener {
 			}
 			//int nLevels = model.getProperties().get(Model.Properties.NUMBER_OF_LEVELS).as(Integer.class);
 			g.declareMaxYValue(maxY);
-			double maxTime = scale * result.getTimeIndices().get(result.getTimeIndices().size()-1);
+			double maxTime = scale * result.getLastTimeIndex();
 			g.setDrawArea(0, (int)maxTime, 0, (int)Math.round(maxY)); //This is done because the graph automatically computes the area to be shown based on minimum and maximum values for X and Y, including StdDev. So, if the StdDev of a particular series (which represents an average) in a particular point is larger that the value of that series in that point, the minimum y value would be negative. As this is not very nice to see, I decided that we will recenter the graph to more strict bounds instead.
 		}
-		this.add(g, BorderLayout.CENTER);
 	}
 	
 	/**
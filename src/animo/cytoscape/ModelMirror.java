@@ -0,0 +1,284 @@
+package animo.cytoscape;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import animo.model.Model;
+import animo.model.Reactant;
+import animo.model.Reaction;
+import cytoscape.Cytoscape;
+import cytoscape.data.attr.MultiHashMapListener;
+
+/**
+ * Keeps the reactants and reactions built from the Cytoscape network the last time a model was
+ * generated, so that the next generation of the model needs to read the attributes, compute the
+ * parameters and generate the time tables only for the nodes and edges that changed in the meantime.
+ * The mirror listens to the changes of node, edge and network attributes: a change to a node throws
+ * away the reactant of that node and all the reactions that were built reading something from it
+ * (e.g. its number of levels), a change to an edge throws away its reaction, and a change to the
+ * network (number of levels, seconds per point, user-defined formulae) throws away everything.
+ * Only the attributes read when building the model count: for nodes, the ones in NODE_MODEL_ATTRIBUTES;
+ * for edges and networks (whose attributes include the parameters of the scenarios and the user-defined
+ * formulae), all attributes except the ones which only change how the network is shown (DISPLAY_ATTRIBUTES),
+ * such as the activity ratio set on all nodes when the slider of a result panel is moved.
+ * Deleting nodes and edges does not change any attribute: what was built from them is thrown away
+ * instead when the model is generated again (see retainOnly).
+ * Reactants and reactions are indexed by the identifiers of their Cytoscape nodes and edges. As a
+ * model is modified by the analyses, the stored objects must never be put directly in a model: use
+ * a copy instead (see Reactant(String, Reactant) and Reaction(String, Reaction)).
+ */
+public class ModelMirror {
+	private static final Set<String> NODE_MODEL_ATTRIBUTES = new HashSet<String>(Arrays.asList( //The node attributes read by RunAction.getANIMOModel
+		Model.Properties.CANONICAL_NAME, Model.Properties.NUMBER_OF_LEVELS, Model.Properties.GROUP, Model.Properties.ENABLED,
+		Model.Properties.PLOTTED, Model.Properties.INITIAL_QUANTITY, Model.Properties.INITIAL_LEVEL, Model.Properties.CONCENTRATION,
+		Model.Properties.STEP_SIZE, Model.Properties.PERCENTUAL_ACTIVITY, Model.Properties.NOT_GROWING,
+		Model.Properties.LEVELS_SCALE_FACTOR, Model.Properties.MAXIMUM_QUANTITY_GROWTH
+	));
+	private static final Set<String> DISPLAY_ATTRIBUTES = new HashSet<String>(Arrays.asList( //Attributes which only change how the network is shown
+		Model.Properties.SHOWN_LEVEL
+	));
+	private Map<String, Reactant> reactants = new HashMap<String, Reactant>(); //Cytoscape node id -> reactant built from that node
+	private Map<String, Reaction> reactions = new HashMap<String, Reaction>(); //Cytoscape edge id -> reaction built from that edge
+	private Map<String, Set<String>> quantityInfluences = new HashMap<String, Set<String>>(); //Cytoscape edge id -> Cytoscape ids of the nodes whose quantity is influenced by the edge
+	private Map<String, Set<String>> dependentEdges = new HashMap<String, Set<String>>(); //Cytoscape node id -> ids of the edges whose reaction was built reading attributes of the node
+	private long modificationCount = 0; //Incremented each time something is thrown away
+	private int reused = 0, rebuilt = 0;
+
+	/**
+	 * Start listening to the changes of the attributes of nodes, edges and networks.
+	 */
+	public void register() {
+		Cytoscape.getNodeAttributes().getMultiHashMap().addDataListener(new Listener() {
+			@Override
+			protected boolean isModelAttribute(String attributeName) {
+				return NODE_MODEL_ATTRIBUTES.contains(attributeName);
+			}
+
+			@Override
+			protected void changed(String objectKey) {
+				nodeChanged(objectKey);
+			}
+		});
+		Cytoscape.getEdgeAttributes().getMultiHashMap().addDataListener(new Listener() {
+			@Override
+			protected void changed(String objectKey) {
+				edgeChanged(objectKey);
+			}
+		});
+		Cytoscape.getNetworkAttributes().getMultiHashMap().addDataListener(new Listener() {
+			@Override
+			protected void changed(String objectKey) {
+				clear();
+			}
+		});
+	}
+
+	/**
+	 * Calls changed() for any actual change of the value of an attribute used to build the model.
+	 */
+	private abstract static class Listener implements MultiHashMapListener {
+		protected abstract void changed(String objectKey);
+
+		/**
+		 * @return Whether the given attribute is used to build the model (by default, all attributes except the DISPLAY_ATTRIBUTES)
+		 */
+		protected boolean isModelAttribute(String attributeName) {
+			return !DISPLAY_ATTRIBUTES.contains(attributeName);
+		}
+
+		@Override
+		public void attributeValueAssigned(String objectKey, String attributeName, Object[] keyIntoValue, Object oldAttributeValue, Object newAttributeValue) {
+			if (!isModelAttribute(attributeName)) return;
+			if (oldAttributeValue != null && oldAttributeValue.equals(newAttributeValue)) return; //Setting the same value again changes nothing
+			changed(objectKey);
+		}
+
+		@Override
+		public void attributeValueRemoved(String objectKey, String attributeName, Object[] keyIntoValue, Object attributeValue) {
+			if (!isModelAttribute(attributeName)) return;
+			changed(objectKey);
+		}
+
+		@Override
+		public void allAttributeValuesRemoved(String objectKey, String attributeName) {
+			if (!isModelAttribute(attributeName)) return;
+			changed(objectKey);
+		}
+	}
+
+	/**
+	 * Throw away the reactant built from the given node, and all the reactions that depend on it.
+	 * @param nodeId The Cytoscape id of the node
+	 */
+	public synchronized void nodeChanged(String nodeId) {
+		modificationCount++;
+		reactants.remove(nodeId);
+		Set<String> edges = dependentEdges.remove(nodeId);
+		if (edges != null) {
+			for (String edgeId : edges) {
+				reactions.remove(edgeId);
+			}
+		}
+	}
+
+	/**
+	 * Throw away the reaction built from the given edge.
+	 * @param edgeId The Cytoscape id of the edge
+	 */
+	public synchronized void edgeChanged(String edgeId) {
+		modificationCount++;
+		reactions.remove(edgeId);
+		quantityInfluences.remove(edgeId);
+	}
+
+	/**
+	 * Throw away everything.
+	 */
+	public synchronized void clear() {
+		modificationCount++;
+		reactants.clear();
+		reactions.clear();
+		quantityInfluences.clear();
+		dependentEdges.clear();
+	}
+
+	/**
+	 * Throw away what was built from the nodes and edges which are not in the given sets
+	 * (e.g. because they were deleted from the network), together with the reactions that depend on those nodes.
+	 * @param nodeIds The Cytoscape ids of the nodes still in the network
+	 * @param edgeIds The Cytoscape ids of the edges still in the network
+	 */
+	public synchronized void retainOnly(Set<String> nodeIds, Set<String> edgeIds) {
+		for (String nodeId : new ArrayList<String>(reactants.keySet())) {
+			if (!nodeIds.contains(nodeId)) {
+				nodeChanged(nodeId);
+			}
+		}
+		for (String nodeId : new ArrayList<String>(dependentEdges.keySet())) {
+			if (!nodeIds.contains(nodeId)) {
+				nodeChanged(nodeId);
+			}
+		}
+		Set<String> edges = new HashSet<String>(reactions.keySet());
+		edges.addAll(quantityInfluences.keySet());
+		for (String edgeId : edges) {
+			if (!edgeIds.contains(edgeId)) {
+				edgeChanged(edgeId);
+			}
+		}
+		for (Set<String> dependent : dependentEdges.values()) {
+			dependent.retainAll(edgeIds);
+		}
+	}
+
+	/**
+	 * Take this value before reading the attributes of a node or edge, and give it back when storing
+	 * what was built from them: if something changed in the meantime, the result is not stored.
+	 * @return The number of times something was thrown away until now
+	 */
+	public synchronized long getModificationCount() {
+		return modificationCount;
+	}
+
+	/**
+	 * @param nodeId The Cytoscape id of a node
+	 * @return The reactant built the last time from that node, or null if the node changed since then.
+	 * The returned reactant must not be modified.
+	 */
+	public synchronized Reactant getReactant(String nodeId) {
+		Reactant r = reactants.get(nodeId);
+		if (r == null) {
+			rebuilt++;
+		} else {
+			reused++;
+		}
+		return r;
+	}
+
+	/**
+	 * Store the reactant built from a node.
+	 * @param nodeId The Cytoscape id of the node
+	 * @param reactant The reactant (it must not be modified afterwards)
+	 * @param modificationCount The value of getModificationCount() before reading the attributes of the node
+	 */
+	public synchronized void putReactant(String nodeId, Reactant reactant, long modificationCount) {
+		if (modificationCount != this.modificationCount) return;
+		reactants.put(nodeId, reactant);
+	}
+
+	/**
+	 * @param edgeId The Cytoscape id of an edge
+	 * @return The reaction built the last time from that edge, or null if the edge (or one of the nodes
+	 * from which something was read) changed since then. The returned reaction must not be modified.
+	 */
+	public synchronized Reaction getReaction(String edgeId) {
+		Reaction r = reactions.get(edgeId);
+		if (r == null) {
+			rebuilt++;
+		} else {
+			reused++;
+		}
+		return r;
+	}
+
+	/**
+	 * Store the reaction built from an edge.
+	 * @param edgeId The Cytoscape id of the edge
+	 * @param reaction The reaction (it must not be modified afterwards)
+	 * @param dependsOn The Cytoscape ids of the nodes whose attributes were read to build the reaction
+	 * @param modificationCount The value of getModificationCount() before reading the attributes of the edge
+	 */
+	public synchronized void putReaction(String edgeId, Reaction reaction, Collection<String> dependsOn, long modificationCount) {
+		if (modificationCount != this.modificationCount) return;
+		reactions.put(edgeId, reaction);
+		for (String nodeId : dependsOn) {
+			Set<String> edges = dependentEdges.get(nodeId);
+			if (edges == null) {
+				edges = new HashSet<String>();
+				dependentEdges.put(nodeId, edges);
+			}
+			edges.add(edgeId);
+		}
+	}
+
+	/**
+	 * @param edgeId The Cytoscape id of an edge
+	 * @return The ids of the nodes whose quantity is influenced by the edge (empty if the edge is
+	 * disabled), or null if the edge changed since they were stored
+	 */
+	public synchronized Set<String> getQuantityInfluence(String edgeId) {
+		return quantityInfluences.get(edgeId);
+	}
+
+	/**
+	 * Store the ids of the nodes whose quantity is influenced by an edge.
+	 * @param edgeId The Cytoscape id of the edge
+	 * @param nodeIds The ids of the influenced nodes
+	 * @param modificationCount The value of getModificationCount() before reading the attributes of the edge
+	 */
+	public synchronized void putQuantityInfluence(String edgeId, Set<String> nodeIds, long modificationCount) {
+		if (modificationCount != this.modificationCount) return;
+		quantityInfluences.put(edgeId, Collections.unmodifiableSet(nodeIds));
+	}
+
+	/**
+	 * @return A short description of how much was reused, e.g. for the log
+	 */
+	public synchronized String getStatistics() {
+		return reused + " reused, " + rebuilt + " rebuilt";
+	}
+
+	/**
+	 * Reset the counters of reused and rebuilt reactants and reactions.
+	 */
+	public synchronized void resetStatistics() {
+		reused = 0;
+		rebuilt = 0;
+	}
+}
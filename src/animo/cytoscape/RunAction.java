@@ -14,10 +14,13 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.AbstractAction;
 import javax.swing.JButton;
@@ -33,8 +36,11 @@ import javax.swing.SwingUtilities;
 import com.jhlabs.image.MaximumFilter;
 import com.sosnoski.util.GrowableBase;
 
+import animo.ANIMOBackend;
 import animo.analyser.LevelResult;
+import animo.analyser.PartialResultListener;
 import animo.analyser.SMCResult;
+import animo.analyser.stochastic.StochasticSimulator;
 import animo.analyser.uppaal.ResultAverager;
 import animo.analyser.uppaal.UppaalModelAnalyserFasterConcrete;
 import animo.analyser.uppaal.VariablesModel;
@@ -47,7 +53,10 @@ import animo.model.Scenario;
 import animo.model.ScenarioMono;
 import animo.model.UserFormula;
 import animo.network.UPPAALClient;
+import animo.util.CancellationToken;
+import animo.util.PhaseTimer;
 import animo.util.Table;
+import animo.util.TimeTableCache;
 
 import cern.jet.stat.quantile.Quantile1Test;
 
@@ -104,9 +113,12 @@ public class RunAction extends CytoscapeAction {
 	private double scale = 0.2; //The time scale representing the number of real-life minutes represented by a single UPPAAL time unit
 	private JRadioButton remoteUppaal, smcUppaal; //The RadioButtons telling us whether we use a local or a remote engine, and whether we use the Statistical Model Checking or the "normal" engine
 	private JCheckBox computeStdDev; //Whether to compute the standard deviation when computing the average of a series of runs (if average of N runs is requested)
+	private JCheckBox stopWhenAccurate; //Whether to stop performing the runs of an average when it is accurate enough (and then N is the maximum number of runs)
+	private JTextField targetAccuracy; //How accurate the average must be: a percentage of the values of the series, or an absolute value
 	private JFormattedTextField timeToFormula, nSimulationRuns; //Up to which point in time (real-life minutes) the simulation(s) will run, and the number of simulations (if average of N runs is requested)
 	private JTextField serverName, serverPort, smcFormula; //The name of the server, and the corresponding port, in the case we use a remote engine. The text inserted by the user for the SMC formula. Notice that this formula will need to be changed so that it will be compliant with the UPPAAL time scale, and reactant names
-	private boolean needToStop; //Whether the user has pressed the Cancel button on the TaskMonitor while we were running an analysis process
+	private volatile boolean needToStop; //Whether the user has pressed the Cancel button on the TaskMonitor while we were running an analysis process
+	private volatile CancellationToken cancellation = new CancellationToken(); //Cancelled together with needToStop, to stop the running processes immediately
 	private RunAction meStesso; //Myself
 	
 	/**
@@ -114,7 +126,7 @@ public class RunAction extends CytoscapeAction {
 	 * 
 	 * @param plugin the plugin we should use
 	 */
-	public RunAction(ANIMOPlugin plugin, JRadioButton remoteUppaal, JTextField serverName, JTextField serverPort, JRadioButton smcUppaal, JFormattedTextField timeToFormula, JFormattedTextField nSimulationRuns, JCheckBox computeStdDev, JTextField smcFormula) {
+	public RunAction(ANIMOPlugin plugin, JRadioButton remoteUppaal, JTextField serverName, JTextField serverPort, JRadioButton smcUppaal, JFormattedTextField timeToFormula, JFormattedTextField nSimulationRuns, JCheckBox computeStdDev, JCheckBox stopWhenAccurate, JTextField targetAccuracy, JTextField smcFormula) {
 		super("Analyse network");
 		this.remoteUppaal = remoteUppaal;
 		this.serverName = serverName;
@@ -123,6 +135,8 @@ public class RunAction extends CytoscapeAction {
 		this.timeToFormula = timeToFormula;
 		this.nSimulationRuns = nSimulationRuns;
 		this.computeStdDev = computeStdDev;
+		this.stopWhenAccurate = stopWhenAccurate;
+		this.targetAccuracy = targetAccuracy;
 		this.smcFormula = smcFormula;
 		this.meStesso = this;
 	}
@@ -201,6 +215,13 @@ public class RunAction extends CytoscapeAction {
 	public boolean needToStop() {
 		return this.needToStop;
 	}
+	
+	/**
+	 * @return The token that is cancelled when the user presses the Cancel button during the current analysis
+	 */
+	public CancellationToken getCancellationToken() {
+		return this.cancellation;
+	}
 
 	private class RunTask implements Task {
 
@@ -211,6 +232,7 @@ public class RunAction extends CytoscapeAction {
 		private static final String REACTANT_NAME = Model.Properties.REACTANT_NAME;
 		private static final String REACTANT_ALIAS = Model.Properties.ALIAS;
 		private TaskMonitor monitor;
+		private PhaseTimer modelGenerationTimes = null; //How long the phases of the last call to getANIMOModel took
 
 		@Override
 		public String getTitle() {
@@ -220,12 +242,14 @@ public class RunAction extends CytoscapeAction {
 		@Override
 		public void halt() {
 			needToStop = true;
+			cancellation.cancel();
 		}
 
 		@Override
 		public void run() {
 			try {
 				needToStop = false;
+				cancellation = new CancellationToken();
 				
 				this.monitor.setStatus("Creating model representation");
 				this.monitor.setPercentCompleted(0);
@@ -318,7 +342,9 @@ public class RunAction extends CytoscapeAction {
 		 * Perform a simulation analysis. Translate the user-set number of real-life minutes
 		 * for the length of the simulation, and obtain all input data for the model engine,
 		 * based on the control the user has set (average, N simulation, StdDev, etc).
-		 * When the analysis is done, display the obtained SimpleLevelResult on a ResultPanel
+		 * When the analysis is done, display the obtained SimpleLevelResult on a ResultPanel.
+		 * If the analysis gives partial results while it runs, the ResultPanel is shown as soon
+		 * as the first one arrives, and it is updated until the analysis is done.
 		 * @param model
 		 * @throws Exception
 		 */
@@ -355,6 +381,7 @@ public class RunAction extends CytoscapeAction {
 
 			// analyse model
 			final LevelResult result;
+			ResultViewer viewer = new ResultViewer(model);
 			
 			if (remoteUppaal.isSelected()) {
 				UPPAALClient client = new UPPAALClient(serverName.getText(), Integer.parseInt(serverPort.getText()));
@@ -369,7 +396,8 @@ public class RunAction extends CytoscapeAction {
 					nSims = 1;
 				}
 				monitor.setStatus("Forwarding the request to the server " + serverName.getText() + ":" + serverPort.getText());
-				result = client.analyze(model, timeTo, nSims, computeStdDev.isSelected());
+				client.setPartialResultListener(viewer);
+				result = client.analyze(model, timeTo, nSims, computeStdDev.isSelected(), monitor, meStesso);
 			} else {
 				//ModelAnalyser<LevelResult> analyzer = new UppaalModelAnalyser(new VariablesInterpreter(), new VariablesModel());
 				//result = analyzer.analyze(model, timeTo);
@@ -380,9 +408,19 @@ public class RunAction extends CytoscapeAction {
 					} catch (Exception e) {
 						throw new Exception("Unable to understand the number of requested simulations.");
 					}
-					result = new ResultAverager(monitor, meStesso).analyzeAverage(model, timeTo, nSims, computeStdDev.isSelected());
+					ResultAverager averager = new ResultAverager(monitor, meStesso);
+					averager.setPartialResultListener(viewer);
+					if (stopWhenAccurate.isSelected()) {
+						setTargetAccuracy(averager, model);
+					}
+					result = averager.analyzeAverage(model, timeTo, nSims, computeStdDev.isSelected());
+				} else if (StochasticSimulator.isSelected()) {
+					monitor.setStatus("Simulating the model in Java.");
+					result = new StochasticSimulator().analyze(model, timeTo);
 				} else {
-					result = new UppaalModelAnalyserFasterConcrete(monitor, meStesso).analyze(model, timeTo);
+					UppaalModelAnalyserFasterConcrete analyzer = new UppaalModelAnalyserFasterConcrete(monitor, meStesso);
+					analyzer.setPartialResultListener(viewer);
+					result = analyzer.analyze(model, timeTo);
 				}
 			}
 			
@@ -392,61 +430,147 @@ public class RunAction extends CytoscapeAction {
 			if (result.getReactantIds().isEmpty()) {
 				throw new Exception("No reactants selected for plot, or no reactants present in the result");
 			} else {
+				viewer.showFinalResult(result);
+			}
+		}
+		
+		/**
+		 * Ask the averager to stop as soon as the plotted series are as accurate as the user asked.
+		 * The target is a percentage of the largest value of each series (e.g. "5%"), or a value in the units of the series.
+		 * @param averager The averager which will compute the average
+		 * @param model The model, from which we learn which reactants are plotted
+		 * @throws Exception If we cannot understand the target accuracy
+		 */
+		private void setTargetAccuracy(ResultAverager averager, Model model) throws Exception {
+			String target = targetAccuracy.getText().trim();
+			boolean relative = target.endsWith("%");
+			if (relative) {
+				target = target.substring(0, target.length() - 1).trim();
+			}
+			double halfWidth;
+			try {
+				halfWidth = Double.parseDouble(target);
+			} catch (NumberFormatException e) {
+				throw new Exception("Unable to understand the requested accuracy of the average.");
+			}
+			if (!(halfWidth > 0)) {
+				throw new Exception("The requested accuracy of the average must be larger than 0.");
+			}
+			if (relative) {
+				halfWidth /= 100;
+			}
+			Set<String> plottedSeries = new HashSet<String>(); //The result contains series with these names (see VariablesModel)
+			for (Reactant r : model.getReactants()) {
+				if (!r.get(PLOTTED).as(Boolean.class)) continue;
+				plottedSeries.add(r.getId());
+				plottedSeries.add(r.getId() + VariablesModel.ACTIVITY_SUFFIX);
+				plottedSeries.add(r.getId() + VariablesModel.QUANTITY_SUFFIX);
+				plottedSeries.add(r.getId() + VariablesModel.PERCENTAGE_SUFFIX);
+			}
+			averager.setTargetAccuracy(halfWidth, relative, plottedSeries.isEmpty() ? null : plottedSeries); //With nothing plotted, all series need to be accurate
+		}
+		
+		/**
+		 * Shows the result of an analysis in the ANIMO Results panel. The panel is opened with the first partial
+		 * result (if the analysis gives any: see PartialResultListener) and updated with the following ones, until the
+		 * final result arrives. A partial result arriving while the previous one is still waiting to be drawn takes its
+		 * place, so a slow drawing never makes the analysis wait.
+		 */
+		private class ResultViewer implements PartialResultListener {
+			private final Model model;
+			private final AtomicReference<LevelResult> pending = new AtomicReference<LevelResult>(); //The last partial result, not yet shown
+			private volatile boolean finished = false; //When the final result has arrived, partial results are not shown anymore
+			private ANIMOResultPanel resultPanel = null; //The panel showing the result (used only in the event dispatch thread)
+			private boolean closedByUser = false; //If the user closes the panel while the analysis runs, we don't open it again until the final result
+			
+			public ResultViewer(Model model) {
+				this.model = model;
+			}
+			
+			@Override
+			public void partialResult(LevelResult partial) {
+				if (finished || partial.getReactantIds().isEmpty()) return;
+				if (pending.getAndSet(partial) != null) return; //The event dispatch thread has not shown the previous one yet: it will show this one instead
 				SwingUtilities.invokeLater(new Runnable() {
 					public void run() {
-						final CytoPanel p = Cytoscape.getDesktop().getCytoPanel(SwingConstants.EAST);
-	
-						// JFrame frame = new JFrame("ANIMO result viewer");
-						// frame.setLayout(new BorderLayout());
-						ANIMOResultPanel resultViewer = new ANIMOResultPanel(model, result, scale);
-						// frame.add(resultViewer, BorderLayout.CENTER);
-						// frame.setLocationRelativeTo(Cytoscape.getDesktop());
-						// frame.pack();
-						// frame.setSize(new Dimension(800, 600));
-						// frame.setVisible(true);
-	
-						final JPanel container = new JPanel(new BorderLayout(2, 2));
-						container.add(resultViewer, BorderLayout.CENTER);
-						JPanel buttons = new JPanel(new GridLayout(1, 4, 2, 2));
-	
-						JButton close = new JButton(new AbstractAction("Close") {
-							private static final long serialVersionUID = 4327349309742276633L;
-	
-							@Override
-							public void actionPerformed(ActionEvent e) {
-								p.remove(container);
-							}
-						});
-	
-						buttons.add(close);
-						container.add(buttons, BorderLayout.NORTH);
-	
-						p.add("ANIMO Results", container);
-	
-						if (p.getState().equals(CytoPanelState.HIDE)) {
-							CytoPanelImp p1 = (CytoPanelImp)Cytoscape.getDesktop().getCytoPanel(SwingConstants.WEST);
-							CyNetworkView p2 = Cytoscape.getCurrentNetworkView();
-							CytoPanelImp p3 = (CytoPanelImp)Cytoscape.getDesktop().getCytoPanel(SwingConstants.SOUTH);
-							Dimension d = Cytoscape.getDesktop().getSize();
-							if (!p1.getState().equals(CytoPanelState.HIDE)) {
-								d.width -= p1.getWidth();
-							}
-							if (p2 != null) {
-								d.width -= Cytoscape.getDesktop().getNetworkViewManager().getInternalFrame(p2).getWidth();
-							}
-							if (!p3.getState().equals(CytoPanelState.HIDE)) {
-								d.height -= p3.getHeight();
-							}
-							((CytoPanelImp)p).setPreferredSize(d);
-							((CytoPanelImp)p).setMaximumSize(d);
-							((CytoPanelImp)p).setSize(d);
-							p.setState(CytoPanelState.DOCK);
-						}
-						
-						p.setSelectedIndex(p.getCytoPanelComponentCount() - 1);
+						LevelResult partial = pending.getAndSet(null);
+						if (partial == null || finished || closedByUser) return;
+						show(partial);
 					}
 				});
 			}
+			
+			public void showFinalResult(final LevelResult result) {
+				finished = true;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						show(result);
+					}
+				});
+			}
+			
+			/**
+			 * Show the given result in our panel, which is added to the ANIMO Results if it is not there yet.
+			 * Call it from the event dispatch thread.
+			 */
+			private void show(LevelResult result) {
+				if (resultPanel != null) {
+					resultPanel.setResult(result);
+					return;
+				}
+				final CytoPanel p = Cytoscape.getDesktop().getCytoPanel(SwingConstants.EAST);
+
+				// JFrame frame = new JFrame("ANIMO result viewer");
+				// frame.setLayout(new BorderLayout());
+				resultPanel = new ANIMOResultPanel(model, result, scale);
+				// frame.add(resultViewer, BorderLayout.CENTER);
+				// frame.setLocationRelativeTo(Cytoscape.getDesktop());
+				// frame.pack();
+				// frame.setSize(new Dimension(800, 600));
+				// frame.setVisible(true);
+
+				final JPanel container = new JPanel(new BorderLayout(2, 2));
+				container.add(resultPanel, BorderLayout.CENTER);
+				JPanel buttons = new JPanel(new GridLayout(1, 4, 2, 2));
+
+				JButton close = new JButton(new AbstractAction("Close") {
+					private static final long serialVersionUID = 4327349309742276633L;
+
+					@Override
+					public void actionPerformed(ActionEvent e) {
+						p.remove(container);
+						closedByUser = true;
+						resultPanel = null;
+					}
+				});
+
+				buttons.add(close);
+				container.add(buttons, BorderLayout.NORTH);
+
+				p.add("ANIMO Results", container);
+
+				if (p.getState().equals(CytoPanelState.HIDE)) {
+					CytoPanelImp p1 = (CytoPanelImp)Cytoscape.getDesktop().getCytoPanel(SwingConstants.WEST);
+					CyNetworkView p2 = Cytoscape.getCurrentNetworkView();
+					CytoPanelImp p3 = (CytoPanelImp)Cytoscape.getDesktop().getCytoPanel(SwingConstants.SOUTH);
+					Dimension d = Cytoscape.getDesktop().getSize();
+					if (!p1.getState().equals(CytoPanelState.HIDE)) {
+						d.width -= p1.getWidth();
+					}
+					if (p2 != null) {
+						d.width -= Cytoscape.getDesktop().getNetworkViewManager().getInternalFrame(p2).getWidth();
+					}
+					if (!p3.getState().equals(CytoPanelState.HIDE)) {
+						d.height -= p3.getHeight();
+					}
+					((CytoPanelImp)p).setPreferredSize(d);
+					((CytoPanelImp)p).setMaximumSize(d);
+					((CytoPanelImp)p).setSize(d);
+					p.setState(CytoPanelState.DOCK);
+				}
+				
+				p.setSelectedIndex(p.getCytoPanelComponentCount() - 1);
+			}
 		}
 
 		@Override
@@ -454,6 +578,13 @@ public class RunAction extends CytoscapeAction {
 			this.monitor = monitor;
 		}
 
+		/**
+		 * @return The time taken by each phase of the last model generation, or null if no model was generated yet
+		 */
+		public PhaseTimer getModelGenerationTimes() {
+			return modelGenerationTimes;
+		}
+		
 		/**
 		 * Translate the Cytoscape network in the internal ANIMO model representation.
 		 * This intermediate model will then translated as needed into the proper UPPAAL
@@ -464,9 +595,17 @@ public class RunAction extends CytoscapeAction {
 		 */
 		@SuppressWarnings("unchecked")
 		private Model getANIMOModel() throws ANIMOException {
+			PhaseTimer timer = new PhaseTimer();
+			modelGenerationTimes = timer;
+			timer.start("checking parameters");
 			checkParameters();
 			
+			timer.start("indexing edges");
 			long startTime = System.currentTimeMillis();
+			TimeTableCache timeTableCache = TimeTableCache.getShared(); //Time tables for reactions that did not change since the last analysis are not computed again
+			timeTableCache.resetStatistics();
+			ModelMirror mirror = ANIMOBackend.get().modelMirror(); //Reactants and reactions whose nodes and edges did not change since the last analysis are not built again
+			mirror.resetStatistics();
 			
 			Map<String, String> nodeNameToId = new HashMap<String, String>();
 			Map<String, String> edgeNameToId = new HashMap<String, String>();
@@ -475,6 +614,16 @@ public class RunAction extends CytoscapeAction {
 			
 			CyNetwork network = Cytoscape.getCurrentNetwork();
 			
+			Set<String> networkNodes = new HashSet<String>(),
+						networkEdges = new HashSet<String>();
+			for (Iterator<Node> i = (Iterator<Node>) network.nodesIterator(); i.hasNext(); ) {
+				networkNodes.add(i.next().getIdentifier());
+			}
+			for (Iterator<Edge> i = (Iterator<Edge>) network.edgesIterator(); i.hasNext(); ) {
+				networkEdges.add(i.next().getIdentifier());
+			}
+			mirror.retainOnly(networkNodes, networkEdges); //Nothing tells the mirror when nodes and edges are deleted
+			
 			final int totalWork = network.getNodeCount() + network.getEdgeCount();
 			int doneWork = 0;
 			
@@ -494,59 +643,75 @@ public class RunAction extends CytoscapeAction {
 			CyAttributes nodeAttributes = Cytoscape.getNodeAttributes();
 			CyAttributes edgeAttributes = Cytoscape.getEdgeAttributes();
 			
+			//A single pass on the edges to find the nodes whose quantity is influenced by some (enabled) reaction
+			Set<String> quantityInfluenced = new HashSet<String>();
+			Iterator<Edge> allEdges = (Iterator<Edge>) network.edgesIterator();
+			while (allEdges.hasNext()) {
+				Edge edge = allEdges.next();
+				Set<String> influenced = mirror.getQuantityInfluence(edge.getIdentifier());
+				if (influenced == null) {
+					long mirrorCount = mirror.getModificationCount();
+					influenced = new HashSet<String>();
+					List<String> influencedReactants = edgeAttributes.getListAttribute(edge.getIdentifier(), INFLUENCED_REACTANTS);
+					boolean enabled = !edgeAttributes.hasAttribute(edge.getIdentifier(), ENABLED) || edgeAttributes.getBooleanAttribute(edge.getIdentifier(), ENABLED); //of course, we are interested only in enabled edges
+					if (enabled && influencedReactants != null) {
+						for (String s : influencedReactants) {
+							ReactantParameter par = new ReactantParameter(s);
+							if (par.getPropertyName().equals(Model.Properties.QUANTITY)) {
+								influenced.add(par.getReactantIdentifier());
+							}
+						}
+					}
+					mirror.putQuantityInfluence(edge.getIdentifier(), influenced, mirrorCount);
+				}
+				quantityInfluenced.addAll(influenced);
+			}
+			
 			// do nodes first
+			timer.start("reactants");
 			final Iterator<Node> nodes = (Iterator<Node>) network.nodesIterator();
 			for (int i = 0; nodes.hasNext(); i++) {
 				this.monitor.setPercentCompleted((100 * doneWork++) / totalWork);
 				Node node = nodes.next();
 				
 				final String reactantId = "reactant" + i;
-				Reactant r = new Reactant(reactantId);
 				nodeNameToId.put(node.getIdentifier(), reactantId);
 				
-				r.let(CYTOSCAPE_ID).be(node.getIdentifier());
-				r.let(REACTANT_NAME).be(node.getIdentifier());
-				r.let(REACTANT_ALIAS).be(nodeAttributes.getAttribute(node.getIdentifier(), CANONICAL_NAME));
-				r.let(NUMBER_OF_LEVELS).be(nodeAttributes.getIntegerAttribute(node.getIdentifier(), NUMBER_OF_LEVELS));
-				r.let(GROUP).be(nodeAttributes.getAttribute(node.getIdentifier(), GROUP));
-				r.let(ENABLED).be(nodeAttributes.getAttribute(node.getIdentifier(), ENABLED));
-				r.let(PLOTTED).be(nodeAttributes.getAttribute(node.getIdentifier(), PLOTTED));
-				r.let(INITIAL_QUANTITY).be(nodeAttributes.getIntegerAttribute(node.getIdentifier(), INITIAL_QUANTITY));
-				r.let(INITIAL_LEVEL).be(nodeAttributes.getIntegerAttribute(node.getIdentifier(), INITIAL_LEVEL));
-				r.let(CONCENTRATION).be(nodeAttributes.getDoubleAttribute(node.getIdentifier(), CONCENTRATION));
-				r.let(STEP_SIZE).be(nodeAttributes.getDoubleAttribute(node.getIdentifier(), STEP_SIZE));
-				r.let(PERCENTUAL_ACTIVITY).be(nodeAttributes.getIntegerAttribute(node.getIdentifier(), PERCENTUAL_ACTIVITY));
-				r.let(Model.Properties.NOT_GROWING).be(nodeAttributes.getBooleanAttribute(node.getIdentifier(), Model.Properties.NOT_GROWING));
-				r.let(INFLUENCING_NO_REACTION).be(true);
-				
 				//If the quantity of this reactant is not influenced by any reaction, the maximum growth factor for its quantity is 1, otherwise it is 10 (i.e., the quantity can grow up to 10 times its initial value).
-				Iterator<Edge> edges = (Iterator<Edge>) network.edgesIterator();
-				int factor = 0;
-				for (int j=0;edges.hasNext();j++) {
-					Edge edge = edges.next();
-					if (!edgeAttributes.hasAttribute(edge.getIdentifier(), ENABLED) || edgeAttributes.getBooleanAttribute(edge.getIdentifier(), ENABLED)) { //of course, we are interested only in enabled edges
-						List<String> influencedReactants = edgeAttributes.getListAttribute(edge.getIdentifier(), INFLUENCED_REACTANTS);
-						for (String s : influencedReactants) {
-							ReactantParameter par = new ReactantParameter(s);
-							if (par.getReactantIdentifier().equals(node.getIdentifier()) && par.getPropertyName().equals(Model.Properties.QUANTITY)) {
-								factor = 10;
-								break;
-							}
-						}
-					}
-					if (factor != 0) {
-						break;
-					}
-				}
-				if (factor == 0) {
-					factor = 1;
-				}
+				int factor = quantityInfluenced.contains(node.getIdentifier()) ? 10 : 1;
 				
 				if (nodeAttributes.getBooleanAttribute(node.getIdentifier(), Model.Properties.NOT_GROWING)) {
 					factor = 1;
 				}
 				
-				nodeAttributes.setAttribute(node.getIdentifier(), Model.Properties.MAXIMUM_QUANTITY_GROWTH, factor);
+				if (!nodeAttributes.hasAttribute(node.getIdentifier(), Model.Properties.MAXIMUM_QUANTITY_GROWTH)
+					|| nodeAttributes.getIntegerAttribute(node.getIdentifier(), Model.Properties.MAXIMUM_QUANTITY_GROWTH) != factor) { //Changing the attribute makes the mirror throw away the reactions that read it, so we do it only if needed
+					nodeAttributes.setAttribute(node.getIdentifier(), Model.Properties.MAXIMUM_QUANTITY_GROWTH, factor);
+				}
+				
+				long mirrorCount = mirror.getModificationCount();
+				Reactant cached = mirror.getReactant(node.getIdentifier());
+				Reactant r;
+				if (cached != null) {
+					r = new Reactant(reactantId, cached);
+				} else {
+					r = new Reactant(reactantId);
+					r.let(CYTOSCAPE_ID).be(node.getIdentifier());
+					r.let(REACTANT_NAME).be(node.getIdentifier());
+					r.let(REACTANT_ALIAS).be(nodeAttributes.getAttribute(node.getIdentifier(), CANONICAL_NAME));
+					r.let(NUMBER_OF_LEVELS).be(nodeAttributes.getIntegerAttribute(node.getIdentifier(), NUMBER_OF_LEVELS));
+					r.let(GROUP).be(nodeAttributes.getAttribute(node.getIdentifier(), GROUP));
+					r.let(ENABLED).be(nodeAttributes.getAttribute(node.getIdentifier(), ENABLED));
+					r.let(PLOTTED).be(nodeAttributes.getAttribute(node.getIdentifier(), PLOTTED));
+					r.let(INITIAL_QUANTITY).be(nodeAttributes.getIntegerAttribute(node.getIdentifier(), INITIAL_QUANTITY));
+					r.let(INITIAL_LEVEL).be(nodeAttributes.getIntegerAttribute(node.getIdentifier(), INITIAL_LEVEL));
+					r.let(CONCENTRATION).be(nodeAttributes.getDoubleAttribute(node.getIdentifier(), CONCENTRATION));
+					r.let(STEP_SIZE).be(nodeAttributes.getDoubleAttribute(node.getIdentifier(), STEP_SIZE));
+					r.let(PERCENTUAL_ACTIVITY).be(nodeAttributes.getIntegerAttribute(node.getIdentifier(), PERCENTUAL_ACTIVITY));
+					r.let(Model.Properties.NOT_GROWING).be(nodeAttributes.getBooleanAttribute(node.getIdentifier(), Model.Properties.NOT_GROWING));
+					mirror.putReactant(node.getIdentifier(), new Reactant(reactantId, r), mirrorCount);
+				}
+				r.let(INFLUENCING_NO_REACTION).be(true);
 				r.let(Model.Properties.MAXIMUM_QUANTITY_GROWTH).be(factor);
 				
 				model.add(r);
@@ -554,6 +719,7 @@ public class RunAction extends CytoscapeAction {
 			
 			
 			// do edges next
+			timer.start("reactions");
 			final Iterator<Edge> edges = (Iterator<Edge>) network.edgesIterator();
 			for (int i = 0; edges.hasNext(); i++) {
 				this.monitor.setPercentCompleted((100 * doneWork++) / totalWork);
@@ -563,9 +729,25 @@ public class RunAction extends CytoscapeAction {
 										//edgeAttributes.getDoubleAttribute(edge.getIdentifier(), LEVELS_SCALE_FACTOR); //The scale factor due to the nodes' number of levels is now a property of the nodes themselves, not of the reactions (we take care of retrocompatibility by transferring and deleting attributes found in reactions to their nodes instead in the checkParameters method)
 				
 				String reactionId = "reaction" + i;
-				Reaction r = new Reaction(reactionId);
 				edgeNameToId.put(edge.getIdentifier(), reactionId);
 				
+				long mirrorCount = mirror.getModificationCount();
+				Reaction cached = mirror.getReaction(edge.getIdentifier());
+				if (cached != null) { //Only the identifiers of the reactants depend on the rest of the network
+					Reaction r = new Reaction(reactionId, cached);
+					r.let(REACTANT).be(nodeNameToId.get(edge.getTarget().getIdentifier()));
+					if (r.get(REACTION_TYPE).as(String.class).equals(BI_REACTION)) {
+						r.let(CATALYST).be(nodeNameToId.get(edge.getSource().getIdentifier()));
+					}
+					model.add(r);
+					continue;
+				}
+				
+				Reaction r = new Reaction(reactionId);
+				Set<String> dependsOn = new HashSet<String>(); //The nodes from which we read something to build the reaction
+				dependsOn.add(edge.getSource().getIdentifier());
+				dependsOn.add(edge.getTarget().getIdentifier());
+				
 				r.let(ENABLED).be(edgeAttributes.getAttribute(edge.getIdentifier(), ENABLED));
 				r.let(INCREMENT).be(edgeAttributes.getAttribute(edge.getIdentifier(), INCREMENT));
 				r.let(INFLUENCED_REACTANTS).be(edgeAttributes.getListAttribute(edge.getIdentifier(), INFLUENCED_REACTANTS));
@@ -610,27 +792,33 @@ public class RunAction extends CytoscapeAction {
 					
 					double uncertainty = edgeAttributes.getIntegerAttribute(edge.getIdentifier(), UNCERTAINTY);
 					
-					List<Double> times = scenario.generateTimes(1 + nLevels);
-					Table timesLTable = new Table(nLevels + 1, 1);
-					Table timesUTable = new Table(nLevels + 1, 1);
+					String cacheKey = TimeTableCache.key(MONO_REACTION, scenario.getParameters(), nLevels, secStepFactor, levelsScaleFactor, uncertainty);
+					TimeTableCache.TimeTables<Table> tables = timeTableCache.get(cacheKey);
+					if (tables == null) {
+						List<Double> times = scenario.generateTimes(1 + nLevels);
+						Table timesLTable = new Table(nLevels + 1, 1);
+						Table timesUTable = new Table(nLevels + 1, 1);
 					
-					for (int j = 0; j < nLevels + 1; j++) {
-						Double t = times.get(j);
-						if (Double.isInfinite(t)) {
-							timesLTable.set(j, 0, VariablesModel.INFINITE_TIME);
-							timesUTable.set(j, 0, VariablesModel.INFINITE_TIME);
-						} else if (uncertainty == 0) {
-							timesLTable.set(j, 0, Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t)));
-							timesUTable.set(j, 0, Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t)));
-						} else {
-							//timesLTable.set(j, 0, Math.max(1, (int)Math.round(secStepFactor * t * (100.0 - uncertainty) / 100.0))); //we use Math.max because we do not want to put 0 as a time
-							//timesUTable.set(j, 0, Math.max(1, (int)Math.round(secStepFactor * t * (100.0 + uncertainty) / 100.0)));
-							timesLTable.set(j, 0, Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t * (1 - uncertainty / 100.0)))); //we use Math.max because we do not want to put 0 as a time
-							timesUTable.set(j, 0, Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t * (1 + uncertainty / 100.0))));
+						for (int j = 0; j < nLevels + 1; j++) {
+							Double t = times.get(j);
+							if (Double.isInfinite(t)) {
+								timesLTable.set(j, 0, VariablesModel.INFINITE_TIME);
+								timesUTable.set(j, 0, VariablesModel.INFINITE_TIME);
+							} else if (uncertainty == 0) {
+								timesLTable.set(j, 0, Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t)));
+								timesUTable.set(j, 0, Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t)));
+							} else {
+								//timesLTable.set(j, 0, Math.max(1, (int)Math.round(secStepFactor * t * (100.0 - uncertainty) / 100.0))); //we use Math.max because we do not want to put 0 as a time
+								//timesUTable.set(j, 0, Math.max(1, (int)Math.round(secStepFactor * t * (100.0 + uncertainty) / 100.0)));
+								timesLTable.set(j, 0, Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t * (1 - uncertainty / 100.0)))); //we use Math.max because we do not want to put 0 as a time
+								timesUTable.set(j, 0, Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t * (1 + uncertainty / 100.0))));
+							}
 						}
+						tables = new TimeTableCache.TimeTables<Table>(timesLTable, timesUTable, null, nLevels + 1);
+						timeTableCache.put(cacheKey, tables);
 					}
-					r.let(TIMES_L).be(timesLTable);
-					r.let(TIMES_U).be(timesUTable);
+					r.let(TIMES_L).be(tables.getLower());
+					r.let(TIMES_U).be(tables.getUpper());
 
 				} else {
 					r.let(REACTION_TYPE).be(BI_REACTION);
@@ -676,30 +864,37 @@ public class RunAction extends CytoscapeAction {
 								ReactantParameter par = new ReactantParameter(parVal);
 								userFormula.setLinkedVariable(linkedParameters[j], par);
 								influencingReactants.add(par);
+								dependsOn.add(par.getReactantIdentifier());
 							} else {
 								//checkParameters saves us
 							}
 						}
 						r.let(INFLUENCING_REACTANTS).be(influencingReactants);
 						
-						List<Double> timesList = (userFormula).generateTimes(dimensions);
-						List<Integer> timesL = new Vector<Integer>(timesList.size()),
-									  timesU = new Vector<Integer>(timesList.size());
-						for (Double t : timesList) {
-							if (Double.isInfinite(t)) {
-								timesL.add(VariablesModel.INFINITE_TIME);
-								timesU.add(VariablesModel.INFINITE_TIME);
-							} else if (uncertainty == 0) {
-								timesL.add(Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t)));
-								timesU.add(Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t)));
-							} else {
-								timesL.add(Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t * (1 - uncertainty / 100.0))));
-								timesU.add(Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t * (1 + uncertainty / 100.0))));
+						String cacheKey = TimeTableCache.key(USER_DEFINED_FORMULA, userFormula.getFormula(), userFormula.getVariables(), userFormula.getParameters(), userFormula.computeDimensions(), secStepFactor, levelsScaleFactor, uncertainty);
+						TimeTableCache.TimeTables<List<Integer>> tables = timeTableCache.get(cacheKey);
+						if (tables == null) {
+							double[] timesTable = userFormula.generateTimeTable(dimensions);
+							List<Integer> timesL = new Vector<Integer>(timesTable.length),
+										  timesU = new Vector<Integer>(timesTable.length);
+							for (double t : timesTable) {
+								if (Double.isInfinite(t)) {
+									timesL.add(VariablesModel.INFINITE_TIME);
+									timesU.add(VariablesModel.INFINITE_TIME);
+								} else if (uncertainty == 0) {
+									timesL.add(Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t)));
+									timesU.add(Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t)));
+								} else {
+									timesL.add(Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t * (1 - uncertainty / 100.0))));
+									timesU.add(Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t * (1 + uncertainty / 100.0))));
+								}
 							}
+							tables = new TimeTableCache.TimeTables<List<Integer>>(timesL, timesU, dimensions, timesTable.length);
+							timeTableCache.put(cacheKey, tables);
 						}
-						r.let(TIMES_L).be(timesL);
-						r.let(TIMES_U).be(timesU);
-						r.let(DIMENSIONS).be(dimensions);
+						r.let(TIMES_L).be(tables.getLower());
+						r.let(TIMES_U).be(tables.getUpper());
+						r.let(DIMENSIONS).be(tables.getDimensions());
 					} else {
 						r.let(USER_DEFINED_FORMULA).be(false);
 						
@@ -757,27 +952,33 @@ public class RunAction extends CytoscapeAction {
 						}
 						//Reactant catalicammello = model.getReactant(catalyst), rettile = model.getReactant(reactant);
 						//System.out.println("Inizio a generare i tempi per " + catalicammello.get(REACTANT_ALIAS).as(String.class) + " (" + catalicammello.get(NUMBER_OF_LEVELS).as(Integer.class) + " livelli) --> " + rettile.get(REACTANT_ALIAS).as(String.class) + " (" + rettile.get(NUMBER_OF_LEVELS).as(Integer.class) + " livelli)");
-						List<Double> times = scenario.generateTimes(nLevelsR1, nLevelsR2, activatingReaction);
-						//System.out.println("Finito di generare i tempi per " + catalicammello.get(REACTANT_ALIAS).as(String.class) + " (" + catalicammello.get(NUMBER_OF_LEVELS).as(Integer.class) + " livelli) --> " + rettile.get(REACTANT_ALIAS).as(String.class) + " (" + rettile.get(NUMBER_OF_LEVELS).as(Integer.class) + " livelli): sono " + times.size() + " valori.");
-						Table timesLTable = new Table(nLevelsR2, nLevelsR1);
-						Table timesUTable = new Table(nLevelsR2, nLevelsR1);
+						String cacheKey = TimeTableCache.key(BI_REACTION, scenario.getClass().getName(), scenario, scenario.getParameters(), nLevelsR1, nLevelsR2, activatingReaction, secStepFactor, levelsScaleFactor, uncertainty);
+						TimeTableCache.TimeTables<Table> tables = timeTableCache.get(cacheKey);
+						if (tables == null) {
+							List<Double> times = scenario.generateTimes(nLevelsR1, nLevelsR2, activatingReaction);
+							//System.out.println("Finito di generare i tempi per " + catalicammello.get(REACTANT_ALIAS).as(String.class) + " (" + catalicammello.get(NUMBER_OF_LEVELS).as(Integer.class) + " livelli) --> " + rettile.get(REACTANT_ALIAS).as(String.class) + " (" + rettile.get(NUMBER_OF_LEVELS).as(Integer.class) + " livelli): sono " + times.size() + " valori.");
+							Table timesLTable = new Table(nLevelsR2, nLevelsR1);
+							Table timesUTable = new Table(nLevelsR2, nLevelsR1);
 						
-						for (int j = 0; j < nLevelsR2; j++) {
-							for (int k = 0; k < nLevelsR1; k++) {
-								Double t = times.get(j * nLevelsR1 + k);
-								if (Double.isInfinite(t)) {
-									timesLTable.set(j, k, VariablesModel.INFINITE_TIME);
-									timesUTable.set(j, k, VariablesModel.INFINITE_TIME);
-								} else if (uncertainty == 0) {
-									timesLTable.set(j, k, Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t)));
-									timesUTable.set(j, k, Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t)));
-								} else {
-									timesLTable.set(j, k, Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t * (1 - uncertainty / 100.0))));
-									timesUTable.set(j, k, Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t * (1 + uncertainty / 100.0))));
+							for (int j = 0; j < nLevelsR2; j++) {
+								for (int k = 0; k < nLevelsR1; k++) {
+									Double t = times.get(j * nLevelsR1 + k);
+									if (Double.isInfinite(t)) {
+										timesLTable.set(j, k, VariablesModel.INFINITE_TIME);
+										timesUTable.set(j, k, VariablesModel.INFINITE_TIME);
+									} else if (uncertainty == 0) {
+										timesLTable.set(j, k, Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t)));
+										timesUTable.set(j, k, Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t)));
+									} else {
+										timesLTable.set(j, k, Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t * (1 - uncertainty / 100.0))));
+										timesUTable.set(j, k, Math.max(1, (int)Math.round(secStepFactor * levelsScaleFactor * t * (1 + uncertainty / 100.0))));
+									}
 								}
 							}
+							//System.out.println("\nRiempite anche le tabelle per " + catalicammello.get(REACTANT_ALIAS).as(String.class) + " (" + catalicammello.get(NUMBER_OF_LEVELS).as(Integer.class) + " livelli) --> " + rettile.get(REACTANT_ALIAS).as(String.class) + " (" + rettile.get(NUMBER_OF_LEVELS).as(Integer.class) + " livelli).");
+							tables = new TimeTableCache.TimeTables<Table>(timesLTable, timesUTable, null, nLevelsR1 * nLevelsR2);
+							timeTableCache.put(cacheKey, tables);
 						}
-						//System.out.println("\nRiempite anche le tabelle per " + catalicammello.get(REACTANT_ALIAS).as(String.class) + " (" + catalicammello.get(NUMBER_OF_LEVELS).as(Integer.class) + " livelli) --> " + rettile.get(REACTANT_ALIAS).as(String.class) + " (" + rettile.get(NUMBER_OF_LEVELS).as(Integer.class) + " livelli).");
 						/*List<Double> times = scenario.generateTimes(1 + nLevelsR1, 1 + nLevelsR2, activatingReaction);
 						Table timesLTable = new Table(nLevelsR2 + 1, nLevelsR1 + 1);
 						Table timesUTable = new Table(nLevelsR2 + 1, nLevelsR1 + 1);
@@ -797,19 +998,20 @@ public class RunAction extends CytoscapeAction {
 								}
 							}
 						}*/
-						r.let(TIMES_L).be(timesLTable);
-						r.let(TIMES_U).be(timesUTable);
+						r.let(TIMES_L).be(tables.getLower());
+						r.let(TIMES_U).be(tables.getUpper());
 					}
 				}
 
+				mirror.putReaction(edge.getIdentifier(), new Reaction(reactionId, r), dependsOn, mirrorCount);
 				model.add(r);
 			}
 			
 			/*look for reactants which influence no reaction and set their growth factor to something large*/
+			timer.start("finishing");
 			for (Reaction r : model.getReactions()) {
 				List<ReactantParameter> influencingParameters = r.get(INFLUENCING_REACTANTS).as(List.class);
 				for (ReactantParameter p : influencingParameters) {
-					System.err.println("r id = " + p.getReactantIdentifier() + " --> " + nodeNameToId.get(p.getReactantIdentifier()));
 					model.getReactant(nodeNameToId.get(p.getReactantIdentifier())).let(INFLUENCING_NO_REACTION).be(false);
 				}
 			}
@@ -848,7 +1050,8 @@ public class RunAction extends CytoscapeAction {
 				}
 			}*/
 			
-			System.err.println("\tModel generation took " + timeDifferenceFormat(startTime, System.currentTimeMillis()));
+			timer.stop();
+			System.err.println("\tModel generation took " + timeDifferenceFormat(startTime, System.currentTimeMillis()) + " (" + timer + "; reactants and reactions: " + mirror.getStatistics() + "; time tables: " + timeTableCache.getStatistics() + ")");
 			
 			return model;
 		}
@@ -0,0 +1,19 @@
+package animo.exceptions;
+
+/**
+ * This exception is thrown by the analysis server when it has too many jobs
+ * waiting to accept a new one. The client may try again later.
+ */
+public class ServerBusyException extends ANIMOException {
+
+	private static final long serialVersionUID = -2609870366421758305L;
+
+	/**
+	 * Constructor with detail message.
+	 * 
+	 * @param message the detail message
+	 */
+	public ServerBusyException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,514 @@
+package animo.model;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A user-defined formula translated into a tree of Java objects, so that it can be evaluated
+ * millions of times (once for each cell of a time table) without going through the JavaScript engine.
+ * Only the subset of JavaScript used to write rate formulae is understood: numbers, the variables of the
+ * formula, the arithmetic, comparison and logical operators, the conditional operator (a ? b : c),
+ * parentheses and the constants and functions of the Math object. Everything else (e.g. function
+ * definitions or more than one statement) makes compile throw a ParseException: in that case, the
+ * formula needs to be evaluated with the JavaScript engine as before.
+ * The results follow the JavaScript rules for numbers (all values are doubles, true is 1 and false is 0).
+ */
+public class CompiledFormula {
+	private Node root;
+	private int nVariables;
+
+	private CompiledFormula(Node root, int nVariables) {
+		this.root = root;
+		this.nVariables = nVariables;
+	}
+
+	/**
+	 * Translate the given formula.
+	 * @param formula The JavaScript expression
+	 * @param variableNames The names of the variables that can be used in the formula. When evaluating, their
+	 * values are given in the same order
+	 * @return The compiled formula
+	 * @throws ParseException If the formula uses something we don't understand
+	 */
+	public static CompiledFormula compile(String formula, String[] variableNames) throws ParseException {
+		Parser parser = new Parser(formula, variableNames);
+		return new CompiledFormula(parser.parse(), variableNames.length);
+	}
+
+	/**
+	 * @param values The values of the variables, in the order given to compile
+	 * @return The value of the formula
+	 */
+	public double evaluate(double[] values) {
+		if (values.length < nVariables) {
+			throw new IllegalArgumentException("The formula needs " + nVariables + " variables, but only " + values.length + " were given");
+		}
+		return root.evaluate(values);
+	}
+
+	/**
+	 * A number is "true" when it is neither 0 nor NaN (as in JavaScript).
+	 */
+	private static boolean isTrue(double value) {
+		return value != 0 && !Double.isNaN(value);
+	}
+
+	private static double bool(boolean b) {
+		return b ? 1 : 0;
+	}
+
+
+	private static abstract class Node {
+		abstract double evaluate(double[] v);
+
+		boolean isConstant() {
+			return false;
+		}
+	}
+
+	private static class Constant extends Node {
+		private double value;
+
+		Constant(double value) {
+			this.value = value;
+		}
+
+		@Override
+		double evaluate(double[] v) {
+			return value;
+		}
+
+		@Override
+		boolean isConstant() {
+			return true;
+		}
+	}
+
+	private static class Variable extends Node {
+		private int index;
+
+		Variable(int index) {
+			this.index = index;
+		}
+
+		@Override
+		double evaluate(double[] v) {
+			return v[index];
+		}
+	}
+
+	private static class Unary extends Node {
+		static final int NEGATE = 0, NOT = 1, PLUS = 2;
+		private int op;
+		private Node a;
+
+		Unary(int op, Node a) {
+			this.op = op;
+			this.a = a;
+		}
+
+		@Override
+		double evaluate(double[] v) {
+			double x = a.evaluate(v);
+			switch (op) {
+				case NEGATE: return -x;
+				case NOT: return bool(!isTrue(x));
+				default: return x;
+			}
+		}
+	}
+
+	private static class Binary extends Node {
+		static final int ADD = 0, SUBTRACT = 1, MULTIPLY = 2, DIVIDE = 3, MODULO = 4,
+						 LESS = 5, LESS_EQUAL = 6, GREATER = 7, GREATER_EQUAL = 8, EQUAL = 9, NOT_EQUAL = 10;
+		private int op;
+		private Node a, b;
+
+		Binary(int op, Node a, Node b) {
+			this.op = op;
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		double evaluate(double[] v) {
+			double x = a.evaluate(v), y = b.evaluate(v);
+			switch (op) {
+				case ADD: return x + y;
+				case SUBTRACT: return x - y;
+				case MULTIPLY: return x * y;
+				case DIVIDE: return x / y;
+				case MODULO: return x % y;
+				case LESS: return bool(x < y);
+				case LESS_EQUAL: return bool(x <= y);
+				case GREATER: return bool(x > y);
+				case GREATER_EQUAL: return bool(x >= y);
+				case EQUAL: return bool(x == y);
+				default: return bool(x != y);
+			}
+		}
+	}
+
+	/**
+	 * && and || evaluate their second operand only when needed, and return one of the two operands.
+	 */
+	private static class Logical extends Node {
+		private boolean and;
+		private Node a, b;
+
+		Logical(boolean and, Node a, Node b) {
+			this.and = and;
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		double evaluate(double[] v) {
+			double x = a.evaluate(v);
+			if (isTrue(x) == and) {
+				return b.evaluate(v);
+			}
+			return x;
+		}
+	}
+
+	private static class Conditional extends Node {
+		private Node condition, a, b;
+
+		Conditional(Node condition, Node a, Node b) {
+			this.condition = condition;
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		double evaluate(double[] v) {
+			return isTrue(condition.evaluate(v)) ? a.evaluate(v) : b.evaluate(v);
+		}
+	}
+
+	private static class Function extends Node {
+		private static final String[] NAMES = {"abs", "acos", "asin", "atan", "ceil", "cos", "exp", "floor", "log", "round", "sin", "sqrt", "tan", //1 argument
+											   "atan2", "pow", //2 arguments
+											   "max", "min"}; //any number of arguments
+		private static final int ROUND = 9, ATAN2 = 13, POW = 14, MAX = 15, MIN = 16;
+		private int f;
+		private Node[] args;
+
+		Function(int f, Node[] args) {
+			this.f = f;
+			this.args = args;
+		}
+
+		static int find(String name) {
+			for (int i=0;i<NAMES.length;i++) {
+				if (NAMES[i].equals(name)) return i;
+			}
+			return -1;
+		}
+
+		static boolean acceptsArguments(int f, int n) {
+			if (f < ATAN2) return n == 1;
+			if (f < MAX) return n == 2;
+			return true;
+		}
+
+		@Override
+		double evaluate(double[] v) {
+			if (f >= MAX) {
+				double result = (f == MAX) ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+				for (Node a : args) {
+					double x = a.evaluate(v);
+					result = (f == MAX) ? Math.max(result, x) : Math.min(result, x);
+				}
+				return result;
+			}
+			double x = args[0].evaluate(v);
+			switch (f) {
+				case 0: return Math.abs(x);
+				case 1: return Math.acos(x);
+				case 2: return Math.asin(x);
+				case 3: return Math.atan(x);
+				case 4: return Math.ceil(x);
+				case 5: return Math.cos(x);
+				case 6: return Math.exp(x);
+				case 7: return Math.floor(x);
+				case 8: return Math.log(x);
+				case ROUND: return Math.floor(x + 0.5); //JavaScript rounds .5 towards +Infinity
+				case 10: return Math.sin(x);
+				case 11: return Math.sqrt(x);
+				case 12: return Math.tan(x);
+				case ATAN2: return Math.atan2(x, args[1].evaluate(v));
+				default: return Math.pow(x, args[1].evaluate(v));
+			}
+		}
+	}
+
+
+	/**
+	 * A recursive descent parser, with the precedence rules of JavaScript.
+	 */
+	private static class Parser {
+		private String s;
+		private String[] variableNames;
+		private int pos = 0;
+
+		Parser(String s, String[] variableNames) {
+			this.s = s;
+			this.variableNames = variableNames;
+		}
+
+		Node parse() throws ParseException {
+			Node result = conditional();
+			skipSpaces();
+			if (pos < s.length() && s.charAt(pos) == ';') { //a single statement may end with a semicolon
+				pos++;
+				skipSpaces();
+			}
+			if (pos < s.length()) {
+				throw error("Unexpected \"" + s.charAt(pos) + "\"");
+			}
+			return result;
+		}
+
+		private ParseException error(String message) {
+			return new ParseException(message + " at position " + pos + " of formula \"" + s + "\"", pos);
+		}
+
+		private void skipSpaces() {
+			while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		/**
+		 * If the next token is the given operator (and not the beginning of a longer one), consume it.
+		 */
+		private boolean accept(String op, String... notFollowedBy) {
+			skipSpaces();
+			if (!s.startsWith(op, pos)) return false;
+			for (String longer : notFollowedBy) {
+				if (s.startsWith(longer, pos)) return false;
+			}
+			pos += op.length();
+			return true;
+		}
+
+		/**
+		 * Build the node, computing it already if it does not depend on the variables.
+		 */
+		private static Node fold(Node n, Node... children) {
+			for (Node c : children) {
+				if (!c.isConstant()) return n;
+			}
+			return new Constant(n.evaluate(new double[0]));
+		}
+
+		private Node conditional() throws ParseException {
+			Node condition = or();
+			if (accept("?")) {
+				Node a = conditional();
+				if (!accept(":")) throw error("Expected \":\"");
+				Node b = conditional();
+				return fold(new Conditional(condition, a, b), condition, a, b);
+			}
+			return condition;
+		}
+
+		private Node or() throws ParseException {
+			Node a = and();
+			while (accept("||")) {
+				Node b = and();
+				a = fold(new Logical(false, a, b), a, b);
+			}
+			return a;
+		}
+
+		private Node and() throws ParseException {
+			Node a = equality();
+			while (accept("&&")) {
+				Node b = equality();
+				a = fold(new Logical(true, a, b), a, b);
+			}
+			return a;
+		}
+
+		private Node equality() throws ParseException {
+			Node a = relational();
+			while (true) {
+				int op;
+				if (accept("===") || accept("==")) {
+					op = Binary.EQUAL;
+				} else if (accept("!==") || accept("!=")) {
+					op = Binary.NOT_EQUAL;
+				} else {
+					return a;
+				}
+				Node b = relational();
+				a = fold(new Binary(op, a, b), a, b);
+			}
+		}
+
+		private Node relational() throws ParseException {
+			Node a = additive();
+			while (true) {
+				int op;
+				if (accept("<=")) {
+					op = Binary.LESS_EQUAL;
+				} else if (accept(">=")) {
+					op = Binary.GREATER_EQUAL;
+				} else if (accept("<", "<<")) {
+					op = Binary.LESS;
+				} else if (accept(">", ">>")) {
+					op = Binary.GREATER;
+				} else {
+					return a;
+				}
+				Node b = additive();
+				a = fold(new Binary(op, a, b), a, b);
+			}
+		}
+
+		private Node additive() throws ParseException {
+			Node a = multiplicative();
+			while (true) {
+				int op;
+				if (accept("+", "++", "+=")) {
+					op = Binary.ADD;
+				} else if (accept("-", "--", "-=")) {
+					op = Binary.SUBTRACT;
+				} else {
+					return a;
+				}
+				Node b = multiplicative();
+				a = fold(new Binary(op, a, b), a, b);
+			}
+		}
+
+		private Node multiplicative() throws ParseException {
+			Node a = unary();
+			while (true) {
+				int op;
+				if (accept("*", "**", "*=")) {
+					op = Binary.MULTIPLY;
+				} else if (accept("/", "/=", "//", "/*")) {
+					op = Binary.DIVIDE;
+				} else if (accept("%", "%=")) {
+					op = Binary.MODULO;
+				} else {
+					return a;
+				}
+				Node b = unary();
+				a = fold(new Binary(op, a, b), a, b);
+			}
+		}
+
+		private Node unary() throws ParseException {
+			int op;
+			if (accept("-", "--")) {
+				op = Unary.NEGATE;
+			} else if (accept("+", "++")) {
+				op = Unary.PLUS;
+			} else if (accept("!", "!=")) {
+				op = Unary.NOT;
+			} else {
+				return primary();
+			}
+			Node a = unary();
+			return fold(new Unary(op, a), a);
+		}
+
+		private Node primary() throws ParseException {
+			skipSpaces();
+			if (pos >= s.length()) throw error("Unexpected end");
+			char c = s.charAt(pos);
+			if (c == '(') {
+				pos++;
+				Node result = conditional();
+				if (!accept(")")) throw error("Expected \")\"");
+				return result;
+			}
+			if (Character.isDigit(c) || c == '.') {
+				return number();
+			}
+			if (Character.isJavaIdentifierStart(c)) {
+				String name = identifier();
+				if (name.equals("Math")) {
+					if (!accept(".")) throw error("Expected \".\"");
+					skipSpaces();
+					return math(identifier());
+				}
+				if (name.equals("true")) return new Constant(1);
+				if (name.equals("false")) return new Constant(0);
+				for (int i=0;i<variableNames.length;i++) {
+					if (variableNames[i].equals(name)) {
+						if (accept("(") || accept("[") || accept(".")) throw error("Unsupported use of variable " + name);
+						return new Variable(i);
+					}
+				}
+				throw error("Unknown name " + name);
+			}
+			throw error("Unexpected \"" + c + "\"");
+		}
+
+		private String identifier() throws ParseException {
+			int start = pos;
+			if (pos >= s.length() || !Character.isJavaIdentifierStart(s.charAt(pos))) throw error("Expected a name");
+			while (pos < s.length() && Character.isJavaIdentifierPart(s.charAt(pos))) {
+				pos++;
+			}
+			return s.substring(start, pos);
+		}
+
+		private Node number() throws ParseException {
+			int start = pos;
+			while (pos < s.length() && Character.isDigit(s.charAt(pos))) pos++;
+			if (pos < s.length() && s.charAt(pos) == '.') {
+				pos++;
+				while (pos < s.length() && Character.isDigit(s.charAt(pos))) pos++;
+			}
+			if (pos < s.length() && (s.charAt(pos) == 'e' || s.charAt(pos) == 'E')) {
+				pos++;
+				if (pos < s.length() && (s.charAt(pos) == '+' || s.charAt(pos) == '-')) pos++;
+				while (pos < s.length() && Character.isDigit(s.charAt(pos))) pos++;
+			}
+			if (pos < s.length() && Character.isJavaIdentifierPart(s.charAt(pos))) { //hexadecimal numbers, or something else we don't know
+				throw error("Unsupported number");
+			}
+			String text = s.substring(start, pos);
+			if (text.length() > 1 && text.charAt(0) == '0' && Character.isDigit(text.charAt(1))) { //could be octal in JavaScript
+				throw error("Unsupported number " + text);
+			}
+			try {
+				return new Constant(Double.parseDouble(text));
+			} catch (NumberFormatException ex) {
+				throw error("Invalid number " + text);
+			}
+		}
+
+		private Node math(String name) throws ParseException {
+			if (name.equals("PI")) return new Constant(Math.PI);
+			if (name.equals("E")) return new Constant(Math.E);
+			if (name.equals("LN2")) return new Constant(Math.log(2));
+			if (name.equals("LN10")) return new Constant(Math.log(10));
+			if (name.equals("LOG2E")) return new Constant(1 / Math.log(2));
+			if (name.equals("LOG10E")) return new Constant(1 / Math.log(10));
+			if (name.equals("SQRT2")) return new Constant(Math.sqrt(2));
+			if (name.equals("SQRT1_2")) return new Constant(Math.sqrt(0.5));
+			int f = Function.find(name);
+			if (f < 0) throw error("Unsupported function Math." + name);
+			if (!accept("(")) throw error("Expected \"(\"");
+			List<Node> args = new ArrayList<Node>();
+			if (!accept(")")) {
+				do {
+					args.add(conditional());
+				} while (accept(","));
+				if (!accept(")")) throw error("Expected \")\"");
+			}
+			if (!Function.acceptsArguments(f, args.size())) throw error("Wrong number of arguments for Math." + name);
+			Node[] argsArray = args.toArray(new Node[args.size()]);
+			return fold(new Function(f, argsArray), argsArray);
+		}
+	}
+}
@@ -37,6 +37,17 @@ public abstract class Entity implements Serializable {
 		this.properties = new PropertyBag();
 	}
 
+	/**
+	 * Constructor copying the properties of another entity (not its model).
+	 * 
+	 * @param id the identifier of this entity
+	 * @param source the entity whose properties are copied
+	 */
+	protected Entity(String id, Entity source) {
+		this.id = id;
+		this.properties = new PropertyBag(source.properties);
+	}
+
 	/**
 	 * Sets the owning model of this species.
 	 * 
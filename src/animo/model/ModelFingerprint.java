@@ -0,0 +1,150 @@
+package animo.model;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import animo.util.Table;
+
+/**
+ * Computes a fingerprint of a model: a hash of its content (properties of the model, of its reactants
+ * and of its reactions, including the time tables) that does not depend on the order in which things
+ * were added to the model. Two models with the same fingerprint give the same analysis results, so
+ * the fingerprint can be used to index the results of analyses (see animo.network.ResultCache).
+ */
+public class ModelFingerprint {
+	private MessageDigest digest;
+	private DataOutputStream out;
+
+	private ModelFingerprint() {
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-1 not available", ex); //Every Java platform is required to have it
+		}
+		out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}, digest));
+	}
+
+	/**
+	 * @param m The model
+	 * @param parameters The parameters of the analysis (e.g. the time up to which we simulate, the number of runs):
+	 * they are part of the fingerprint
+	 * @return The fingerprint, as a string of hexadecimal digits
+	 */
+	public static String of(Model m, Object... parameters) {
+		ModelFingerprint f = new ModelFingerprint();
+		try {
+			f.write(m.getProperties());
+			f.writeEntities(m.getReactants());
+			f.writeEntities(m.getReactions());
+			for (Object p : parameters) {
+				f.write(p);
+			}
+			f.out.flush();
+		} catch (IOException ex) {
+			throw new IllegalStateException(ex); //We don't write anywhere, so this does not happen
+		}
+		StringBuilder b = new StringBuilder();
+		for (byte x : f.digest.digest()) {
+			b.append(Character.forDigit((x >> 4) & 0xF, 16)).append(Character.forDigit(x & 0xF, 16));
+		}
+		return b.toString();
+	}
+
+	private void writeEntities(Collection<? extends Entity> entities) throws IOException {
+		TreeMap<String, Entity> sorted = new TreeMap<String, Entity>();
+		for (Entity e : entities) {
+			sorted.put(e.getId(), e);
+		}
+		out.writeInt(sorted.size());
+		for (Entity e : sorted.values()) {
+			writeString(e.getId());
+			write(e.getProperties());
+		}
+	}
+
+	private void write(PropertyBag properties) throws IOException {
+		List<Property> sorted = new ArrayList<Property>();
+		for (Property p : properties) {
+			sorted.add(p);
+		}
+		Collections.sort(sorted, new Comparator<Property>() {
+			@Override
+			public int compare(Property p1, Property p2) {
+				return p1.getName().compareTo(p2.getName());
+			}
+		});
+		out.writeInt(sorted.size());
+		for (Property p : sorted) {
+			writeString(p.getName());
+			write(p.isNull() ? null : p.as(Object.class));
+		}
+	}
+
+	/**
+	 * Write a value, preceded by its type so that e.g. 1 and "1" are different.
+	 */
+	private void write(Object value) throws IOException {
+		if (value == null) {
+			out.writeByte('N');
+		} else if (value instanceof Table) {
+			Table t = (Table)value;
+			out.writeByte('T');
+			out.writeInt(t.getColumnCount());
+			out.writeInt(t.getRowCount());
+			for (int c = 0; c < t.getColumnCount(); c++) {
+				for (int v : t.getColumn(c)) {
+					out.writeInt(v);
+				}
+			}
+		} else if (value instanceof Collection<?>) {
+			Collection<?> c = (Collection<?>)value;
+			out.writeByte('L');
+			out.writeInt(c.size());
+			for (Object o : c) {
+				write(o);
+			}
+		} else if (value instanceof Map<?, ?>) {
+			Map<?, ?> map = (Map<?, ?>)value;
+			TreeMap<String, Object> sorted = new TreeMap<String, Object>();
+			for (Map.Entry<?, ?> e : map.entrySet()) {
+				sorted.put(String.valueOf(e.getKey()), e.getValue());
+			}
+			out.writeByte('M');
+			out.writeInt(sorted.size());
+			for (Map.Entry<String, Object> e : sorted.entrySet()) {
+				writeString(e.getKey());
+				write(e.getValue());
+			}
+		} else if (value instanceof Integer) {
+			out.writeByte('I');
+			out.writeInt((Integer)value);
+		} else if (value instanceof Double || value instanceof Float) {
+			out.writeByte('D');
+			out.writeDouble(((Number)value).doubleValue());
+		} else {
+			out.writeByte('S');
+			writeString(value.getClass().getName());
+			writeString(value.toString());
+		}
+	}
+
+	private void writeString(String s) throws IOException {
+		out.writeInt(s.length());
+		out.writeChars(s);
+	}
+}
@@ -27,6 +27,18 @@ public class PropertyBag implements Iterable<Property>, Serializable {
 		this.properties = new HashMap<String, Property>();
 	}
 
+	/**
+	 * Copy constructor. The properties are copied, their values are shared.
+	 * 
+	 * @param other the bag to copy
+	 */
+	public PropertyBag(PropertyBag other) {
+		this.properties = new HashMap<String, Property>(other.properties.size() * 2);
+		for (Property p : other.properties.values()) {
+			this.properties.put(p.getName(), new Property(p));
+		}
+	}
+
 	/**
 	 * Gets a named property from the bag. If the property did not exist it is
 	 * created.
@@ -22,6 +22,16 @@ public class Reactant extends Entity implements Serializable {
 		super(id);
 	}
 
+	/**
+	 * Builds a copy of the given reactant with a different identifier.
+	 * 
+	 * @param id the identifier of the new reactant
+	 * @param source the reactant whose properties are copied
+	 */
+	public Reactant(String id, Reactant source) {
+		super(id, source);
+	}
+
 	@Override
 	public String toString() {
 		return "Reactant '" + this.getId() + "'";
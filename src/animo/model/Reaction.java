@@ -22,6 +22,16 @@ public class Reaction extends Entity implements Serializable {
 		super(id);
 	}
 
+	/**
+	 * Builds a copy of the given reaction with a different identifier.
+	 * 
+	 * @param id the identifier of the new reaction
+	 * @param source the reaction whose properties are copied
+	 */
+	public Reaction(String id, Reaction source) {
+		super(id, source);
+	}
+
 	@Override
 	public String toString() {
 		return "Reaction '" + this.getId() + "'";
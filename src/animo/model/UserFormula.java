@@ -1,5 +1,6 @@
 package animo.model;
 
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
@@ -25,6 +26,9 @@ public class UserFormula extends Scenario {
 	private String name,
 				   javaScriptFormula = null;
 	private Vector<FormulaVariable> variables = null;
+	private CompiledFormula compiledFormula = null; //The formula translated into Java, built when first needed
+	private boolean compilationFailed = false; //True if the formula can only be evaluated by the JavaScript engine
+	private ScriptEngine scriptEngine = null; //The JavaScript engine, created only when the formula cannot be compiled
 	
 	public UserFormula() {
 		this.name = "(Formula name)";
@@ -154,9 +158,154 @@ public class UserFormula extends Scenario {
 		}
 	}
 	
+	/**
+	 * Compute all the values of the time table of this formula. The table is linearized, with
+	 * the last linked variable changing fastest. Each value is 1/rate, or Double.POSITIVE_INFINITY when the
+	 * rate is (almost) 0. If the formula can be compiled, the table is filled directly in Java; otherwise
+	 * we use the JavaScript engine.
+	 * @param dimensions The list to which the number of values of each linked variable of the formula is added
+	 * @return The times, one for each combination of the values of the linked variables
+	 * @throws ANIMOException
+	 */
+	public double[] generateTimeTable(List<Integer> dimensions) throws ANIMOException {
+		CompiledFormula compiled = getCompiledFormula();
+		if (compiled == null) {
+			List<Double> times = generateTimesWithScript(dimensions);
+			double[] result = new double[times.size()];
+			for (int i=0;i<result.length;i++) {
+				result[i] = times.get(i);
+			}
+			return result;
+		}
+		int nSpaces = 1;
+		CyAttributes nodeAttr = Cytoscape.getNodeAttributes();
+		double[] values = new double[variables.size()];
+		List<Integer> linkedIndices = new ArrayList<Integer>();
+		for (int i=0;i<variables.size();i++) {
+			FormulaVariable v = variables.get(i);
+			if (v.isParameter()) {
+				Double value = parameters.get(v.getName());
+				values[i] = (value == null) ? 0 : value; //an undefined parameter is null in JavaScript, i.e. 0 in a computation
+			} else {
+				int size = linkedVariableSize(v, nodeAttr);
+				nSpaces = nSpaces * size;
+				dimensions.add(size);
+				linkedIndices.add(i);
+			}
+		}
+		int nLinked = linkedIndices.size();
+		int[] counters = new int[nLinked], //The current value of each linked variable
+			  sizes = new int[nLinked],
+			  indices = new int[nLinked];
+		for (int j=0;j<nLinked;j++) {
+			sizes[j] = dimensions.get(dimensions.size() - nLinked + j);
+			indices[j] = linkedIndices.get(j);
+		}
+		double[] times = new double[nSpaces];
+		for (int k=0;k<nSpaces;k++) {
+			double rate = compiled.evaluate(values);
+			if (rate < 1.0E-8) {
+				times[k] = Double.POSITIVE_INFINITY;
+			} else {
+				times[k] = 1.0 / rate;
+			}
+			for (int j=nLinked-1;j>=0;j--) { //Go to the next cell: same order as the nested loops in the JavaScript version
+				if (++counters[j] < sizes[j]) {
+					values[indices[j]] = counters[j];
+					break;
+				}
+				counters[j] = 0;
+				values[indices[j]] = 0;
+			}
+		}
+		return times;
+	}
+	
+	/**
+	 * Same as generateTimeTable, with the result as a List.
+	 */
+	public List<Double> generateTimes(List<Integer> dimensions) throws ANIMOException {
+		double[] table = generateTimeTable(dimensions);
+		List<Double> allTimes = new Vector<Double>(table.length);
+		for (double t : table) {
+			allTimes.add(t);
+		}
+		return allTimes;
+	}
+	
+	/**
+	 * The dimensions of the time table of this formula: the number of values of each linked variable.
+	 * @return The list of dimensions, in the same order used by generateTimeTable
+	 * @throws ANIMOException
+	 */
+	public List<Integer> computeDimensions() throws ANIMOException {
+		CyAttributes nodeAttr = Cytoscape.getNodeAttributes();
+		List<Integer> dimensions = new Vector<Integer>();
+		for (FormulaVariable v : variables) {
+			if (!v.isParameter()) {
+				dimensions.add(linkedVariableSize(v, nodeAttr));
+			}
+		}
+		return dimensions;
+	}
+	
+	/**
+	 * The number of values that the given linked variable can assume: the values of all
+	 * properties we consider (quantity, activity, inactivity) range from 0 to maximum growth * granularity.
+	 */
+	private int linkedVariableSize(FormulaVariable v, CyAttributes nodeAttr) throws ANIMOException {
+		ReactantParameter r = v.getLinkedValue();
+		if (r == null) {
+			throw new ANIMOException("In user-defined formula \"" + getName() + "\", the value linked to the variable \"" + v.getName() + "\" is invalid (null).");
+		}
+		String property = r.getPropertyName();
+		if (property.equals(Model.Properties.QUANTITY)
+			|| property.equals(Model.Properties.ACTIVITY_LEVEL)
+			|| property.equals(Model.Properties.INACTIVITY_LEVEL)) {
+			
+			//if the quantity of this parameter is not influenced by anybody, the number of values does not need the * 10
+			int maximumGrowthFactor = 1;
+			if (nodeAttr.hasAttribute(r.getReactantIdentifier(), Model.Properties.MAXIMUM_QUANTITY_GROWTH)) {
+				maximumGrowthFactor = nodeAttr.getIntegerAttribute(r.getReactantIdentifier(), Model.Properties.MAXIMUM_QUANTITY_GROWTH);
+			}
+			return 1 + maximumGrowthFactor * nodeAttr.getIntegerAttribute(r.getReactantIdentifier(), Model.Properties.NUMBER_OF_LEVELS);
+		} else {
+			//NOTE: Here we should never pass!
+			throw new ANIMOException("The parameter " + v.getName() + " is used with its property " + property + ", which was not considered!");
+		}
+	}
+	
+	/**
+	 * The formula translated into Java, with the variables in the same order as in the variables list.
+	 * @return The compiled formula, or null if the formula can only be evaluated by the JavaScript engine
+	 */
+	private CompiledFormula getCompiledFormula() {
+		if (compiledFormula == null && !compilationFailed) {
+			String[] names = new String[variables.size()];
+			for (int i=0;i<names.length;i++) {
+				names[i] = variables.get(i).getName();
+			}
+			try {
+				compiledFormula = CompiledFormula.compile(javaScriptFormula, names);
+			} catch (ParseException ex) {
+				System.err.println("The formula \"" + getName() + "\" will be evaluated by the JavaScript engine: " + ex.getMessage());
+				compilationFailed = true;
+			}
+		}
+		return compiledFormula;
+	}
+	
+	private ScriptEngine getScriptEngine() {
+		if (scriptEngine == null) {
+			scriptEngine = new ScriptEngineManager().getEngineByName("JavaScript");
+		}
+		return scriptEngine;
+	}
+	
 	/**
 	 * Prepare a JavaScript script which includes the user-input formula, and which we use
 	 * to compute all the values of a time table. The resulting table is returned as a List.
+	 * Used when the formula cannot be compiled (see generateTimeTable).
 	 * @param dimensions The number of elements for each variable parameter of the formula
 	 * @return The list of times computed with the JavaScript engine
 	 * @throws ANIMOException
@@ -168,12 +317,11 @@ public class UserFormula extends Scenario {
 	//Still, if you have a JavaScript interpreter that compiles just-in-time, this version
 	//should definitely go faster (we are anyway speaking about 1-2 seconds in total for
 	//model generation in both cases).
-	public List<Double> generateTimes(List<Integer> dimensions) throws ANIMOException {
+	private List<Double> generateTimesWithScript(List<Integer> dimensions) throws ANIMOException {
 		int nSpaces = 1, nVariables = 0;
 		CyAttributes nodeAttr = Cytoscape.getNodeAttributes();
 		List<FormulaVariable> inputReactantsList = new Vector<FormulaVariable>();
-		ScriptEngineManager factory = new ScriptEngineManager();
-		ScriptEngine engine = factory.getEngineByName("JavaScript");
+		ScriptEngine engine = getScriptEngine();
 		Bindings variableValues = engine.createBindings();
 		StringBuilder formula = new StringBuilder(),
 					  allParametersNamesBuilder = new StringBuilder("");
@@ -260,8 +408,7 @@ public class UserFormula extends Scenario {
 		int nSpaces = 1, nVariables = 0;
 		CyAttributes nodeAttr = Cytoscape.getNodeAttributes();
 		List<FormulaVariable> inputReactantsList = new Vector<FormulaVariable>();
-		ScriptEngineManager factory = new ScriptEngineManager();
-		ScriptEngine engine = factory.getEngineByName("JavaScript");
+		ScriptEngine engine = getScriptEngine();
 		Bindings variableValues = engine.createBindings();
 		for (FormulaVariable v : variables) {
 			if (!v.isParameter()) {
@@ -326,24 +473,45 @@ public class UserFormula extends Scenario {
 	
 	@Override
 	public double computeRate(int r1Level, int nLevelsR1, int r2Level, int nLevelsR2, boolean activatingReaction) throws ANIMOException {
-		ScriptEngineManager factory = new ScriptEngineManager();
-		ScriptEngine engine = factory.getEngineByName("JavaScript");
-		Bindings bindi = engine.createBindings();
-		for (FormulaVariable v : variables) {
+		CompiledFormula compiled = getCompiledFormula();
+		double[] values = new double[variables.size()];
+		boolean allKnown = true;
+		ScriptEngine engine = null;
+		Bindings bindi = null;
+		if (compiled == null) {
+			engine = getScriptEngine();
+			bindi = engine.createBindings();
+		}
+		for (int i=0;i<variables.size();i++) {
+			FormulaVariable v = variables.get(i);
+			Number value = null;
 			if (v.isParameter()) {
-				bindi.put(v.getName(), parameters.get(v.getName()));
+				value = parameters.get(v.getName());
 			} else {
 				if (v.getLinkedValue() == null) {
 					throw new ANIMOException("In user-defined formula \"" + getName() + "\", the value linked to the variable \"" + v.getName() + "\" is invalid (null).");
 				} else if (v.getLinkedValue().equals(UPSTREAM_REACTANT_ACTIVITY)) {
-					bindi.put(v.getName(), r1Level);
+					value = r1Level;
 				} else if (v.getLinkedValue().equals(DOWNSTREAM_REACTANT_ACTIVITY)) {
-					bindi.put(v.getName(), r2Level);
+					value = r2Level;
 				} else {
 					//UNKNOWN PARAMETER
 					System.err.println("Unknown linked variable name: " + v.getName());
+					allKnown = false;
 				}
 			}
+			if (value == null) continue;
+			if (compiled != null) {
+				values[i] = value.doubleValue();
+			} else {
+				bindi.put(v.getName(), value);
+			}
+		}
+		if (compiled != null) {
+			if (!allKnown) { //the JavaScript engine would not find the variable
+				throw new ANIMOException("Error while evaluating formula \"" + getName() + "\".");
+			}
+			return compiled.evaluate(values);
 		}
 		Object result;
 		try {
@@ -435,10 +603,14 @@ public class UserFormula extends Scenario {
 	
 	public void setFormula(String javaScriptFormula) {
 		this.javaScriptFormula = javaScriptFormula;
+		this.compiledFormula = null;
+		this.compilationFailed = false;
 	}
 	
 	public void setVariables(Vector<FormulaVariable> variables) {
 		this.variables = variables;
+		this.compiledFormula = null;
+		this.compilationFailed = false;
 	}
 	
 }
@@ -0,0 +1,202 @@
+package animo.network;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import animo.exceptions.ServerBusyException;
+
+/**
+ * Executes the analyses requested to the server, making sure that no more than a given number of
+ * verifyta processes are running at the same time. Each job declares how many processes it uses
+ * (e.g. the number of parallel workers of an average); jobs that do not fit wait in a bounded
+ * queue. The queue is served in turn for each client, so that a client submitting many jobs does
+ * not make the others wait for all of them. When the queue is full, new jobs are refused with a
+ * ServerBusyException, so that clients know to try again later instead of slowing down everybody.
+ */
+public class JobScheduler {
+	private final int maxProcesses, //How many verifyta processes can run at the same time
+					  maxQueued; //How many jobs can wait to be executed
+	private int runningProcesses = 0, //How many processes are used by the jobs now running
+				runningJobs = 0,
+				queued = 0;
+	private LinkedHashMap<String, LinkedList<Job<?>>> queues = new LinkedHashMap<String, LinkedList<Job<?>>>(); //Client -> jobs waiting for that client. The first client is the next to be served
+	private ExecutorService threads;
+	//Metrics
+	private long submitted = 0, rejected = 0, completed = 0, cancelledWaiting = 0, totalWaitNanos = 0, maxWaitNanos = 0;
+	private int maxQueueDepth = 0;
+
+	/**
+	 * A job waiting to be executed, or running.
+	 */
+	private class Job<T> extends FutureTask<T> {
+		private final String client;
+		private final int processes;
+		private final long submissionTime = System.nanoTime();
+
+		public Job(String client, Callable<T> callable, int processes) {
+			super(callable);
+			this.client = client;
+			this.processes = processes;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled) {
+				JobScheduler.this.cancelled(this);
+			}
+			return cancelled;
+		}
+
+		@Override
+		public void run() {
+			try {
+				super.run();
+			} finally {
+				finished(this);
+			}
+		}
+	}
+
+	/**
+	 * @param maxProcesses The maximum number of verifyta processes running at the same time
+	 * @param maxQueued The maximum number of jobs waiting to be executed
+	 */
+	public JobScheduler(int maxProcesses, int maxQueued) {
+		this.maxProcesses = Math.max(1, maxProcesses);
+		this.maxQueued = Math.max(0, maxQueued);
+		this.threads = Executors.newCachedThreadPool(new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ANIMO server job " + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public int getMaxProcesses() {
+		return maxProcesses;
+	}
+
+	/**
+	 * Queue a job for execution.
+	 * @param client The identifier of the client asking for the job (e.g. its host name)
+	 * @param processes How many verifyta processes the job will use at the same time. Jobs asking
+	 * for more processes than the maximum are run when nothing else is running.
+	 * @param job The job
+	 * @return The future result of the job
+	 * @throws ServerBusyException If the queue is full
+	 */
+	public synchronized <T> Future<T> submit(String client, int processes, Callable<T> job) throws ServerBusyException {
+		if (queued >= maxQueued && !canStart(processes)) {
+			rejected++;
+			throw new ServerBusyException("The server is busy (" + queued + " jobs waiting): please try again later");
+		}
+		submitted++;
+		Job<T> j = new Job<T>(client, job, Math.max(1, Math.min(processes, maxProcesses)));
+		LinkedList<Job<?>> clientQueue = queues.get(client);
+		if (clientQueue == null) {
+			clientQueue = new LinkedList<Job<?>>();
+			queues.put(client, clientQueue);
+		}
+		clientQueue.add(j);
+		queued++;
+		maxQueueDepth = Math.max(maxQueueDepth, queued);
+		dispatch();
+		return j;
+	}
+
+	private boolean canStart(int processes) {
+		return queued == 0 && runningProcesses + Math.max(1, Math.min(processes, maxProcesses)) <= maxProcesses;
+	}
+
+	/**
+	 * Start the waiting jobs for which there are enough free processes, taking one job from each
+	 * client in turn. We stop at the first job that does not fit, so that jobs needing many processes
+	 * are not overtaken forever by smaller ones.
+	 */
+	private void dispatch() {
+		while (!queues.isEmpty()) {
+			Iterator<String> clients = queues.keySet().iterator();
+			String client = clients.next();
+			LinkedList<Job<?>> clientQueue = queues.get(client);
+			Job<?> next = clientQueue.getFirst();
+			if (runningProcesses + next.processes > maxProcesses) break;
+			clientQueue.removeFirst();
+			clients.remove();
+			if (!clientQueue.isEmpty()) {
+				queues.put(client, clientQueue); //The client goes to the end of the line
+			}
+			queued--;
+			long wait = System.nanoTime() - next.submissionTime;
+			totalWaitNanos += wait;
+			maxWaitNanos = Math.max(maxWaitNanos, wait);
+			runningProcesses += next.processes;
+			runningJobs++;
+			threads.execute(next);
+		}
+	}
+
+	/**
+	 * Take a cancelled job out of the queue, if it is still waiting there, so that
+	 * it does not count any more against the maximum number of waiting jobs.
+	 */
+	private synchronized void cancelled(Job<?> job) {
+		LinkedList<Job<?>> clientQueue = queues.get(job.client);
+		if (clientQueue == null || !clientQueue.remove(job)) return; //It was already started
+		if (clientQueue.isEmpty()) {
+			queues.remove(job.client);
+		}
+		queued--;
+		cancelledWaiting++;
+		dispatch(); //It may have been the job blocking the others
+	}
+
+	private synchronized void finished(Job<?> job) {
+		runningProcesses -= job.processes;
+		runningJobs--;
+		completed++;
+		dispatch();
+	}
+
+	/**
+	 * Let the threads terminate when the jobs already started are completed.
+	 * No job can be submitted afterwards.
+	 */
+	public void shutdown() {
+		threads.shutdown();
+	}
+
+	/**
+	 * @return A short description of the state of the queue and of the waiting times, e.g. for the log
+	 */
+	public synchronized String getStatistics() {
+		long started = submitted - queued - cancelledWaiting;
+		return String.format(Locale.US, "%d jobs running (%d/%d processes), %d waiting (max %d), %d completed, %d cancelled while waiting, %d refused, wait %.1f ms on average (max %.1f ms)",
+							 runningJobs, runningProcesses, maxProcesses, queued, maxQueueDepth, completed, cancelledWaiting, rejected,
+							 (started > 0) ? totalWaitNanos / 1e6 / started : 0.0, maxWaitNanos / 1e6);
+	}
+
+	public synchronized int getQueueDepth() {
+		return queued;
+	}
+
+	/**
+	 * @return The average time waited in the queue by the jobs started until now, in milliseconds
+	 */
+	public synchronized double getAverageWaitMillis() {
+		long started = submitted - queued - cancelledWaiting;
+		return (started > 0) ? totalWaitNanos / 1e6 / started : 0;
+	}
+}
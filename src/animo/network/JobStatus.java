@@ -0,0 +1,89 @@
+package animo.network;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import animo.analyser.LevelResult;
+
+/**
+ * The state of a job submitted to the server, as seen by the client when it asks for it.
+ */
+public class JobStatus implements Serializable {
+	private static final long serialVersionUID = -3419276521634902731L;
+
+	public enum State {
+		WAITING, //In the queue of the server
+		RUNNING,
+		COMPLETED, //The result is available
+		FAILED, //The error is available
+		CANCELLED
+	}
+
+	private State state;
+	private int percentCompleted; //-1 if unknown
+	private String message; //The last status message of the analysis
+	private transient LevelResult result; //The final result if the job is completed, otherwise the partial result (if asked for and available). It is sent in the WireFormat
+	private Exception error;
+
+	public JobStatus(State state, int percentCompleted, String message, LevelResult result, Exception error) {
+		this.state = state;
+		this.percentCompleted = percentCompleted;
+		this.message = message;
+		this.result = result;
+		this.error = error;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return Whether the job will not change any more
+	 */
+	public boolean isFinished() {
+		return state == State.COMPLETED || state == State.FAILED || state == State.CANCELLED;
+	}
+
+	public int getPercentCompleted() {
+		return percentCompleted;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return The result of the analysis if the job is completed. For a running average, the average
+	 * of the simulation runs completed up to now (only if it was requested), or null if there are none yet.
+	 */
+	public LevelResult getResult() {
+		return result;
+	}
+
+	public Exception getError() {
+		return error;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		if (result == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] data = WireFormat.encode(result, WireFormat.isResultCompressionEnabled());
+			out.writeInt(data.length);
+			out.write(data);
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int length = in.readInt();
+		if (length >= 0) {
+			byte[] data = new byte[length];
+			in.readFully(data);
+			result = WireFormat.decodeResult(data);
+		}
+	}
+}
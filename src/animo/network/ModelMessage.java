@@ -0,0 +1,38 @@
+package animo.network;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import animo.model.Model;
+
+/**
+ * A model sent to the server, written in the WireFormat instead of with the default Java serialization.
+ */
+public class ModelMessage implements Serializable {
+	private static final long serialVersionUID = 6402958153384957361L;
+	private transient Model model;
+
+	public ModelMessage(Model model) {
+		this.model = model;
+	}
+
+	public Model getModel() {
+		return model;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		byte[] data = WireFormat.encode(model, WireFormat.isCompressionEnabled());
+		out.writeInt(data.length);
+		out.write(data);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		model = WireFormat.decodeModel(data);
+	}
+}
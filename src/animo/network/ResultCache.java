@@ -0,0 +1,208 @@
+package animo.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the results of the analyses performed by the server, indexed by the fingerprint of the model
+ * together with the parameters of the analysis (see animo.model.ModelFingerprint), so that a request
+ * that was already answered is answered again immediately.
+ * The results are kept in memory for at most a given time, and only the most recently used ones are
+ * kept when there are too many. If a directory is given, the results are also written there, so that
+ * they survive a restart of the server and can be found again after they were thrown out of memory
+ * (the same maximum age applies to them).
+ */
+public class ResultCache {
+	private static final String FILE_SUFFIX = ".result.gz";
+	private int maxEntries; //How many results we keep in memory
+	private long maxAge; //How long a result is valid (in ms)
+	private File directory; //Where results are written (null: memory only)
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true); //in access order, so the eldest entry is the least recently used one
+	private int hits = 0, diskHits = 0, misses = 0;
+
+	private static class Entry {
+		private final Serializable result;
+		private final long creationTime;
+
+		public Entry(Serializable result, long creationTime) {
+			this.result = result;
+			this.creationTime = creationTime;
+		}
+	}
+
+	/**
+	 * @param maxEntries How many results can be kept in memory
+	 * @param maxAge For how long a result is given back (in ms)
+	 * @param directory Where to write the results (null to keep them only in memory)
+	 */
+	public ResultCache(int maxEntries, long maxAge, File directory) {
+		this.maxEntries = maxEntries;
+		this.maxAge = maxAge;
+		this.directory = directory;
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			System.err.println("Cannot create the result cache directory " + directory + ": results will be kept only in memory");
+			this.directory = null;
+		}
+	}
+
+	/**
+	 * @param key The fingerprint of the model and of the analysis parameters
+	 * @param type The class of the result
+	 * @return The result stored with the given key, or null if we don't have it (or it is too old)
+	 */
+	public synchronized <T> T get(String key, Class<T> type) {
+		long now = System.currentTimeMillis();
+		Entry e = entries.get(key);
+		if (e != null && now - e.creationTime > maxAge) {
+			entries.remove(key);
+			e = null;
+		}
+		if (e == null && directory != null) {
+			e = read(key, now);
+			if (e != null) {
+				diskHits++;
+				putInMemory(key, e);
+			}
+		} else if (e != null) {
+			hits++;
+		}
+		if (e == null || !type.isInstance(e.result)) {
+			misses++;
+			return null;
+		}
+		return type.cast(e.result);
+	}
+
+	/**
+	 * Store a result. The file is written without keeping the cache locked, so that get does not
+	 * have to wait for it: until the file is there, the result is found in memory.
+	 * @param key The fingerprint of the model and of the analysis parameters
+	 * @param result The result. It must not be modified afterwards.
+	 */
+	public void put(String key, Serializable result) {
+		Entry e = new Entry(result, System.currentTimeMillis());
+		synchronized (this) {
+			putInMemory(key, e);
+		}
+		if (directory != null) {
+			write(key, e);
+		}
+	}
+
+	private void putInMemory(String key, Entry e) {
+		if (maxEntries <= 0) return;
+		entries.put(key, e);
+		Iterator<Entry> eldest = entries.values().iterator();
+		while (entries.size() > maxEntries && eldest.hasNext()) {
+			eldest.next();
+			eldest.remove();
+		}
+	}
+
+	private File file(String key) {
+		return new File(directory, key + FILE_SUFFIX);
+	}
+
+	private Entry read(String key, long now) {
+		File f = file(key);
+		if (!f.isFile()) return null;
+		if (now - f.lastModified() > maxAge) {
+			f.delete();
+			return null;
+		}
+		ObjectInputStream in = null;
+		try {
+			in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(f))));
+			return new Entry((Serializable)in.readObject(), f.lastModified());
+		} catch (Exception ex) {
+			System.err.println("Cannot read the cached result " + f + ": " + ex);
+			f.delete();
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException ex) {
+				}
+			}
+		}
+	}
+
+	private void write(String key, Entry e) {
+		File f = file(key),
+			 tmp = null;
+		ObjectOutputStream out = null;
+		try {
+			tmp = File.createTempFile(key + "-part", ".tmp", directory); //Two results with the same key can be written at the same time
+			out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))));
+			out.writeObject(e.result);
+			out.close();
+			out = null;
+			f.delete();
+			if (!tmp.renameTo(f)) { //Readers never see a file that was not completely written
+				tmp.delete();
+			}
+		} catch (IOException ex) {
+			System.err.println("Cannot write the cached result " + f + ": " + ex);
+			if (tmp != null) {
+				tmp.delete();
+			}
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException ex) {
+				}
+				tmp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Throw away everything, also from the disk.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		if (directory != null) {
+			File[] files = directory.listFiles();
+			if (files != null) {
+				for (File f : files) {
+					if (f.getName().endsWith(FILE_SUFFIX)) {
+						f.delete();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return A short description of the use of the cache, e.g. for the log
+	 */
+	public synchronized String getStatistics() {
+		return hits + " results from memory, " + diskHits + " from disk, " + misses + " computed, " + entries.size() + " in memory";
+	}
+
+	/**
+	 * Remove from memory the results that are too old.
+	 */
+	public synchronized void forgetExpired() {
+		long now = System.currentTimeMillis();
+		for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+			if (now - it.next().getValue().creationTime > maxAge) {
+				it.remove();
+			}
+		}
+	}
+}
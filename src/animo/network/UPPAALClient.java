@@ -2,26 +2,307 @@ package animo.network;
 
 
 import java.rmi.Naming;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import animo.analyser.AnalysisException;
 import animo.analyser.LevelResult;
+import animo.analyser.PartialResultListener;
 import animo.analyser.SMCResult;
+import animo.analyser.uppaal.ResultAccumulator;
+import animo.cytoscape.RunAction;
 import animo.model.Model;
+import cytoscape.task.TaskMonitor;
 
 /**
- * The class used to access the remote server.
+ * The class used to access the remote server(s).
+ * When more than one server is given, the simulation runs of an average are divided in shards
+ * which are sent to all servers at the same time, and the partial averages are merged into a single
+ * result. If a server fails, its shard is sent to one of the others.
  */
 public class UPPAALClient {
-	private iUPPAALServer server = null;
-	
-	public UPPAALClient(String serverHost, Integer serverPort) throws Exception {
+	private static final long POLL_INTERVAL = 500; //How often we ask the server for the progress of a job (in ms)
+	private static final int SHARDS_PER_SERVER = 2; //Using more shards than servers lets faster servers take more work, and makes a failure cost less
+	private static final long PARTIAL_RESULT_INTERVAL = 2000; //How often we ask for the partial average when somebody wants it (in ms): it has to travel over the network
+	private iUPPAALServer server = null; //The first server: used for the analyses that are not divided
+	private List<iUPPAALServer> servers = new ArrayList<iUPPAALServer>();
+	private List<String> serverNames = new ArrayList<String>();
+	private volatile Shard[] currentShards = null; //The shards of the average we are waiting for in analyze, if any
+	private volatile ResultAccumulator merged = null; //The average of the shards completed up to now
+	private PartialResultListener partialResultListener = null; //Receives the partial average while analyze is waiting for the servers
+
+	/**
+	 * A part of the simulation runs of an average, with the state of its job.
+	 */
+	private static class Shard {
+		private final int index; //Given to the server, so that two shards with the same number of runs are not given the same cached result
+		private final int nRuns;
+		private volatile iUPPAALServer server = null; //The server running the job (null if the shard is not running)
+		private volatile long jobId = -1;
+		private volatile int percentCompleted = 0;
+		private volatile String message = null;
+
+		public Shard(int index, int nRuns) {
+			this.index = index;
+			this.nRuns = nRuns;
+		}
+	}
+
+	/**
+	 * @param serverHosts The host name of the server, or a list of servers separated by commas, each given as host or host:port.
+	 * The servers that cannot be reached are left out (with a message), as long as at least one can be reached.
+	 * @param serverPort The port used for the servers for which it is not given
+	 */
+	public UPPAALClient(String serverHosts, Integer serverPort) throws Exception {
 		System.setSecurityManager(new java.rmi.RMISecurityManager());
-		server = (iUPPAALServer) Naming.lookup("rmi://" + serverHost + ":" + serverPort + "/UPPAALServer");
+		Exception lookupError = null;
+		for (String s : serverHosts.split("[,;\\s]+")) {
+			if (s.length() == 0) continue;
+			String host = s;
+			int port = serverPort;
+			int colon = s.lastIndexOf(':');
+			if (colon > 0) {
+				host = s.substring(0, colon);
+				port = Integer.parseInt(s.substring(colon + 1));
+			}
+			String name = host + ":" + port;
+			try {
+				servers.add((iUPPAALServer) Naming.lookup("rmi://" + name + "/UPPAALServer"));
+				serverNames.add(name);
+			} catch (Exception ex) {
+				System.err.println("Cannot reach the server " + name + ": " + ex);
+				lookupError = ex;
+			}
+		}
+		if (servers.isEmpty()) {
+			if (lookupError != null) throw lookupError;
+			throw new IllegalArgumentException("No server given");
+		}
+		server = servers.get(0);
 	}
-	
+
+	/**
+	 * @return The servers we are using, as host:port
+	 */
+	public List<String> getServerNames() {
+		return serverNames;
+	}
+
+	/**
+	 * Ask to receive, while analyze (with a monitor) is waiting for an average, the average of the
+	 * simulation runs completed up to now (see getPartialResult), every few seconds.
+	 * @param listener The listener, or null if partial results are not needed
+	 */
+	public void setPartialResultListener(PartialResultListener listener) {
+		this.partialResultListener = listener;
+	}
+
 	public LevelResult analyze(Model m, int timeTo, int nSimulationRuns, boolean computeStdDev) throws Exception {
 		return server.analyze(m, timeTo, nSimulationRuns, computeStdDev);
 	}
-	
+
+	/**
+	 * Submit the analysis as job(s) on the server(s), and wait for the result while showing the progress
+	 * on the given monitor. If the user asks to stop, the jobs are cancelled on the servers.
+	 * With more than one server, the runs are divided among them (see the description of the class).
+	 * @param monitor The monitor showing the progress (can be null)
+	 * @param runAction Tells us if the user asked to stop the analysis (can be null)
+	 */
+	public LevelResult analyze(Model m, final int timeTo, int nSimulationRuns, final boolean computeStdDev, TaskMonitor monitor, RunAction runAction) throws Exception {
+		int nShards = (servers.size() > 1) ? Math.max(1, Math.min(nSimulationRuns, SHARDS_PER_SERVER * servers.size())) : 1;
+		final Shard[] shards = new Shard[nShards];
+		final ConcurrentLinkedQueue<Shard> pending = new ConcurrentLinkedQueue<Shard>();
+		for (int i = 0; i < nShards; i++) {
+			shards[i] = new Shard(i, nSimulationRuns / nShards + ((i < nSimulationRuns % nShards) ? 1 : 0));
+			pending.add(shards[i]);
+		}
+		final ResultAccumulator accumulator = new ResultAccumulator(computeStdDev);
+		final AtomicReference<LevelResult> single = new AtomicReference<LevelResult>(); //With only one shard, there is nothing to merge
+		final AtomicInteger remaining = new AtomicInteger(nShards);
+		final AtomicReference<Exception> lastError = new AtomicReference<Exception>();
+		final AtomicBoolean stopped = new AtomicBoolean(false);
+		final ModelMessage message = new ModelMessage(m);
+		currentShards = shards;
+		merged = accumulator;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(servers.size(), nShards));
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		try {
+			for (int i = 0; i < servers.size() && i < nShards; i++) {
+				final iUPPAALServer s = servers.get(i);
+				final String name = serverNames.get(i);
+				workers.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						while (remaining.get() > 0 && !stopped.get()) {
+							Shard shard = pending.poll();
+							if (shard == null) { //The other shards are running: one may fail and come back
+								try {
+									Thread.sleep(POLL_INTERVAL);
+								} catch (InterruptedException ex) {
+									return;
+								}
+								continue;
+							}
+							try {
+								LevelResult result = runShard(s, shard, message, timeTo, computeStdDev, stopped);
+								if (shards.length == 1) {
+									single.set(result);
+								} else {
+									accumulator.merge(result, shard.nRuns);
+								}
+								shard.percentCompleted = 100;
+								remaining.decrementAndGet();
+							} catch (Exception ex) {
+								shard.server = null;
+								shard.percentCompleted = 0;
+								if (stopped.get()) return;
+								lastError.set(ex);
+								if (shards.length > 1) {
+									System.err.println("The server " + name + " failed (" + ex + "): its " + shard.nRuns + " runs go to the other servers");
+								}
+								pending.add(shard);
+								return; //We don't use this server any more
+							}
+						}
+					}
+				}));
+			}
+			String lastMessage = null;
+			long nextPartialResult = System.currentTimeMillis() + PARTIAL_RESULT_INTERVAL;
+			int lastPublishedShards = nShards; //With more than one shard, the partial average changes only when a shard is completed
+			while (remaining.get() > 0) {
+				if (runAction != null && runAction.needToStop()) {
+					stopped.set(true);
+					cancel(shards);
+					throw new AnalysisException("User interrupted");
+				}
+				int activeServers = 0;
+				for (Future<?> w : workers) {
+					if (!w.isDone()) activeServers++;
+				}
+				if (activeServers == 0 && remaining.get() > 0) { //All servers have failed
+					if (lastError.get() != null) throw lastError.get();
+					throw new AnalysisException("No server could perform the analysis");
+				}
+				if (monitor != null) {
+					String status;
+					int runsCompleted = 0;
+					for (Shard shard : shards) {
+						runsCompleted += shard.nRuns * shard.percentCompleted;
+					}
+					if (shards.length == 1) {
+						status = (shards[0].server == null) ? "Waiting for the server to start the analysis" : shards[0].message;
+					} else {
+						status = "Running " + nSimulationRuns + " simulations on " + activeServers + " servers";
+					}
+					if (status != null && !status.equals(lastMessage)) {
+						monitor.setStatus(status);
+						lastMessage = status;
+					}
+					monitor.setPercentCompleted(runsCompleted / Math.max(1, nSimulationRuns));
+				}
+				if (partialResultListener != null && System.currentTimeMillis() >= nextPartialResult && (shards.length == 1 || remaining.get() != lastPublishedShards)) {
+					lastPublishedShards = remaining.get();
+					try {
+						LevelResult partial = getPartialResult();
+						if (partial != null) {
+							partialResultListener.partialResult(partial);
+						}
+					} catch (Exception ex) { //Not being able to show the partial result is no reason to stop the analysis
+						System.err.println("Cannot obtain the partial result: " + ex);
+					}
+					nextPartialResult = System.currentTimeMillis() + PARTIAL_RESULT_INTERVAL;
+				}
+				try {
+					Thread.sleep(POLL_INTERVAL);
+				} catch (InterruptedException ex) {
+					stopped.set(true);
+					cancel(shards);
+					throw new AnalysisException("Interrupted");
+				}
+			}
+			return (shards.length == 1) ? single.get() : accumulator.getResult();
+		} finally {
+			stopped.set(true);
+			executor.shutdownNow();
+			currentShards = null;
+			merged = null;
+		}
+	}
+
+	/**
+	 * Submit the given shard as a job on the given server, and wait for its result.
+	 * @param stopped Becomes true when we have to give up
+	 */
+	private LevelResult runShard(iUPPAALServer s, Shard shard, ModelMessage m, int timeTo, boolean computeStdDev, AtomicBoolean stopped) throws Exception {
+		long jobId = s.submitAnalysis(m, timeTo, shard.nRuns, computeStdDev, shard.index);
+		shard.jobId = jobId;
+		shard.server = s;
+		while (true) {
+			if (stopped.get()) {
+				throw new AnalysisException("Interrupted");
+			}
+			JobStatus status = s.getJobStatus(jobId, false);
+			switch (status.getState()) {
+				case COMPLETED:
+					return status.getResult();
+				case FAILED:
+					throw status.getError();
+				case CANCELLED:
+					throw new AnalysisException("The analysis was cancelled on the server");
+				default:
+					break;
+			}
+			shard.message = (status.getState() == JobStatus.State.WAITING) ? "Waiting for the server to start the analysis" : status.getMessage();
+			shard.percentCompleted = Math.max(0, status.getPercentCompleted());
+			Thread.sleep(POLL_INTERVAL);
+		}
+	}
+
+	/**
+	 * Cancel the jobs of all running shards.
+	 */
+	private void cancel(Shard[] shards) {
+		for (Shard shard : shards) {
+			iUPPAALServer s = shard.server;
+			if (s == null) continue;
+			try {
+				s.cancelJob(shard.jobId);
+			} catch (Exception ex) {
+				System.err.println("Cannot cancel a job on the server: " + ex);
+			}
+		}
+	}
+
+	/**
+	 * While analyze (with a monitor) is waiting for an average, asks for the average of
+	 * the simulation runs completed up to now. With more than one server, this is the average of
+	 * the shards completed up to now.
+	 * @return The current average, or null if there are no completed runs yet or we are not waiting for an average
+	 */
+	public LevelResult getPartialResult() throws Exception {
+		Shard[] shards = currentShards;
+		if (shards == null) return null;
+		if (shards.length > 1) {
+			ResultAccumulator accumulator = merged;
+			return (accumulator == null) ? null : accumulator.getResult();
+		}
+		iUPPAALServer s = shards[0].server;
+		if (s == null) return null;
+		JobStatus status = s.getJobStatus(shards[0].jobId, true);
+		if (status.isFinished()) { //The final result is for analyze
+			return null;
+		}
+		return status.getResult();
+	}
+
 	public SMCResult analyzeSMC(Model m, String smcQuery) throws Exception {
 		return server.analyze(m, smcQuery);
 	}
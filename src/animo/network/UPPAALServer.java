@@ -2,32 +2,73 @@ package animo.network;
 
 
 import java.io.File;
+import java.io.Serializable;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
+import java.rmi.server.RemoteServer;
+import java.rmi.server.ServerNotActiveException;
 import java.rmi.server.UnicastRemoteObject;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import animo.ANIMOBackend;
+import animo.analyser.AnalysisException;
 import animo.analyser.LevelResult;
 import animo.analyser.SMCResult;
+import animo.analyser.stochastic.StochasticSimulator;
 import animo.analyser.uppaal.ResultAverager;
 import animo.analyser.uppaal.UppaalModelAnalyserFasterConcrete;
 import animo.model.Model;
+import animo.model.ModelFingerprint;
+import animo.util.XmlConfiguration;
+import cytoscape.task.TaskMonitor;
 
 /**
  * The remote server. Implements the methods for simulation run analysis and
  * SMC analysis. Listens for remote connections on the given port.
+ * The analyses are executed by a JobScheduler, which limits the number of
+ * verifyta processes running at the same time and refuses new jobs when too
+ * many are already waiting.
+ * Simulation analyses can also be submitted as jobs: the client then asks for
+ * their progress from time to time, and can cancel them.
+ * The results are kept in a ResultCache, so that the same request on the same
+ * model is answered immediately.
  */
 public class UPPAALServer extends UnicastRemoteObject implements iUPPAALServer {
 	private static final long serialVersionUID = 5030971508567718530L;
 	private static final DateFormat df = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss.SSS");
-	private static final int DEFAULT_PORT = 1234;
+	private static final int DEFAULT_PORT = 1234,
+							 DEFAULT_MAX_QUEUED = 32, //How many jobs can wait to be executed if nothing else is specified
+							 DEFAULT_CACHE_SIZE = 64, //How many results are kept in memory if nothing else is specified
+							 DEFAULT_CACHE_MINUTES = 24 * 60; //For how long results are kept if nothing else is specified
+	private static final long JOB_EXPIRY = 10 * 60 * 1000; //Finished jobs are forgotten after 10 minutes if nobody asks for their result
+	private JobScheduler scheduler;
+	private ResultCache resultCache = null; //null if disabled
+	private Map<Long, RemoteJob> jobs = new HashMap<Long, RemoteJob>(); //The submitted jobs whose result was not yet given to the client
+	private long nextJobId = 1;
 
 	protected UPPAALServer(int port) throws RemoteException {
 		super();
+		scheduler = new JobScheduler(configuredValue(XmlConfiguration.SERVER_MAX_PROCESSES_KEY, Runtime.getRuntime().availableProcessors(), 1),
+									 configuredValue(XmlConfiguration.SERVER_MAX_QUEUED_KEY, DEFAULT_MAX_QUEUED, 1));
+		int cacheSize = configuredValue(XmlConfiguration.SERVER_CACHE_SIZE_KEY, DEFAULT_CACHE_SIZE, 0);
+		File cacheDirectory = null;
+		if (ANIMOBackend.isInitialised() && ANIMOBackend.get().configuration().has(XmlConfiguration.SERVER_CACHE_DIRECTORY_KEY)) {
+			cacheDirectory = new File(ANIMOBackend.get().configuration().get(XmlConfiguration.SERVER_CACHE_DIRECTORY_KEY).trim());
+		}
+		if (cacheSize > 0 || cacheDirectory != null) {
+			resultCache = new ResultCache(cacheSize, configuredValue(XmlConfiguration.SERVER_CACHE_MINUTES_KEY, DEFAULT_CACHE_MINUTES, 1) * 60 * 1000L, cacheDirectory);
+		}
 		try {
 			LocateRegistry.createRegistry(port);
 			Naming.bind("rmi://localhost:" + port + "/UPPAALServer", this);
@@ -36,27 +77,314 @@ public class UPPAALServer extends UnicastRemoteObject implements iUPPAALServer {
 		}
 	}
 	
-	@Override
-	public LevelResult analyze(Model m, int timeTo, int nSimulationRuns, boolean computeStdDev) throws Exception {
-		System.out.println(df.format(new Date(System.currentTimeMillis())) + " Analysing \"normal\" model with simulation up to " + timeTo);
-		LevelResult result;
-		if (nSimulationRuns > 1) {
-			result = new ResultAverager(null, null).analyzeAverage(m, timeTo, nSimulationRuns, computeStdDev);
-		} else {
-			result = new UppaalModelAnalyserFasterConcrete(null, null).analyze(m, timeTo);
+	/**
+	 * Read an integer from the configuration.
+	 * @param key The configuration key
+	 * @param defaultValue The value to use if the key is absent or invalid
+	 * @param minimum The smallest acceptable value
+	 */
+	private static int configuredValue(String key, int defaultValue, int minimum) {
+		if (ANIMOBackend.isInitialised()) {
+			XmlConfiguration configuration = ANIMOBackend.get().configuration();
+			if (configuration.has(key)) {
+				try {
+					return Math.max(minimum, Integer.parseInt(configuration.get(key).trim()));
+				} catch (NumberFormatException ex) {
+					System.err.println("Invalid value for " + key + " in the configuration: using " + defaultValue);
+				}
+			}
+		}
+		return defaultValue;
+	}
+	
+	/**
+	 * @return The host of the client that is calling us, used to serve the clients in turn
+	 */
+	private static String clientName() {
+		try {
+			return RemoteServer.getClientHost();
+		} catch (ServerNotActiveException e) {
+			return "local";
+		}
+	}
+	
+	/**
+	 * Queue the given job and wait for its result.
+	 * @param processes How many verifyta processes the job uses at the same time
+	 */
+	private <T> T execute(String description, int processes, Callable<T> job) throws Exception {
+		String client = clientName();
+		System.out.println(df.format(new Date(System.currentTimeMillis())) + " " + client + ": " + description);
+		T result;
+		try {
+			result = scheduler.submit(client, processes, job).get();
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof Exception) {
+				throw (Exception)ex.getCause();
+			}
+			throw ex;
+		} finally {
+			System.out.println(df.format(new Date(System.currentTimeMillis())) + " " + scheduler.getStatistics());
 		}
 		System.out.println(df.format(new Date(System.currentTimeMillis())) + " Done.");
 		System.out.println();
 		return result;
 	}
+	
+	/**
+	 * @param inJava Whether the analysis is performed by the StochasticSimulator instead of UPPAAL
+	 * @return The key of the result of the analysis with the given parameters in the result cache,
+	 * or null if the cache is disabled
+	 */
+	private String cacheKey(Model m, boolean inJava, Object... parameters) {
+		if (resultCache == null) return null;
+		String engine = inJava ? StochasticSimulator.ENGINE_NAME : "uppaal";
+		return ModelFingerprint.of(m, engine, parameters);
+	}
+	
+	/**
+	 * @return The result of the analysis with the given key, if it is in the cache
+	 */
+	private <T> T cachedResult(String key, Class<T> type) {
+		if (key == null) return null;
+		T result = resultCache.get(key, type);
+		if (result != null) {
+			System.out.println(df.format(new Date(System.currentTimeMillis())) + " Result found in cache (" + resultCache.getStatistics() + ")");
+		}
+		return result;
+	}
+	
+	/**
+	 * Make the given job store its result in the cache.
+	 */
+	private <T> Callable<T> caching(final String key, final Callable<T> job) {
+		if (key == null) return job;
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				T result = job.call();
+				if (result instanceof Serializable) {
+					resultCache.put(key, (Serializable)result);
+				}
+				return result;
+			}
+		};
+	}
+	
+	/**
+	 * A simulation analysis submitted as a job. It keeps the progress reported by the analysis,
+	 * so that the client can ask for it.
+	 */
+	private static class RemoteJob implements TaskMonitor {
+		private Future<LevelResult> future = null;
+		private volatile boolean started = false;
+		private volatile int percentCompleted = -1;
+		private volatile String message = "Waiting for other analyses to finish";
+		private volatile ResultAverager averager = null; //Gives us the partial result of an average
+		private volatile long finishTime = 0;
+
+		@Override
+		public void setPercentCompleted(int percent) {
+			percentCompleted = percent;
+		}
+
+		@Override
+		public void setStatus(String message) {
+			this.message = message;
+		}
 
+		@Override
+		public void setEstimatedTimeRemaining(long time) {
+		}
+
+		@Override
+		public void setException(Throwable t, String userErrorMessage) {
+		}
+
+		public void setException(Throwable t, String userErrorMessage, String recoveryTip) {
+		}
+	}
+	
+	/**
+	 * Build the job performing a simulation analysis.
+	 * @param nWorkers How many simulation runs of an average can be executed at the same time
+	 * @param inJava Whether to use the StochasticSimulator instead of UPPAAL: the same engine named by the cache key of the result
+	 * @param job If not null, the progress of the analysis is reported to it
+	 */
+	private static Callable<LevelResult> simulationJob(final Model m, final int timeTo, final int nSimulationRuns, final boolean computeStdDev, final int nWorkers, final boolean inJava, final RemoteJob job) {
+		return new Callable<LevelResult>() {
+			@Override
+			public LevelResult call() throws Exception {
+				try {
+					if (job != null) {
+						job.started = true;
+						job.message = inJava ? "Simulating the model in Java" : "Analysing model with UPPAAL";
+					}
+					if (nSimulationRuns > 1) {
+						ResultAverager averager = new ResultAverager(job, null, nWorkers);
+						averager.setSimulator(inJava ? new StochasticSimulator() : null);
+						if (job != null) {
+							job.averager = averager;
+						}
+						return averager.analyzeAverage(m, timeTo, nSimulationRuns, computeStdDev);
+					} else if (inJava) {
+						return new StochasticSimulator().analyze(m, timeTo);
+					} else {
+						return new UppaalModelAnalyserFasterConcrete(job, null).analyze(m, timeTo);
+					}
+				} finally {
+					if (job != null) {
+						job.finishTime = System.currentTimeMillis();
+					}
+				}
+			}
+		};
+	}
+	
+	/**
+	 * @return How many verifyta processes an analysis with the given number of runs will use
+	 */
+	private int simulationProcesses(int nSimulationRuns) {
+		if (nSimulationRuns > 1) {
+			return Math.min(Math.min(nSimulationRuns, ResultAverager.defaultWorkers()), scheduler.getMaxProcesses()); //The average must not use more processes than it was given
+		} else {
+			return 1;
+		}
+	}
+	
 	@Override
-	public SMCResult analyze(Model m, String smcQuery) throws Exception {
-		System.out.println(df.format(new Date(System.currentTimeMillis())) + " Analysing \"SMC\" model with query " + smcQuery);
-		SMCResult result = new UppaalModelAnalyserFasterConcrete(null, null).analyzeSMC(m, smcQuery);
-		System.out.println(df.format(new Date(System.currentTimeMillis())) + " Done.");
-		System.out.println();
-		return result;
+	public LevelResult analyze(Model m, int timeTo, int nSimulationRuns, boolean computeStdDev) throws Exception {
+		boolean inJava = StochasticSimulator.isSelected(); //As in RunAction, for averages and single runs alike
+		String key = cacheKey(m, inJava, "simulation", timeTo, nSimulationRuns, computeStdDev);
+		LevelResult cached = cachedResult(key, LevelResult.class);
+		if (cached != null) return cached;
+		int processes = simulationProcesses(nSimulationRuns);
+		return execute("Analysing \"normal\" model with " + nSimulationRuns + " simulation(s) up to " + timeTo, processes,
+					   caching(key, simulationJob(m, timeTo, nSimulationRuns, computeStdDev, processes, inJava, null)));
+	}
+
+	@Override
+	public long submitAnalysis(ModelMessage message, int timeTo, int nSimulationRuns, boolean computeStdDev, int shard) throws Exception {
+		Model m = message.getModel();
+		String client = clientName();
+		int processes = simulationProcesses(nSimulationRuns);
+		RemoteJob job = new RemoteJob();
+		boolean inJava = StochasticSimulator.isSelected();
+		String key = (shard == 0) ? cacheKey(m, inJava, "simulation", timeTo, nSimulationRuns, computeStdDev) //The same key as analyze
+								  : cacheKey(m, inJava, "simulation", timeTo, nSimulationRuns, computeStdDev, "shard", shard);
+		final LevelResult cached = cachedResult(key, LevelResult.class);
+		long jobId;
+		synchronized (jobs) {
+			forgetExpiredJobs();
+			if (cached != null) { //The job is already done
+				FutureTask<LevelResult> done = new FutureTask<LevelResult>(new Callable<LevelResult>() {
+					@Override
+					public LevelResult call() {
+						return cached;
+					}
+				});
+				done.run();
+				job.future = done;
+				job.started = true;
+				job.percentCompleted = 100;
+				job.finishTime = System.currentTimeMillis();
+			} else {
+				job.future = scheduler.submit(client, processes, caching(key, simulationJob(m, timeTo, nSimulationRuns, computeStdDev, processes, inJava, job)));
+			}
+			jobId = nextJobId++;
+			jobs.put(jobId, job);
+		}
+		System.out.println(df.format(new Date(System.currentTimeMillis())) + " " + client + ": job " + jobId + ": \"normal\" model with " + nSimulationRuns + " simulation(s) up to " + timeTo + ((shard == 0) ? "" : " (shard " + shard + ")") + " (" + scheduler.getStatistics() + ")");
+		return jobId;
+	}
+
+	/**
+	 * Forget the finished jobs whose result was never asked for, and the results that are too old.
+	 */
+	private void forgetExpiredJobs() {
+		if (resultCache != null) {
+			resultCache.forgetExpired();
+		}
+		long now = System.currentTimeMillis();
+		Iterator<RemoteJob> it = jobs.values().iterator();
+		while (it.hasNext()) {
+			RemoteJob job = it.next();
+			if (job.finishTime > 0 && now - job.finishTime > JOB_EXPIRY) {
+				it.remove();
+			}
+		}
+	}
+
+	@Override
+	public JobStatus getJobStatus(long jobId, boolean withPartialResult) throws Exception {
+		RemoteJob job;
+		synchronized (jobs) {
+			job = jobs.get(jobId);
+		}
+		if (job == null) {
+			throw new AnalysisException("Unknown job " + jobId);
+		}
+		if (!job.future.isDone()) {
+			LevelResult partial = null;
+			if (withPartialResult && job.averager != null) {
+				partial = job.averager.getPartialResult();
+			}
+			return new JobStatus(job.started ? JobStatus.State.RUNNING : JobStatus.State.WAITING, job.percentCompleted, job.message, partial, null);
+		}
+		JobStatus.State state;
+		LevelResult result = null;
+		Exception error = null;
+		try {
+			result = job.future.get();
+			state = JobStatus.State.COMPLETED;
+		} catch (CancellationException ex) {
+			state = JobStatus.State.CANCELLED;
+		} catch (ExecutionException ex) {
+			state = JobStatus.State.FAILED;
+			if (ex.getCause() instanceof Exception) {
+				error = (Exception)ex.getCause();
+			} else {
+				error = ex;
+			}
+		}
+		if (withPartialResult) { //Only the state: the result is for the client waiting for it
+			return new JobStatus(state, job.percentCompleted, job.message, null, null);
+		}
+		synchronized (jobs) {
+			jobs.remove(jobId);
+		}
+		System.out.println(df.format(new Date(System.currentTimeMillis())) + " Job " + jobId + " " + state.toString().toLowerCase() + ((error != null) ? ": " + error : "") + " (" + scheduler.getStatistics() + ")");
+		return new JobStatus(state, (state == JobStatus.State.COMPLETED) ? 100 : job.percentCompleted, job.message, result, error);
+	}
+
+	@Override
+	public boolean cancelJob(long jobId) throws Exception {
+		RemoteJob job;
+		synchronized (jobs) {
+			job = jobs.get(jobId);
+		}
+		if (job == null) return false;
+		boolean cancelled = job.future.cancel(true); //Interrupting the analysis makes it stop its verifyta processes
+		if (cancelled) {
+			if (job.finishTime == 0) {
+				job.finishTime = System.currentTimeMillis();
+			}
+			System.out.println(df.format(new Date(System.currentTimeMillis())) + " Job " + jobId + " cancelled");
+		}
+		return cancelled;
+	}
+
+	@Override
+	public SMCResult analyze(final Model m, final String smcQuery) throws Exception {
+		String key = cacheKey(m, false, "SMC", smcQuery); //SMC queries are always answered by UPPAAL
+		SMCResult cached = cachedResult(key, SMCResult.class);
+		if (cached != null) return cached;
+		return execute("Analysing \"SMC\" model with query " + smcQuery, 1, caching(key, new Callable<SMCResult>() {
+			@Override
+			public SMCResult call() throws Exception {
+				return new UppaalModelAnalyserFasterConcrete(null, null).analyzeSMC(m, smcQuery);
+			}
+		}));
 	}
 	
 	public static void main(String[] args) {
@@ -0,0 +1,556 @@
+package animo.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import animo.ANIMOBackend;
+import animo.analyser.LevelResult;
+import animo.analyser.uppaal.ColumnarLevelResult;
+import animo.model.Entity;
+import animo.model.Model;
+import animo.model.Property;
+import animo.model.PropertyBag;
+import animo.model.Reactant;
+import animo.model.ReactantParameter;
+import animo.model.Reaction;
+import animo.util.Table;
+import animo.util.XmlConfiguration;
+
+/**
+ * The binary encoding used to send models and results between UPPAALClient and UPPAALServer,
+ * instead of the default Java serialization of the object graphs (which, for a model, is made of
+ * maps of boxed values, and for a result of arrays described field by field).
+ * Each message starts with a header: the bytes 'A', 'N', 'W', the kind of content ('M' for a model,
+ * 'R' for a result), the version of the format and a byte of flags (1 = the rest is compressed with
+ * deflate). Integers are written as variable-length numbers, and each string is written only the first
+ * time: afterwards it is referred to by its position in the list of strings already seen (reactant ids
+ * and property names repeat a lot). Time columns made only of integer time instants (the usual case)
+ * are written as differences between consecutive instants, and a series with the same time column
+ * as the previous one (as in averaged results) only says so. The other columns (e.g. the values of an
+ * average) are written as they are, 8 bytes per value: they take about as much space as with the Java
+ * serialization, and compressing them takes much more time than it saves on a local network, so results
+ * are not compressed unless the configuration asks for it.
+ */
+public class WireFormat {
+	public static final int VERSION = 1;
+	private static final byte[] MAGIC = {'A', 'N', 'W'};
+	private static final byte KIND_MODEL = 'M',
+							  KIND_RESULT = 'R';
+	private static final int FLAG_COMPRESSED = 1,
+							 COMPRESSION_THRESHOLD = 4096; //Smaller messages are not worth compressing
+	//Types of values
+	private static final int NULL = 0, INTEGER = 1, DOUBLE = 2, FLOAT = 3, TRUE = 4, FALSE = 5, STRING = 6,
+							 TABLE = 7, LIST = 8, REACTANT_PARAMETER = 9, LONG = 10, SERIALIZED = 11;
+	//Encodings of time and value columns
+	private static final int SAME_AS_PREVIOUS = 0, INTEGER_STEPS = 1, RAW = 2;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * @return Whether models should be compressed: yes, unless the configuration says otherwise
+	 */
+	public static boolean isCompressionEnabled() {
+		return configuredCompression(true);
+	}
+
+	/**
+	 * @return Whether results should be compressed: no, unless the configuration says otherwise
+	 */
+	public static boolean isResultCompressionEnabled() {
+		return configuredCompression(false);
+	}
+
+	private static boolean configuredCompression(boolean defaultValue) {
+		if (ANIMOBackend.isInitialised()) {
+			XmlConfiguration configuration = ANIMOBackend.get().configuration();
+			if (configuration.has(XmlConfiguration.WIRE_COMPRESSION_KEY)) {
+				return Boolean.parseBoolean(configuration.get(XmlConfiguration.WIRE_COMPRESSION_KEY).trim());
+			}
+		}
+		return defaultValue;
+	}
+
+	public static byte[] encode(Model m, boolean compress) throws IOException {
+		Writer w = new Writer();
+		w.writeBag(m.getProperties());
+		w.writeEntities(m.getReactants());
+		w.writeEntities(m.getReactions());
+		return w.finish(KIND_MODEL, compress);
+	}
+
+	public static Model decodeModel(byte[] data) throws IOException {
+		Reader r = new Reader(data, KIND_MODEL);
+		Model m = new Model();
+		r.readBag(m.getProperties());
+		int nReactants = r.readCount();
+		for (int i = 0; i < nReactants; i++) {
+			Reactant reactant = new Reactant(r.readString());
+			r.readBag(reactant.getProperties());
+			m.add(reactant);
+		}
+		int nReactions = r.readCount();
+		for (int i = 0; i < nReactions; i++) {
+			Reaction reaction = new Reaction(r.readString());
+			r.readBag(reaction.getProperties());
+			m.add(reaction);
+		}
+		return m;
+	}
+
+	public static byte[] encode(LevelResult result, boolean compress) throws IOException {
+		Writer w = new Writer();
+		List<String> ids = new ArrayList<String>(result.getReactantIds());
+		w.writeCount(ids.size());
+		double[] previousTimes = null;
+		int previousSize = -1;
+		List<Double> allTimes = null;
+		for (String id : ids) {
+			double[] t, v;
+			int size;
+			if (result instanceof ColumnarLevelResult) {
+				ColumnarLevelResult columnar = (ColumnarLevelResult)result;
+				int series = columnar.getSeriesIndex(id);
+				t = columnar.getTimes(series);
+				v = columnar.getValues(series);
+				size = columnar.getSize(series);
+			} else { //We only know the values at the time instants where they change
+				if (allTimes == null) {
+					allTimes = result.getTimeIndices();
+				}
+				t = new double[allTimes.size()];
+				v = new double[allTimes.size()];
+				size = 0;
+				for (Double time : allTimes) {
+					Double value = result.getConcentrationIfAvailable(id, time);
+					if (value == null) continue;
+					t[size] = time;
+					v[size] = value;
+					size++;
+				}
+			}
+			w.writeString(id);
+			w.writeCount(size);
+			if (size == previousSize && (t == previousTimes || rangeEquals(t, previousTimes, size))) {
+				w.writeCount(SAME_AS_PREVIOUS);
+			} else {
+				w.writeColumn(t, size);
+			}
+			w.writeColumn(v, size);
+			previousTimes = t;
+			previousSize = size;
+		}
+		return w.finish(KIND_RESULT, compress);
+	}
+
+	private static boolean rangeEquals(double[] a, double[] b, int size) {
+		for (int i = 0; i < size; i++) {
+			if (Double.doubleToLongBits(a[i]) != Double.doubleToLongBits(b[i])) return false;
+		}
+		return true;
+	}
+
+	public static LevelResult decodeResult(byte[] data) throws IOException {
+		Reader r = new Reader(data, KIND_RESULT);
+		ColumnarLevelResult result = new ColumnarLevelResult();
+		int nSeries = r.readCount();
+		double[] previousTimes = null;
+		for (int i = 0; i < nSeries; i++) {
+			String id = r.readString();
+			int size = r.readCount();
+			double[] t = r.readColumn(size, previousTimes);
+			double[] v = r.readColumn(size, null);
+			result.addSeries(id, t, v);
+			previousTimes = t;
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the body of a message.
+	 */
+	private static class Writer {
+		private byte[] buffer = new byte[8192];
+		private int size = 0;
+		private Map<String, Integer> strings = new HashMap<String, Integer>(); //The strings already written, with their position
+
+		public byte[] finish(byte kind, boolean compress) throws IOException {
+			if (!compress || size < COMPRESSION_THRESHOLD) { //The body is copied only once
+				byte[] message = new byte[MAGIC.length + 3 + size];
+				System.arraycopy(MAGIC, 0, message, 0, MAGIC.length);
+				message[MAGIC.length] = kind;
+				message[MAGIC.length + 1] = VERSION;
+				message[MAGIC.length + 2] = 0;
+				System.arraycopy(buffer, 0, message, MAGIC.length + 3, size);
+				return message;
+			}
+			ByteArrayOutputStream message = new ByteArrayOutputStream(size / 2 + 16);
+			message.write(MAGIC);
+			message.write(kind);
+			message.write(VERSION);
+			message.write(FLAG_COMPRESSED);
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			DeflaterOutputStream deflated = new DeflaterOutputStream(message, deflater, 65536);
+			deflated.write(buffer, 0, size);
+			deflated.close();
+			deflater.end();
+			return message.toByteArray();
+		}
+
+		private void ensureSpace(int n) {
+			if (size + n > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + n));
+			}
+		}
+
+		private void writeBytes(byte[] b) {
+			ensureSpace(b.length);
+			System.arraycopy(b, 0, buffer, size, b.length);
+			size += b.length;
+		}
+
+		private void writeDouble(double x) {
+			ensureSpace(8);
+			long bits = Double.doubleToLongBits(x);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				buffer[size++] = (byte)(bits >>> shift);
+			}
+		}
+
+		public void writeCount(long n) {
+			ensureSpace(10);
+			while ((n & ~0x7FL) != 0) {
+				buffer[size++] = (byte)((n & 0x7F) | 0x80);
+				n >>>= 7;
+			}
+			buffer[size++] = (byte)n;
+		}
+
+		public void writeSigned(long n) {
+			writeCount((n << 1) ^ (n >> 63)); //zig-zag: small negative numbers stay small
+		}
+
+		public void writeString(String s) {
+			Integer position = strings.get(s);
+			if (position != null) {
+				writeCount(position + 1);
+			} else {
+				writeCount(0);
+				byte[] utf = s.getBytes(UTF8);
+				writeCount(utf.length);
+				writeBytes(utf);
+				strings.put(s, strings.size());
+			}
+		}
+
+		public void writeEntities(Collection<? extends Entity> entities) throws IOException {
+			writeCount(entities.size());
+			for (Entity e : entities) {
+				writeString(e.getId());
+				writeBag(e.getProperties());
+			}
+		}
+
+		public void writeBag(PropertyBag bag) throws IOException {
+			List<Property> properties = new ArrayList<Property>();
+			for (Property p : bag) {
+				properties.add(p);
+			}
+			writeCount(properties.size());
+			for (Property p : properties) {
+				writeString(p.getName());
+				writeValue(p.isNull() ? null : p.as(Object.class));
+			}
+		}
+
+		public void writeValue(Object value) throws IOException {
+			if (value == null) {
+				writeCount(NULL);
+			} else if (value instanceof Integer) {
+				writeCount(INTEGER);
+				writeSigned((Integer)value);
+			} else if (value instanceof Long) {
+				writeCount(LONG);
+				writeSigned((Long)value);
+			} else if (value instanceof Double) {
+				writeCount(DOUBLE);
+				writeDouble((Double)value);
+			} else if (value instanceof Float) {
+				writeCount(FLOAT);
+				writeDouble((Float)value); //A float is exactly representable as a double
+			} else if (value instanceof Boolean) {
+				writeCount((Boolean)value ? TRUE : FALSE);
+			} else if (value instanceof String) {
+				writeCount(STRING);
+				writeString((String)value);
+			} else if (value instanceof Table) {
+				Table t = (Table)value;
+				writeCount(TABLE);
+				writeCount(t.getRowCount());
+				writeCount(t.getColumnCount());
+				for (int c = 0; c < t.getColumnCount(); c++) {
+					for (int x : t.getColumn(c)) {
+						writeSigned(x);
+					}
+				}
+			} else if (value instanceof List<?>) {
+				List<?> list = (List<?>)value;
+				writeCount(LIST);
+				writeCount(list.size());
+				for (Object o : list) {
+					writeValue(o);
+				}
+			} else if (value instanceof ReactantParameter) {
+				ReactantParameter par = (ReactantParameter)value;
+				writeCount(REACTANT_PARAMETER);
+				writeString(par.getReactantIdentifier());
+				writeString(par.getPropertyName());
+			} else if (value instanceof Serializable) { //Anything else goes the old way
+				writeCount(SERIALIZED);
+				ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+				ObjectOutputStream objects = new ObjectOutputStream(serialized);
+				objects.writeObject(value);
+				objects.close();
+				writeCount(serialized.size());
+				writeBytes(serialized.toByteArray());
+			} else {
+				throw new IOException("Cannot encode a value of type " + value.getClass().getName());
+			}
+		}
+
+		public void writeColumn(double[] column, int length) {
+			boolean integral = true;
+			for (int i = 0; i < length && integral; i++) {
+				double x = column[i];
+				integral = x == Math.rint(x) && Math.abs(x) < (1L << 52);
+			}
+			if (integral) {
+				writeCount(INTEGER_STEPS);
+				long previous = 0;
+				for (int i = 0; i < length; i++) {
+					long x = (long)column[i];
+					writeSigned(x - previous);
+					previous = x;
+				}
+			} else {
+				writeCount(RAW);
+				ensureSpace(8 * length);
+				for (int i = 0; i < length; i++) {
+					long bits = Double.doubleToLongBits(column[i]);
+					for (int shift = 56; shift >= 0; shift -= 8) {
+						buffer[size++] = (byte)(bits >>> shift);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the body of a message.
+	 */
+	private static class Reader {
+		private byte[] buffer;
+		private int position, limit;
+		private List<String> strings = new ArrayList<String>(); //The strings read up to now, in order
+
+		public Reader(byte[] data, byte expectedKind) throws IOException {
+			if (data.length < MAGIC.length + 3 || data[0] != MAGIC[0] || data[1] != MAGIC[1] || data[2] != MAGIC[2]) {
+				throw new IOException("Not an ANIMO message");
+			}
+			if (data[3] != expectedKind) {
+				throw new IOException("Unexpected message content: '" + (char)data[3] + "' instead of '" + (char)expectedKind + "'");
+			}
+			if (data[4] != VERSION) {
+				throw new IOException("Unsupported message format version " + data[4] + " (we know version " + VERSION + ")");
+			}
+			int headerLength = MAGIC.length + 3;
+			if ((data[5] & FLAG_COMPRESSED) != 0) {
+				Inflater inflater = new Inflater();
+				inflater.setInput(data, headerLength, data.length - headerLength);
+				buffer = new byte[Math.max(8192, 4 * data.length)];
+				limit = 0;
+				try {
+					while (!inflater.finished()) {
+						if (limit == buffer.length) {
+							buffer = Arrays.copyOf(buffer, buffer.length * 2);
+						}
+						int n = inflater.inflate(buffer, limit, buffer.length - limit);
+						if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+							throw new IOException("Truncated message");
+						}
+						limit += n;
+					}
+				} catch (DataFormatException ex) {
+					throw new IOException("Malformed compressed message: " + ex.getMessage());
+				} finally {
+					inflater.end();
+				}
+				position = 0;
+			} else {
+				buffer = data;
+				position = headerLength;
+				limit = data.length;
+			}
+		}
+
+		private void need(int n) throws IOException {
+			if (limit - position < n) throw new IOException("Truncated message");
+		}
+
+		private double readDouble() throws IOException {
+			need(8);
+			long bits = 0;
+			for (int i = 0; i < 8; i++) {
+				bits = (bits << 8) | (buffer[position++] & 0xFF);
+			}
+			return Double.longBitsToDouble(bits);
+		}
+
+		public long readLong() throws IOException {
+			long n = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				need(1);
+				int b = buffer[position++] & 0xFF;
+				n |= (long)(b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return n;
+			}
+			throw new IOException("Malformed number");
+		}
+
+		public int readCount() throws IOException {
+			long n = readLong();
+			if (n < 0 || n > Integer.MAX_VALUE) throw new IOException("Malformed count: " + n);
+			return (int)n;
+		}
+
+		public long readSigned() throws IOException {
+			long n = readLong();
+			return (n >>> 1) ^ -(n & 1);
+		}
+
+		public String readString() throws IOException {
+			int reference = readCount();
+			if (reference == 0) {
+				int length = readCount();
+				need(length);
+				String s = new String(buffer, position, length, UTF8);
+				position += length;
+				strings.add(s);
+				return s;
+			}
+			if (reference > strings.size()) throw new IOException("Malformed string reference: " + reference);
+			return strings.get(reference - 1);
+		}
+
+		public void readBag(PropertyBag bag) throws IOException {
+			int n = readCount();
+			for (int i = 0; i < n; i++) {
+				String name = readString();
+				bag.let(name).be(readValue());
+			}
+		}
+
+		public Object readValue() throws IOException {
+			int type = readCount();
+			switch (type) {
+				case NULL:
+					return null;
+				case INTEGER:
+					return (int)readSigned();
+				case LONG:
+					return readSigned();
+				case DOUBLE:
+					return readDouble();
+				case FLOAT:
+					return (float)readDouble();
+				case TRUE:
+					return true;
+				case FALSE:
+					return false;
+				case STRING:
+					return readString();
+				case TABLE:
+					int rows = readCount(),
+						cols = readCount();
+					Table t = new Table(rows, cols);
+					for (int c = 0; c < cols; c++) {
+						for (int r = 0; r < rows; r++) {
+							t.set(r, c, (int)readSigned());
+						}
+					}
+					return t;
+				case LIST:
+					int size = readCount();
+					Vector<Object> list = new Vector<Object>(size);
+					for (int i = 0; i < size; i++) {
+						list.add(readValue());
+					}
+					return list;
+				case REACTANT_PARAMETER:
+					String reactant = readString();
+					return new ReactantParameter(reactant, readString());
+				case SERIALIZED:
+					int length = readCount();
+					need(length);
+					ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(buffer, position, length));
+					position += length;
+					try {
+						return objects.readObject();
+					} catch (ClassNotFoundException ex) {
+						throw new IOException("Cannot decode a value: " + ex.getMessage());
+					} finally {
+						objects.close();
+					}
+				default:
+					throw new IOException("Unknown value type " + type);
+			}
+		}
+
+		/**
+		 * @param previous The previous column, which is returned if the message says that this column is the same
+		 */
+		public double[] readColumn(int size, double[] previous) throws IOException {
+			int encoding = readCount();
+			switch (encoding) {
+				case SAME_AS_PREVIOUS:
+					if (previous == null || previous.length != size) throw new IOException("Malformed column reference");
+					return previous;
+				case INTEGER_STEPS:
+					double[] column = new double[size];
+					long x = 0;
+					for (int i = 0; i < size; i++) {
+						x += readSigned();
+						column[i] = x;
+					}
+					return column;
+				case RAW:
+					need(8 * size);
+					double[] raw = new double[size];
+					for (int i = 0; i < size; i++) {
+						long bits = 0;
+						for (int j = 0; j < 8; j++) {
+							bits = (bits << 8) | (buffer[position++] & 0xFF);
+						}
+						raw[i] = Double.longBitsToDouble(bits);
+					}
+					return raw;
+				default:
+					throw new IOException("Unknown column encoding " + encoding);
+			}
+		}
+	}
+}
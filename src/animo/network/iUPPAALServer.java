@@ -7,11 +7,37 @@ import animo.analyser.SMCResult;
 import animo.model.Model;
 
 /**
- * Remotely accessible features: simulation run or SMC analysis
+ * Remotely accessible features: simulation run or SMC analysis.
+ * A simulation analysis can also be submitted as a job, whose progress can be
+ * followed (and which can be cancelled) without keeping a call open.
  */
 public interface iUPPAALServer extends Remote {
 	
 	public LevelResult analyze(Model m, int timeTo, int nSimulationRuns, boolean computeStdDev) throws Exception;
 	
 	public SMCResult analyze(Model m, String smcQuery) throws Exception;
+	
+	/**
+	 * Queue a simulation analysis (see analyze) and return immediately.
+	 * The model is sent in the WireFormat, and so is the result given by getJobStatus.
+	 * @param shard The index of this part of an average divided among more servers (0 if the average is not divided).
+	 * Each part is cached separately: otherwise two parts with the same number of runs would get the same runs.
+	 * @return The identifier of the job, to be used with getJobStatus and cancelJob
+	 */
+	public long submitAnalysis(ModelMessage m, int timeTo, int nSimulationRuns, boolean computeStdDev, int shard) throws Exception;
+	
+	/**
+	 * @param jobId The identifier of a job
+	 * @param withPartialResult Whether to include the average of the simulation runs completed up to now
+	 * @return The state of the job. Once the job is finished, its result (or error) is given only once, when
+	 * asked without the partial result: afterwards the job is forgotten.
+	 */
+	public JobStatus getJobStatus(long jobId, boolean withPartialResult) throws Exception;
+	
+	/**
+	 * Cancel a job, stopping its verifyta processes if it is running.
+	 * @param jobId The identifier of the job
+	 * @return false if the job was already finished or unknown
+	 */
+	public boolean cancelJob(long jobId) throws Exception;
 }
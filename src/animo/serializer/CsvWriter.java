@@ -10,6 +10,7 @@ import java.text.DecimalFormatSymbols;
 import java.util.Locale;
 import java.util.Set;
 
+import animo.analyser.LevelCursor;
 import animo.analyser.LevelResult;
 import animo.model.Model;
 import animo.model.Property;
@@ -95,11 +96,16 @@ public class CsvWriter {
 		*/
 		DecimalFormat formatter = new DecimalFormat("#.####", new DecimalFormatSymbols(Locale.US));
         
+		// time indices are sorted, so we can read each series with a cursor instead of searching it at each row
+		LevelCursor[] cursors = new LevelCursor[rids.size()];
+		int i = 0;
+		for (String rid : rids) {
+			cursors[i++] = r.getCursor(rid);
+		}
 		for (double t : r.getTimeIndices()) {
 			bw.write(formatter.format(t));
-			for (String rid : rids) {
-				// determine official name and output it
-				bw.write(", " + formatter.format(r.getConcentration(rid, t)));
+			for (LevelCursor cursor : cursors) {
+				bw.write(", " + formatter.format(cursor.getConcentration(t)));
 			}
 			bw.newLine();
 		}
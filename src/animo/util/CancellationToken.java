@@ -0,0 +1,55 @@
+package animo.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tells whether an operation has been cancelled, and lets whoever is running it be notified
+ * immediately when this happens (e.g. to stop an external process), instead of having to check
+ * every now and then.
+ */
+public class CancellationToken {
+	private volatile boolean cancelled = false;
+	private List<Runnable> listeners = new ArrayList<Runnable>();
+
+	/**
+	 * Cancel the operation: all listeners are called (once), in the thread calling this method.
+	 */
+	public void cancel() {
+		List<Runnable> toCall;
+		synchronized (this) {
+			if (cancelled) return;
+			cancelled = true;
+			toCall = new ArrayList<Runnable>(listeners);
+			listeners.clear();
+		}
+		for (Runnable r : toCall) {
+			try {
+				r.run();
+			} catch (RuntimeException ex) {
+				System.err.println("Error while cancelling: " + ex);
+			}
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @param listener What to do when the operation is cancelled. If it already was, the listener is called immediately.
+	 */
+	public void addListener(Runnable listener) {
+		synchronized (this) {
+			if (!cancelled) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+
+	public synchronized void removeListener(Runnable listener) {
+		listeners.remove(listener);
+	}
+}
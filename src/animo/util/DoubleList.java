@@ -0,0 +1,108 @@
+package animo.util;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of doubles backed by a primitive array.
+ * It can be used wherever a List<Double> is expected, but the values are
+ * kept unboxed, and the primitive accessors avoid boxing altogether.
+ */
+public class DoubleList extends AbstractList<Double> implements RandomAccess, Serializable {
+	private static final long serialVersionUID = 2716460380938765170L;
+	private final double[] values;
+
+	/**
+	 * @param values The values of the list. The array is not copied, so it must not be changed afterwards.
+	 */
+	public DoubleList(double[] values) {
+		this.values = values;
+	}
+
+	@Override
+	public Double get(int index) {
+		return values[index];
+	}
+
+	/**
+	 * Same as get, without boxing the value.
+	 */
+	public double getDouble(int index) {
+		return values[index];
+	}
+
+	@Override
+	public int size() {
+		return values.length;
+	}
+
+	/**
+	 * @return The first value in the list (the list must not be empty)
+	 */
+	public double first() {
+		return values[0];
+	}
+
+	/**
+	 * @return The last value in the list (the list must not be empty)
+	 */
+	public double last() {
+		return values[values.length - 1];
+	}
+
+	/**
+	 * @return A copy of the values in the list
+	 */
+	public double[] toDoubleArray() {
+		return values.clone();
+	}
+
+	/**
+	 * Find the given value in the list, which is assumed to be sorted.
+	 * @return The same as Arrays.binarySearch
+	 */
+	public int binarySearch(double value) {
+		return Arrays.binarySearch(values, value);
+	}
+
+	/**
+	 * Build the sorted union (without repetitions) of the given sorted arrays.
+	 * Arrays which appear more than once (the same object, not only the same contents) are read only once.
+	 * @param arrays The sorted arrays
+	 * @param lengths For each array, how many of its elements are to be considered
+	 * @return The sorted list of all distinct values found in the arrays
+	 */
+	public static DoubleList union(double[][] arrays, int[] lengths) {
+		Map<double[], Integer> distinct = new IdentityHashMap<double[], Integer>();
+		int total = 0;
+		for (int i=0;i<arrays.length;i++) {
+			Integer previous = distinct.get(arrays[i]);
+			if (previous == null || previous < lengths[i]) {
+				distinct.put(arrays[i], lengths[i]);
+			}
+		}
+		for (Integer l : distinct.values()) {
+			total += l;
+		}
+		double[] all = new double[total];
+		int pos = 0;
+		for (Map.Entry<double[], Integer> e : distinct.entrySet()) {
+			System.arraycopy(e.getKey(), 0, all, pos, e.getValue());
+			pos += e.getValue();
+		}
+		if (distinct.size() > 1) {
+			Arrays.sort(all);
+		}
+		int unique = 0;
+		for (int i=0;i<all.length;i++) {
+			if (unique == 0 || all[i] != all[unique - 1]) {
+				all[unique++] = all[i];
+			}
+		}
+		return new DoubleList(unique == all.length ? all : Arrays.copyOf(all, unique));
+	}
+}
@@ -0,0 +1,78 @@
+package animo.util;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measures how long the phases of a longer operation take (e.g. the generation of a model),
+ * so that they can be reported separately. Phases are measured one after the other: starting a
+ * phase ends the previous one. Starting again a phase with the same name adds to its time.
+ */
+public class PhaseTimer {
+	private LinkedHashMap<String, Long> times = new LinkedHashMap<String, Long>(); //Phase name -> nanoseconds, in the order in which phases were first started
+	private String current = null;
+	private long currentStart = 0;
+
+	/**
+	 * End the current phase (if any) and start a new one.
+	 * @param phase The name of the phase
+	 */
+	public void start(String phase) {
+		stop();
+		current = phase;
+		currentStart = System.nanoTime();
+	}
+
+	/**
+	 * End the current phase.
+	 */
+	public void stop() {
+		if (current == null) return;
+		add(current, System.nanoTime() - currentStart);
+		current = null;
+	}
+
+	/**
+	 * Add the given time to a phase.
+	 * @param phase The name of the phase
+	 * @param nanos The time to add, in nanoseconds
+	 */
+	public void add(String phase, long nanos) {
+		Long previous = times.get(phase);
+		times.put(phase, (previous == null) ? nanos : previous + nanos);
+	}
+
+	/**
+	 * @param phase The name of a phase
+	 * @return The time spent in the phase, in milliseconds (0 if the phase was never started)
+	 */
+	public double getMillis(String phase) {
+		Long t = times.get(phase);
+		return (t == null) ? 0 : t / 1e6;
+	}
+
+	/**
+	 * @return The total time of all the phases, in milliseconds
+	 */
+	public double getTotalMillis() {
+		long total = 0;
+		for (long t : times.values()) {
+			total += t;
+		}
+		return total / 1e6;
+	}
+
+	/**
+	 * @return The times of all phases, e.g. "nodes: 12.0 ms, edges: 30.5 ms"
+	 */
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		for (Map.Entry<String, Long> e : times.entrySet()) {
+			if (b.length() > 0) b.append(", ");
+			b.append(e.getKey()).append(": ").append(String.format(Locale.US, "%.1f ms", e.getValue() / 1e6));
+		}
+		return b.toString();
+	}
+}
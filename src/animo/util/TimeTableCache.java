@@ -0,0 +1,153 @@
+package animo.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps the time tables computed for the reactions of a model, so that they don't need to be
+ * computed again when the model is analysed again without changes to the corresponding reactions.
+ * The tables are indexed by their content: the key is made of everything the values in the tables
+ * depend on (scenario or formula, parameter values, number of levels, scale factors, uncertainty),
+ * so an entry never needs to be invalidated. Only the least recently used tables are thrown away
+ * when the total number of cells goes over the given limit.
+ * The cached tables are shared by all the models built from them: they must not be modified.
+ */
+public class TimeTableCache {
+	public static final int DEFAULT_MAX_CELLS = 8 * 1024 * 1024; //About 32 MB of int values
+	private static TimeTableCache shared = null;
+
+	private int maxCells; //The maximum total number of values in the cached tables
+	private long cells = 0; //The current total number of values in the cached tables
+	private int hits = 0, misses = 0;
+	private LinkedHashMap<String, TimeTables<?>> entries = new LinkedHashMap<String, TimeTables<?>>(16, 0.75f, true); //in access order, so the eldest entry is the least recently used one
+
+	/**
+	 * The pair of time tables (lower and upper bounds) of a reaction.
+	 * @param <T> The type used for the tables (Table for normal reactions, a List for user-defined formulae)
+	 */
+	public static class TimeTables<T> {
+		private T lower, upper;
+		private List<Integer> dimensions;
+		private int size;
+
+		/**
+		 * @param lower The table with the lower bounds
+		 * @param upper The table with the upper bounds
+		 * @param dimensions The dimensions of the tables
+		 * @param size The number of values in each table
+		 */
+		public TimeTables(T lower, T upper, List<Integer> dimensions, int size) {
+			this.lower = lower;
+			this.upper = upper;
+			this.dimensions = dimensions;
+			this.size = size;
+		}
+
+		public T getLower() {
+			return lower;
+		}
+
+		public T getUpper() {
+			return upper;
+		}
+
+		public List<Integer> getDimensions() {
+			return dimensions;
+		}
+
+		public int getSize() {
+			return size;
+		}
+	}
+
+	public TimeTableCache(int maxCells) {
+		this.maxCells = maxCells;
+	}
+
+	/**
+	 * @return The cache used by all analyses started from the user interface
+	 */
+	public static synchronized TimeTableCache getShared() {
+		if (shared == null) {
+			shared = new TimeTableCache(DEFAULT_MAX_CELLS);
+		}
+		return shared;
+	}
+
+	/**
+	 * Build a key from the given values. Maps are read in the order of their keys, so that
+	 * two maps with the same content give the same key.
+	 * @param parts All the values on which the content of the tables depends
+	 * @return The key
+	 */
+	public static String key(Object... parts) {
+		StringBuilder b = new StringBuilder();
+		for (Object p : parts) {
+			String s;
+			if (p instanceof Map<?, ?>) {
+				s = new TreeMap<Object, Object>((Map<?, ?>)p).toString();
+			} else {
+				s = String.valueOf(p);
+			}
+			b.append(s.length()).append(':').append(s); //the length makes the key unambiguous whatever the values contain
+		}
+		return b.toString();
+	}
+
+	/**
+	 * @param key The key, as built by key()
+	 * @return The tables stored with the given key, or null if we don't have them
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> TimeTables<T> get(String key) {
+		TimeTables<T> tables = (TimeTables<T>)entries.get(key);
+		if (tables == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return tables;
+	}
+
+	/**
+	 * Store the given tables, throwing away the least recently used ones if we are over the limit.
+	 * Tables larger than the whole cache are not stored.
+	 */
+	public synchronized void put(String key, TimeTables<?> tables) {
+		long size = 2L * tables.getSize();
+		if (size > maxCells) return;
+		TimeTables<?> old = entries.put(key, tables);
+		if (old != null) {
+			cells -= 2L * old.getSize();
+		}
+		cells += size;
+		Iterator<TimeTables<?>> eldest = entries.values().iterator();
+		while (cells > maxCells && eldest.hasNext()) {
+			cells -= 2L * eldest.next().getSize();
+			eldest.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		cells = 0;
+	}
+
+	/**
+	 * @return A short description of the use of the cache, e.g. for the log
+	 */
+	public synchronized String getStatistics() {
+		return hits + " reused, " + misses + " computed, " + entries.size() + " tables (" + cells + " values) in cache";
+	}
+
+	/**
+	 * Reset the counters of reused and computed tables.
+	 */
+	public synchronized void resetStatistics() {
+		hits = 0;
+		misses = 0;
+	}
+}
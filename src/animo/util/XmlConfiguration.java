@@ -49,6 +49,85 @@ public class XmlConfiguration {
 	 * The configuration key for the tracer path property.
 	 */
 	public static final String TRACER_KEY = "/ANIMO/UppaalInvoker/tracer";
+
+	/**
+	 * The configuration key for the number of simulation runs that can be
+	 * executed at the same time when computing an average. If absent, we use
+	 * as many workers as there are available processors.
+	 */
+	public static final String AVERAGE_WORKERS_KEY = "/ANIMO/UppaalInvoker/averageWorkers";
+
+	/**
+	 * The configuration key for the number of simulation runs to be obtained from a
+	 * single verifyta process (SMC engine) when computing an average.
+	 */
+	public static final String AVERAGE_BATCH_KEY = "/ANIMO/UppaalInvoker/averageBatchSize";
+
+	/**
+	 * The configuration key for the engine used to perform simulations: "uppaal" (the default)
+	 * translates the model for verifyta, "java" simulates it directly with the StochasticSimulator.
+	 */
+	public static final String SIMULATION_ENGINE_KEY = "/ANIMO/UppaalInvoker/simulationEngine";
+
+	/**
+	 * The configuration key for the maximum number of verifyta processes that the
+	 * analysis server runs at the same time. If absent, we use the number of available
+	 * processors.
+	 */
+	public static final String SERVER_MAX_PROCESSES_KEY = "/ANIMO/UppaalInvoker/serverMaxProcesses";
+
+	/**
+	 * The configuration key for the maximum number of jobs waiting on the analysis
+	 * server: further jobs are refused until some of them have started.
+	 */
+	public static final String SERVER_MAX_QUEUED_KEY = "/ANIMO/UppaalInvoker/serverMaxQueuedJobs";
+
+	/**
+	 * The configuration key for the number of analysis results that the server
+	 * keeps in memory, to answer repeated requests immediately (0 to keep none).
+	 */
+	public static final String SERVER_CACHE_SIZE_KEY = "/ANIMO/UppaalInvoker/serverCacheSize";
+
+	/**
+	 * The configuration key for the number of minutes for which the server keeps
+	 * the results of analyses.
+	 */
+	public static final String SERVER_CACHE_MINUTES_KEY = "/ANIMO/UppaalInvoker/serverCacheMinutes";
+
+	/**
+	 * The configuration key for the directory in which the server writes the results
+	 * of analyses, so that they are kept also after a restart. If absent, results are
+	 * kept only in memory.
+	 */
+	public static final String SERVER_CACHE_DIRECTORY_KEY = "/ANIMO/UppaalInvoker/serverCacheDirectory";
+	
+	/**
+	 * The configuration key for the compression of the models and results sent between
+	 * client and server. If this is "true", both are compressed; if "false", neither is.
+	 * By default, only the models are compressed: the values of an average compress badly,
+	 * and the (partial) results are sent often.
+	 */
+	public static final String WIRE_COMPRESSION_KEY = "/ANIMO/UppaalInvoker/wireCompression";
+	
+	/**
+	 * The configuration key for the indentation of the UPPAAL models we generate.
+	 * If "true", the models are easier to read (e.g. for debugging), but take longer to generate.
+	 */
+	public static final String PRETTY_PRINT_MODEL_KEY = "/ANIMO/UppaalInvoker/prettyPrintModel";
+	
+	/**
+	 * The configuration key for the way models and queries are given to verifyta: "files" (normal
+	 * temporary files, the default), "memory" (files in a directory kept in memory, e.g. /dev/shm) or
+	 * "pipes" (named pipes, so that nothing is written anywhere). See animo.analyser.uppaal.VerifytaInput.
+	 */
+	public static final String MODEL_IO_KEY = "/ANIMO/UppaalInvoker/modelIO";
+	
+	/**
+	 * The configuration key for the directory where the files given to verifyta are written.
+	 * If it is not given, the system temporary directory is used (or a directory in memory,
+	 * depending on MODEL_IO_KEY).
+	 */
+	public static final String TEMPORARY_DIRECTORY_KEY = "/ANIMO/UppaalInvoker/temporary";
 	
 	
 	/**